@@ -0,0 +1,189 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.prelert.job.transform.condition.CompiledCondition;
+import com.prelert.job.transform.condition.Condition;
+import com.prelert.job.transform.condition.Operator;
+
+/**
+ * JMH measurement of the cost of evaluating an exclude condition for one
+ * record with a {@linkplain CompiledCondition} compared to parsing the
+ * filter value and compiling the regex for each record. Each operation
+ * tests the next value of a pool of {@value #POOL_SIZE} so the data stays
+ * in cache and the evaluation, not memory, is measured.
+ * <br>
+ * Usage: <code>java -jar target/benchmarks.jar ConditionBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ConditionBenchmark
+{
+    private static final int POOL_SIZE = 1 << 16;
+    private static final int POOL_MASK = POOL_SIZE - 1;
+
+    private static final String THRESHOLD = "50000.5";
+    private static final String REGEX = "host1\\d*\\.dc[0-4]\\.example\\.com";
+
+    private String [] m_Numbers;
+    private double [] m_Parsed;
+    private String [] m_Hosts;
+    private Pool m_NumberBytes;
+    private Pool m_HostBytes;
+
+    private CompiledCondition m_Gt;
+    private CompiledCondition m_Lt;
+    private CompiledCondition m_Match;
+
+    private int m_Record;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        m_Numbers = new String[POOL_SIZE];
+        m_Parsed = new double[POOL_SIZE];
+        m_Hosts = new String[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++)
+        {
+            m_Numbers[i] = Integer.toString(random.nextInt(100000)) + "." + random.nextInt(100);
+            m_Parsed[i] = Double.parseDouble(m_Numbers[i]);
+            m_Hosts[i] = "host" + random.nextInt(1000) + ".dc" + random.nextInt(10) + ".example.com";
+        }
+        m_NumberBytes = new Pool(m_Numbers);
+        m_HostBytes = new Pool(m_Hosts);
+
+        m_Gt = new CompiledCondition(new Condition(Operator.GT, THRESHOLD));
+        m_Lt = new CompiledCondition(new Condition(Operator.LT, THRESHOLD));
+        m_Match = new CompiledCondition(new Condition(Operator.MATCH, REGEX));
+    }
+
+    private int nextRecord()
+    {
+        m_Record = (m_Record + 1) & POOL_MASK;
+        return m_Record;
+    }
+
+    @Benchmark
+    public boolean gtUncompiledBytes()
+    {
+        return Operator.GT.test(Double.parseDouble(m_NumberBytes.string(nextRecord())),
+                Double.parseDouble(THRESHOLD));
+    }
+
+    @Benchmark
+    public boolean gtCompiledBytes()
+    {
+        int r = nextRecord();
+        return m_Gt.test(m_NumberBytes.m_Data, m_NumberBytes.offset(r), m_NumberBytes.length(r));
+    }
+
+    @Benchmark
+    public boolean ltCompiledCharSequence()
+    {
+        return m_Lt.test(m_Numbers[nextRecord()]);
+    }
+
+    @Benchmark
+    public boolean ltCompiledDouble()
+    {
+        return m_Lt.test(m_Parsed[nextRecord()]);
+    }
+
+    @Benchmark
+    public boolean matchUncompiledString()
+    {
+        return Operator.MATCH.match(Pattern.compile(REGEX), m_Hosts[nextRecord()]);
+    }
+
+    @Benchmark
+    public boolean matchCompiledCharSequence()
+    {
+        return m_Match.test(m_Hosts[nextRecord()]);
+    }
+
+    @Benchmark
+    public boolean matchCompiledBytes()
+    {
+        int r = nextRecord();
+        return m_Match.test(m_HostBytes.m_Data, m_HostBytes.offset(r), m_HostBytes.length(r));
+    }
+
+    /**
+     * The UTF-8 bytes of a pool of values end to end, as they would be
+     * in an upload buffer
+     */
+    private static final class Pool
+    {
+        private final byte [] m_Data;
+        private final int [] m_Offsets = new int[POOL_SIZE + 1];
+
+        Pool(String [] values)
+        {
+            byte [][] encoded = new byte[values.length][];
+            int length = 0;
+            for (int i = 0; i < values.length; i++)
+            {
+                encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                length += encoded[i].length;
+            }
+            m_Data = new byte[length];
+            for (int i = 0; i < values.length; i++)
+            {
+                System.arraycopy(encoded[i], 0, m_Data, m_Offsets[i], encoded[i].length);
+                m_Offsets[i + 1] = m_Offsets[i] + encoded[i].length;
+            }
+        }
+
+        int offset(int record)
+        {
+            return m_Offsets[record & POOL_MASK];
+        }
+
+        int length(int record)
+        {
+            int i = record & POOL_MASK;
+            return m_Offsets[i + 1] - m_Offsets[i];
+        }
+
+        String string(int record)
+        {
+            return new String(m_Data, offset(record), length(record), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.prelert.job.AnalysisConfig;
+import com.prelert.job.DataDescription;
+import com.prelert.job.Detector;
+import com.prelert.job.JobConfiguration;
+import com.prelert.job.JobDetails;
+import com.prelert.job.results.Bucket;
+import com.prelert.rs.data.Pagination;
+import com.prelert.rs.data.SingleDocument;
+
+/**
+ * JMH comparison of reading and writing with a new <code>TypeReference</code>
+ * per call, as the client used to, against pre-built
+ * <code>ObjectReader</code> and <code>ObjectWriter</code> instances.
+ * Small documents are used as that is where the per call type
+ * resolution is a significant part of the cost.
+ * <br>
+ * Usage: <code>java -jar target/benchmarks.jar JsonCodecBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JsonCodecBenchmark
+{
+    private ObjectMapper m_Mapper;
+    private byte [] m_BucketsPage;
+    private byte [] m_JobDocument;
+    private JobConfiguration m_JobConfig;
+
+    private ObjectReader m_BucketsReader;
+    private ObjectReader m_JobReader;
+    private ObjectWriter m_JobConfigWriter;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        m_Mapper = new ObjectMapper();
+        m_Mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+        m_BucketsPage = m_Mapper.writeValueAsBytes(ResponseDecodingBenchmark.createPage(5, 2));
+
+        SingleDocument<JobDetails> doc = new SingleDocument<>();
+        doc.setDocument(new JobDetails("farequote", createJobConfig()));
+        doc.setExists(true);
+        doc.setDocumentId("farequote");
+        m_JobDocument = m_Mapper.writeValueAsBytes(doc);
+
+        m_JobConfig = createJobConfig();
+
+        m_BucketsReader = m_Mapper.reader(new TypeReference<Pagination<Bucket>>() {});
+        m_JobReader = m_Mapper.reader(new TypeReference<SingleDocument<JobDetails>>() {});
+        m_JobConfigWriter = m_Mapper.writerFor(JobConfiguration.class);
+    }
+
+    @Benchmark
+    public Pagination<Bucket> bucketsTypeReference() throws IOException
+    {
+        return m_Mapper.readValue(m_BucketsPage, new TypeReference<Pagination<Bucket>>() {});
+    }
+
+    @Benchmark
+    public Pagination<Bucket> bucketsObjectReader() throws IOException
+    {
+        return m_BucketsReader.readValue(m_BucketsPage);
+    }
+
+    @Benchmark
+    public SingleDocument<JobDetails> jobTypeReference() throws IOException
+    {
+        return m_Mapper.readValue(m_JobDocument,
+                new TypeReference<SingleDocument<JobDetails>>() {});
+    }
+
+    @Benchmark
+    public SingleDocument<JobDetails> jobObjectReader() throws IOException
+    {
+        return m_JobReader.readValue(m_JobDocument);
+    }
+
+    @Benchmark
+    public String jobConfigObjectMapper() throws IOException
+    {
+        return m_Mapper.writeValueAsString(m_JobConfig);
+    }
+
+    @Benchmark
+    public String jobConfigObjectWriter() throws IOException
+    {
+        return m_JobConfigWriter.writeValueAsString(m_JobConfig);
+    }
+
+    private static JobConfiguration createJobConfig()
+    {
+        Detector detector = new Detector();
+        detector.setFunction("mean");
+        detector.setFieldName("responsetime");
+        detector.setByFieldName("airline");
+
+        AnalysisConfig analysisConfig = new AnalysisConfig();
+        analysisConfig.setBucketSpan(3600L);
+        analysisConfig.setDetectors(Arrays.asList(detector));
+
+        DataDescription dataDescription = new DataDescription();
+        dataDescription.setFormat(DataDescription.DataFormat.DELIMITED);
+        dataDescription.setTimeField("time");
+        dataDescription.setTimeFormat("yyyy-MM-dd HH:mm:ssX");
+
+        JobConfiguration jobConfig = new JobConfiguration();
+        jobConfig.setDescription("Farequote benchmark job");
+        jobConfig.setAnalysisConfig(analysisConfig);
+        jobConfig.setDataDescription(dataDescription);
+        return jobConfig;
+    }
+}
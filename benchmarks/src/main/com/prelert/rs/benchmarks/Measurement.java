@@ -0,0 +1,103 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Time and bytes allocated by the current thread for a number of
+ * iterations of a task. Allocated bytes are measured with
+ * <code>com.sun.management.ThreadMXBean</code> so a HotSpot JVM is
+ * required for the allocation figures.
+ */
+final class Measurement
+{
+    @FunctionalInterface
+    interface Task
+    {
+        /**
+         * @return The result of the operation, it is consumed so
+         * the JIT cannot eliminate the work
+         */
+        Object run() throws IOException;
+    }
+
+    private final long m_AllocatedBytes;
+    private final long m_ElapsedNanos;
+    private final int m_Iterations;
+
+    private Measurement(long allocatedBytes, long elapsedNanos, int iterations)
+    {
+        m_AllocatedBytes = allocatedBytes;
+        m_ElapsedNanos = elapsedNanos;
+        m_Iterations = iterations;
+    }
+
+    /**
+     * Run <code>task</code> <code>iterations</code> times
+     */
+    static Measurement run(int iterations, Task task) throws IOException
+    {
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++)
+        {
+            sink += System.identityHashCode(task.run());
+        }
+        long elapsed = System.nanoTime() - start;
+        long endBytes = allocatedBytes();
+
+        if (sink == 42)
+        {
+            System.out.print("");
+        }
+        return new Measurement(startBytes < 0 ? -1 : endBytes - startBytes, elapsed, iterations);
+    }
+
+    double nanosPerOperation()
+    {
+        return (double) m_ElapsedNanos / m_Iterations;
+    }
+
+    /**
+     * Print the bytes allocated and time taken per operation
+     */
+    void report(String name)
+    {
+        String allocated = m_AllocatedBytes < 0 ? "n/a" :
+                String.format("%,d", m_AllocatedBytes / m_Iterations);
+        double nanosPerOp = nanosPerOperation();
+        String time = nanosPerOp >= 1e6 ? String.format("%10.2f ms/op", nanosPerOp / 1e6)
+                : String.format("%10.0f ns/op", nanosPerOp);
+        System.out.println(String.format("%-32s %14s bytes/op %s", name, allocated, time));
+    }
+
+    private static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
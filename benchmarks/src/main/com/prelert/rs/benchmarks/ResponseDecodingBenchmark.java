@@ -0,0 +1,167 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prelert.job.results.AnomalyRecord;
+import com.prelert.job.results.Bucket;
+import com.prelert.rs.client.EngineApiClient;
+import com.prelert.rs.data.Pagination;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Compares the allocation and time cost of getting a large page of
+ * buckets with {@linkplain EngineApiClient}, which parses the response
+ * entity's content stream with a pre-built reader, against reading the
+ * response into a <code>String</code> and parsing that with a new
+ * <code>TypeReference</code> (the old client behaviour).
+ * <br>
+ * Both fetch the page from a local HTTP server so the cost of the
+ * transport is the same and the difference is the decoding. Only the
+ * calling thread's allocations are counted, not the server's.
+ * <br>
+ * Usage: <code>ResponseDecodingBenchmark [bucketCount [recordsPerBucket [iterations]]]</code>
+ */
+public class ResponseDecodingBenchmark
+{
+    private static final String JOB_ID = "farequote";
+
+    @FunctionalInterface
+    private interface Decoder
+    {
+        Pagination<Bucket> get() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int bucketCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int recordsPerBucket = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+        byte [] content = mapper.writeValueAsBytes(createPage(bucketCount, recordsPerBucket));
+        System.out.println(String.format("Response size %d bytes, %d buckets, %d records",
+                content.length, bucketCount, bucketCount * recordsPerBucket));
+
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange ->
+        {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream body = exchange.getResponseBody())
+            {
+                body.write(content);
+            }
+        });
+        server.start();
+
+        String baseUrl = "http://localhost:" + server.getAddress().getPort() + "/engine/v1";
+        try (EngineApiClient client = new EngineApiClient(baseUrl);
+             CloseableHttpClient httpClient = HttpClients.createDefault())
+        {
+            String url = baseUrl + "/results/" + JOB_ID + "/buckets?take=" + bucketCount;
+            Decoder viaString = () ->
+            {
+                try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url)))
+                {
+                    return mapper.readValue(EntityUtils.toString(response.getEntity()),
+                            new TypeReference<Pagination<Bucket>>() {});
+                }
+            };
+            Decoder viaClient = () -> client.prepareGetBuckets(JOB_ID).take(bucketCount).get();
+
+            // warm up both paths before measuring either
+            run(viaString, iterations);
+            run(viaClient, iterations);
+
+            run(viaString, iterations).report("EntityUtils.toString");
+            run(viaClient, iterations).report("EngineApiClient buckets");
+        }
+        finally
+        {
+            server.stop(0);
+        }
+    }
+
+    static Pagination<Bucket> createPage(int bucketCount, int recordsPerBucket)
+    {
+        long time = System.currentTimeMillis();
+        List<Bucket> buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++)
+        {
+            Bucket bucket = new Bucket();
+            bucket.setTimestamp(new Date(time + i * 300000L));
+            bucket.setId(Long.toString(bucket.getTimestamp().getTime() / 1000));
+            bucket.setAnomalyScore(i % 100);
+            bucket.setMaxNormalizedProbability(i % 100);
+            bucket.setRawAnomalyScore(i * 0.001);
+            bucket.setEventCount(1000 + i);
+
+            List<AnomalyRecord> records = new ArrayList<>(recordsPerBucket);
+            for (int j = 0; j < recordsPerBucket; j++)
+            {
+                AnomalyRecord record = new AnomalyRecord();
+                record.setTimestamp(bucket.getTimestamp());
+                record.setProbability(1.0 / (j + 2));
+                record.setAnomalyScore(j);
+                record.setNormalizedProbability(j);
+                record.setFunction("mean");
+                record.setFieldName("responsetime");
+                record.setByFieldName("airline");
+                record.setByFieldValue("AAL" + j);
+                record.setTypical(100.0 + j);
+                record.setActual(150.0 + j);
+                records.add(record);
+            }
+            bucket.setRecords(records);
+            bucket.setRecordCount(records.size());
+            buckets.add(bucket);
+        }
+
+        Pagination<Bucket> page = new Pagination<>();
+        page.setDocuments(buckets);
+        page.setHitCount(bucketCount);
+        page.setTake(bucketCount);
+        return page;
+    }
+
+    private static Measurement run(Decoder decoder, int iterations) throws IOException
+    {
+        return Measurement.run(iterations, decoder::get);
+    }
+}
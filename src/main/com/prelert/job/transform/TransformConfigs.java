@@ -74,9 +74,10 @@ public class TransformConfigs
      * This might be because a transform's input is its output
      * or because of a transitive dependency.
      *
-     * If there is a circular dependency the index of the transform
-     * in the <code>transforms</code> list at the start of the chain
-     * is returned else -1
+     * If there is a circular dependency the index of a transform
+     * in the <code>transforms</code> list in the circular chain
+     * is returned else -1. {@linkplain TransformPlan#plan(List)}
+     * gives the whole chain.
      *
      * @param transforms
      * @return -1 if no circular dependencies else the index of the
@@ -84,50 +85,7 @@ public class TransformConfigs
      */
     public static int checkForCircularDependencies(List<TransformConfig> transforms)
     {
-        for (int i=0; i<transforms.size(); i++)
-        {
-            Set<Integer> chain = new HashSet<Integer>();
-            chain.add(new Integer(i));
-
-            TransformConfig tc = transforms.get(i);
-            if (checkCircularDependenciesRecursive(tc, transforms, chain) == false)
-            {
-                return i;
-            }
-        }
-
-        return -1;
-    }
-
-
-    private static boolean checkCircularDependenciesRecursive(TransformConfig transform,
-                                                    List<TransformConfig> transforms,
-                                                    Set<Integer> chain)
-    {
-        boolean result = true;
-
-        for (int i=0; i<transforms.size(); i++)
-        {
-            TransformConfig tc = transforms.get(i);
-
-            for (String input : transform.getInputs())
-            {
-                if (tc.getOutputs().contains(input))
-                {
-                    Integer index = new Integer(i);
-                    if (chain.contains(index))
-                    {
-                        return false;
-                    }
-
-                    chain.add(index);
-                    result = result && checkCircularDependenciesRecursive(tc, transforms, chain);
-                }
-            }
-        }
-
-        return result;
+        TransformPlan plan = TransformPlan.plan(transforms);
+        return plan.hasCycle() ? plan.getCycle()[0] : -1;
     }
-
-
 }
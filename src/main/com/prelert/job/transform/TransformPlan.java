@@ -0,0 +1,293 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.job.transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The execution plan of a list of transforms. A transform depends on
+ * every transform that writes one of its inputs.
+ * <br>
+ * The plan is made in time linear in the number of transforms, inputs
+ * and outputs: outputs are indexed to the transforms writing them, the
+ * dependencies are held in primitive adjacency arrays and a Kahn
+ * topological sort assigns each transform a level, one more than the
+ * highest level of the transforms it depends on. Transforms in the same
+ * level do not depend on each other so may run in parallel once the
+ * previous levels have run.
+ * <br>
+ * If the dependencies have a cycle the transforms in, or depending on,
+ * it cannot be ordered. One complete cycle is found by following the
+ * dependencies of an unordered transform until a transform repeats.
+ */
+public final class TransformPlan
+{
+    private final List<TransformConfig> m_Transforms;
+    private final int [] m_Order;
+    private final int [][] m_Levels;
+    private final int [] m_Cycle;
+
+    private TransformPlan(List<TransformConfig> transforms, int [] order, int [][] levels,
+            int [] cycle)
+    {
+        m_Transforms = transforms;
+        m_Order = order;
+        m_Levels = levels;
+        m_Cycle = cycle;
+    }
+
+    /**
+     * Plan the execution of <code>transforms</code>
+     *
+     * @param transforms
+     * @return The plan, check {@linkplain #hasCycle()}
+     */
+    public static TransformPlan plan(List<TransformConfig> transforms)
+    {
+        int count = transforms.size();
+
+        Map<String, int []> writers = new HashMap<>();
+        for (int i = 0; i < count; i++)
+        {
+            for (String output : transforms.get(i).getOutputs())
+            {
+                int [] previous = writers.get(output);
+                int [] indexes = previous == null ? new int[1]
+                        : Arrays.copyOf(previous, previous.length + 1);
+                indexes[indexes.length - 1] = i;
+                writers.put(output, indexes);
+            }
+        }
+
+        // Edges from each writer to the transform reading its output
+        int [] from = new int[count];
+        int [] to = new int[count];
+        int edges = 0;
+        for (int i = 0; i < count; i++)
+        {
+            for (String input : transforms.get(i).getInputs())
+            {
+                int [] indexes = writers.get(input);
+                if (indexes == null)
+                {
+                    continue;
+                }
+                for (int writer : indexes)
+                {
+                    if (edges == from.length)
+                    {
+                        from = Arrays.copyOf(from, edges * 2 + 1);
+                        to = Arrays.copyOf(to, edges * 2 + 1);
+                    }
+                    from[edges] = writer;
+                    to[edges] = i;
+                    edges++;
+                }
+            }
+        }
+
+        int [][] dependents = adjacency(count, from, to, edges);
+        int [][] dependencies = adjacency(count, to, from, edges);
+
+        int [] inDegree = new int[count];
+        for (int e = 0; e < edges; e++)
+        {
+            inDegree[to[e]]++;
+        }
+
+        int [] order = new int[count];
+        int ordered = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (inDegree[i] == 0)
+            {
+                order[ordered++] = i;
+            }
+        }
+
+        List<int []> levels = new ArrayList<>();
+        int levelStart = 0;
+        while (levelStart < ordered)
+        {
+            int levelEnd = ordered;
+            levels.add(Arrays.copyOfRange(order, levelStart, levelEnd));
+            for (int k = levelStart; k < levelEnd; k++)
+            {
+                for (int dependent : dependents[order[k]])
+                {
+                    if (--inDegree[dependent] == 0)
+                    {
+                        order[ordered++] = dependent;
+                    }
+                }
+            }
+            levelStart = levelEnd;
+        }
+
+        int [] cycle = ordered == count ? new int[0] : findCycle(inDegree, dependencies);
+        return new TransformPlan(transforms, Arrays.copyOf(order, ordered),
+                levels.toArray(new int[levels.size()][]), cycle);
+    }
+
+    /**
+     * @return For each node the nodes its edges go to
+     */
+    private static int [][] adjacency(int count, int [] from, int [] to, int edges)
+    {
+        int [] sizes = new int[count];
+        for (int e = 0; e < edges; e++)
+        {
+            sizes[from[e]]++;
+        }
+        int [][] adjacency = new int[count][];
+        for (int i = 0; i < count; i++)
+        {
+            adjacency[i] = new int[sizes[i]];
+            sizes[i] = 0;
+        }
+        for (int e = 0; e < edges; e++)
+        {
+            adjacency[from[e]][sizes[from[e]]++] = to[e];
+        }
+        return adjacency;
+    }
+
+    /**
+     * Every unordered transform depends on another unordered transform,
+     * one with a remaining in degree, so following those dependencies
+     * must come back to a transform already visited
+     *
+     * @return The transforms of the cycle, each writing an input of the next
+     * and the last writing an input of the first
+     */
+    private static int [] findCycle(int [] inDegree, int [][] dependencies)
+    {
+        int start = 0;
+        while (inDegree[start] == 0)
+        {
+            start++;
+        }
+
+        int [] visitedAt = new int[inDegree.length];
+        Arrays.fill(visitedAt, -1);
+        int [] path = new int[inDegree.length + 1];
+        int length = 0;
+        int current = start;
+        while (visitedAt[current] < 0)
+        {
+            visitedAt[current] = length;
+            path[length++] = current;
+            for (int dependency : dependencies[current])
+            {
+                if (inDegree[dependency] > 0)
+                {
+                    current = dependency;
+                    break;
+                }
+            }
+        }
+
+        // The path follows dependencies backwards, reverse it so
+        // each transform is followed by one that reads its output
+        int [] cycle = Arrays.copyOfRange(path, visitedAt[current], length);
+        for (int i = 0, j = cycle.length - 1; i < j; i++, j--)
+        {
+            int swap = cycle[i];
+            cycle[i] = cycle[j];
+            cycle[j] = swap;
+        }
+        return cycle;
+    }
+
+    /**
+     * @return True if the dependencies have a cycle
+     */
+    public boolean hasCycle()
+    {
+        return m_Cycle.length > 0;
+    }
+
+    /**
+     * @return The indexes of the transforms in a cycle, each writing an
+     * input of the next and the last an input of the first, or an empty
+     * array if there is no cycle
+     */
+    public int [] getCycle()
+    {
+        return m_Cycle.clone();
+    }
+
+    /**
+     * @return The indexes of the transforms in an order where each comes
+     * after those it depends on, level by level. If there is a cycle only
+     * the transforms not in or depending on a cycle are included.
+     */
+    public int [] getExecutionOrder()
+    {
+        return m_Order.clone();
+    }
+
+    /**
+     * @return The indexes of the transforms of each level
+     */
+    public int [][] getLevels()
+    {
+        int [][] levels = new int[m_Levels.length][];
+        for (int i = 0; i < levels.length; i++)
+        {
+            levels[i] = m_Levels[i].clone();
+        }
+        return levels;
+    }
+
+    /**
+     * @return The transforms in execution order
+     */
+    public List<TransformConfig> orderedTransforms()
+    {
+        List<TransformConfig> ordered = new ArrayList<>(m_Order.length);
+        for (int index : m_Order)
+        {
+            ordered.add(m_Transforms.get(index));
+        }
+        return ordered;
+    }
+
+    /**
+     * @return The cycle as text, e.g. <code>[0] concat -&gt; [3] lowercase -&gt; [0] concat</code>
+     */
+    public String describeCycle()
+    {
+        StringBuilder description = new StringBuilder();
+        for (int index : m_Cycle)
+        {
+            description.append('[').append(index).append("] ")
+                    .append(m_Transforms.get(index)).append(" -> ");
+        }
+        if (m_Cycle.length > 0)
+        {
+            description.append('[').append(m_Cycle[0]).append("] ")
+                    .append(m_Transforms.get(m_Cycle[0]));
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,175 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.job.transform.condition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A {@linkplain Condition} prepared for testing many values. The filter
+ * value is parsed to a double, or compiled to a regex for
+ * {@linkplain Operator#MATCH}, once when the condition is compiled.
+ * <br>
+ * Testing a value creates no objects: numbers are parsed straight
+ * from the characters or bytes by {@linkplain NumberParser} and the
+ * regex matcher is reset rather than created. A value that is not a
+ * number never satisfies a numeric condition.
+ * <br>
+ * Not thread safe as the matcher is reused, compile a condition
+ * for each thread.
+ */
+public final class CompiledCondition
+{
+    private final Operator m_Operator;
+    private final double m_Value;
+    private final Matcher m_Matcher;
+    private final AsciiSequence m_Ascii = new AsciiSequence();
+
+    /**
+     * @param condition
+     * @throws IllegalArgumentException If the value of a numeric
+     * condition is not a number or the regex of a match is not valid
+     */
+    public CompiledCondition(Condition condition)
+    {
+        m_Operator = condition.getOperator() == null ? Operator.NONE : condition.getOperator();
+        String value = condition.getValue();
+        if (m_Operator == Operator.MATCH)
+        {
+            try
+            {
+                m_Matcher = Pattern.compile(value == null ? "" : value).matcher("");
+            }
+            catch (PatternSyntaxException e)
+            {
+                throw new IllegalArgumentException("The condition regex '" + value
+                        + "' is not valid: " + e.getDescription());
+            }
+            m_Value = Double.NaN;
+        }
+        else
+        {
+            m_Matcher = null;
+            m_Value = value == null ? Double.NaN : NumberParser.parseDouble(value);
+            if (m_Operator != Operator.NONE && Double.isNaN(m_Value))
+            {
+                throw new IllegalArgumentException("The condition value '" + value
+                        + "' is not a number");
+            }
+        }
+    }
+
+    public Operator getOperator()
+    {
+        return m_Operator;
+    }
+
+    /**
+     * @return True if the numeric condition holds for <code>value</code>,
+     * always false for {@linkplain Operator#MATCH}
+     */
+    public boolean test(double value)
+    {
+        return Double.isNaN(value) == false && m_Operator.test(value, m_Value);
+    }
+
+    /**
+     * @return True if the condition holds for <code>value</code>
+     */
+    public boolean test(CharSequence value)
+    {
+        if (m_Matcher != null)
+        {
+            return m_Matcher.reset(value).matches();
+        }
+        return test(NumberParser.parseDouble(value));
+    }
+
+    /**
+     * Test UTF-8 text, numbers are parsed from the bytes
+     *
+     * @return True if the condition holds for the text
+     */
+    public boolean test(byte [] data, int offset, int length)
+    {
+        if (m_Matcher == null)
+        {
+            return test(NumberParser.parseDouble(data, offset, offset + length));
+        }
+
+        CharSequence value = m_Ascii.wrap(data, offset, length) ? m_Ascii
+                : new String(data, offset, length, StandardCharsets.UTF_8);
+        boolean matches = m_Matcher.reset(value).matches();
+        m_Matcher.reset("");
+        return matches;
+    }
+
+    /**
+     * A reusable view of ASCII bytes as characters
+     */
+    private static final class AsciiSequence implements CharSequence
+    {
+        private byte [] m_Data;
+        private int m_Offset;
+        private int m_Length;
+
+        /**
+         * @return False if the bytes are not all ASCII
+         */
+        boolean wrap(byte [] data, int offset, int length)
+        {
+            for (int i = offset; i < offset + length; i++)
+            {
+                if (data[i] < 0)
+                {
+                    return false;
+                }
+            }
+            m_Data = data;
+            m_Offset = offset;
+            m_Length = length;
+            return true;
+        }
+
+        @Override
+        public int length()
+        {
+            return m_Length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return (char) m_Data[m_Offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(m_Data, m_Offset + start, end - start, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(m_Data, m_Offset, m_Length, StandardCharsets.US_ASCII);
+        }
+    }
+}
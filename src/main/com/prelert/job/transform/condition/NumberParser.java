@@ -0,0 +1,175 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.job.transform.condition;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses decimal numbers without creating a string when they have at
+ * most 15 significant digits and an exponent of at most 22, the common
+ * case. The result is then exact as both the digits and the power of
+ * ten are exact doubles so one multiply or divide is correctly rounded.
+ * Other numbers are parsed by {@linkplain Double#parseDouble(String)}.
+ * <br>
+ * Leading and trailing whitespace is ignored. Text that is not a
+ * number is parsed as NaN.
+ */
+public final class NumberParser
+{
+    private static final double [] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private NumberParser()
+    {
+    }
+
+    /**
+     * @return The number or NaN if it is not one
+     */
+    public static double parseDouble(CharSequence value)
+    {
+        return parse(null, value, 0, value.length());
+    }
+
+    /**
+     * @return The number in the ASCII bytes <code>[start, end)</code>
+     * or NaN if it is not one
+     */
+    public static double parseDouble(byte [] data, int start, int end)
+    {
+        return parse(data, null, start, end);
+    }
+
+    /**
+     * Parse either the bytes of <code>data</code> or the characters
+     * of <code>chars</code> in <code>[start, end)</code>
+     */
+    private static double parse(byte [] data, CharSequence chars, int start, int end)
+    {
+        while (start < end && charAt(data, chars, start) <= ' ')
+        {
+            start++;
+        }
+        while (end > start && charAt(data, chars, end - 1) <= ' ')
+        {
+            end--;
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (charAt(data, chars, i) == '-' || charAt(data, chars, i) == '+'))
+        {
+            negative = charAt(data, chars, i) == '-';
+            i++;
+        }
+
+        long digits = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean any = false;
+        boolean point = false;
+        for (; i < end; i++)
+        {
+            char c = charAt(data, chars, i);
+            if (c == '.' && point == false)
+            {
+                point = true;
+                continue;
+            }
+            if (c < '0' || c > '9')
+            {
+                break;
+            }
+            any = true;
+            if (significant < MAX_FAST_DIGITS)
+            {
+                digits = digits * 10 + (c - '0');
+                significant += digits > 0 ? 1 : 0;
+                exponent -= point ? 1 : 0;
+            }
+            else if (c != '0')
+            {
+                return slowParseDouble(data, chars, start, end);
+            }
+            else if (point == false)
+            {
+                exponent++;
+            }
+        }
+
+        if (any && i < end && (charAt(data, chars, i) == 'e' || charAt(data, chars, i) == 'E'))
+        {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (charAt(data, chars, i) == '-' || charAt(data, chars, i) == '+'))
+            {
+                negativeExponent = charAt(data, chars, i) == '-';
+                i++;
+            }
+            int first = i;
+            int e = 0;
+            for (; i < end && e < 1000; i++)
+            {
+                char c = charAt(data, chars, i);
+                if (c < '0' || c > '9')
+                {
+                    break;
+                }
+                e = e * 10 + (c - '0');
+            }
+            if (i == first)
+            {
+                return Double.NaN;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+
+        if (any == false || i != end || exponent < -22 || exponent > 22)
+        {
+            return slowParseDouble(data, chars, start, end);
+        }
+
+        double value = exponent >= 0 ? digits * POWERS_OF_TEN[exponent]
+                : digits / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    private static char charAt(byte [] data, CharSequence chars, int i)
+    {
+        return data != null ? (char) (data[i] & 0xff) : chars.charAt(i);
+    }
+
+    private static double slowParseDouble(byte [] data, CharSequence chars, int start, int end)
+    {
+        String value = data != null
+                ? new String(data, start, end - start, StandardCharsets.US_ASCII)
+                : chars.subSequence(start, end).toString();
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return Double.NaN;
+        }
+    }
+}
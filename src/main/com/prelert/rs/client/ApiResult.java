@@ -0,0 +1,215 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.util.function.Function;
+
+import com.prelert.rs.data.ApiError;
+
+/**
+ * The outcome of a single Engine API call: the returned value, the
+ * {@linkplain ApiError} if the API reported an error and the HTTP
+ * status code.
+ * <br>
+ * Results are immutable and belong to the call that produced them so,
+ * unlike {@linkplain EngineApiClient#getLastError()}, they are safe to
+ * use when a client is shared between threads.
+ *
+ * @param <T> The type of the returned value
+ */
+public final class ApiResult<T>
+{
+    private final T m_Value;
+    private final ApiError m_Error;
+    private final int m_StatusCode;
+    private final boolean m_Success;
+    private final long m_ReceivedBytes;
+    private final long m_DecodedBytes;
+    private final UploadCompressionStats m_UploadCompression;
+
+    private ApiResult(T value, ApiError error, int statusCode, boolean success,
+            long receivedBytes, long decodedBytes, UploadCompressionStats uploadCompression)
+    {
+        m_Value = value;
+        m_Error = error;
+        m_StatusCode = statusCode;
+        m_Success = success;
+        m_ReceivedBytes = receivedBytes;
+        m_DecodedBytes = decodedBytes;
+        m_UploadCompression = uploadCompression;
+    }
+
+    static <T> ApiResult<T> success(T value, int statusCode)
+    {
+        return new ApiResult<>(value, null, statusCode, true, 0, 0, null);
+    }
+
+    /**
+     * @param value The value returned to callers of the legacy methods
+     * when the call fails e.g. an empty page or document
+     * @param error The error returned by the API, may be <code>null</code>
+     * if the response had no content
+     * @param statusCode The HTTP status code
+     */
+    static <T> ApiResult<T> failure(T value, ApiError error, int statusCode)
+    {
+        return new ApiResult<>(value, error, statusCode, false, 0, 0, null);
+    }
+
+    /**
+     * A copy of this result with the response content sizes
+     *
+     * @param receivedBytes The number of content bytes received
+     * @param decodedBytes The number of content bytes after decompression
+     */
+    ApiResult<T> withContentSize(long receivedBytes, long decodedBytes)
+    {
+        return new ApiResult<>(m_Value, m_Error, m_StatusCode, m_Success,
+                receivedBytes, decodedBytes, m_UploadCompression);
+    }
+
+    /**
+     * A copy of this result with the statistics of the client side
+     * upload compression
+     */
+    ApiResult<T> withUploadCompression(UploadCompressionStats uploadCompression)
+    {
+        return new ApiResult<>(m_Value, m_Error, m_StatusCode, m_Success,
+                m_ReceivedBytes, m_DecodedBytes, uploadCompression);
+    }
+
+    /**
+     * The value returned by the call. If the call failed this is the
+     * same default the non-result methods return, e.g. an empty
+     * {@linkplain com.prelert.rs.data.Pagination Pagination}, an empty
+     * string or <code>null</code>.
+     *
+     * @return The value
+     */
+    public T getValue()
+    {
+        return m_Value;
+    }
+
+    /**
+     * The value if the call succeeded
+     *
+     * @return The value
+     * @throws EngineApiException If the call failed
+     */
+    public T getValueOrThrow() throws EngineApiException
+    {
+        if (m_Success == false)
+        {
+            throw new EngineApiException("Engine API call failed with status code "
+                    + m_StatusCode, m_StatusCode, m_Error);
+        }
+        return m_Value;
+    }
+
+    /**
+     * The error returned by the API
+     *
+     * @return The error or <code>null</code> if the call succeeded
+     * or the error response had no content
+     */
+    public ApiError getError()
+    {
+        return m_Error;
+    }
+
+    /**
+     * The HTTP status code of the response. For calls that make
+     * several requests, such as a chunked upload, this is the status
+     * of the first failed request or of the last request if all succeeded.
+     *
+     * @return The status code or 0 if no request was made
+     */
+    public int getStatusCode()
+    {
+        return m_StatusCode;
+    }
+
+    /**
+     * @return True if the API returned the expected status code
+     */
+    public boolean isSuccess()
+    {
+        return m_Success;
+    }
+
+    /**
+     * The size of the response content as received. If response
+     * compression is enabled and the server compressed the response
+     * this is the compressed size.
+     *
+     * @return The number of bytes or 0 if the response had no content
+     * or the content was returned to the caller unread
+     */
+    public long getReceivedBytes()
+    {
+        return m_ReceivedBytes;
+    }
+
+    /**
+     * The size of the response content after decompression. The same
+     * as {@linkplain #getReceivedBytes()} if the response was not
+     * compressed.
+     *
+     * @return The number of bytes or 0 if the response had no content
+     * or the content was returned to the caller unread
+     */
+    public long getDecodedBytes()
+    {
+        return m_DecodedBytes;
+    }
+
+    /**
+     * The compression statistics of an upload the client compressed.
+     *
+     * @return The statistics or <code>null</code> if the request was
+     * not compressed by the client
+     * @see EngineApiClientConfig.Builder#uploadCompression(boolean)
+     */
+    public UploadCompressionStats getUploadCompression()
+    {
+        return m_UploadCompression;
+    }
+
+    /**
+     * Apply <code>mapper</code> to the value keeping the
+     * error, status code, content sizes and compression statistics
+     *
+     * @param mapper The function to apply to the value
+     * @param <U> The type of the new value
+     * @return A new {@code ApiResult} for the mapped value
+     */
+    public <U> ApiResult<U> map(Function<? super T, ? extends U> mapper)
+    {
+        return new ApiResult<>(mapper.apply(m_Value), m_Error, m_StatusCode, m_Success,
+                m_ReceivedBytes, m_DecodedBytes, m_UploadCompression);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ApiResult [success=" + m_Success + ", statusCode=" + m_StatusCode
+                + ", error=" + (m_Error == null ? null : m_Error.getErrorCode()) + "]";
+    }
+}
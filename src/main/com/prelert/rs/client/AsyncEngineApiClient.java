@@ -0,0 +1,1125 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.client.methods.ZeroCopyPost;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.prelert.job.DataDescription;
+import com.prelert.job.JobConfiguration;
+import com.prelert.job.JobDetails;
+import com.prelert.job.alert.Alert;
+import com.prelert.job.errorcodes.ErrorCode;
+import com.prelert.job.results.CategoryDefinition;
+import com.prelert.rs.client.RecordChunker.Chunk;
+import com.prelert.rs.data.ApiError;
+import com.prelert.rs.data.MultiDataPostResult;
+import com.prelert.rs.data.Pagination;
+import com.prelert.rs.data.SingleDocument;
+
+/**
+ * A non-blocking HTTP Client for the Prelert Engine RESTful API.
+ *
+ * <br>
+ * Offers the same operations as {@linkplain EngineApiClient} but every
+ * call returns immediately with a {@linkplain CompletableFuture}. All
+ * requests share a single NIO reactor so many thousands of requests can
+ * be in flight using only a handful of I/O dispatch threads.
+ * <br>
+ * Upload input streams may block so they are never read on the I/O
+ * dispatch threads. Each upload holds a thread of the upload executor
+ * while its stream is read, by default a cached pool of daemon threads
+ * owned by the client. Pass an executor to
+ * {@linkplain #AsyncEngineApiClient(String, EngineApiClientConfig, Executor)}
+ * to bound or share those threads.
+ * <br>
+ * Where {@linkplain EngineApiClient} reports errors through
+ * {@linkplain EngineApiClient#getLastError()} the futures returned here
+ * complete exceptionally with an {@linkplain EngineApiException} carrying
+ * the {@linkplain ApiError}. Data uploads are the exception: as with the
+ * blocking client the returned {@linkplain MultiDataPostResult} contains
+ * the per job errors.
+ * <br>
+ * Futures are completed on the I/O dispatch threads so callers should
+ * use the <code>...Async</code> variants of the {@linkplain CompletableFuture}
+ * methods for any long running continuations.
+ * <br>
+ * Implements closeable so it can be used in a try-with-resource statement
+ */
+public class AsyncEngineApiClient implements Closeable
+{
+    private static final Logger LOGGER = Logger.getLogger(AsyncEngineApiClient.class);
+
+    private final String m_BaseUrl;
+    private final PoolingNHttpClientConnectionManager m_ConnectionManager;
+    private final CloseableHttpAsyncClient m_HttpClient;
+    private final IdleConnectionEvictor m_IdleConnectionEvictor;
+    private final Executor m_UploadExecutor;
+    private final int m_UploadChunkSize;
+    private final ExecutorService m_OwnedUploadExecutor;
+
+    /**
+     * Creates and starts a new asynchronous http client with the default
+     * connection settings and Json object mapper.
+     * Call {@linkplain #close()} once finished
+     *
+     * @param baseUrl The base URL for the REST API including version number
+     * e.g <code>http://localhost:8080/engine/v1/</code>
+     */
+    public AsyncEngineApiClient(String baseUrl)
+    {
+        this(baseUrl, EngineApiClientConfig.defaults());
+    }
+
+    /**
+     * Creates and starts a new asynchronous http client with a connection
+     * pool and I/O reactor configured by <code>config</code>.
+     * Call {@linkplain #close()} once finished
+     *
+     * @param baseUrl The base URL for the REST API including version number
+     * e.g <code>http://localhost:8080/engine/v1/</code>
+     * @param config The connection pool, timeout and socket settings
+     * @throws IllegalStateException If the I/O reactor cannot be created
+     */
+    public AsyncEngineApiClient(String baseUrl, EngineApiClientConfig config)
+    {
+        this(baseUrl, config, null);
+    }
+
+    /**
+     * Creates and starts a new asynchronous http client that reads upload
+     * input streams on <code>uploadExecutor</code>. Each upload holds one
+     * of its threads until the stream has been read so an executor with
+     * fewer threads than concurrent uploads queues the later uploads.
+     * The executor is not shut down by {@linkplain #close()}.
+     *
+     * @param baseUrl The base URL for the REST API including version number
+     * e.g <code>http://localhost:8080/engine/v1/</code>
+     * @param config The connection pool, timeout and socket settings
+     * @param uploadExecutor Reads upload input streams. If <code>null</code>
+     * the client creates and owns a cached thread pool
+     * @throws IllegalStateException If the I/O reactor cannot be created
+     */
+    public AsyncEngineApiClient(String baseUrl, EngineApiClientConfig config,
+            Executor uploadExecutor)
+    {
+        m_BaseUrl = baseUrl;
+        if (uploadExecutor == null)
+        {
+            m_OwnedUploadExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("engine-api-upload-%d").build());
+            m_UploadExecutor = m_OwnedUploadExecutor;
+        }
+        else
+        {
+            m_OwnedUploadExecutor = null;
+            m_UploadExecutor = uploadExecutor;
+        }
+        m_UploadChunkSize = config.getUploadChunkSize();
+        m_ConnectionManager = HttpClientFactory.createAsyncConnectionManager(config);
+        m_HttpClient = HttpClientFactory.createAsyncHttpClient(config, m_ConnectionManager);
+        m_HttpClient.start();
+        m_IdleConnectionEvictor = config.getIdleEvictionMs() > 0 ?
+                new IdleConnectionEvictor(config.getIdleEvictionMs(),
+                        m_ConnectionManager::closeExpiredConnections,
+                        idleMs -> m_ConnectionManager.closeIdleConnections(idleMs,
+                                TimeUnit.MILLISECONDS))
+                : null;
+    }
+
+    /**
+     * Close the http client and shutdown the I/O reactor.
+     * Any outstanding requests are cancelled and the upload
+     * executor is shut down if the client created it.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (m_IdleConnectionEvictor != null)
+        {
+            m_IdleConnectionEvictor.close();
+        }
+        try
+        {
+            m_HttpClient.close();
+        }
+        finally
+        {
+            if (m_OwnedUploadExecutor != null)
+            {
+                m_OwnedUploadExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Statistics for the connection pool: the number of connections
+     * leased, available in the pool and the number of requests
+     * pending a connection.
+     *
+     * @return A snapshot of the connection pool statistics
+     */
+    public PoolStats getPoolStats()
+    {
+        return m_ConnectionManager.getTotalStats();
+    }
+
+    /**
+     * Get details of all the jobs in database
+     *
+     * @return A future for the {@link Pagination} object containing a list
+     * of {@link JobDetails jobs}
+     */
+    public CompletableFuture<Pagination<JobDetails>> getJobs()
+    {
+        String url = m_BaseUrl + "/jobs";
+        LOGGER.debug("GET jobs: " + url);
+
+        return getPage(url, JsonCodecs.JOBS_PAGE);
+    }
+
+    /**
+     * Get the individual job on the provided URL
+     *
+     * @param jobId The Job's unique Id
+     *
+     * @return A future for the {@link SingleDocument} containing the
+     * {@link JobDetails job}. If the job does not exist the SingleDocument
+     * is empty
+     */
+    public CompletableFuture<SingleDocument<JobDetails>> getJob(String jobId)
+    {
+        String url = m_BaseUrl + "/jobs/" + jobId;
+        LOGGER.debug("GET job: " + url);
+
+        return getSingleDocument(url, JsonCodecs.JOB_DOCUMENT);
+    }
+
+    /**
+     * Create a new Job from the <code>JobConfiguration</code> object.
+     *
+     * @param jobConfig the job configuration
+     * @return A future for the new job's Id
+     * @see #createJob(String)
+     */
+    public CompletableFuture<String> createJob(JobConfiguration jobConfig)
+    {
+        String payLoad;
+        try
+        {
+            payLoad = JsonCodecs.JOB_CONFIGURATION.writeValueAsString(jobConfig);
+        }
+        catch (JsonProcessingException e)
+        {
+            return failedFuture(e);
+        }
+        return createJob(payLoad);
+    }
+
+    /**
+     * Create a new job with the configuration in <code>createJobPayload</code>
+     *
+     * @param createJobPayload The Json configuration for the new job
+     * @return A future for the new job's Id
+     */
+    public CompletableFuture<String> createJob(String createJobPayload)
+    {
+        String url = m_BaseUrl + "/jobs";
+        LOGGER.debug("Create job: " + url);
+
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new StringEntity(createJobPayload,
+                ContentType.create("application/json", "UTF-8")));
+
+        return execute(post, HttpStatus.SC_CREATED, "creating job", entity ->
+        {
+            Map<String, String> msg = JsonEntityReader.read(JsonCodecs.STRING_MAP, entity);
+
+            if (msg == null || msg.containsKey("id") == false)
+            {
+                LOGGER.error("Job created but no 'id' field in returned content");
+                LOGGER.error("Response Content = " + msg);
+                return "";
+            }
+            return msg.get("id");
+        });
+    }
+
+    /**
+     * PUTS the description parameter to the job and sets it as
+     * the job's new description field
+     *
+     * @param jobId The job's unique ID
+     * @param description New description field
+     *
+     * @return A future that completes with true if the description was set
+     */
+    public CompletableFuture<Boolean> setJobDescription(String jobId, String description)
+    {
+        String url = m_BaseUrl + "/jobs/" + jobId + "/description";
+        LOGGER.debug("PUT job description: " + url);
+
+        HttpPut put = new HttpPut(url);
+        put.setEntity(new StringEntity(description, ContentType.create("text/plain", "UTF-8")));
+
+        return execute(put, HttpStatus.SC_OK, "putting job description", entity -> true);
+    }
+
+    /**
+     * Delete an individual job
+     *
+     * @param jobId The Job's unique Id
+     * @return A future that completes with true if the job existed and was deleted
+     */
+    public CompletableFuture<Boolean> deleteJob(String jobId)
+    {
+        String url = m_BaseUrl + "/jobs/" + jobId;
+        LOGGER.debug("DELETE job: " + url);
+
+        return execute(new HttpDelete(url), HttpStatus.SC_OK, "deleting job", entity -> true);
+    }
+
+    /**
+     * Read the input stream in chunks and upload each chunk in a new request.
+     * The job's {@linkplain DataDescription} is read from the API to find
+     * the record format.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @return A future for the upload summary with the total counts of
+     * all the chunks and the first error returned for any chunk
+     * @see #chunkedUpload(String, InputStream, DataDescription)
+     */
+    public CompletableFuture<MultiDataPostResult> chunkedUpload(String jobId, InputStream inputStream)
+    {
+        return getJob(jobId).thenCompose(doc ->
+        {
+            JobDetails job = doc.getDocument();
+            DataDescription dataDescription = job == null ? null : job.getDataDescription();
+            if (dataDescription == null)
+            {
+                LOGGER.warn("Cannot read the data description of job " + jobId
+                        + ", assuming delimited data");
+                dataDescription = new DataDescription();
+            }
+            return chunkedUpload(jobId, inputStream, dataDescription);
+        });
+    }
+
+    /**
+     * Read the input stream in chunks of about
+     * {@linkplain EngineApiClientConfig#getUploadChunkSize()} bytes that
+     * end on a record boundary and upload each chunk in a new request.
+     * Every chunk of delimited data starts with the header. The chunks
+     * are read on the upload executor, the next while the previous is
+     * uploaded, so two chunk buffers are used.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @param dataDescription The format of the data, must match the job's
+     * @return A future for the upload summary with the total counts of
+     * all the chunks and the first error returned for any chunk
+     * @see EngineApiClient#chunkedUpload(String, InputStream, DataDescription)
+     */
+    public CompletableFuture<MultiDataPostResult> chunkedUpload(String jobId,
+            InputStream inputStream, DataDescription dataDescription)
+    {
+        String postUrl = m_BaseUrl + "/data/" + jobId;
+        LOGGER.debug("Uploading chunked data to " + postUrl);
+
+        RecordChunker chunker = new RecordChunker(inputStream, dataDescription,
+                m_UploadChunkSize);
+        return uploadNextChunk(postUrl, chunker, fillChunk(chunker, new Chunk(m_UploadChunkSize)),
+                new Chunk(m_UploadChunkSize), 1, new UploadSummaries());
+    }
+
+    /**
+     * @param filling The chunk to upload once it has been filled,
+     * <code>null</code> at the end of the input
+     * @param spare The buffer the following chunk is read into
+     */
+    private CompletableFuture<MultiDataPostResult> uploadNextChunk(String postUrl,
+            RecordChunker chunker, CompletableFuture<Chunk> filling, Chunk spare,
+            int uploadCount, UploadSummaries summaries)
+    {
+        return filling.thenCompose(chunk ->
+        {
+            if (chunk == null)
+            {
+                return CompletableFuture.completedFuture(summaries.getResult());
+            }
+
+            LOGGER.info("Upload " + uploadCount);
+
+            // the chunks are filled one at a time, each after the last has been filled
+            CompletableFuture<Chunk> next = fillChunk(chunker, spare);
+
+            ByteArrayEntity entity = new ByteArrayEntity(chunk.getData(), 0, chunk.getLength());
+            entity.setContentType("application/octet-stream");
+            HttpPost post = new HttpPost(postUrl);
+            post.setEntity(entity);
+
+            return executeUpload(post, "Upload of chunk " + uploadCount)
+                    .thenCompose(result ->
+                    {
+                        summaries.add(result);
+                        return uploadNextChunk(postUrl, chunker, next, chunk,
+                                uploadCount + 1, summaries);
+                    });
+        });
+    }
+
+    /**
+     * Fill the chunk on the upload executor
+     *
+     * @return A future for the filled chunk or <code>null</code>
+     * if there are no more records
+     */
+    private CompletableFuture<Chunk> fillChunk(RecordChunker chunker, Chunk chunk)
+    {
+        CompletableFuture<Chunk> filled = new CompletableFuture<>();
+        try
+        {
+            m_UploadExecutor.execute(() ->
+            {
+                try
+                {
+                    filled.complete(chunker.fill(chunk) ? chunk : null);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    filled.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            filled.completeExceptionally(e);
+        }
+        return filled;
+    }
+
+    /**
+     * Stream data from <code>inputStream</code> to the service.
+     * The input stream is read on the upload executor, it is sent
+     * as it is read and may block without stalling other requests.
+     * To upload a file use {@linkplain #fileUpload(String, File, boolean)}
+     * which sends it straight from the file channel.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @param compressed Is the data gzipped compressed?
+     * @return A future for the multiple results in {@code MultiDataPostResult}
+     */
+    public CompletableFuture<MultiDataPostResult> streamingUpload(String jobId,
+            InputStream inputStream, boolean compressed)
+    {
+        return streamingUpload(jobId, inputStream, compressed, "", "");
+    }
+
+    /**
+     * Stream data from <code>inputStream</code> to the service resetting
+     * the buckets in the given time range.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @param compressed Is the data gzipped compressed?
+     * @param resetStart The start of the time range to reset buckets for (inclusive)
+     * @param resetEnd The end of the time range to reset buckets for (inclusive)
+     * @return A future for the multiple results in {@code MultiDataPostResult}
+     * @see #streamingUpload(String, InputStream, boolean)
+     */
+    public CompletableFuture<MultiDataPostResult> streamingUpload(String jobId,
+            InputStream inputStream, boolean compressed, String resetStart, String resetEnd)
+    {
+        return executeUpload(createUploadPost(dataUrl(jobId, resetStart, resetEnd),
+                inputStream, compressed), "Streaming upload");
+    }
+
+    /**
+     * Read data from <code>inputStream</code> and upload to multiple jobs
+     * simultaneously.
+     *
+     * @param jobIds The list of jobs to send the data to
+     * @param inputStream The data to write to the web service
+     * @param compressed Is the data gzipped compressed?
+     * @return A future for the list of processed data counts/errors.
+     */
+    public CompletableFuture<MultiDataPostResult> streamingUpload(List<String> jobIds,
+            InputStream inputStream, boolean compressed)
+    {
+        StringJoiner joiner = new StringJoiner(",");
+        jobIds.forEach(joiner::add);
+
+        String postUrl = String.format("%s/data/%s", m_BaseUrl, joiner.toString());
+        return executeUpload(createUploadPost(postUrl, inputStream, compressed),
+                "Streaming upload");
+    }
+
+    /**
+     * Upload the contents of <code>dataFile</code> to the server.
+     * The file is transferred directly from the file channel to
+     * the socket channel without copying through the Java heap.
+     *
+     * @param jobId The Job's Id
+     * @param dataFile Should match the data configuration format of the job
+     * @param compressed Is the data gzipped compressed?
+     * @return A future for the multiple results in {@code MultiDataPostResult}
+     */
+    public CompletableFuture<MultiDataPostResult> fileUpload(String jobId, File dataFile,
+            boolean compressed)
+    {
+        return fileUpload(jobId, dataFile, compressed, "", "");
+    }
+
+    /**
+     * Upload the contents of <code>dataFile</code> to the server resetting
+     * the buckets in the given time range.
+     *
+     * @param jobId The Job's Id
+     * @param dataFile Should match the data configuration format of the job
+     * @param compressed Is the data gzipped compressed?
+     * @param resetStart The start of the time range to reset buckets for (inclusive)
+     * @param resetEnd The end of the time range to reset buckets for (inclusive)
+     * @return A future for the multiple results in {@code MultiDataPostResult}
+     */
+    public CompletableFuture<MultiDataPostResult> fileUpload(String jobId, File dataFile,
+            boolean compressed, String resetStart, String resetEnd)
+    {
+        String postUrl = dataUrl(jobId, resetStart, resetEnd);
+        LOGGER.debug("Uploading file " + dataFile + " to " + postUrl);
+
+        HttpAsyncRequestProducer producer;
+        try
+        {
+            producer = new ZeroCopyPost(postUrl, dataFile,
+                    ContentType.APPLICATION_OCTET_STREAM)
+            {
+                @Override
+                protected HttpEntityEnclosingRequest createRequest(URI requestURI,
+                        HttpEntity entity)
+                {
+                    HttpEntityEnclosingRequest request = super.createRequest(requestURI, entity);
+                    if (compressed)
+                    {
+                        request.addHeader("Content-Encoding", "gzip");
+                    }
+                    return request;
+                }
+            };
+        }
+        catch (FileNotFoundException e)
+        {
+            return failedFuture(e);
+        }
+
+        return execute(producer, postUrl, response -> convertUploadResponse(response, "File upload"));
+    }
+
+    /**
+     * Flush the job, ensuring that no previously uploaded data is waiting in
+     * buffers.
+     *
+     * @param jobId The Job's unique Id
+     * @param calcInterim Should interim results be calculated based on the
+     * partial data uploaded so far?
+     * @return A future that completes with true if successful
+     */
+    public CompletableFuture<Boolean> flushJob(String jobId, boolean calcInterim)
+    {
+        return flushJob(jobId, calcInterim, "", "");
+    }
+
+    /**
+     * Flush the job, ensuring that no previously uploaded data is waiting in
+     * buffers.
+     *
+     * @param jobId The Job's unique Id
+     * @param calcInterim Should interim results be calculated based on the
+     * partial data uploaded so far?
+     * @param start The start of the time range to calculate interim results for (inclusive)
+     * @param end The end of the time range to calculate interim results for (exclusive)
+     * @return A future that completes with true if successful
+     * @see EngineApiClient#flushJob(String, boolean, String, String)
+     */
+    public CompletableFuture<Boolean> flushJob(String jobId, boolean calcInterim,
+            String start, String end)
+    {
+        String flushUrl = String.format(m_BaseUrl + "/data/%s/flush?calcInterim=%s&start=%s&end=%s",
+                jobId, calcInterim ? "true" : "false", start, end);
+        LOGGER.debug("Flushing job " + flushUrl);
+
+        return execute(new HttpPost(flushUrl), HttpStatus.SC_OK, "flushing job " + jobId,
+                entity -> true);
+    }
+
+    /**
+     * Finish the job after all the data has been uploaded
+     *
+     * @param jobId The Job's unique Id
+     * @return A future that completes with true if successful
+     */
+    public CompletableFuture<Boolean> closeJob(String jobId)
+    {
+        String closeUrl = m_BaseUrl + "/data/" + jobId + "/close";
+        LOGGER.debug("Closing job " + closeUrl);
+
+        return execute(new HttpPost(closeUrl), HttpStatus.SC_ACCEPTED, "closing job " + jobId,
+                entity -> true);
+    }
+
+    /**
+     * Returns a {@link BucketsRequestBuilder} for the given job through which
+     * the request can be configured and executed with
+     * {@linkplain BucketsRequestBuilder#getAsync()}
+     *
+     * @param jobId The jobId for which buckets are requested
+     * @return A {@link BucketsRequestBuilder}
+     */
+    public BucketsRequestBuilder prepareGetBuckets(String jobId)
+    {
+        return new BucketsRequestBuilder(this, jobId);
+    }
+
+    /**
+     * Returns a {@link BucketRequestBuilder} for the given job through which
+     * the request can be configured and executed with
+     * {@linkplain BucketRequestBuilder#getAsync()}
+     *
+     * @param jobId The jobId for which a bucket is requested
+     * @param bucketId The bucketId for this request
+     * @return A {@link BucketRequestBuilder}
+     */
+    public BucketRequestBuilder prepareGetBucket(String jobId, String bucketId)
+    {
+        return new BucketRequestBuilder(this, jobId, bucketId);
+    }
+
+    /**
+     * Returns a {@link RecordsRequestBuilder} for the given job through which
+     * the request can be configured and executed with
+     * {@linkplain RecordsRequestBuilder#getAsync()}
+     *
+     * @param jobId The jobId for which records are requested
+     * @return A {@link RecordsRequestBuilder}
+     */
+    public RecordsRequestBuilder prepareGetRecords(String jobId)
+    {
+        return new RecordsRequestBuilder(this, jobId);
+    }
+
+    /**
+     * Returns a {@link CategoryDefinitionsRequestBuilder} for the given job
+     * through which the request can be configured and executed with
+     * {@linkplain CategoryDefinitionsRequestBuilder#getAsync()}
+     *
+     * @param jobId The jobId for which category definitions are requested
+     * @return A {@link CategoryDefinitionsRequestBuilder}
+     */
+    public CategoryDefinitionsRequestBuilder prepareGetCategoryDefinitions(String jobId)
+    {
+        return new CategoryDefinitionsRequestBuilder(this, jobId);
+    }
+
+    /**
+     * Get a single category definition
+     *
+     * @param jobId the job id
+     * @param categoryId the job's category id
+     * @return A future for the {@link SingleDocument} containing the
+     * requested {@link CategoryDefinition}
+     */
+    public CompletableFuture<SingleDocument<CategoryDefinition>> getCategoryDefinition(
+            String jobId, String categoryId)
+    {
+        return new CategoryDefinitionRequestBuilder(this, jobId, categoryId).getAsync();
+    }
+
+    /**
+     * Long poll an alert from the job. The future completes when the alert
+     * occurs or the timeout period expires.
+     *
+     * @param jobId The job id
+     * @param timeout Timeout the request after this many seconds.
+     * If <code>null</code> then use the default.
+     * @param anomalyScoreThreshold Alert if a record has an anomalyScore threshold
+     * &gt;= this value, ignored if <code>null</code>.
+     * @param maxNormalizedProbability Alert if a bucket's maxNormalizedProbability
+     * is &gt;= this value, ignored if <code>null</code>.
+     * @return A future for the {@code Alert}
+     * @see EngineApiClient#pollJobAlert(String, Integer, Double, Double)
+     */
+    public CompletableFuture<Alert> pollJobAlert(String jobId, Integer timeout,
+            Double anomalyScoreThreshold, Double maxNormalizedProbability)
+    {
+        String url = m_BaseUrl + "/alerts_longpoll/" + jobId;
+        char queryChar = '?';
+        if (timeout != null)
+        {
+            url += "?timeout=" + timeout;
+            queryChar = '&';
+        }
+
+        if (anomalyScoreThreshold != null)
+        {
+            url += queryChar + "score=" + anomalyScoreThreshold;
+            queryChar = '&';
+        }
+
+        if (maxNormalizedProbability != null)
+        {
+            url += queryChar + "probability=" + maxNormalizedProbability;
+        }
+
+        return execute(new HttpGet(url), HttpStatus.SC_OK, "long polling alert for job " + jobId,
+                entity -> JsonEntityReader.read(JsonCodecs.ALERT, entity));
+    }
+
+    /**
+     * Stream data from <code>inputStream</code> to the preview service.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @return A future for the preview result
+     */
+    public CompletableFuture<String> previewUpload(String jobId, InputStream inputStream)
+    {
+        String postUrl = String.format("%s/preview/%s", m_BaseUrl, jobId);
+        return execute(createUploadPost(postUrl, inputStream, false), HttpStatus.SC_ACCEPTED,
+                "previewing upload", AsyncEngineApiClient::toString);
+    }
+
+    /**
+     * Get the last 10 lines of the job's latest log file
+     *
+     * @param jobId The Job's unique Id
+     * @return A future for the last 10 lines of the last log file
+     */
+    public CompletableFuture<String> tailLog(String jobId)
+    {
+        return tailLog(jobId, 10);
+    }
+
+    /**
+     * Tails the last <code>lineCount</code> lines from the job's
+     * last log file.
+     *
+     * @param jobId The Job's unique Id
+     * @param lineCount The number of lines to return
+     * @return A future for the last <code>lineCount</code> lines of the log file
+     */
+    public CompletableFuture<String> tailLog(String jobId, int lineCount)
+    {
+        String url = String.format("%s/logs/%s/tail?lines=%d", m_BaseUrl, jobId, lineCount);
+        LOGGER.debug("GET tail log " + url);
+
+        return getStringContent(url);
+    }
+
+    /**
+     * Tails the last <code>lineCount</code> lines from the named log file.
+     *
+     * @param jobId The Job's unique Id
+     * @param logfileName the name of the log file without the '.log' suffix.
+     * @param lineCount The number of lines to return
+     * @return A future for the last <code>lineCount</code> lines of the log file
+     */
+    public CompletableFuture<String> tailLog(String jobId, String logfileName, int lineCount)
+    {
+        String url = String.format("%s/logs/%s/%s/tail?lines=%d",
+                m_BaseUrl, jobId, logfileName, lineCount);
+        LOGGER.debug("GET tail log " + url);
+
+        return getStringContent(url);
+    }
+
+    /**
+     * Download the specified log file for the job.
+     *
+     * @param jobId The Job's unique Id
+     * @param logfileName the name of the log file without the '.log' suffix.
+     * @return A future for the log {@code String}
+     */
+    public CompletableFuture<String> downloadLog(String jobId, String logfileName)
+    {
+        String url = String.format("%s/logs/%s/%s", m_BaseUrl, jobId, logfileName);
+        LOGGER.debug("GET log file " + url);
+
+        return getStringContent(url);
+    }
+
+    /**
+     * Download all the log files for the given job. Unlike
+     * {@linkplain EngineApiClient#downloadAllLogs(String)} the zip file
+     * is buffered in memory so the connection is released as soon as the
+     * download completes.
+     *
+     * @param jobId The Job's unique Id
+     * @return A future for a ZipInputStream over the log files
+     */
+    public CompletableFuture<ZipInputStream> downloadAllLogs(String jobId)
+    {
+        String url = String.format("%s/logs/%s", m_BaseUrl, jobId);
+        LOGGER.debug("GET download logs " + url);
+
+        HttpGet get = new HttpGet(url);
+        return execute(HttpAsyncMethods.create(get), url, response ->
+        {
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
+            {
+                return new ZipInputStream(new ByteArrayInputStream(
+                        EntityUtils.toByteArray(response.getEntity())));
+            }
+            throw errorFromResponse(response, "downloading log files for job " + jobId);
+        });
+    }
+
+    /**
+     * A generic HTTP GET to any Url. The result is converted from Json to
+     * the type referenced in <code>typeRef</code>.
+     * <br>
+     * If the response code is 200 or 404 the returned content is parsed
+     * into an object of the generic parameter type <code>T</code>.
+     * The 404 status code is not considered an error it simply means an
+     * empty document was returned by the API.
+     *
+     * @param fullUrl the full url
+     * @param typeRef the type reference
+     * @param <T> the type reference
+     * @return A future for the parsed document
+     * @see EngineApiClient#get(String, TypeReference)
+     */
+    public <T> CompletableFuture<T> get(String fullUrl, TypeReference<T> typeRef)
+    {
+        return get(new HttpGet(fullUrl), JsonCodecs.reader(typeRef));
+    }
+
+    /**
+     * A generic HTTP GET to any URI.
+     *
+     * @param uri the uri
+     * @param typeRef the type reference
+     * @param <T> the type reference
+     * @return A future for the parsed document
+     * @see #get(String, TypeReference)
+     */
+    public <T> CompletableFuture<T> get(URI uri, TypeReference<T> typeRef)
+    {
+        return get(new HttpGet(uri), JsonCodecs.reader(typeRef));
+    }
+
+    public String getBaseUrl()
+    {
+        return m_BaseUrl;
+    }
+
+    /**
+     * GET a page of results. If the page cannot be found an empty
+     * page is returned.
+     */
+    <T> CompletableFuture<Pagination<T>> getPage(String fullUrl, ObjectReader reader)
+    {
+        return this.<Pagination<T>>get(new HttpGet(fullUrl), reader)
+                .thenApply(EngineApiClient::emptyIfNull);
+    }
+
+    /**
+     * GET a single document. If the document does not exist an
+     * empty document is returned.
+     */
+    <T> CompletableFuture<SingleDocument<T>> getSingleDocument(String fullUrl,
+            ObjectReader reader)
+    {
+        return this.<SingleDocument<T>>get(new HttpGet(fullUrl), reader)
+                .thenApply(EngineApiClient::emptyIfNull);
+    }
+
+    private <T> CompletableFuture<T> get(HttpGet get, ObjectReader reader)
+    {
+        LOGGER.debug("GET " + get.getURI());
+
+        return execute(HttpAsyncMethods.create(get), get.getURI().toString(), response ->
+        {
+            int statusCode = response.getStatusLine().getStatusCode();
+
+            // 404 errors return empty paging docs so still read them
+            if (statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_NOT_FOUND)
+            {
+                return JsonEntityReader.read(reader, response.getEntity());
+            }
+            throw errorFromResponse(response, "GET " + get.getURI());
+        });
+    }
+
+    private CompletableFuture<String> getStringContent(String url)
+    {
+        return execute(new HttpGet(url), HttpStatus.SC_OK, "reading string content",
+                AsyncEngineApiClient::toString);
+    }
+
+    private String dataUrl(String jobId, String resetStart, String resetEnd)
+    {
+        String postUrl = String.format("%s/data/%s", m_BaseUrl, jobId);
+        if (!isNullOrEmpty(resetStart) || !isNullOrEmpty(resetEnd))
+        {
+            postUrl += String.format("?resetStart=%s&resetEnd=%s",
+                    nullToEmpty(resetStart), nullToEmpty(resetEnd));
+        }
+        return postUrl;
+    }
+
+    private HttpPost createUploadPost(String postUrl, InputStream inputStream,
+            boolean compressed)
+    {
+        LOGGER.debug("Uploading data to " + postUrl);
+
+        PipedUploadEntity entity = new PipedUploadEntity(inputStream, m_UploadExecutor);
+
+        HttpPost post = new HttpPost(postUrl);
+        if (compressed)
+        {
+            post.addHeader("Content-Encoding", "gzip");
+        }
+        post.setEntity(entity);
+        return post;
+    }
+
+    private CompletableFuture<MultiDataPostResult> executeUpload(HttpPost post,
+            String activityDescription)
+    {
+        return execute(HttpAsyncMethods.create(post), post.getURI().toString(),
+                response -> convertUploadResponse(response, activityDescription));
+    }
+
+    /**
+     * Upload responses always contain a {@linkplain MultiDataPostResult}
+     * whether or not the upload succeeded.
+     */
+    private MultiDataPostResult convertUploadResponse(HttpResponse response,
+            String activityDescription) throws IOException
+    {
+        MultiDataPostResult result = JsonEntityReader.read(JsonCodecs.MULTI_DATA_POST_RESULT,
+                response.getEntity());
+        if (result == null)
+        {
+            result = new MultiDataPostResult();
+        }
+
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_ACCEPTED)
+        {
+            LOGGER.error(String.format("%s failed, status code = %d. Returned content: %s",
+                    activityDescription, response.getStatusLine().getStatusCode(),
+                    JsonCodecs.MAPPER.writeValueAsString(result)));
+        }
+
+        return result;
+    }
+
+    /**
+     * Execute the request and if the status code matches
+     * <code>expectedStatus</code> convert the response content
+     * with <code>convertContentFunction</code> else complete
+     * the future with an {@linkplain EngineApiException}.
+     */
+    private <T> CompletableFuture<T> execute(HttpUriRequest request, int expectedStatus,
+            String activityDescription, FunctionThatThrowsIoException<HttpEntity, T> convertContentFunction)
+    {
+        return execute(HttpAsyncMethods.create(request), request.getURI().toString(), response ->
+        {
+            if (response.getStatusLine().getStatusCode() != expectedStatus)
+            {
+                throw errorFromResponse(response, activityDescription);
+            }
+            return convertContentFunction.apply(response.getEntity());
+        });
+    }
+
+    /**
+     * Adapt the http client's callback to a {@linkplain CompletableFuture}.
+     * The response entity is wrapped so compressed content is inflated
+     * as it is read. The response is converted by <code>convertResponseFunction</code>
+     * on the I/O dispatch thread, any exception it throws completes the
+     * future exceptionally. Cancelling the returned future aborts the request.
+     */
+    private <T> CompletableFuture<T> execute(HttpAsyncRequestProducer producer, String url,
+            FunctionThatThrowsIoException<HttpResponse, T> convertResponseFunction)
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        Future<HttpResponse> requestFuture = m_HttpClient.execute(producer,
+                HttpAsyncMethods.createConsumer(), new FutureCallback<HttpResponse>()
+                {
+                    @Override
+                    public void completed(HttpResponse response)
+                    {
+                        CountingDecompressingEntity entity = null;
+                        if (response.getEntity() != null)
+                        {
+                            entity = new CountingDecompressingEntity(response.getEntity());
+                            response.setEntity(entity);
+                        }
+
+                        try
+                        {
+                            result.complete(convertResponseFunction.apply(response));
+                            if (entity != null && entity.isCompressed() && LOGGER.isDebugEnabled())
+                            {
+                                LOGGER.debug(String.format(
+                                        "Received %d compressed bytes from %s, %d bytes decoded",
+                                        entity.getReceivedBytes(), url, entity.getDecodedBytes()));
+                            }
+                        }
+                        catch (IOException | RuntimeException e)
+                        {
+                            result.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception e)
+                    {
+                        LOGGER.error("Request to " + url + " failed", e);
+                        result.completeExceptionally(e);
+                    }
+
+                    @Override
+                    public void cancelled()
+                    {
+                        result.cancel(false);
+                    }
+                });
+
+        result.whenComplete((response, e) ->
+        {
+            if (result.isCancelled())
+            {
+                requestFuture.cancel(true);
+            }
+        });
+
+        return result;
+    }
+
+    private EngineApiException errorFromResponse(HttpResponse response,
+            String activityDescription) throws IOException
+    {
+        int statusCode = response.getStatusLine().getStatusCode();
+        ApiError error = parseApiError(response.getEntity());
+
+        String msg = String.format("Error %s. Status code = %d, Returned content: %s",
+                activityDescription, statusCode, error == null ? "" : error.toJson());
+        LOGGER.error(msg);
+
+        return new EngineApiException(msg, statusCode, error);
+    }
+
+    private ApiError parseApiError(HttpEntity entity) throws IOException
+    {
+        if (entity == null)
+        {
+            return null;
+        }
+
+        // Error documents are small, buffer so the raw content
+        // can be re-read if it is not an ApiError
+        HttpEntity buffered = new BufferedHttpEntity(entity);
+        try
+        {
+            return JsonEntityReader.readApiError(buffered);
+        }
+        catch (JsonProcessingException e)
+        {
+            // Not an API error document, e.g. a proxy error page
+            ApiError error = new ApiError(ErrorCode.UNKNOWN_ERROR);
+            error.setMessage(EntityUtils.toString(buffered));
+            return error;
+        }
+    }
+
+    private static String toString(HttpEntity entity) throws IOException
+    {
+        return entity == null ? "" : EntityUtils.toString(entity);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable e)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private static boolean isNullOrEmpty(String string)
+    {
+        return string == null || string.isEmpty();
+    }
+
+    private static String nullToEmpty(String string)
+    {
+        return string == null ? "" : string;
+    }
+
+    @FunctionalInterface
+    private interface FunctionThatThrowsIoException<T, R>
+    {
+        R apply(T input) throws IOException;
+    }
+}
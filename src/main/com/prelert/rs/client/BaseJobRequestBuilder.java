@@ -25,6 +25,7 @@ import java.util.StringJoiner;
 class BaseJobRequestBuilder<T>
 {
     private final EngineApiClient m_Client;
+    private final AsyncEngineApiClient m_AsyncClient;
     private final String m_JobId;
 
     /**
@@ -34,12 +35,24 @@ class BaseJobRequestBuilder<T>
     public BaseJobRequestBuilder(EngineApiClient client, String jobId)
     {
         m_Client = client;
+        m_AsyncClient = null;
+        m_JobId = jobId;
+    }
+
+    /**
+     * @param client The asynchronous Engine API client
+     * @param jobId The Job's unique Id
+     */
+    public BaseJobRequestBuilder(AsyncEngineApiClient client, String jobId)
+    {
+        m_Client = null;
+        m_AsyncClient = client;
         m_JobId = jobId;
     }
 
     protected String baseUrl()
     {
-        return m_Client.getBaseUrl();
+        return m_Client != null ? m_Client.getBaseUrl() : m_AsyncClient.getBaseUrl();
     }
 
     protected String jobId()
@@ -49,9 +62,24 @@ class BaseJobRequestBuilder<T>
 
     protected HttpGetRequester<T> createHttpGetRequester()
     {
+        if (m_Client == null)
+        {
+            throw new IllegalStateException(
+                    "Builder was created by an AsyncEngineApiClient, use getAsync()");
+        }
         return new HttpGetRequester<>(m_Client);
     }
 
+    protected AsyncEngineApiClient asyncClient()
+    {
+        if (m_AsyncClient == null)
+        {
+            throw new IllegalStateException(
+                    "Builder was created by an EngineApiClient, use get()");
+        }
+        return m_AsyncClient;
+    }
+
     protected static void appendParams(Map<String, String> params, StringBuilder url)
     {
         if (!params.isEmpty())
@@ -0,0 +1,443 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.prelert.job.JobDetails;
+import com.prelert.job.results.Bucket;
+import com.prelert.rs.data.Pagination;
+import com.prelert.rs.data.SingleDocument;
+
+/**
+ * Fetches many buckets, possibly from different jobs, in as few
+ * requests as possible.
+ * <br>
+ * Bucket Ids are the bucket's start time in seconds from the Epoch.
+ * The requested Ids of each job are sorted and runs of consecutive
+ * buckets, those exactly one bucket span apart, are fetched with a
+ * single {@linkplain BucketsRequestBuilder} range query. The remaining
+ * buckets are fetched one at a time. The requests are made concurrently
+ * by at most {@linkplain #concurrency(int)} threads.
+ * <br>
+ * The result maps {@linkplain #key(String, String)} of each requested
+ * bucket to its document in the order the buckets were added. Fetched
+ * buckets are matched to the requested Ids by their start time so Ids
+ * that are not in the canonical form, e.g. <code>"0100"</code>, are
+ * still found. Buckets that do not exist are mapped to an empty
+ * {@linkplain SingleDocument}, as {@linkplain BucketRequestBuilder#get()}
+ * returns.
+ */
+public class BucketBatchRequestBuilder
+{
+    private static final Logger LOGGER = Logger.getLogger(BucketBatchRequestBuilder.class);
+
+    /**
+     * The most buckets requested by a single range query
+     */
+    public static final int MAX_BUCKETS_PER_RANGE = 1000;
+
+    private final EngineApiClient m_Client;
+    private final Map<String, Set<String>> m_BucketIdsByJob;
+    private boolean m_Expand;
+    private boolean m_IncludeInterim;
+    private int m_Concurrency;
+
+    /**
+     * @param client The Engine API client
+     */
+    public BucketBatchRequestBuilder(EngineApiClient client)
+    {
+        m_Client = client;
+        m_BucketIdsByJob = new LinkedHashMap<>();
+        m_Concurrency = client.getMaxConnectionsPerRoute();
+    }
+
+    /**
+     * The key of a bucket in the result map
+     *
+     * @param jobId The Job's unique Id
+     * @param bucketId The bucket Id
+     * @return <code>jobId/bucketId</code>
+     */
+    public static String key(String jobId, String bucketId)
+    {
+        return jobId + "/" + bucketId;
+    }
+
+    /**
+     * Add a bucket to the batch
+     *
+     * @param jobId The Job's unique Id
+     * @param bucketId The bucket Id
+     * @return this {@code Builder} object
+     */
+    public BucketBatchRequestBuilder add(String jobId, String bucketId)
+    {
+        m_BucketIdsByJob.computeIfAbsent(jobId, id -> new LinkedHashSet<>()).add(bucketId);
+        return this;
+    }
+
+    /**
+     * Add the (jobId, bucketId) pairs to the batch
+     *
+     * @param buckets Pairs of the job Id and the bucket Id
+     * @return this {@code Builder} object
+     */
+    public BucketBatchRequestBuilder addAll(Collection<? extends Map.Entry<String, String>> buckets)
+    {
+        buckets.forEach(bucket -> add(bucket.getKey(), bucket.getValue()));
+        return this;
+    }
+
+    /**
+     * Sets whether anomaly records should be in-lined with the results. Default is false.
+     *
+     * @param shouldExpand Should the buckets be expanded to contain the records or not
+     * @return this {@code Builder} object
+     */
+    public BucketBatchRequestBuilder expand(boolean shouldExpand)
+    {
+        m_Expand = shouldExpand;
+        return this;
+    }
+
+    /**
+     * Sets whether interim results are included in result. Default is false.
+     *
+     * @param includeInterim Should interim results be included or not
+     * @return this {@code Builder} object
+     */
+    public BucketBatchRequestBuilder includeInterim(boolean includeInterim)
+    {
+        m_IncludeInterim = includeInterim;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent requests. Default is the
+     * client's maximum number of connections per route, more
+     * requests would only wait for a pooled connection.
+     *
+     * @param value The maximum number of concurrent requests
+     * @return this {@code Builder} object
+     */
+    public BucketBatchRequestBuilder concurrency(int value)
+    {
+        if (value <= 0)
+        {
+            throw new IllegalArgumentException("concurrency must be > 0 not " + value);
+        }
+        m_Concurrency = value;
+        return this;
+    }
+
+    /**
+     * Fetch the buckets. Errors are recorded for
+     * {@linkplain EngineApiClient#getLastError()}
+     *
+     * @return The buckets keyed by {@linkplain #key(String, String)}
+     * in the order they were added
+     * @throws IOException If a HTTP GET fails
+     */
+    public Map<String, SingleDocument<Bucket>> get() throws IOException
+    {
+        return m_Client.updateLastError(tryGet());
+    }
+
+    /**
+     * Fetch the buckets returning the result of the call. If any request
+     * fails the result is a failure with the first error but the value
+     * still holds the buckets that were fetched, the others are empty.
+     *
+     * @return The result, the value maps {@linkplain #key(String, String)}
+     * to the bucket in the order the buckets were added
+     * @throws IOException If a HTTP GET fails
+     */
+    public ApiResult<Map<String, SingleDocument<Bucket>>> tryGet() throws IOException
+    {
+        List<Callable<ApiResult<Map<String, SingleDocument<Bucket>>>>> requests = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : m_BucketIdsByJob.entrySet())
+        {
+            planRequests(entry.getKey(), entry.getValue(), requests);
+        }
+
+        Map<String, SingleDocument<Bucket>> fetched = new HashMap<>();
+        ApiResult<?> firstFailure = null;
+        int statusCode = 0;
+        for (ApiResult<Map<String, SingleDocument<Bucket>>> result : execute(requests))
+        {
+            fetched.putAll(result.getValue());
+            statusCode = result.getStatusCode();
+            if (result.isSuccess() == false && firstFailure == null)
+            {
+                firstFailure = result;
+            }
+        }
+
+        Map<String, SingleDocument<Bucket>> buckets = new LinkedHashMap<>();
+        m_BucketIdsByJob.forEach((jobId, bucketIds) -> bucketIds.forEach(bucketId ->
+        {
+            String key = key(jobId, bucketId);
+            SingleDocument<Bucket> doc = fetched.get(key);
+            buckets.put(key, doc == null ? new SingleDocument<>() : doc);
+        }));
+
+        if (firstFailure != null)
+        {
+            return ApiResult.failure(buckets, firstFailure.getError(),
+                    firstFailure.getStatusCode());
+        }
+        return ApiResult.success(buckets, statusCode);
+    }
+
+    /**
+     * Group the job's numeric bucket Ids into runs of consecutive
+     * buckets and add a request for each run and each other bucket
+     */
+    private void planRequests(String jobId, Set<String> bucketIds,
+            List<Callable<ApiResult<Map<String, SingleDocument<Bucket>>>>> requests)
+    throws IOException
+    {
+        TreeMap<Long, List<String>> idsByEpoch = new TreeMap<>();
+        for (String bucketId : bucketIds)
+        {
+            Long epoch = parseEpoch(bucketId);
+            if (epoch == null)
+            {
+                requests.add(() -> getBucket(jobId, bucketId,
+                        Collections.singletonList(bucketId)));
+            }
+            else
+            {
+                idsByEpoch.computeIfAbsent(epoch, e -> new ArrayList<>()).add(bucketId);
+            }
+        }
+
+        long bucketSpan = idsByEpoch.size() > 1 ? bucketSpan(jobId) : 0;
+        List<Long> run = new ArrayList<>();
+        for (Long epoch : idsByEpoch.keySet())
+        {
+            if (run.isEmpty() == false && (bucketSpan <= 0
+                    || epoch - run.get(run.size() - 1) != bucketSpan
+                    || run.size() == MAX_BUCKETS_PER_RANGE))
+            {
+                addRunRequest(jobId, run, idsByEpoch, requests);
+                run = new ArrayList<>();
+            }
+            run.add(epoch);
+        }
+        if (run.isEmpty() == false)
+        {
+            addRunRequest(jobId, run, idsByEpoch, requests);
+        }
+    }
+
+    private void addRunRequest(String jobId, List<Long> run,
+            Map<Long, List<String>> idsByEpoch,
+            List<Callable<ApiResult<Map<String, SingleDocument<Bucket>>>>> requests)
+    {
+        if (run.size() == 1)
+        {
+            long epoch = run.get(0);
+            List<String> requestedIds = idsByEpoch.get(epoch);
+            requests.add(() -> getBucket(jobId, Long.toString(epoch), requestedIds));
+        }
+        else
+        {
+            requests.add(() -> getBucketRange(jobId, run, idsByEpoch));
+        }
+    }
+
+    /**
+     * Fetch a bucket and map it to each of the requested Ids
+     */
+    private ApiResult<Map<String, SingleDocument<Bucket>>> getBucket(String jobId,
+            String bucketId, List<String> requestedIds)
+    throws IOException
+    {
+        return m_Client.prepareGetBucket(jobId, bucketId)
+                .expand(m_Expand)
+                .includeInterim(m_IncludeInterim)
+                .tryGet()
+                .map(doc ->
+                {
+                    Map<String, SingleDocument<Bucket>> docs = new HashMap<>();
+                    requestedIds.forEach(id -> docs.put(key(jobId, id), doc));
+                    return docs;
+                });
+    }
+
+    /**
+     * Fetch a run of buckets with a range query and map each to the Ids
+     * requested for its start time
+     */
+    private ApiResult<Map<String, SingleDocument<Bucket>>> getBucketRange(String jobId,
+            List<Long> run, Map<Long, List<String>> idsByEpoch)
+    throws IOException
+    {
+        long start = run.get(0);
+        long end = run.get(run.size() - 1) + 1;
+        LOGGER.debug(String.format("GET %d buckets for job %s in range [%d, %d)",
+                run.size(), jobId, start, end));
+
+        ApiResult<Pagination<Bucket>> page = m_Client.prepareGetBuckets(jobId)
+                .start(start)
+                .end(end)
+                .take(run.size())
+                .expand(m_Expand)
+                .includeInterim(m_IncludeInterim)
+                .tryGet();
+
+        return page.map(buckets ->
+        {
+            Map<String, SingleDocument<Bucket>> docs = new HashMap<>();
+            for (Bucket bucket : buckets.getDocuments())
+            {
+                SingleDocument<Bucket> doc = new SingleDocument<>();
+                doc.setExists(true);
+                doc.setDocumentId(bucket.getId());
+                doc.setDocument(bucket);
+                List<String> requestedIds = idsByEpoch.get(bucket.getEpoch());
+                if (requestedIds != null)
+                {
+                    requestedIds.forEach(id -> docs.put(key(jobId, id), doc));
+                }
+            }
+            return docs;
+        });
+    }
+
+    /**
+     * The job's bucket span in seconds
+     *
+     * @return The bucket span or 0 if it could not be read, in which
+     * case every bucket is fetched separately
+     */
+    private long bucketSpan(String jobId) throws IOException
+    {
+        ApiResult<SingleDocument<JobDetails>> job = m_Client.tryGetJob(jobId);
+        JobDetails details = job.getValue().getDocument();
+        if (details == null || details.getAnalysisConfig() == null
+                || details.getAnalysisConfig().getBucketSpan() == null)
+        {
+            LOGGER.warn("Cannot read the bucket span of job " + jobId
+                    + ", buckets will be fetched individually");
+            return 0;
+        }
+        return details.getAnalysisConfig().getBucketSpan();
+    }
+
+    private static Long parseEpoch(String bucketId)
+    {
+        try
+        {
+            return Long.valueOf(bucketId);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Run the requests on at most <code>m_Concurrency</code> threads
+     *
+     * @return The results in the same order as the requests
+     */
+    private <T> List<T> execute(List<Callable<T>> requests) throws IOException
+    {
+        List<T> results = new ArrayList<>(requests.size());
+        int threads = Math.min(m_Concurrency, requests.size());
+        if (threads <= 1)
+        {
+            for (Callable<T> request : requests)
+            {
+                results.add(call(request));
+            }
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("engine-api-bucket-batch-%d").build());
+        try
+        {
+            List<Future<T>> futures = new ArrayList<>(requests.size());
+            for (Callable<T> request : requests)
+            {
+                futures.add(executor.submit(request));
+            }
+            for (Future<T> future : futures)
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted fetching buckets", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T call(Callable<T> request) throws IOException
+    {
+        try
+        {
+            return request.call();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IOException(e);
+        }
+    }
+}
@@ -21,8 +21,8 @@ package com.prelert.rs.client;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.prelert.job.results.Bucket;
 import com.prelert.rs.data.SingleDocument;
 
@@ -47,6 +47,18 @@ public class BucketRequestBuilder extends BaseJobRequestBuilder<Bucket>
         m_BucketId = bucketId;
     }
 
+    /**
+     * @param client The asynchronous Engine API client
+     * @param jobId The Job's unique Id
+     * @param bucketId The id of the requested bucket
+     */
+    public BucketRequestBuilder(AsyncEngineApiClient client, String jobId, String bucketId)
+    {
+        super(client, jobId);
+        m_Params = new HashMap<>();
+        m_BucketId = bucketId;
+    }
+
     /**
      * Sets whether anomaly records should be in-lined with the results. Default is false.
      *
@@ -78,11 +90,39 @@ public class BucketRequestBuilder extends BaseJobRequestBuilder<Bucket>
      * @throws IOException If HTTP GET fails
      */
     public SingleDocument<Bucket> get() throws IOException
+    {
+        return createHttpGetRequester().getSingleDocument(buildUrl(), JsonCodecs.BUCKET_DOCUMENT);
+    }
+
+    /**
+     * Request the bucket returning the result of the call
+     * rather than recording errors for {@linkplain EngineApiClient#getLastError()}
+     *
+     * @return The result, the value is an empty document if the request fails
+     * @throws IOException If HTTP GET fails
+     */
+    public ApiResult<SingleDocument<Bucket>> tryGet() throws IOException
+    {
+        return createHttpGetRequester().tryGetSingleDocument(buildUrl(),
+                JsonCodecs.BUCKET_DOCUMENT);
+    }
+
+    /**
+     * Asynchronously request the bucket.
+     * The builder must have been created by an {@linkplain AsyncEngineApiClient}
+     *
+     * @return A future for the {@link SingleDocument} containing the requested {@link Bucket}
+     */
+    public CompletableFuture<SingleDocument<Bucket>> getAsync()
+    {
+        return asyncClient().getSingleDocument(buildUrl(), JsonCodecs.BUCKET_DOCUMENT);
+    }
+
+    private String buildUrl()
     {
         StringBuilder url = new StringBuilder();
         url.append(baseUrl()).append("/results/").append(jobId()).append("/buckets/").append(m_BucketId);
         appendParams(m_Params, url);
-        return createHttpGetRequester().getSingleDocument(url.toString(),
-                new TypeReference<SingleDocument<Bucket>>() {});
+        return url.toString();
     }
 }
@@ -23,8 +23,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.prelert.job.results.Bucket;
 import com.prelert.rs.data.Pagination;
 
@@ -55,6 +55,16 @@ public class BucketsRequestBuilder extends BaseJobRequestBuilder<Bucket>
         m_Params = new LinkedHashMap<>();
     }
 
+    /**
+     * @param client The asynchronous engine API client
+     * @param jobId The Job's unique Id
+     */
+    public BucketsRequestBuilder(AsyncEngineApiClient client, String jobId)
+    {
+        super(client, jobId);
+        m_Params = new LinkedHashMap<>();
+    }
+
     /**
      * Sets whether anomaly records should be in-lined with the results. Default is false.
      *
@@ -189,11 +199,38 @@ public class BucketsRequestBuilder extends BaseJobRequestBuilder<Bucket>
      * @throws IOException If HTTP GET fails
      */
     public Pagination<Bucket> get() throws IOException
+    {
+        return createHttpGetRequester().getPage(buildUrl(), JsonCodecs.BUCKETS_PAGE);
+    }
+
+    /**
+     * Request the page of buckets returning the result of the call
+     * rather than recording errors for {@linkplain EngineApiClient#getLastError()}
+     *
+     * @return The result, the value is an empty page if the request fails
+     * @throws IOException If HTTP GET fails
+     */
+    public ApiResult<Pagination<Bucket>> tryGet() throws IOException
+    {
+        return createHttpGetRequester().tryGetPage(buildUrl(), JsonCodecs.BUCKETS_PAGE);
+    }
+
+    /**
+     * Asynchronously request the page of buckets.
+     * The builder must have been created by an {@linkplain AsyncEngineApiClient}
+     *
+     * @return A future for the {@link Pagination} object containing the {@link Bucket} objects
+     */
+    public CompletableFuture<Pagination<Bucket>> getAsync()
+    {
+        return asyncClient().getPage(buildUrl(), JsonCodecs.BUCKETS_PAGE);
+    }
+
+    private String buildUrl()
     {
         StringBuilder url = new StringBuilder();
         url.append(baseUrl()).append("/results/").append(jobId()).append("/buckets");
         appendParams(m_Params, url);
-        return createHttpGetRequester().getPage(url.toString(),
-                new TypeReference<Pagination<Bucket>>() {});
+        return url.toString();
     }
 }
@@ -0,0 +1,182 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.prelert.job.JobDetails;
+import com.prelert.rs.data.SingleDocument;
+
+/**
+ * Runs the same {@linkplain EngineApiClient} call for many keys, e.g.
+ * fetching or flushing thousands of jobs, concurrently.
+ * <br>
+ * On Java 21 or later each call runs on a virtual thread, otherwise on
+ * a pool of platform threads. Either way at most
+ * <code>maxConcurrency</code> calls are in flight at once, set it to
+ * the client's maximum connections per route as more calls only wait
+ * for a pooled connection.
+ * <br>
+ * Implements closeable so it can be used in a try-with-resource
+ * statement. Closing does not close the client.
+ */
+public class BulkOperations implements Closeable
+{
+    /**
+     * A blocking client call for one key
+     *
+     * @param <K> The key type e.g. the job Id
+     * @param <V> The type of the call's result
+     */
+    @FunctionalInterface
+    public interface Call<K, V>
+    {
+        V call(K key) throws IOException;
+    }
+
+    private final EngineApiClient m_Client;
+    private final ExecutorService m_Executor;
+    private final Semaphore m_Permits;
+
+    /**
+     * @param client The client used for the calls
+     * @param maxConcurrency The maximum number of calls in flight
+     */
+    public BulkOperations(EngineApiClient client, int maxConcurrency)
+    {
+        if (maxConcurrency <= 0)
+        {
+            throw new IllegalArgumentException("maxConcurrency must be > 0 not " + maxConcurrency);
+        }
+        m_Client = client;
+        m_Executor = FanOutExecutors.create(maxConcurrency);
+        m_Permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * @return True if calls run on virtual threads
+     */
+    public static boolean isVirtualThreads()
+    {
+        return FanOutExecutors.isVirtualThreadsAvailable();
+    }
+
+    /**
+     * Make <code>call</code> for every key and wait for them all
+     * to complete. Duplicate keys are called once.
+     *
+     * @param keys The keys
+     * @param call The call to make for each key
+     * @return The results keyed and ordered as <code>keys</code>
+     * @throws IOException The first exception thrown by a call, the
+     * calls still running are cancelled
+     */
+    public <K, V> Map<K, V> invokeAll(Collection<K> keys, Call<K, V> call) throws IOException
+    {
+        List<K> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+        List<Future<V>> futures = new ArrayList<>(distinctKeys.size());
+        try
+        {
+            for (K key : distinctKeys)
+            {
+                futures.add(m_Executor.submit(() ->
+                {
+                    m_Permits.acquire();
+                    try
+                    {
+                        return call.call(key);
+                    }
+                    finally
+                    {
+                        m_Permits.release();
+                    }
+                }));
+            }
+
+            Map<K, V> results = new LinkedHashMap<>();
+            for (int i = 0; i < distinctKeys.size(); i++)
+            {
+                results.put(distinctKeys.get(i), futures.get(i).get());
+            }
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for bulk calls", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Get the details of every job
+     *
+     * @param jobIds The job Ids
+     * @return The result for each job in the order of <code>jobIds</code>
+     * @throws IOException If a HTTP GET fails
+     */
+    public Map<String, ApiResult<SingleDocument<JobDetails>>> getJobs(Collection<String> jobIds)
+    throws IOException
+    {
+        return invokeAll(jobIds, m_Client::tryGetJob);
+    }
+
+    /**
+     * Flush every job without calculating interim results
+     *
+     * @param jobIds The job Ids
+     * @return The result for each job in the order of <code>jobIds</code>
+     * @throws IOException If a HTTP POST fails
+     */
+    public Map<String, ApiResult<Void>> flushJobs(Collection<String> jobIds)
+    throws IOException
+    {
+        return invokeAll(jobIds, jobId -> m_Client.tryFlushJob(jobId, false, "", ""));
+    }
+
+    /**
+     * Shut down the executor
+     */
+    @Override
+    public void close()
+    {
+        m_Executor.shutdownNow();
+    }
+}
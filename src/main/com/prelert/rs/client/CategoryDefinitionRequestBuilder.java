@@ -19,8 +19,8 @@
 package com.prelert.rs.client;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.prelert.job.results.CategoryDefinition;
 import com.prelert.rs.data.SingleDocument;
 
@@ -39,6 +39,18 @@ public class CategoryDefinitionRequestBuilder extends BaseJobRequestBuilder<Cate
         m_CategoryId = categoryId;
     }
 
+    /**
+     * @param client The asynchronous engine API client
+     * @param jobId The Job's unique Id
+     * @param categoryId the job's category id
+     */
+    public CategoryDefinitionRequestBuilder(AsyncEngineApiClient client, String jobId,
+            String categoryId)
+    {
+        super(client, jobId);
+        m_CategoryId = categoryId;
+    }
+
     /**
      * Returns a single document with the category definition that was requested
      * 
@@ -47,11 +59,41 @@ public class CategoryDefinitionRequestBuilder extends BaseJobRequestBuilder<Cate
      * @throws IOException If HTTP GET fails
      */
     public SingleDocument<CategoryDefinition> get() throws IOException
+    {
+        return createHttpGetRequester().getSingleDocument(buildUrl(),
+                JsonCodecs.CATEGORY_DEFINITION_DOCUMENT);
+    }
+
+    /**
+     * Request the category definition returning the result of the call
+     * rather than recording errors for {@linkplain EngineApiClient#getLastError()}
+     *
+     * @return The result, the value is an empty document if the request fails
+     * @throws IOException If HTTP GET fails
+     */
+    public ApiResult<SingleDocument<CategoryDefinition>> tryGet() throws IOException
+    {
+        return createHttpGetRequester().tryGetSingleDocument(buildUrl(),
+                JsonCodecs.CATEGORY_DEFINITION_DOCUMENT);
+    }
+
+    /**
+     * Asynchronously request the category definition.
+     * The builder must have been created by an {@linkplain AsyncEngineApiClient}
+     *
+     * @return A future for the {@link SingleDocument} containing the requested
+     * {@link CategoryDefinition}
+     */
+    public CompletableFuture<SingleDocument<CategoryDefinition>> getAsync()
+    {
+        return asyncClient().getSingleDocument(buildUrl(), JsonCodecs.CATEGORY_DEFINITION_DOCUMENT);
+    }
+
+    private String buildUrl()
     {
         StringBuilder url = new StringBuilder();
         url.append(baseUrl()).append("/results/").append(jobId()).append("/categorydefinitions/")
                 .append(m_CategoryId);
-        return createHttpGetRequester().getSingleDocument(url.toString(),
-                new TypeReference<SingleDocument<CategoryDefinition>>() {});
+        return url.toString();
     }
 }
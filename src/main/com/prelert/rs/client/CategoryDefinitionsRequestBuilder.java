@@ -21,8 +21,8 @@ package com.prelert.rs.client;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.prelert.job.results.CategoryDefinition;
 import com.prelert.rs.data.Pagination;
 
@@ -40,6 +40,16 @@ public class CategoryDefinitionsRequestBuilder extends BaseJobRequestBuilder<Cat
         m_Params = new LinkedHashMap<>();
     }
 
+    /**
+     * @param client The asynchronous engine API client
+     * @param jobId The Job's unique Id
+     */
+    public CategoryDefinitionsRequestBuilder(AsyncEngineApiClient client, String jobId)
+    {
+        super(client, jobId);
+        m_Params = new LinkedHashMap<>();
+    }
+
     /**
      * Sets the number of category definitions to skip. Default is 0.
      *
@@ -71,11 +81,40 @@ public class CategoryDefinitionsRequestBuilder extends BaseJobRequestBuilder<Cat
      * @throws IOException If HTTP GET fails
      */
     public Pagination<CategoryDefinition> get() throws IOException
+    {
+        return createHttpGetRequester().getPage(buildUrl(), JsonCodecs.CATEGORY_DEFINITIONS_PAGE);
+    }
+
+    /**
+     * Request the page of category definitions returning the result of the call
+     * rather than recording errors for {@linkplain EngineApiClient#getLastError()}
+     *
+     * @return The result, the value is an empty page if the request fails
+     * @throws IOException If HTTP GET fails
+     */
+    public ApiResult<Pagination<CategoryDefinition>> tryGet() throws IOException
+    {
+        return createHttpGetRequester().tryGetPage(buildUrl(),
+                JsonCodecs.CATEGORY_DEFINITIONS_PAGE);
+    }
+
+    /**
+     * Asynchronously request the page of category definitions.
+     * The builder must have been created by an {@linkplain AsyncEngineApiClient}
+     *
+     * @return A future for the {@link Pagination} object containing the
+     * {@link CategoryDefinition} objects
+     */
+    public CompletableFuture<Pagination<CategoryDefinition>> getAsync()
+    {
+        return asyncClient().getPage(buildUrl(), JsonCodecs.CATEGORY_DEFINITIONS_PAGE);
+    }
+
+    private String buildUrl()
     {
         StringBuilder url = new StringBuilder();
         url.append(baseUrl()).append("/results/").append(jobId()).append("/categorydefinitions");
         appendParams(m_Params, url);
-        return createHttpGetRequester().getPage(url.toString(),
-                new TypeReference<Pagination<CategoryDefinition>>() {});
+        return url.toString();
     }
 }
@@ -0,0 +1,152 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import com.prelert.rs.client.RecordChunker.Chunk;
+
+/**
+ * Reads chunks from a {@linkplain RecordChunker} on a background
+ * thread so the next chunks are ready while the previous one is being
+ * uploaded. A fixed set of <code>depth + 1</code> buffers is reused:
+ * the reader fills free buffers, the uploader takes filled buffers in
+ * order and releases each one once its upload has completed. The reader
+ * blocks when all the buffers are full, bounding the memory used to
+ * about <code>(depth + 1) * chunkSize</code>.
+ */
+class ChunkPipeline implements Closeable
+{
+    private static final Logger LOGGER = Logger.getLogger(ChunkPipeline.class);
+
+    /**
+     * Marks the end of the chunks
+     */
+    private static final Chunk END = new Chunk(0);
+
+    private final BlockingQueue<Chunk> m_Free;
+    private final BlockingQueue<Chunk> m_Filled;
+    private final Thread m_Reader;
+    private volatile IOException m_ReadError;
+
+    /**
+     * @param chunker The source of the chunks
+     * @param depth The number of chunks read ahead of the upload
+     * @param chunkSize The initial size of each buffer
+     */
+    ChunkPipeline(RecordChunker chunker, int depth, int chunkSize)
+    {
+        m_Free = new ArrayBlockingQueue<>(depth + 1);
+        m_Filled = new ArrayBlockingQueue<>(depth + 2);
+        for (int i = 0; i <= depth; i++)
+        {
+            m_Free.add(new Chunk(chunkSize));
+        }
+
+        m_Reader = new Thread(() -> read(chunker), "engine-api-chunk-reader");
+        m_Reader.setDaemon(true);
+        m_Reader.start();
+    }
+
+    private void read(RecordChunker chunker)
+    {
+        try
+        {
+            while (true)
+            {
+                Chunk chunk = m_Free.take();
+                if (chunker.fill(chunk) == false)
+                {
+                    break;
+                }
+                m_Filled.put(chunk);
+            }
+        }
+        catch (IOException e)
+        {
+            m_ReadError = e;
+        }
+        catch (RuntimeException e)
+        {
+            m_ReadError = new IOException("Failed to read the upload chunks", e);
+        }
+        catch (InterruptedException e)
+        {
+            LOGGER.debug("Chunk reader interrupted");
+            return;
+        }
+
+        // there is always room for the end marker
+        m_Filled.add(END);
+    }
+
+    /**
+     * The next chunk in order, blocking until it has been read
+     *
+     * @return The chunk or <code>null</code> if there are no more
+     * @throws IOException If reading the input failed
+     */
+    Chunk next() throws IOException
+    {
+        Chunk chunk;
+        try
+        {
+            chunk = m_Filled.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the next chunk");
+        }
+
+        if (chunk == END)
+        {
+            if (m_ReadError != null)
+            {
+                throw m_ReadError;
+            }
+            return null;
+        }
+        return chunk;
+    }
+
+    /**
+     * Return a chunk's buffer for reuse once it has been uploaded
+     */
+    void release(Chunk chunk)
+    {
+        m_Free.add(chunk);
+    }
+
+    /**
+     * Stop the reader thread. If it is blocked reading the input it
+     * stops once the read returns.
+     */
+    @Override
+    public void close()
+    {
+        m_Reader.interrupt();
+    }
+}
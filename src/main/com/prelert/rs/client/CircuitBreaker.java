@@ -0,0 +1,183 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stops requests being sent to an Engine API host that is failing.
+ * <br>
+ * The breaker starts closed and requests pass through. After
+ * <code>failureThreshold</code> consecutive failures it opens and
+ * requests fail immediately with a {@linkplain CircuitBreakerOpenException}
+ * for the open duration. Then a single trial request is let through: if
+ * it succeeds the breaker closes, if it fails the breaker opens again.
+ * <br>
+ * A failure is a connection error, timeout or a 502, 503 or 504 response.
+ * Any other response, including 4xx errors, shows the host is healthy.
+ * <br>
+ * State is guarded by a <code>ReentrantLock</code> rather than
+ * <code>synchronized</code> so callers on virtual threads are never
+ * pinned to their carrier thread.
+ */
+class CircuitBreaker
+{
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class);
+
+    private enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String m_Name;
+    private final int m_FailureThreshold;
+    private final long m_OpenMs;
+
+    private final ReentrantLock m_Lock = new ReentrantLock();
+    private State m_State = State.CLOSED;
+    private int m_ConsecutiveFailures;
+    private long m_OpenedAtNanos;
+
+    /**
+     * @param name Identifies the host in log messages and exceptions
+     * @param failureThreshold The number of consecutive failures that opens the breaker
+     * @param openMs How long the breaker stays open before a trial request
+     */
+    CircuitBreaker(String name, int failureThreshold, long openMs)
+    {
+        m_Name = name;
+        m_FailureThreshold = failureThreshold;
+        m_OpenMs = openMs;
+    }
+
+    /**
+     * Call before sending a request. If no exception is thrown
+     * {@linkplain #onSuccess()}, {@linkplain #onFailure()} or
+     * {@linkplain #onNoOutcome()} must be called with the outcome.
+     *
+     * @throws CircuitBreakerOpenException If the breaker is open
+     */
+    void acquire() throws CircuitBreakerOpenException
+    {
+        m_Lock.lock();
+        try
+        {
+            acquireLocked();
+        }
+        finally
+        {
+            m_Lock.unlock();
+        }
+    }
+
+    private void acquireLocked() throws CircuitBreakerOpenException
+    {
+        switch (m_State)
+        {
+            case CLOSED:
+                return;
+            case OPEN:
+                long openForMs = (System.nanoTime() - m_OpenedAtNanos) / 1000000;
+                if (openForMs >= m_OpenMs)
+                {
+                    LOGGER.info("Circuit breaker for " + m_Name + " sending trial request");
+                    m_State = State.HALF_OPEN;
+                    return;
+                }
+                throw new CircuitBreakerOpenException("Circuit breaker for " + m_Name
+                        + " is open after " + m_ConsecutiveFailures + " consecutive failures",
+                        m_OpenMs - openForMs);
+            default:
+                throw new CircuitBreakerOpenException("Circuit breaker for " + m_Name
+                        + " is waiting for the result of a trial request", 0);
+        }
+    }
+
+    void onSuccess()
+    {
+        m_Lock.lock();
+        try
+        {
+            onSuccessLocked();
+        }
+        finally
+        {
+            m_Lock.unlock();
+        }
+    }
+
+    private void onSuccessLocked()
+    {
+        if (m_State != State.CLOSED)
+        {
+            LOGGER.info("Circuit breaker for " + m_Name + " closed");
+        }
+        m_State = State.CLOSED;
+        m_ConsecutiveFailures = 0;
+    }
+
+    void onFailure()
+    {
+        m_Lock.lock();
+        try
+        {
+            onFailureLocked();
+        }
+        finally
+        {
+            m_Lock.unlock();
+        }
+    }
+
+    /**
+     * The request failed for a reason that says nothing about the
+     * service, e.g. reading the data to upload failed. A failed trial
+     * request is sent again by the next caller.
+     */
+    void onNoOutcome()
+    {
+        m_Lock.lock();
+        try
+        {
+            if (m_State == State.HALF_OPEN)
+            {
+                // still opened long enough ago so the next acquire is a trial
+                m_State = State.OPEN;
+            }
+        }
+        finally
+        {
+            m_Lock.unlock();
+        }
+    }
+
+    private void onFailureLocked()
+    {
+        m_ConsecutiveFailures++;
+        if (m_State == State.HALF_OPEN
+                || (m_State == State.CLOSED && m_ConsecutiveFailures >= m_FailureThreshold))
+        {
+            LOGGER.warn("Circuit breaker for " + m_Name + " opened after "
+                    + m_ConsecutiveFailures + " consecutive failures");
+            m_State = State.OPEN;
+            m_OpenedAtNanos = System.nanoTime();
+        }
+    }
+}
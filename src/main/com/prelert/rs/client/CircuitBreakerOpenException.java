@@ -0,0 +1,51 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown without making a request when recent requests to the Engine
+ * API have failed and the client's circuit breaker is open.
+ * See {@linkplain EngineApiClientConfig.Builder#circuitBreaker(int, long, java.util.concurrent.TimeUnit)}
+ */
+public class CircuitBreakerOpenException extends IOException
+{
+    private static final long serialVersionUID = -3502219851762435012L;
+
+    private final long m_RetryInMs;
+
+    /**
+     * @param message The exception message
+     * @param retryInMs The time until the breaker lets a request through
+     */
+    public CircuitBreakerOpenException(String message, long retryInMs)
+    {
+        super(message);
+        m_RetryInMs = retryInMs;
+    }
+
+    /**
+     * The time until the circuit breaker lets a trial request through
+     * @return The time in milliseconds, 0 if a trial request is in progress
+     */
+    public long getRetryInMs()
+    {
+        return m_RetryInMs;
+    }
+}
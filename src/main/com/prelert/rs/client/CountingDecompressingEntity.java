@@ -0,0 +1,210 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Wraps a response entity counting the bytes received and, if the
+ * content is gzip or deflate encoded, inflating it as it is read so
+ * the compressed content is never buffered. The number of bytes after
+ * decoding is counted too so the saving from compression can be reported.
+ * <br>
+ * The counts are final once the content stream has been closed. Closing
+ * the stream reads to the end of the content, as closing the underlying
+ * connection stream does anyway, so the counts cover the whole response.
+ */
+final class CountingDecompressingEntity extends HttpEntityWrapper
+{
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    private final String m_Encoding;
+    private volatile CountingInputStream m_Received;
+    private volatile CountingInputStream m_Decoded;
+
+    CountingDecompressingEntity(HttpEntity wrapped)
+    {
+        super(wrapped);
+        Header contentEncoding = wrapped.getContentEncoding();
+        String encoding = contentEncoding == null ? null
+                : contentEncoding.getValue().trim().toLowerCase(Locale.ROOT);
+        m_Encoding = encoding == null || encoding.isEmpty() || encoding.equals("identity") ?
+                null : encoding;
+    }
+
+    /**
+     * @return True if the content was compressed
+     */
+    boolean isCompressed()
+    {
+        return m_Encoding != null;
+    }
+
+    /**
+     * @return The number of content bytes received so far
+     */
+    long getReceivedBytes()
+    {
+        CountingInputStream received = m_Received;
+        return received == null ? 0 : received.getCount();
+    }
+
+    /**
+     * @return The number of content bytes after decompression read so far
+     */
+    long getDecodedBytes()
+    {
+        CountingInputStream decoded = m_Decoded;
+        return decoded == null ? 0 : decoded.getCount();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        CountingInputStream received = new CountingInputStream(wrappedEntity.getContent());
+        CountingInputStream decoded = m_Encoding == null ? received
+                : new CountingInputStream(decode(received));
+        m_Received = received;
+        m_Decoded = decoded;
+
+        return new FilterInputStream(decoded)
+        {
+            private boolean m_Closed;
+
+            @Override
+            public void close() throws IOException
+            {
+                if (m_Closed)
+                {
+                    return;
+                }
+                m_Closed = true;
+
+                try
+                {
+                    byte [] buffer = new byte[DRAIN_BUFFER_SIZE];
+                    while (in.read(buffer) >= 0)
+                    {
+                        // read to the end of the content
+                    }
+                }
+                finally
+                {
+                    super.close();
+                }
+            }
+        };
+    }
+
+    private InputStream decode(InputStream received) throws IOException
+    {
+        switch (m_Encoding)
+        {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(received);
+            case "deflate":
+                return inflate(received);
+            default:
+                received.close();
+                throw new IOException("Unsupported Content-Encoding: " + m_Encoding);
+        }
+    }
+
+    /**
+     * The deflate content coding should be zlib wrapped but some
+     * servers send raw deflate data, check for a zlib header to decide.
+     */
+    private static InputStream inflate(InputStream received) throws IOException
+    {
+        PushbackInputStream stream = new PushbackInputStream(received, 2);
+        int first = stream.read();
+        int second = first < 0 ? -1 : stream.read();
+        if (second >= 0)
+        {
+            stream.unread(second);
+        }
+        if (first >= 0)
+        {
+            stream.unread(first);
+        }
+
+        boolean zlib = second >= 0 && (first & 0x0f) == Deflater.DEFLATED
+                && ((first << 8) | second) % 31 == 0;
+        Inflater inflater = new Inflater(zlib == false);
+        return new InflaterInputStream(stream, inflater)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Header getContentEncoding()
+    {
+        // the content is decoded
+        return m_Encoding == null ? super.getContentEncoding() : null;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        // the decoded length is unknown
+        return m_Encoding == null ? super.getContentLength() : -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        try (InputStream content = getContent())
+        {
+            byte [] buffer = new byte[DRAIN_BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer)) >= 0)
+            {
+                outstream.write(buffer, 0, read);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Counts the bytes of a request entity as they are written so the
+ * size of streamed uploads, which have no content length, is known.
+ */
+final class CountingRequestEntity extends HttpEntityWrapper
+{
+    private volatile long m_BytesWritten;
+
+    CountingRequestEntity(HttpEntity wrapped)
+    {
+        super(wrapped);
+    }
+
+    /**
+     * @return The number of bytes written by the last {@linkplain #writeTo(OutputStream)}
+     */
+    long getBytesWritten()
+    {
+        return m_BytesWritten;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        CountingOutputStream counting = new CountingOutputStream(outstream);
+        try
+        {
+            wrappedEntity.writeTo(counting);
+        }
+        finally
+        {
+            m_BytesWritten = counting.getCount();
+        }
+    }
+}
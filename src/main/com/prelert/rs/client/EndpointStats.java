@@ -0,0 +1,118 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the requests made to one Engine API
+ * endpoint, e.g. <code>GET /results/{jobId}/buckets</code>.
+ * See {@linkplain RequestMetrics}.
+ */
+public final class EndpointStats
+{
+    private final String m_Endpoint;
+    private final long m_RequestCount;
+    private final long m_ExceptionCount;
+    private final Map<Integer, Long> m_StatusCounts;
+    private final long m_RequestBytes;
+    private final long m_ResponseBytes;
+    private final LatencySnapshot m_Latency;
+
+    EndpointStats(String endpoint, long requestCount, long exceptionCount,
+            Map<Integer, Long> statusCounts, long requestBytes, long responseBytes,
+            LatencySnapshot latency)
+    {
+        m_Endpoint = endpoint;
+        m_RequestCount = requestCount;
+        m_ExceptionCount = exceptionCount;
+        m_StatusCounts = statusCounts;
+        m_RequestBytes = requestBytes;
+        m_ResponseBytes = responseBytes;
+        m_Latency = latency;
+    }
+
+    /**
+     * @return The HTTP method and path template
+     */
+    public String getEndpoint()
+    {
+        return m_Endpoint;
+    }
+
+    /**
+     * @return The number of calls made to the endpoint
+     */
+    public long getRequestCount()
+    {
+        return m_RequestCount;
+    }
+
+    /**
+     * @return The number of calls that failed with an exception
+     * rather than a response
+     */
+    public long getExceptionCount()
+    {
+        return m_ExceptionCount;
+    }
+
+    /**
+     * @return The number of responses for each HTTP status code
+     */
+    public Map<Integer, Long> getStatusCounts()
+    {
+        return m_StatusCounts;
+    }
+
+    /**
+     * @return The total size of the request content sent
+     */
+    public long getRequestBytes()
+    {
+        return m_RequestBytes;
+    }
+
+    /**
+     * @return The total size of the response content received.
+     * If the response was compressed this is the compressed size.
+     */
+    public long getResponseBytes()
+    {
+        return m_ResponseBytes;
+    }
+
+    /**
+     * The time from sending each request to reading its response
+     * content, including any retries
+     *
+     * @return The latency histogram
+     */
+    public LatencySnapshot getLatency()
+    {
+        return m_Latency;
+    }
+
+    @Override
+    public String toString()
+    {
+        return m_Endpoint + " [requests=" + m_RequestCount + ", exceptions=" + m_ExceptionCount
+                + ", status=" + m_StatusCounts + ", requestBytes=" + m_RequestBytes
+                + ", responseBytes=" + m_ResponseBytes + ", latency={" + m_Latency + "}]";
+    }
+}
@@ -21,17 +21,20 @@ package com.prelert.rs.client;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipInputStream;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -45,19 +48,22 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.prelert.job.DataDescription;
 import com.prelert.job.JobConfiguration;
 import com.prelert.job.JobDetails;
 import com.prelert.job.alert.Alert;
 import com.prelert.job.results.CategoryDefinition;
+import com.prelert.rs.client.RecordChunker.Chunk;
+import com.prelert.rs.client.upload.TimeOrderedMergeInputStream;
 import com.prelert.rs.data.ApiError;
 import com.prelert.rs.data.DataPostResponse;
 import com.prelert.rs.data.MultiDataPostResult;
@@ -70,6 +76,13 @@ import com.prelert.rs.data.SingleDocument;
  * <br>
  * Contains methods to create jobs, list jobs, upload data and query results.
  * <br>
+ * A single client can be shared by many threads. The <code>try</code>
+ * methods, e.g. {@linkplain #tryGetJob(String)}, return an
+ * {@linkplain ApiResult} holding the value or the API error for that call
+ * alone. The other methods return the value directly and record the error
+ * for {@linkplain #getLastError()} which only sees errors from calls made
+ * by the same thread.
+ * <br>
  * Implements closeable so it can be used in a try-with-resource statement
  */
 public class EngineApiClient implements Closeable
@@ -77,23 +90,71 @@ public class EngineApiClient implements Closeable
     private static final Logger LOGGER = Logger.getLogger(EngineApiClient.class);
 
     private final String m_BaseUrl;
-    private final ObjectMapper m_JsonMapper;
+    private final PoolingHttpClientConnectionManager m_ConnectionManager;
     private final CloseableHttpClient m_HttpClient;
-    private ApiError m_LastError;
+    private final ResilientRequestExecutor m_RequestExecutor;
+    private final IdleConnectionEvictor m_IdleConnectionEvictor;
+    private final RequestMetrics m_Metrics;
+    private final int m_UploadChunkSize;
+    private final int m_UploadPipelineDepth;
+    private final boolean m_UploadCompression;
+    private final int m_UploadCompressionLevel;
+    private final UploadGovernor m_UploadGovernor;
+    private final int m_RoutedUploadJobBuffer;
+    private final int m_RoutedUploadMemoryLimit;
+    private final long m_RoutedUploadIdleFlushMs;
+    private final ThreadLocal<ApiError> m_LastError;
 
     /**
-     * Creates a new http client and Json object mapper.
+     * Creates a new http client with the default connection settings
+     * and Json object mapper.
      * Call {@linkplain #close()} once finished
      *
      * @param baseUrl The base URL for the REST API including version number
      * e.g <code>http://localhost:8080/engine/v1/</code>
      */
     public EngineApiClient(String baseUrl)
+    {
+        this(baseUrl, EngineApiClientConfig.defaults());
+    }
+
+    /**
+     * Creates a new http client with a connection pool configured
+     * by <code>config</code> and Json object mapper.
+     * Call {@linkplain #close()} once finished
+     *
+     * @param baseUrl The base URL for the REST API including version number
+     * e.g <code>http://localhost:8080/engine/v1/</code>
+     * @param config The connection pool, timeout, socket and retry settings
+     */
+    public EngineApiClient(String baseUrl, EngineApiClientConfig config)
     {
         m_BaseUrl = baseUrl;
-        m_HttpClient = HttpClients.createDefault();
-        m_JsonMapper = new ObjectMapper();
-        m_JsonMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        m_ConnectionManager = HttpClientFactory.createConnectionManager(config);
+        m_HttpClient = HttpClientFactory.createHttpClient(config, m_ConnectionManager);
+        m_RequestExecutor = new ResilientRequestExecutor(m_HttpClient, config.getRetryPolicy(),
+                config.getCircuitBreakerFailureThreshold() > 0 ?
+                        new CircuitBreaker(baseUrl, config.getCircuitBreakerFailureThreshold(),
+                                config.getCircuitBreakerOpenMs())
+                        : null);
+        m_IdleConnectionEvictor = config.getIdleEvictionMs() > 0 ?
+                new IdleConnectionEvictor(config.getIdleEvictionMs(),
+                        m_ConnectionManager::closeExpiredConnections,
+                        idleMs -> m_ConnectionManager.closeIdleConnections(idleMs,
+                                TimeUnit.MILLISECONDS))
+                : null;
+        m_LastError = new ThreadLocal<>();
+        m_Metrics = new RequestMetrics(baseUrl);
+        m_UploadChunkSize = config.getUploadChunkSize();
+        m_UploadPipelineDepth = config.getUploadPipelineDepth();
+        m_UploadCompression = config.isUploadCompression();
+        m_UploadCompressionLevel = config.getUploadCompressionLevel();
+        m_UploadGovernor = config.getUploadRateLimit() > 0 || config.getInitialJobUploadRate() > 0 ?
+                new UploadGovernor(config.getUploadRateLimit(), config.getInitialJobUploadRate(),
+                        config.getMinJobUploadRate()) : null;
+        m_RoutedUploadJobBuffer = config.getRoutedUploadJobBuffer();
+        m_RoutedUploadMemoryLimit = config.getRoutedUploadMemoryLimit();
+        m_RoutedUploadIdleFlushMs = config.getRoutedUploadIdleFlushMs();
     }
 
     /**
@@ -102,9 +163,81 @@ public class EngineApiClient implements Closeable
     @Override
     public void close() throws IOException
     {
+        if (m_IdleConnectionEvictor != null)
+        {
+            m_IdleConnectionEvictor.close();
+        }
         m_HttpClient.close();
     }
 
+    /**
+     * Statistics for the connection pool: the number of connections
+     * leased, available in the pool and the number of requests
+     * pending a connection. Useful for sizing the pool under load.
+     *
+     * @return A snapshot of the connection pool statistics
+     */
+    public PoolStats getPoolStats()
+    {
+        return m_ConnectionManager.getTotalStats();
+    }
+
+    /**
+     * Latency, status code and payload size statistics for every
+     * endpoint this client has called
+     *
+     * @return The client's metrics, call {@linkplain RequestMetrics#snapshot()}
+     * to read them
+     */
+    public RequestMetrics getMetrics()
+    {
+        return m_Metrics;
+    }
+
+    /**
+     * The governor pacing this client's uploads
+     *
+     * @return The governor or <code>null</code> if neither an upload
+     * rate limit nor adaptive upload rates are configured
+     */
+    public UploadGovernor getUploadGovernor()
+    {
+        return m_UploadGovernor;
+    }
+
+    /**
+     * The most connections the pool opens to the Engine API host
+     */
+    int getMaxConnectionsPerRoute()
+    {
+        return m_ConnectionManager.getDefaultMaxPerRoute();
+    }
+
+    int getUploadChunkSize()
+    {
+        return m_UploadChunkSize;
+    }
+
+    int getRoutedUploadJobBuffer()
+    {
+        return m_RoutedUploadJobBuffer;
+    }
+
+    int getRoutedUploadMemoryLimit()
+    {
+        return m_RoutedUploadMemoryLimit;
+    }
+
+    long getRoutedUploadIdleFlushMs()
+    {
+        return m_RoutedUploadIdleFlushMs;
+    }
+
+    int getUploadPipelineDepth()
+    {
+        return m_UploadPipelineDepth;
+    }
+
     /**
      * Get details of all the jobs in database
      *
@@ -113,20 +246,26 @@ public class EngineApiClient implements Closeable
      */
     public Pagination<JobDetails> getJobs()
     throws IOException
+    {
+        return updateLastError(tryGetJobs());
+    }
+
+    /**
+     * Get details of all the jobs in database
+     *
+     * @return The result of the call. The value is an empty page if
+     * the request fails
+     * @throws IOException If HTTP GET fails
+     * @see #getJobs()
+     */
+    public ApiResult<Pagination<JobDetails>> tryGetJobs()
+    throws IOException
     {
         String url = m_BaseUrl + "/jobs";
         LOGGER.debug("GET jobs: " + url);
 
-        Pagination<JobDetails> page = this.get(url,
-                new TypeReference<Pagination<JobDetails>>() {});
-
-        if (page == null)
-        {
-            page = new Pagination<>();
-            page.setDocuments(Collections.<JobDetails>emptyList());
-        }
-
-        return page;
+        return this.<Pagination<JobDetails>>tryGet(url, JsonCodecs.JOBS_PAGE)
+                .map(EngineApiClient::emptyIfNull);
     }
 
     /**
@@ -140,18 +279,28 @@ public class EngineApiClient implements Closeable
      */
     public SingleDocument<JobDetails> getJob(String jobId)
     throws IOException
+    {
+        return updateLastError(tryGetJob(jobId));
+    }
+
+    /**
+     * Get the individual job on the provided URL
+     *
+     * @param jobId The Job's unique Id
+     *
+     * @return The result of the call. If the job does not exist or the
+     * request fails the value is an empty document
+     * @throws IOException if HTTP GET fails
+     * @see #getJob(String)
+     */
+    public ApiResult<SingleDocument<JobDetails>> tryGetJob(String jobId)
+    throws IOException
     {
         String url = m_BaseUrl + "/jobs/" + jobId;
         LOGGER.debug("GET job: " + url);
 
-        SingleDocument<JobDetails> doc = this.get(url,
-                new TypeReference<SingleDocument<JobDetails>>() {});
-
-        if (doc == null)
-        {
-            doc = new SingleDocument<>();
-        }
-        return doc;
+        return this.<SingleDocument<JobDetails>>tryGet(url, JsonCodecs.JOB_DOCUMENT)
+                .map(EngineApiClient::emptyIfNull);
     }
 
 
@@ -169,8 +318,23 @@ public class EngineApiClient implements Closeable
     public String createJob(JobConfiguration jobConfig)
     throws ClientProtocolException, IOException
     {
-        String payLoad = m_JsonMapper.writeValueAsString(jobConfig);
-        return createJob(payLoad);
+        return updateLastError(tryCreateJob(jobConfig));
+    }
+
+    /**
+     * Create a new Job from the <code>JobConfiguration</code> object.
+     *
+     * @param jobConfig the job configuration
+     * @return The result of the call, the value is the new job's Id
+     * or an empty string if there was an error
+     * @throws IOException If HTTP POST fails
+     * @see #createJob(JobConfiguration)
+     */
+    public ApiResult<String> tryCreateJob(JobConfiguration jobConfig)
+    throws IOException
+    {
+        String payLoad = JsonCodecs.JOB_CONFIGURATION.writeValueAsString(jobConfig);
+        return tryCreateJob(payLoad);
     }
 
 
@@ -186,6 +350,21 @@ public class EngineApiClient implements Closeable
      */
     public String createJob(String createJobPayload)
     throws ClientProtocolException, IOException
+    {
+        return updateLastError(tryCreateJob(createJobPayload));
+    }
+
+    /**
+     * Create a new job with the configuration in <code>createJobPayload</code>
+     *
+     * @param createJobPayload The Json configuration for the new job
+     * @return The result of the call, the value is the new job's Id
+     * or an empty string if there was an error
+     * @throws IOException if HTTP POST fails
+     * @see #createJob(String)
+     */
+    public ApiResult<String> tryCreateJob(String createJobPayload)
+    throws IOException
     {
         String url = m_BaseUrl + "/jobs";
         LOGGER.debug("Create job: " + url);
@@ -196,45 +375,20 @@ public class EngineApiClient implements Closeable
                 ContentType.create("application/json", "UTF-8"));
         post.setEntity(entity);
 
-        try (CloseableHttpResponse response = m_HttpClient.execute(post))
+        return execute(post, HttpStatus.SC_CREATED, "creating job", "", responseEntity ->
         {
-            HttpEntity responseEntity = response.getEntity();
-            String content = EntityUtils.toString(responseEntity);
+            Map<String, String> msg = JsonEntityReader.read(JsonCodecs.STRING_MAP,
+                    responseEntity);
 
-            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_CREATED)
+            if (msg != null && msg.containsKey("id"))
             {
-
-                Map<String, String> msg = m_JsonMapper.readValue(content,
-                        new TypeReference<Map<String, String>>() {} );
-
-                m_LastError = null;
-
-                if (msg.containsKey("id"))
-                {
-                    return msg.get("id");
-                }
-                else
-                {
-                    LOGGER.error("Job created but no 'id' field in returned content");
-                    LOGGER.error("Response Content = " + content);
-                }
-            }
-            else
-            {
-                String msg = String.format(
-                        "Error creating job status code = %d. "
-                        + "Returned content: %s",
-                        response.getStatusLine().getStatusCode(),
-                        content);
-
-                LOGGER.error(msg);
-
-                m_LastError = m_JsonMapper.readValue(content,
-                        new TypeReference<ApiError>() {} );
+                return msg.get("id");
             }
 
+            LOGGER.error("Job created but no 'id' field in returned content");
+            LOGGER.error("Response Content = " + msg);
             return "";
-        }
+        });
     }
 
 
@@ -250,6 +404,23 @@ public class EngineApiClient implements Closeable
      */
     public boolean setJobDescription(String jobId, String description)
     throws IOException
+    {
+        return isSuccess(trySetJobDescription(jobId, description));
+    }
+
+    /**
+     * PUTS the description parameter to the job and sets it as
+     * the job's new description field
+     *
+     * @param jobId The job's unique ID
+     * @param description New description field
+     *
+     * @return The result of the call
+     * @throws IOException If HTTP PUT fails
+     * @see #setJobDescription(String, String)
+     */
+    public ApiResult<Void> trySetJobDescription(String jobId, String description)
+    throws IOException
     {
         String url = m_BaseUrl + "/jobs/" + jobId + "/description";
         LOGGER.debug("PUT job description: " + url);
@@ -264,36 +435,12 @@ public class EngineApiClient implements Closeable
     /**
      * Executes an HTTP request and checks if the response was OK. If not, it logs the error.
      *
-     * @return True if response was OK, otherwise false.
+     * @return The result, successful if the response was OK
      */
-    private boolean executeRequest(HttpUriRequest httpRequest, String activityDescription)
+    private ApiResult<Void> executeRequest(HttpUriRequest httpRequest, String activityDescription)
             throws IOException, JsonParseException, JsonMappingException
     {
-        try (CloseableHttpResponse response = m_HttpClient.execute(httpRequest))
-        {
-            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
-            {
-                m_LastError = null;
-                return true;
-            }
-            else
-            {
-                String content = EntityUtils.toString(response.getEntity());
-                String msg = String.format(
-                        "Error %s. Status code = %d, "
-                        + "Returned content: %s",
-                        activityDescription,
-                        response.getStatusLine().getStatusCode(),
-                        content);
-
-                LOGGER.error(msg);
-
-                m_LastError = m_JsonMapper.readValue(content,
-                        new TypeReference<ApiError>() {} );
-
-                return false;
-            }
-        }
+        return execute(httpRequest, HttpStatus.SC_OK, activityDescription, null, entity -> null);
     }
 
     /**
@@ -306,6 +453,21 @@ public class EngineApiClient implements Closeable
      */
     public boolean deleteJob(String jobId)
     throws ClientProtocolException, IOException
+    {
+        return isSuccess(tryDeleteJob(jobId));
+    }
+
+    /**
+     * Delete an individual job
+     *
+     * @param jobId The Job's unique Id
+     * @return The result of the call, successful if the job
+     * existed and was deleted
+     * @throws IOException If HTTP DELETE fails
+     * @see #deleteJob(String)
+     */
+    public ApiResult<Void> tryDeleteJob(String jobId)
+    throws IOException
     {
         String url = m_BaseUrl + "/jobs/" + jobId;
         LOGGER.debug("DELETE job: " + url);
@@ -316,78 +478,150 @@ public class EngineApiClient implements Closeable
     }
 
     /**
-     * Read the input stream in 4Mb chunks and upload making a new connection
-     * for each chunk.
-     * The data is not set line-by-line or broken in chunks on newline
-     * boundaries it is send in fixed size blocks. The API will manage
-     * reconstructing the records from the chunks.
+     * Read the input stream in chunks and upload each chunk in a new request.
+     * Chunks end on record boundaries so no record is split between
+     * uploads and every chunk of delimited data starts with the header.
+     * The job's {@linkplain DataDescription} is read from the API to find
+     * the record format.
      *
      * @param jobId The Job's unique Id
      * @param inputStream The data to write to the web service
      * @return the multiple results in {@code MultiDataPostResult}
      * @throws IOException If HTTP POST fails
+     * @see #chunkedUpload(String, InputStream, DataDescription)
      * @see #streamingUpload(String, InputStream, boolean)
      */
     public MultiDataPostResult chunkedUpload(String jobId, InputStream inputStream)
     throws IOException
     {
-        String postUrl = m_BaseUrl + "/data/" + jobId;
-        LOGGER.debug("Uploading chunked data to " + postUrl);
+        return updateLastError(tryChunkedUpload(jobId, inputStream));
+    }
 
-        final int BUFF_SIZE = 4096 * 1024;
-        byte [] buffer = new byte[BUFF_SIZE];
-        int read = 0;
-        int uploadCount = 0;
-        MultiDataPostResult uploadSummary = new MultiDataPostResult();
+    /**
+     * Read the input stream in chunks and upload each chunk in a new request.
+     * Chunks end on record boundaries as described by <code>dataDescription</code>
+     * so no record is split between uploads and every chunk of delimited
+     * data starts with the header.
+     * <br>
+     * Chunks are read on a background thread while the previous chunk is
+     * being uploaded. The chunk size and the number of chunks read ahead are
+     * set by {@linkplain EngineApiClientConfig}. The chunks are uploaded
+     * one at a time, in order.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @param dataDescription The format of the data, must match the job's
+     * @return The upload summary with the total counts of all the chunks
+     * @throws IOException If HTTP POST fails
+     */
+    public MultiDataPostResult chunkedUpload(String jobId, InputStream inputStream,
+            DataDescription dataDescription)
+    throws IOException
+    {
+        return updateLastError(tryChunkedUpload(jobId, inputStream, dataDescription));
+    }
 
-        while ((read = inputStream.read(buffer)) > -1)
+    /**
+     * Read the input stream in chunks and upload each chunk in a new request.
+     * The job's {@linkplain DataDescription} is read from the API to find
+     * the record format.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @return The result of the call. The value is the upload summary
+     * with the total counts of all the chunks, the error is the first
+     * error returned for any chunk
+     * @throws IOException If HTTP POST fails
+     * @see #chunkedUpload(String, InputStream)
+     */
+    public ApiResult<MultiDataPostResult> tryChunkedUpload(String jobId, InputStream inputStream)
+    throws IOException
+    {
+        JobDetails job = tryGetJob(jobId).getValue().getDocument();
+        DataDescription dataDescription = job == null ? null : job.getDataDescription();
+        if (dataDescription == null)
         {
-            ByteArrayEntity entity = new ByteArrayEntity(buffer, 0, read);
-            entity.setContentType("application/octet-stream");
+            LOGGER.warn("Cannot read the data description of job " + jobId
+                    + ", assuming delimited data");
+            dataDescription = new DataDescription();
+        }
+        return tryChunkedUpload(jobId, inputStream, dataDescription);
+    }
 
-            LOGGER.info("Upload " + ++uploadCount);
+    /**
+     * Read the input stream in chunks and upload each chunk in a new request.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @param dataDescription The format of the data, must match the job's
+     * @return The result of the call. The value is the upload summary
+     * with the total counts of all the chunks, the error is the first
+     * error returned for any chunk
+     * @throws IOException If HTTP POST fails
+     * @see #chunkedUpload(String, InputStream, DataDescription)
+     */
+    public ApiResult<MultiDataPostResult> tryChunkedUpload(String jobId, InputStream inputStream,
+            DataDescription dataDescription)
+    throws IOException
+    {
+        String postUrl = m_BaseUrl + "/data/" + jobId;
+        LOGGER.debug("Uploading chunked data to " + postUrl);
 
+        RecordChunker chunker = new RecordChunker(inputStream, dataDescription,
+                m_UploadChunkSize);
+        UploadSummaries summaries = new UploadSummaries();
+        int uploadCount = 0;
+        int statusCode = 0;
+        ApiResult<MultiDataPostResult> firstFailure = null;
 
-            HttpPost post = new HttpPost(postUrl);
-            post.setEntity(entity);
-            try (CloseableHttpResponse response = m_HttpClient.execute(post))
+        try (ChunkPipeline pipeline = new ChunkPipeline(chunker, m_UploadPipelineDepth,
+                m_UploadChunkSize))
+        {
+            Chunk chunk;
+            while ((chunk = pipeline.next()) != null)
             {
+                LOGGER.info("Upload " + ++uploadCount);
 
-                String content = EntityUtils.toString(response.getEntity());
-
-                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_ACCEPTED)
+                ApiResult<MultiDataPostResult> result;
+                try
                 {
-                    String msg = String.format(
-                            "Upload of chunk %d failed, status code = %d. "
-                            + "Returned content: %s",
-                            uploadCount, response.getStatusLine().getStatusCode(),
-                            content);
-
-                    LOGGER.error(msg);
-
-                    uploadSummary = m_JsonMapper.readValue(content, new TypeReference<MultiDataPostResult>() {});
-
-                    m_LastError = null;
-                    for (DataPostResponse dpr : uploadSummary.getResponses())
-                    {
-                        if (dpr.getError() != null)
-                        {
-                            m_LastError = dpr.getError();
-                            break;
-                        }
-                    }
-
+                    result = uploadChunk(postUrl, chunk, "Upload of chunk " + uploadCount);
                 }
-                else
+                finally
                 {
-                    m_LastError = null;
+                    pipeline.release(chunk);
+                }
 
-                    uploadSummary = m_JsonMapper.readValue(content, new TypeReference<MultiDataPostResult>() {});
+                summaries.add(result.getValue());
+                statusCode = result.getStatusCode();
+                if (result.isSuccess() == false && firstFailure == null)
+                {
+                    firstFailure = result;
                 }
             }
         }
 
-        return uploadSummary;
+        if (firstFailure != null)
+        {
+            return ApiResult.failure(summaries.getResult(), firstFailure.getError(),
+                    firstFailure.getStatusCode());
+        }
+        return ApiResult.success(summaries.getResult(), statusCode);
+    }
+
+    /**
+     * POST the contents of a chunk
+     */
+    ApiResult<MultiDataPostResult> uploadChunk(String postUrl, Chunk chunk,
+            String activityDescription)
+    throws IOException
+    {
+        ByteArrayEntity entity = new ByteArrayEntity(chunk.getData(), 0, chunk.getLength());
+        entity.setContentType("application/octet-stream");
+
+        HttpPost post = new HttpPost(postUrl);
+        post.setEntity(entity);
+        return executeUpload(post, activityDescription);
     }
 
     /**
@@ -427,6 +661,33 @@ public class EngineApiClient implements Closeable
     public MultiDataPostResult streamingUpload(String jobId, InputStream inputStream, boolean compressed,
             String resetStart, String resetEnd)
     throws IOException
+    {
+        return updateLastError(tryStreamingUpload(jobId, inputStream, compressed,
+                resetStart, resetEnd));
+    }
+
+    /**
+     * Stream data from <code>inputStream</code> to the service.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @param compressed Is the data gzipped compressed?
+     * @param resetStart The start of the time range to reset buckets for (inclusive)
+     * @param resetEnd The end of the time range to reset buckets for (inclusive)
+     * @return The result of the call. The value is the upload summary
+     * whether or not the upload succeeded
+     * @throws IOException If HTTP POST fails
+     * @see #streamingUpload(String, InputStream, boolean, String, String)
+     */
+    public ApiResult<MultiDataPostResult> tryStreamingUpload(String jobId, InputStream inputStream,
+            boolean compressed, String resetStart, String resetEnd)
+    throws IOException
+    {
+        return executeStreamingUpload(inputStream, dataUrl(jobId, resetStart, resetEnd),
+                compressed);
+    }
+
+    String dataUrl(String jobId, String resetStart, String resetEnd)
     {
         String postUrl = String.format("%s/data/%s", m_BaseUrl, jobId);
         if (!isNullOrEmpty(resetStart) || !isNullOrEmpty(resetEnd))
@@ -434,8 +695,7 @@ public class EngineApiClient implements Closeable
             postUrl += String.format("?resetStart=%s&resetEnd=%s",
                     nullToEmpty(resetStart), nullToEmpty(resetEnd));
         }
-        return uploadStream(inputStream, postUrl, compressed, new MultiDataPostResult(), true,
-                content -> m_JsonMapper.readValue(content, new TypeReference<MultiDataPostResult>() {}));
+        return postUrl;
     }
 
 
@@ -452,6 +712,25 @@ public class EngineApiClient implements Closeable
     public MultiDataPostResult streamingUpload(List<String> jobIds, InputStream inputStream,
                                             boolean compressed)
     throws IOException
+    {
+        return updateLastError(tryStreamingUpload(jobIds, inputStream, compressed));
+    }
+
+    /**
+     * Read data from <code>inputStream</code> and upload to multiple jobs
+     * simultaneously.
+     *
+     * @param jobIds The list of jobs to send the data to
+     * @param inputStream The data to write to the web service
+     * @param compressed Is the data gzipped compressed?
+     * @return The result of the call. The value is the list of processed
+     * data counts/errors, the error is the first error for any job
+     * @throws IOException If HTTP POST fails
+     * @see #streamingUpload(List, InputStream, boolean)
+     */
+    public ApiResult<MultiDataPostResult> tryStreamingUpload(List<String> jobIds,
+            InputStream inputStream, boolean compressed)
+    throws IOException
     {
         StringJoiner joiner = new StringJoiner(",");
         for (String id : jobIds)
@@ -461,8 +740,7 @@ public class EngineApiClient implements Closeable
 
         String postUrl = String.format("%s/data/%s", m_BaseUrl, joiner.toString());
 
-        return uploadStream(inputStream, postUrl, compressed, new MultiDataPostResult(), true,
-                content -> m_JsonMapper.readValue(content, new TypeReference<MultiDataPostResult>() {}));
+        return executeStreamingUpload(inputStream, postUrl, compressed);
     }
 
 
@@ -472,10 +750,35 @@ public class EngineApiClient implements Closeable
         R apply(T input) throws IOException;
     }
 
-    private <T, E> T uploadStream(InputStream inputStream, String postUrl, boolean compressed,
-            T defaultReturnValue, boolean convertResponseOnError,
-            FunctionThatThrowsIoException<String, T> convertContentFunction)
+    /**
+     * Stream the upload gzipping it first if upload compression is
+     * enabled and the data is not already compressed
+     */
+    private ApiResult<MultiDataPostResult> executeStreamingUpload(InputStream inputStream,
+            String postUrl, boolean compressed)
     throws IOException
+    {
+        if (compressed || m_UploadCompression == false)
+        {
+            return executeUpload(createUploadPost(inputStream, postUrl, compressed),
+                    "Streaming upload");
+        }
+
+        LOGGER.debug("Uploading compressed data to " + postUrl);
+
+        GzipCompressingEntity entity = new GzipCompressingEntity(inputStream,
+                m_UploadCompressionLevel);
+        HttpPost post = new HttpPost(postUrl);
+        post.setEntity(entity);
+        ApiResult<MultiDataPostResult> result = executeUpload(post, "Streaming upload");
+
+        UploadCompressionStats stats = entity.getStats();
+        LOGGER.info("Streaming upload " + stats);
+        return result.withUploadCompression(stats);
+    }
+
+    private static HttpPost createUploadPost(InputStream inputStream, String postUrl,
+            boolean compressed)
     {
         LOGGER.debug("Uploading data to " + postUrl);
 
@@ -489,44 +792,195 @@ public class EngineApiClient implements Closeable
             post.addHeader("Content-Encoding", "gzip");
         }
         post.setEntity(entity);
+        return post;
+    }
 
-        try (CloseableHttpResponse response = m_HttpClient.execute(post))
+    /**
+     * Upload responses contain a {@linkplain MultiDataPostResult}
+     * whether or not the upload succeeded. If it failed the result's
+     * error is the first error reported for any job.
+     */
+    private ApiResult<MultiDataPostResult> executeUpload(HttpPost post,
+            String activityDescription)
+    throws IOException
+    {
+        if (m_UploadGovernor == null)
         {
-            String content = EntityUtils.toString(response.getEntity());
+            return sendUpload(post, activityDescription);
+        }
+
+        List<String> jobIds = uploadJobIds(post);
+        post.setEntity(m_UploadGovernor.pace(post.getEntity(), jobIds));
 
-            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_ACCEPTED)
+        long start = System.nanoTime();
+        ApiResult<MultiDataPostResult> result;
+        try
+        {
+            result = sendUpload(post, activityDescription);
+        }
+        catch (IOException e)
+        {
+            m_UploadGovernor.onFailure(jobIds);
+            throw e;
+        }
+        m_UploadGovernor.onResult(jobIds, result, System.nanoTime() - start);
+
+        for (String jobId : jobIds)
+        {
+            if (m_UploadGovernor.isMemoryCheckDue(jobId))
+            {
+                JobDetails job = tryGetJob(jobId).getValue().getDocument();
+                if (job != null)
+                {
+                    m_UploadGovernor.onModelSizeStats(jobId, job.getModelSizeStats());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The job Ids are the last path segment of a data upload
+     */
+    private static List<String> uploadJobIds(HttpPost post)
+    {
+        String path = post.getURI().getPath();
+        return Arrays.asList(path.substring(path.lastIndexOf('/') + 1).split(","));
+    }
+
+    private ApiResult<MultiDataPostResult> sendUpload(HttpPost post,
+            String activityDescription)
+    throws IOException
+    {
+        return send(post, response ->
+        {
+            int statusCode = response.getStatusLine().getStatusCode();
+            MultiDataPostResult uploadSummary = JsonEntityReader.read(
+                    JsonCodecs.MULTI_DATA_POST_RESULT, response.getEntity());
+            if (uploadSummary == null)
+            {
+                uploadSummary = new MultiDataPostResult();
+            }
+
+            if (statusCode != HttpStatus.SC_ACCEPTED)
             {
                 String msg = String.format(
-                        "Streaming upload failed, status code = %d. "
+                        "%s failed, status code = %d. "
                         + "Returned content: %s",
-                        response.getStatusLine().getStatusCode(),
-                        content);
+                        activityDescription, statusCode,
+                        JsonCodecs.MAPPER.writeValueAsString(uploadSummary));
 
                 LOGGER.error(msg);
 
-                if (convertResponseOnError)
+                ApiError error = null;
+                for (DataPostResponse dpr : uploadSummary.getResponses())
                 {
-                    return convertContentFunction.apply(content);
+                    if (dpr.getError() != null)
+                    {
+                        error = dpr.getError();
+                        break;
+                    }
                 }
 
-                if (content.isEmpty() == false)
-                {
-                    m_LastError = m_JsonMapper.readValue(content,
-                            new TypeReference<ApiError>() {} );
-                }
-                else
-                {
-                    m_LastError = null;
-                }
+                return ApiResult.failure(uploadSummary, error, statusCode);
+            }
+
+            return ApiResult.success(uploadSummary, statusCode);
+        });
+    }
 
-                return defaultReturnValue;
+    /**
+     * Execute the request and if the status code matches
+     * <code>expectedStatus</code> convert the response content
+     * with <code>convertContentFunction</code> else log and
+     * return the error.
+     *
+     * @param errorValue The value of the result if the request fails
+     */
+    private <T> ApiResult<T> execute(HttpUriRequest request, int expectedStatus,
+            String activityDescription, T errorValue,
+            FunctionThatThrowsIoException<HttpEntity, T> convertContentFunction)
+    throws IOException
+    {
+        return send(request, response ->
+        {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == expectedStatus)
+            {
+                return ApiResult.success(convertContentFunction.apply(response.getEntity()),
+                        statusCode);
             }
-            return convertContentFunction.apply(content);
+            return errorResult(response, activityDescription, errorValue);
+        });
+    }
+
+    /**
+     * Execute the request, convert the response with
+     * <code>convertResponseFunction</code> and record the call's
+     * latency, status and content sizes in {@linkplain #getMetrics()}
+     */
+    private <T> ApiResult<T> send(HttpUriRequest request,
+            FunctionThatThrowsIoException<CloseableHttpResponse, ApiResult<T>> convertResponseFunction)
+    throws IOException
+    {
+        CountingRequestEntity requestEntity = countRequestEntity(request);
+        long start = System.nanoTime();
+        int statusCode = 0;
+        long responseBytes = 0;
+        try (CloseableHttpResponse response = m_RequestExecutor.execute(request))
+        {
+            statusCode = response.getStatusLine().getStatusCode();
+            ApiResult<T> result = withContentSize(convertResponseFunction.apply(response),
+                    response);
+            responseBytes = result.getReceivedBytes();
+            return result;
         }
+        finally
+        {
+            m_Metrics.record(request.getMethod(), request.getURI(), statusCode,
+                    System.nanoTime() - start,
+                    requestEntity == null ? 0 : requestEntity.getBytesWritten(), responseBytes);
+        }
+    }
+
+    private static CountingRequestEntity countRequestEntity(HttpUriRequest request)
+    {
+        if (request instanceof HttpEntityEnclosingRequest)
+        {
+            HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+            if (enclosingRequest.getEntity() != null)
+            {
+                CountingRequestEntity entity =
+                        new CountingRequestEntity(enclosingRequest.getEntity());
+                enclosingRequest.setEntity(entity);
+                return entity;
+            }
+        }
+        return null;
+    }
+
+    private <T> ApiResult<T> errorResult(CloseableHttpResponse response,
+            String activityDescription, T errorValue)
+    throws IOException
+    {
+        int statusCode = response.getStatusLine().getStatusCode();
+        ApiError error = JsonEntityReader.readApiError(response.getEntity());
+
+        String msg = String.format(
+                "Error %s. Status code = %d, "
+                + "Returned content: %s",
+                activityDescription, statusCode,
+                error == null ? "" : error.toJson());
+
+        LOGGER.error(msg);
+
+        return ApiResult.failure(errorValue, error, statusCode);
     }
 
     /**
      * Upload the contents of <code>dataFile</code> to the server.
+     * The request has a content length and the file is closed
+     * when the upload ends.
      *
      * @param jobId The Job's Id
      * @param dataFile Should match the data configuration format of the job
@@ -537,9 +991,7 @@ public class EngineApiClient implements Closeable
     public MultiDataPostResult fileUpload(String jobId, File dataFile, boolean compressed)
     throws IOException
     {
-        FileInputStream stream = new FileInputStream(dataFile);
-
-        return streamingUpload(jobId, stream, compressed);
+        return fileUpload(jobId, dataFile, compressed, "", "");
     }
 
     /**
@@ -556,9 +1008,138 @@ public class EngineApiClient implements Closeable
     public MultiDataPostResult fileUpload(String jobId, File dataFile, boolean compressed,
             String resetStart, String resetEnd) throws IOException
     {
-        FileInputStream stream = new FileInputStream(dataFile);
+        return updateLastError(tryFileUpload(jobId, dataFile, compressed, resetStart, resetEnd));
+    }
+
+    /**
+     * Upload <code>length</code> bytes of <code>dataFile</code> starting
+     * at <code>offset</code>. A large file can be uploaded in several
+     * requests by splitting it into consecutive ranges. The ranges must
+     * start and end on record boundaries and, for delimited data, every
+     * range must start with the header so uncompressed data is the only
+     * sensible input.
+     *
+     * @param jobId The Job's Id
+     * @param dataFile Should match the data configuration format of the job
+     * @param offset The position in the file of the first byte to upload
+     * @param length The number of bytes to upload
+     * @param compressed Is the data gzipped compressed?
+     * @return the multiple results in {@code MultiDataPostResult}
+     * @throws IOException If HTTP POST fails
+     * @throws IllegalArgumentException If the range is not within the file
+     */
+    public MultiDataPostResult fileUpload(String jobId, File dataFile, long offset, long length,
+            boolean compressed)
+    throws IOException
+    {
+        return updateLastError(tryFileUpload(jobId, dataFile, offset, length, compressed, "", ""));
+    }
+
+    /**
+     * Upload the contents of <code>dataFile</code> to the server.
+     *
+     * @param jobId The Job's Id
+     * @param dataFile Should match the data configuration format of the job
+     * @param compressed Is the data gzipped compressed?
+     * @param resetStart The start of the time range to reset buckets for (inclusive)
+     * @param resetEnd The end of the time range to reset buckets for (inclusive)
+     * @return The result of the call
+     * @throws IOException If HTTP POST fails
+     * @see #fileUpload(String, File, boolean, String, String)
+     */
+    public ApiResult<MultiDataPostResult> tryFileUpload(String jobId, File dataFile,
+            boolean compressed, String resetStart, String resetEnd) throws IOException
+    {
+        return tryFileUpload(jobId, dataFile, 0, dataFile.length(), compressed,
+                resetStart, resetEnd);
+    }
+
+    /**
+     * Upload <code>length</code> bytes of <code>dataFile</code> starting
+     * at <code>offset</code>.
+     * <br>
+     * The file is sent with a content length rather than chunk encoded,
+     * read through memory mapped regions and closed when the upload
+     * ends. If upload compression is enabled and the data is not
+     * compressed the range is gzipped as it is sent instead.
+     *
+     * @param jobId The Job's Id
+     * @param dataFile Should match the data configuration format of the job
+     * @param offset The position in the file of the first byte to upload
+     * @param length The number of bytes to upload
+     * @param compressed Is the data gzipped compressed?
+     * @param resetStart The start of the time range to reset buckets for (inclusive)
+     * @param resetEnd The end of the time range to reset buckets for (inclusive)
+     * @return The result of the call
+     * @throws IOException If HTTP POST fails
+     * @throws IllegalArgumentException If the range is not within the file
+     * @see #fileUpload(String, File, long, long, boolean)
+     */
+    public ApiResult<MultiDataPostResult> tryFileUpload(String jobId, File dataFile,
+            long offset, long length, boolean compressed, String resetStart, String resetEnd)
+    throws IOException
+    {
+        String postUrl = dataUrl(jobId, resetStart, resetEnd);
+
+        if (compressed == false && m_UploadCompression)
+        {
+            try (InputStream stream = FileRegionEntity.openStream(dataFile, offset, length))
+            {
+                return executeStreamingUpload(stream, postUrl, false);
+            }
+        }
 
-        return streamingUpload(jobId, stream, compressed, resetStart, resetEnd);
+        LOGGER.debug("Uploading file " + dataFile + " bytes " + offset + "-"
+                + (offset + length) + " to " + postUrl);
+
+        HttpPost post = new HttpPost(postUrl);
+        if (compressed)
+        {
+            post.addHeader("Content-Encoding", "gzip");
+        }
+        post.setEntity(new FileRegionEntity(dataFile, offset, length));
+        return executeUpload(post, "File upload");
+    }
+
+    /**
+     * Merge the records of <code>dataFiles</code>, each in time order,
+     * into time order and stream them to the job in a single upload.
+     *
+     * @param jobId The Job's Id
+     * @param dataFiles Uncompressed delimited or JSON files
+     * @param dataDescription The format of the files, must match the job's
+     * @return the multiple results in {@code MultiDataPostResult}
+     * @throws IOException If reading a file or the HTTP POST fails
+     * @see TimeOrderedMergeInputStream
+     */
+    public MultiDataPostResult mergedFileUpload(String jobId, List<File> dataFiles,
+            DataDescription dataDescription)
+    throws IOException
+    {
+        return updateLastError(tryMergedFileUpload(jobId, dataFiles, dataDescription));
+    }
+
+    /**
+     * Merge the records of <code>dataFiles</code>, each in time order,
+     * into time order and stream them to the job in a single upload.
+     * The files are parsed in parallel on a thread per core.
+     *
+     * @param jobId The Job's Id
+     * @param dataFiles Uncompressed delimited or JSON files
+     * @param dataDescription The format of the files, must match the job's
+     * @return The result of the call
+     * @throws IOException If reading a file or the HTTP POST fails
+     * @see #mergedFileUpload(String, List, DataDescription)
+     */
+    public ApiResult<MultiDataPostResult> tryMergedFileUpload(String jobId, List<File> dataFiles,
+            DataDescription dataDescription)
+    throws IOException
+    {
+        try (TimeOrderedMergeInputStream merged =
+                TimeOrderedMergeInputStream.open(dataFiles, dataDescription))
+        {
+            return tryStreamingUpload(jobId, merged, false, "", "");
+        }
     }
 
     /**
@@ -593,6 +1174,24 @@ public class EngineApiClient implements Closeable
      */
     public boolean flushJob(String jobId, boolean calcInterim, String start, String end)
             throws IOException
+    {
+        return isSuccess(tryFlushJob(jobId, calcInterim, start, end));
+    }
+
+    /**
+     * Flush the job, ensuring that no previously uploaded data is waiting in
+     * buffers.
+     *
+     * @param jobId The Job's unique Id
+     * @param calcInterim Should interim results for the selected buckets be calculated
+     * @param start The start of the time range to calculate interim results for (inclusive)
+     * @param end The end of the time range to calculate interim results for (exclusive)
+     * @return The result of the call
+     * @throws IOException If HTTP POST fails
+     * @see #flushJob(String, boolean, String, String)
+     */
+    public ApiResult<Void> tryFlushJob(String jobId, boolean calcInterim, String start, String end)
+            throws IOException
     {
         // Send flush message
         String flushUrl = String.format(m_BaseUrl + "/data/%s/flush?calcInterim=%s&start=%s&end=%s",
@@ -600,33 +1199,7 @@ public class EngineApiClient implements Closeable
         LOGGER.debug("Flushing job " + flushUrl);
 
         HttpPost post = new HttpPost(flushUrl);
-        try (CloseableHttpResponse response = m_HttpClient.execute(post))
-        {
-            String content = EntityUtils.toString(response.getEntity());
-
-            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
-            {
-                String msg = String.format(
-                        "Error flushing job %s, status code = %d. "
-                        + "Returned content: %s",
-                        jobId,
-                        response.getStatusLine().getStatusCode(),
-                        content);
-
-                LOGGER.error(msg);
-
-                m_LastError = m_JsonMapper.readValue(content,
-                        new TypeReference<ApiError>() {} );
-
-                return false;
-            }
-            else
-            {
-                m_LastError = null;
-            }
-        }
-
-        return true;
+        return execute(post, HttpStatus.SC_OK, "flushing job " + jobId, null, entity -> null);
     }
 
 
@@ -639,39 +1212,27 @@ public class EngineApiClient implements Closeable
      */
     public boolean closeJob(String jobId)
     throws IOException
+    {
+        return isSuccess(tryCloseJob(jobId));
+    }
+
+    /**
+     * Finish the job after all the data has been uploaded
+     *
+     * @param jobId The Job's unique Id
+     * @return The result of the call
+     * @throws IOException If HTTP POST fails
+     * @see #closeJob(String)
+     */
+    public ApiResult<Void> tryCloseJob(String jobId)
+    throws IOException
     {
         // Send finish message
         String closeUrl = m_BaseUrl + "/data/" + jobId + "/close";
         LOGGER.debug("Closing job " + closeUrl);
 
         HttpPost post = new HttpPost(closeUrl);
-        try (CloseableHttpResponse response = m_HttpClient.execute(post))
-        {
-            String content = EntityUtils.toString(response.getEntity());
-
-            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_ACCEPTED)
-            {
-                String msg = String.format(
-                        "Error closing job %s, status code = %d. "
-                        + "Returned content: %s",
-                        jobId,
-                        response.getStatusLine().getStatusCode(),
-                        content);
-
-                LOGGER.error(msg);
-
-                m_LastError = m_JsonMapper.readValue(content,
-                        new TypeReference<ApiError>() {} );
-
-                return false;
-            }
-            else
-            {
-                m_LastError = null;
-            }
-        }
-
-        return true;
+        return execute(post, HttpStatus.SC_ACCEPTED, "closing job " + jobId, null, entity -> null);
     }
 
     /**
@@ -701,6 +1262,18 @@ public class EngineApiClient implements Closeable
         return new BucketRequestBuilder(this, jobId, bucketId);
     }
 
+    /**
+     * Returns a {@link BucketBatchRequestBuilder} through which many buckets,
+     * possibly from different jobs, can be requested with as few requests
+     * as possible
+     *
+     * @return A {@link BucketBatchRequestBuilder}
+     */
+    public BucketBatchRequestBuilder prepareGetBucketBatch()
+    {
+        return new BucketBatchRequestBuilder(this);
+    }
+
     /**
      * Returns a {@link CategoryDefinitionsRequestBuilder} for the given job through which
      * the request can be configured and executed
@@ -716,10 +1289,10 @@ public class EngineApiClient implements Closeable
 
     /**
      * Returns a single document with the category definition that was requested
-     * 
+     *
      * @param jobId the job id
      * @param categoryId the job's category id
-     * 
+     *
      * @return A {@link SingleDocument} object containing the requested {@link CategoryDefinition} object
      * @throws JsonMappingException If json mapping fails
      * @throws IOException If HTTP GET fails
@@ -730,6 +1303,23 @@ public class EngineApiClient implements Closeable
         return new CategoryDefinitionRequestBuilder(this, jobId, categoryId).get();
     }
 
+    /**
+     * Returns the result of getting the category definition
+     *
+     * @param jobId the job id
+     * @param categoryId the job's category id
+     *
+     * @return The result of the call, the value is an empty document if
+     * the category does not exist or the request fails
+     * @throws IOException If HTTP GET fails
+     * @see #getCategoryDefinition(String, String)
+     */
+    public ApiResult<SingleDocument<CategoryDefinition>> tryGetCategoryDefinition(String jobId,
+            String categoryId) throws IOException
+    {
+        return new CategoryDefinitionRequestBuilder(this, jobId, categoryId).tryGet();
+    }
+
     /**
      * Returns a {@link RecordsRequestBuilder} for the given job through which
      * the request can be configured and executed
@@ -764,6 +1354,31 @@ public class EngineApiClient implements Closeable
     public Alert pollJobAlert(String jobId, Integer timeout, Double anomalyScoreThreshold,
             Double maxNormalizedProbability)
     throws JsonParseException, JsonMappingException, IOException
+    {
+        return updateLastError(tryPollJobAlert(jobId, timeout, anomalyScoreThreshold,
+                maxNormalizedProbability));
+    }
+
+    /**
+     * Long poll an alert from the job. Blocks until the alert occurs or the
+     * timeout period expires.
+     *
+     * @param jobId The job id
+     * @param timeout Timeout the request after this many seconds.
+     * If <code>null</code> then use the default.
+     * @param anomalyScoreThreshold Alert if a record has an anomalyScore threshold
+     * &gt;= this value, ignored if <code>null</code>.
+     * @param maxNormalizedProbability Alert if a bucket's maxNormalizedProbability
+     * is &gt;= this value, ignored if <code>null</code>.
+     *
+     * @return The result of the call, the value is <code>null</code>
+     * if the request fails
+     * @throws IOException If HTTP GET fails
+     * @see #pollJobAlert(String, Integer, Double, Double)
+     */
+    public ApiResult<Alert> tryPollJobAlert(String jobId, Integer timeout,
+            Double anomalyScoreThreshold, Double maxNormalizedProbability)
+    throws IOException
     {
         String url = m_BaseUrl + "/alerts_longpoll/" + jobId;
         char queryChar = '?';
@@ -787,32 +1402,8 @@ public class EngineApiClient implements Closeable
 
         HttpGet get = new HttpGet(url);
 
-        try (CloseableHttpResponse response = m_HttpClient.execute(get))
-        {
-            HttpEntity entity = response.getEntity();
-            String content = EntityUtils.toString(entity);
-
-            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
-            {
-                Alert alert = m_JsonMapper.readValue(content, Alert.class);
-                m_LastError = null;
-                return alert;
-            }
-            else
-            {
-                String msg = String.format(
-                        "long poll alert returned status code %d for job %s. "
-                        + "Returned content = %s",
-                        response.getStatusLine().getStatusCode(), jobId, content);
-
-                LOGGER.error(msg);
-
-                m_LastError = m_JsonMapper.readValue(content,
-                        new TypeReference<ApiError>() {} );
-            }
-        }
-
-        return null;
+        return execute(get, HttpStatus.SC_OK, "long polling alert for job " + jobId, null,
+                entity -> JsonEntityReader.read(JsonCodecs.ALERT, entity));
     }
 
     /**
@@ -825,9 +1416,26 @@ public class EngineApiClient implements Closeable
      */
     public String previewUpload(String jobId, InputStream inputStream)
     throws IOException
+    {
+        return updateLastError(tryPreviewUpload(jobId, inputStream));
+    }
+
+    /**
+     * Stream data from <code>inputStream</code> to the preview service.
+     *
+     * @param jobId The Job's unique Id
+     * @param inputStream The data to write to the web service
+     * @return The result of the call, the value is the preview or
+     * an empty string if the request fails
+     * @throws IOException If HTTP POST fails
+     * @see #previewUpload(String, InputStream)
+     */
+    public ApiResult<String> tryPreviewUpload(String jobId, InputStream inputStream)
+    throws IOException
     {
         String postUrl = String.format("%s/preview/%s", m_BaseUrl, jobId);
-        return uploadStream(inputStream, postUrl, false, "", false, content -> content);
+        return execute(createUploadPost(inputStream, postUrl, false), HttpStatus.SC_ACCEPTED,
+                "previewing upload", "", EngineApiClient::toString);
     }
 
     /**
@@ -856,6 +1464,23 @@ public class EngineApiClient implements Closeable
      */
     public String tailLog(String jobId, int lineCount)
     throws ClientProtocolException, IOException
+    {
+        return updateLastError(tryTailLog(jobId, lineCount));
+    }
+
+    /**
+     * Tails the last <code>lineCount</code> lines from the job's
+     * last log file.
+     *
+     * @param jobId The Job's unique Id
+     * @param lineCount The number of lines to return
+     * @return The result of the call, the value is an empty
+     * string if the request fails
+     * @throws IOException If HTTP GET fails
+     * @see #tailLog(String, int)
+     */
+    public ApiResult<String> tryTailLog(String jobId, int lineCount)
+    throws IOException
     {
         String url = String.format("%s/logs/%s/tail?lines=%d",
                 m_BaseUrl, jobId, lineCount);
@@ -878,6 +1503,23 @@ public class EngineApiClient implements Closeable
      */
     public String tailLog(String jobId, String logfileName, int lineCount)
     throws ClientProtocolException, IOException
+    {
+        return updateLastError(tryTailLog(jobId, logfileName, lineCount));
+    }
+
+    /**
+     * Tails the last <code>lineCount</code> lines from the named log file.
+     *
+     * @param jobId The Job's unique Id
+     * @param logfileName the name of the log file without the '.log' suffix.
+     * @param lineCount The number of lines to return
+     * @return The result of the call, the value is an empty
+     * string if the request fails
+     * @throws IOException If HTTP GET fails
+     * @see #tailLog(String, String, int)
+     */
+    public ApiResult<String> tryTailLog(String jobId, String logfileName, int lineCount)
+    throws IOException
     {
         String url = String.format("%s/logs/%s/%s/tail?lines=%d",
                 m_BaseUrl, jobId, logfileName, lineCount);
@@ -891,40 +1533,18 @@ public class EngineApiClient implements Closeable
      * Get content from Url and return as a string
      *
      * @param url
-     * @return If status code == 200 return the HTTP response content
-     * else return an empty string.
+     * @return If status code == 200 the result value is the HTTP
+     * response content else an empty string.
      * @throws IOException If HTTP GET fails
      * @throws ClientProtocolException If HTTP GET fails
      */
-    private String getStringContent(String url)
+    private ApiResult<String> getStringContent(String url)
     throws ClientProtocolException, IOException
     {
         HttpGet get = new HttpGet(url);
 
-        try (CloseableHttpResponse response = m_HttpClient.execute(get))
-        {
-            String content = EntityUtils.toString(response.getEntity());
-
-            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
-            {
-                m_LastError = null;
-                return content;
-            }
-            else
-            {
-                String msg = String.format(
-                        "Error reading string content. Status code = %d. "
-                                + "Returned content: %s",
-                                response.getStatusLine().getStatusCode(),
-                                content);
-
-                LOGGER.error(msg);
-
-                m_LastError = m_JsonMapper.readValue(content, new TypeReference<ApiError>() {});
-
-                return "";
-            }
-        }
+        return execute(get, HttpStatus.SC_OK, "reading string content", "",
+                EngineApiClient::toString);
     }
 
 
@@ -941,6 +1561,22 @@ public class EngineApiClient implements Closeable
      */
     public String downloadLog(String jobId, String logfileName)
     throws ClientProtocolException, IOException
+    {
+        return updateLastError(tryDownloadLog(jobId, logfileName));
+    }
+
+    /**
+     * Download the specified log file for the job.
+     *
+     * @param jobId The Job's unique Id
+     * @param logfileName the name of the log file without the '.log' suffix.
+     * @return The result of the call, the value is the log or an
+     * empty string if the request fails
+     * @throws IOException If HTTP GET fails
+     * @see #downloadLog(String, String)
+     */
+    public ApiResult<String> tryDownloadLog(String jobId, String logfileName)
+    throws IOException
     {
         String url = String.format("%s/logs/%s/%s",
                 m_BaseUrl, jobId, logfileName);
@@ -967,6 +1603,24 @@ public class EngineApiClient implements Closeable
      */
     public ZipInputStream downloadAllLogs(String jobId)
     throws ClientProtocolException, IOException
+    {
+        return updateLastError(tryDownloadAllLogs(jobId));
+    }
+
+    /**
+     * Download all the log files for the given job.
+     *
+     * <b>Important: the caller MUST close the ZipInputStream in the
+     * result, otherwise the connection is never returned to the pool.</b>
+     *
+     * @param jobId The Job's unique Id
+     * @return The result of the call. The value is a ZipInputStream for
+     * the log files or an empty stream if the request fails
+     * @throws IOException If HTTP GET fails
+     * @see #downloadAllLogs(String)
+     */
+    public ApiResult<ZipInputStream> tryDownloadAllLogs(String jobId)
+    throws IOException
     {
         String url = String.format("%s/logs/%s", m_BaseUrl, jobId);
 
@@ -974,36 +1628,39 @@ public class EngineApiClient implements Closeable
 
         HttpGet get = new HttpGet(url);
 
-        CloseableHttpResponse response = m_HttpClient.execute(get);
+        // the content is streamed to the caller so only the time
+        // to the response headers is recorded
+        long start = System.nanoTime();
+        CloseableHttpResponse response;
+        try
+        {
+            response = m_RequestExecutor.execute(get);
+        }
+        catch (IOException e)
+        {
+            m_Metrics.record(get.getMethod(), get.getURI(), 0, System.nanoTime() - start, 0, 0);
+            throw e;
+        }
+        m_Metrics.record(get.getMethod(), get.getURI(), response.getStatusLine().getStatusCode(),
+                System.nanoTime() - start, 0, 0);
+
         try
         {
-            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_OK)
             {
                 ZipInputStream result = new ZipInputStream(response.getEntity().getContent());
                 // In this case we DON'T want the response to be automatically
                 // closed - the caller MUST close the ZipInputStream when they
                 // are finished with it
-                m_LastError = null;
                 response = null;
-                return result;
+                return ApiResult.success(result, statusCode);
             }
             else
             {
-                String content = EntityUtils.toString(response.getEntity());
-                String msg = String.format(
-                        "Error downloading log files for job %s, status code = %d. "
-                                + "Returned content: %s",
-                                jobId,
-                                response.getStatusLine().getStatusCode(),
-                                content);
-
-                LOGGER.error(msg);
-
-                m_LastError = m_JsonMapper.readValue(content,
-                        new TypeReference<ApiError>() {} );
-
                 // return an empty stream
-                return new ZipInputStream(new ByteArrayInputStream(new byte[0]));
+                return errorResult(response, "downloading log files for job " + jobId,
+                        new ZipInputStream(new ByteArrayInputStream(new byte[0])));
             }
         }
         finally
@@ -1042,8 +1699,7 @@ public class EngineApiClient implements Closeable
     public <T> T get(String fullUrl, TypeReference<T> typeRef)
     throws JsonParseException, JsonMappingException, IOException
     {
-        HttpGet get = new HttpGet(fullUrl);
-        return get(get,typeRef);
+        return updateLastError(tryGet(fullUrl, typeRef));
     }
 
     /**
@@ -1071,53 +1727,89 @@ public class EngineApiClient implements Closeable
      */
     public <T> T get(URI uri, TypeReference<T> typeRef)
     throws JsonParseException, JsonMappingException, IOException
+    {
+        return updateLastError(tryGet(uri, typeRef));
+    }
+
+    /**
+     * A generic HTTP GET to any Url returning the result of the call.
+     * As for {@linkplain #get(String, TypeReference)} a 404 response is
+     * not an error.
+     *
+     * @param fullUrl the full url
+     * @param typeRef the type reference
+     * @param <T> the type reference
+     * @return The result of the call. The value is <code>null</code> if
+     * the request fails or the response has no content
+     * @throws IOException If HTTP GET fails or the content cannot be parsed
+     * @see #get(String, TypeReference)
+     */
+    public <T> ApiResult<T> tryGet(String fullUrl, TypeReference<T> typeRef)
+    throws IOException
+    {
+        HttpGet get = new HttpGet(fullUrl);
+        return get(get, JsonCodecs.reader(typeRef));
+    }
+
+    /**
+     * A generic HTTP GET to any URI returning the result of the call.
+     *
+     * @param uri the uri
+     * @param typeRef the type reference
+     * @param <T> the type reference
+     * @return The result of the call. The value is <code>null</code> if
+     * the request fails or the response has no content
+     * @throws IOException If HTTP GET fails or the content cannot be parsed
+     * @see #tryGet(String, TypeReference)
+     */
+    public <T> ApiResult<T> tryGet(URI uri, TypeReference<T> typeRef)
+    throws IOException
     {
         HttpGet get = new HttpGet(uri);
-        return get(get,typeRef);
+        return get(get, JsonCodecs.reader(typeRef));
+    }
+
+    /**
+     * GET <code>fullUrl</code> and parse the content with <code>reader</code>
+     */
+    <T> ApiResult<T> tryGet(String fullUrl, ObjectReader reader)
+    throws IOException
+    {
+        return get(new HttpGet(fullUrl), reader);
     }
 
-    private <T> T get(HttpGet get, TypeReference<T> typeRef)
+    private <T> ApiResult<T> get(HttpGet get, ObjectReader reader)
     throws JsonParseException, JsonMappingException, IOException
     {
-        try (CloseableHttpResponse response = m_HttpClient.execute(get))
+        return send(get, response ->
         {
-            HttpEntity entity = response.getEntity();
-            String content = EntityUtils.toString(entity);
+            int statusCode = response.getStatusLine().getStatusCode();
 
             // 404 errors return empty paging docs so still read them
-            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK ||
-                response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND)
+            if (statusCode == HttpStatus.SC_OK ||
+                statusCode == HttpStatus.SC_NOT_FOUND)
 
             {
-                T docs = m_JsonMapper.readValue(content, typeRef);
-                m_LastError = null;
-                return docs;
+                T docs = JsonEntityReader.read(reader, response.getEntity());
+                return ApiResult.success(docs, statusCode);
             }
             else
             {
-                String msg = String.format(
-                        "GET returned status code %d for url %s. "
-                        + "Returned content = %s",
-                        response.getStatusLine().getStatusCode(), get.getURI(),
-                        content);
-
-                LOGGER.error(msg);
-
-                m_LastError = m_JsonMapper.readValue(content,
-                        new TypeReference<ApiError>() {} );
+                return errorResult(response, "GET " + get.getURI(), null);
             }
-        }
-
-        return null;
+        });
     }
 
     /**
-     * Get the last error message
+     * Get the last error message from a call made by the current
+     * thread. Use the <code>try</code> methods, which return the error
+     * with the result of each call, when sharing a client between threads.
+     *
      * @return The error or null if no errors have occurred
      */
     public ApiError getLastError()
     {
-        return m_LastError;
+        return m_LastError.get();
     }
 
     public String getBaseUrl()
@@ -1125,6 +1817,71 @@ public class EngineApiClient implements Closeable
         return m_BaseUrl;
     }
 
+    /**
+     * Record the result's error for {@linkplain #getLastError()}
+     * and return the value
+     */
+    <T> T updateLastError(ApiResult<T> result)
+    {
+        if (result.getError() == null)
+        {
+            m_LastError.remove();
+        }
+        else
+        {
+            m_LastError.set(result.getError());
+        }
+        return result.getValue();
+    }
+
+    /**
+     * Add the size of the response content read by the request
+     * to <code>result</code>
+     */
+    private static <T> ApiResult<T> withContentSize(ApiResult<T> result,
+            HttpResponse response)
+    {
+        HttpEntity entity = response.getEntity();
+        if (entity instanceof CountingDecompressingEntity == false)
+        {
+            return result;
+        }
+
+        CountingDecompressingEntity counted = (CountingDecompressingEntity) entity;
+        if (counted.isCompressed() && LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug(String.format("Received %d compressed bytes, %d bytes decoded",
+                    counted.getReceivedBytes(), counted.getDecodedBytes()));
+        }
+        return result.withContentSize(counted.getReceivedBytes(), counted.getDecodedBytes());
+    }
+
+    private boolean isSuccess(ApiResult<Void> result)
+    {
+        updateLastError(result);
+        return result.isSuccess();
+    }
+
+    static <T> Pagination<T> emptyIfNull(Pagination<T> page)
+    {
+        if (page == null)
+        {
+            page = new Pagination<>();
+            page.setDocuments(Collections.<T>emptyList());
+        }
+        return page;
+    }
+
+    static <T> SingleDocument<T> emptyIfNull(SingleDocument<T> doc)
+    {
+        return doc == null ? new SingleDocument<>() : doc;
+    }
+
+    private static String toString(HttpEntity entity) throws IOException
+    {
+        return entity == null ? "" : EntityUtils.toString(entity);
+    }
+
     private static boolean isNullOrEmpty(String string)
     {
         return string == null || string.isEmpty();
@@ -0,0 +1,772 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Immutable connection settings for {@linkplain EngineApiClient} and
+ * {@linkplain AsyncEngineApiClient}. Create with {@linkplain #builder()}.
+ * <br>
+ * The defaults match those of the Apache HTTP client i.e. a pool of 20
+ * connections with at most 2 per route, keep-alive as long as the server
+ * allows, no idle connection eviction and the system default timeouts.
+ * Since all requests made by a client go to the same host the per route
+ * limit is usually the one to raise when sharing a client between
+ * many threads.
+ */
+public final class EngineApiClientConfig
+{
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 2;
+    public static final int DEFAULT_CONNECTION_BUFFER_SIZE = 8192;
+    public static final int DEFAULT_UPLOAD_CHUNK_SIZE = 4096 * 1024;
+    public static final int DEFAULT_UPLOAD_PIPELINE_DEPTH = 2;
+    public static final int DEFAULT_ROUTED_UPLOAD_JOB_BUFFER = 1024 * 1024;
+    public static final int DEFAULT_ROUTED_UPLOAD_MEMORY_LIMIT = 64 * 1024 * 1024;
+    public static final long DEFAULT_ROUTED_UPLOAD_IDLE_FLUSH_MS = 5000;
+
+    private final int m_MaxConnectionsTotal;
+    private final int m_MaxConnectionsPerRoute;
+    private final long m_KeepAliveMs;
+    private final long m_IdleEvictionMs;
+    private final int m_ConnectTimeoutMs;
+    private final int m_SocketTimeoutMs;
+    private final int m_ConnectionRequestTimeoutMs;
+    private final boolean m_TcpNoDelay;
+    private final int m_SendBufferSize;
+    private final int m_ReceiveBufferSize;
+    private final int m_ConnectionBufferSize;
+    private final int m_IoThreadCount;
+    private final boolean m_ResponseCompression;
+    private final boolean m_UploadCompression;
+    private final int m_UploadCompressionLevel;
+    private final long m_UploadRateLimit;
+    private final long m_InitialJobUploadRate;
+    private final long m_MinJobUploadRate;
+    private final RetryPolicy m_RetryPolicy;
+    private final int m_CircuitBreakerFailureThreshold;
+    private final long m_CircuitBreakerOpenMs;
+    private final int m_UploadChunkSize;
+    private final int m_UploadPipelineDepth;
+    private final int m_RoutedUploadJobBuffer;
+    private final int m_RoutedUploadMemoryLimit;
+    private final long m_RoutedUploadIdleFlushMs;
+
+    private EngineApiClientConfig(Builder builder)
+    {
+        m_MaxConnectionsTotal = builder.m_MaxConnectionsTotal;
+        m_MaxConnectionsPerRoute = builder.m_MaxConnectionsPerRoute;
+        m_KeepAliveMs = builder.m_KeepAliveMs;
+        m_IdleEvictionMs = builder.m_IdleEvictionMs;
+        m_ConnectTimeoutMs = builder.m_ConnectTimeoutMs;
+        m_SocketTimeoutMs = builder.m_SocketTimeoutMs;
+        m_ConnectionRequestTimeoutMs = builder.m_ConnectionRequestTimeoutMs;
+        m_TcpNoDelay = builder.m_TcpNoDelay;
+        m_SendBufferSize = builder.m_SendBufferSize;
+        m_ReceiveBufferSize = builder.m_ReceiveBufferSize;
+        m_ConnectionBufferSize = builder.m_ConnectionBufferSize;
+        m_IoThreadCount = builder.m_IoThreadCount;
+        m_ResponseCompression = builder.m_ResponseCompression;
+        m_UploadCompression = builder.m_UploadCompression;
+        m_UploadCompressionLevel = builder.m_UploadCompressionLevel;
+        m_UploadRateLimit = builder.m_UploadRateLimit;
+        m_InitialJobUploadRate = builder.m_InitialJobUploadRate;
+        m_MinJobUploadRate = builder.m_MinJobUploadRate;
+        m_RetryPolicy = builder.m_RetryPolicy;
+        m_CircuitBreakerFailureThreshold = builder.m_CircuitBreakerFailureThreshold;
+        m_CircuitBreakerOpenMs = builder.m_CircuitBreakerOpenMs;
+        m_UploadChunkSize = builder.m_UploadChunkSize;
+        m_UploadPipelineDepth = builder.m_UploadPipelineDepth;
+        m_RoutedUploadJobBuffer = builder.m_RoutedUploadJobBuffer;
+        m_RoutedUploadMemoryLimit = builder.m_RoutedUploadMemoryLimit;
+        m_RoutedUploadIdleFlushMs = builder.m_RoutedUploadIdleFlushMs;
+    }
+
+    /**
+     * A new builder initialised with the default settings
+     * @return A new {@code Builder}
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * The default configuration
+     * @return A config with the default settings
+     */
+    public static EngineApiClientConfig defaults()
+    {
+        return new Builder().build();
+    }
+
+    public int getMaxConnectionsTotal()
+    {
+        return m_MaxConnectionsTotal;
+    }
+
+    public int getMaxConnectionsPerRoute()
+    {
+        return m_MaxConnectionsPerRoute;
+    }
+
+    /**
+     * The maximum time an idle connection is kept alive in milliseconds.
+     * @return A value &lt;= 0 means use the server's keep-alive setting
+     */
+    public long getKeepAliveMs()
+    {
+        return m_KeepAliveMs;
+    }
+
+    /**
+     * Connections idle for longer than this many milliseconds are closed
+     * by a background thread.
+     * @return A value &lt;= 0 means idle connections are not evicted
+     */
+    public long getIdleEvictionMs()
+    {
+        return m_IdleEvictionMs;
+    }
+
+    /**
+     * @return The connect timeout in milliseconds, -1 is the system default
+     */
+    public int getConnectTimeoutMs()
+    {
+        return m_ConnectTimeoutMs;
+    }
+
+    /**
+     * @return The socket read timeout in milliseconds, -1 is the system default
+     */
+    public int getSocketTimeoutMs()
+    {
+        return m_SocketTimeoutMs;
+    }
+
+    /**
+     * @return The time to wait for a connection from the pool in
+     * milliseconds, -1 is wait indefinitely
+     */
+    public int getConnectionRequestTimeoutMs()
+    {
+        return m_ConnectionRequestTimeoutMs;
+    }
+
+    public boolean isTcpNoDelay()
+    {
+        return m_TcpNoDelay;
+    }
+
+    /**
+     * @return The socket send buffer size (SO_SNDBUF), 0 is the system default
+     */
+    public int getSendBufferSize()
+    {
+        return m_SendBufferSize;
+    }
+
+    /**
+     * @return The socket receive buffer size (SO_RCVBUF), 0 is the system default
+     */
+    public int getReceiveBufferSize()
+    {
+        return m_ReceiveBufferSize;
+    }
+
+    /**
+     * @return The size of the client's per connection I/O buffer
+     */
+    public int getConnectionBufferSize()
+    {
+        return m_ConnectionBufferSize;
+    }
+
+    /**
+     * The number of I/O dispatch threads used by
+     * {@linkplain AsyncEngineApiClient}. Not used by the blocking client.
+     * @return The thread count, 0 is one per available processor
+     */
+    public int getIoThreadCount()
+    {
+        return m_IoThreadCount;
+    }
+
+    /**
+     * @return True if the clients ask the server to gzip or deflate
+     * compress responses
+     */
+    public boolean isResponseCompression()
+    {
+        return m_ResponseCompression;
+    }
+
+    /**
+     * @return True if uncompressed streaming uploads are gzipped
+     * by the client
+     */
+    public boolean isUploadCompression()
+    {
+        return m_UploadCompression;
+    }
+
+    /**
+     * @return The gzip level of uploads compressed by the client
+     */
+    public int getUploadCompressionLevel()
+    {
+        return m_UploadCompressionLevel;
+    }
+
+    /**
+     * @return The maximum bytes per second uploaded to all jobs
+     * or 0 if there is no limit
+     */
+    public long getUploadRateLimit()
+    {
+        return m_UploadRateLimit;
+    }
+
+    /**
+     * @return The starting upload rate of each job in bytes per second
+     * or 0 if the rates are not adapted
+     */
+    public long getInitialJobUploadRate()
+    {
+        return m_InitialJobUploadRate;
+    }
+
+    /**
+     * @return The lowest upload rate of a job in bytes per second
+     */
+    public long getMinJobUploadRate()
+    {
+        return m_MinJobUploadRate;
+    }
+
+    /**
+     * The policy for retrying failed GET requests made by
+     * {@linkplain EngineApiClient}. Not used by the asynchronous client.
+     * @return The retry policy, {@linkplain RetryPolicy#NO_RETRIES} by default
+     */
+    public RetryPolicy getRetryPolicy()
+    {
+        return m_RetryPolicy;
+    }
+
+    /**
+     * @return The number of consecutive failures that opens the circuit
+     * breaker, 0 if the circuit breaker is disabled
+     */
+    public int getCircuitBreakerFailureThreshold()
+    {
+        return m_CircuitBreakerFailureThreshold;
+    }
+
+    /**
+     * @return The time in milliseconds the circuit breaker stays open
+     * before letting a trial request through
+     */
+    public long getCircuitBreakerOpenMs()
+    {
+        return m_CircuitBreakerOpenMs;
+    }
+
+    /**
+     * @return The approximate size of each upload made by
+     * {@linkplain EngineApiClient#chunkedUpload(String, java.io.InputStream)}
+     */
+    public int getUploadChunkSize()
+    {
+        return m_UploadChunkSize;
+    }
+
+    /**
+     * @return The number of chunks read ahead of the chunk being uploaded
+     */
+    public int getUploadPipelineDepth()
+    {
+        return m_UploadPipelineDepth;
+    }
+
+    /**
+     * @return The bytes a {@linkplain RoutedUpload} buffers for each job
+     */
+    public int getRoutedUploadJobBuffer()
+    {
+        return m_RoutedUploadJobBuffer;
+    }
+
+    /**
+     * @return The bytes a {@linkplain RoutedUpload} buffers for all jobs
+     */
+    public int getRoutedUploadMemoryLimit()
+    {
+        return m_RoutedUploadMemoryLimit;
+    }
+
+    /**
+     * @return How long a job's upload in a {@linkplain RoutedUpload}
+     * waits for more records before it is ended
+     */
+    public long getRoutedUploadIdleFlushMs()
+    {
+        return m_RoutedUploadIdleFlushMs;
+    }
+
+    /**
+     * Fluent builder for {@linkplain EngineApiClientConfig}
+     */
+    public static final class Builder
+    {
+        private int m_MaxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+        private int m_MaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private long m_KeepAliveMs = -1;
+        private long m_IdleEvictionMs = -1;
+        private int m_ConnectTimeoutMs = -1;
+        private int m_SocketTimeoutMs = -1;
+        private int m_ConnectionRequestTimeoutMs = -1;
+        private boolean m_TcpNoDelay = true;
+        private int m_SendBufferSize;
+        private int m_ReceiveBufferSize;
+        private int m_ConnectionBufferSize = DEFAULT_CONNECTION_BUFFER_SIZE;
+        private int m_IoThreadCount;
+        private boolean m_ResponseCompression;
+        private boolean m_UploadCompression;
+        private int m_UploadCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private long m_UploadRateLimit;
+        private long m_InitialJobUploadRate;
+        private long m_MinJobUploadRate;
+        private RetryPolicy m_RetryPolicy = RetryPolicy.NO_RETRIES;
+        private int m_CircuitBreakerFailureThreshold;
+        private long m_CircuitBreakerOpenMs;
+        private int m_UploadChunkSize = DEFAULT_UPLOAD_CHUNK_SIZE;
+        private int m_UploadPipelineDepth = DEFAULT_UPLOAD_PIPELINE_DEPTH;
+        private int m_RoutedUploadJobBuffer = DEFAULT_ROUTED_UPLOAD_JOB_BUFFER;
+        private int m_RoutedUploadMemoryLimit = DEFAULT_ROUTED_UPLOAD_MEMORY_LIMIT;
+        private long m_RoutedUploadIdleFlushMs = DEFAULT_ROUTED_UPLOAD_IDLE_FLUSH_MS;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Sets the maximum number of pooled connections. Default is
+         * {@value EngineApiClientConfig#DEFAULT_MAX_CONNECTIONS_TOTAL}.
+         *
+         * @param value The maximum number of connections
+         * @return this {@code Builder} object
+         */
+        public Builder maxConnectionsTotal(int value)
+        {
+            m_MaxConnectionsTotal = requirePositive(value, "maxConnectionsTotal");
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of pooled connections to a single host.
+         * Default is {@value EngineApiClientConfig#DEFAULT_MAX_CONNECTIONS_PER_ROUTE}.
+         *
+         * @param value The maximum number of connections per route
+         * @return this {@code Builder} object
+         */
+        public Builder maxConnectionsPerRoute(int value)
+        {
+            m_MaxConnectionsPerRoute = requirePositive(value, "maxConnectionsPerRoute");
+            return this;
+        }
+
+        /**
+         * Caps how long an idle connection is kept alive. If the server
+         * sends a shorter Keep-Alive timeout the server's value is used.
+         *
+         * @param duration The keep-alive duration
+         * @param unit The unit of <code>duration</code>
+         * @return this {@code Builder} object
+         */
+        public Builder keepAlive(long duration, TimeUnit unit)
+        {
+            m_KeepAliveMs = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Close pooled connections that have been idle for longer than
+         * <code>duration</code>. Expired connections are closed at the
+         * same time.
+         *
+         * @param duration The maximum idle time
+         * @param unit The unit of <code>duration</code>
+         * @return this {@code Builder} object
+         */
+        public Builder evictIdleConnections(long duration, TimeUnit unit)
+        {
+            m_IdleEvictionMs = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param duration The connect timeout
+         * @param unit The unit of <code>duration</code>
+         * @return this {@code Builder} object
+         */
+        public Builder connectTimeout(long duration, TimeUnit unit)
+        {
+            m_ConnectTimeoutMs = toIntMillis(duration, unit);
+            return this;
+        }
+
+        /**
+         * Sets the socket read timeout (SO_TIMEOUT). Note that long polling
+         * for alerts keeps the socket open for the whole poll timeout.
+         *
+         * @param duration The socket timeout
+         * @param unit The unit of <code>duration</code>
+         * @return this {@code Builder} object
+         */
+        public Builder socketTimeout(long duration, TimeUnit unit)
+        {
+            m_SocketTimeoutMs = toIntMillis(duration, unit);
+            return this;
+        }
+
+        /**
+         * Sets the time to wait for a connection to become available
+         * in the pool.
+         *
+         * @param duration The connection request timeout
+         * @param unit The unit of <code>duration</code>
+         * @return this {@code Builder} object
+         */
+        public Builder connectionRequestTimeout(long duration, TimeUnit unit)
+        {
+            m_ConnectionRequestTimeoutMs = toIntMillis(duration, unit);
+            return this;
+        }
+
+        /**
+         * Enable or disable Nagle's algorithm. Default is true (disabled).
+         *
+         * @param tcpNoDelay The TCP_NODELAY value
+         * @return this {@code Builder} object
+         */
+        public Builder tcpNoDelay(boolean tcpNoDelay)
+        {
+            m_TcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * @param bytes The socket send buffer size (SO_SNDBUF)
+         * @return this {@code Builder} object
+         */
+        public Builder sendBufferSize(int bytes)
+        {
+            m_SendBufferSize = requirePositive(bytes, "sendBufferSize");
+            return this;
+        }
+
+        /**
+         * @param bytes The socket receive buffer size (SO_RCVBUF)
+         * @return this {@code Builder} object
+         */
+        public Builder receiveBufferSize(int bytes)
+        {
+            m_ReceiveBufferSize = requirePositive(bytes, "receiveBufferSize");
+            return this;
+        }
+
+        /**
+         * Sets the size of the client's per connection I/O buffer. Default is
+         * {@value EngineApiClientConfig#DEFAULT_CONNECTION_BUFFER_SIZE}.
+         *
+         * @param bytes The buffer size
+         * @return this {@code Builder} object
+         */
+        public Builder connectionBufferSize(int bytes)
+        {
+            m_ConnectionBufferSize = requirePositive(bytes, "connectionBufferSize");
+            return this;
+        }
+
+        /**
+         * Sets the number of I/O dispatch threads used by
+         * {@linkplain AsyncEngineApiClient}. Default is one per processor.
+         *
+         * @param count The number of threads
+         * @return this {@code Builder} object
+         */
+        public Builder ioThreadCount(int count)
+        {
+            m_IoThreadCount = requirePositive(count, "ioThreadCount");
+            return this;
+        }
+
+        /**
+         * Ask the server to compress responses by sending an
+         * <code>Accept-Encoding: gzip,deflate</code> header. Compressed
+         * responses are inflated as they are parsed and the compressed
+         * and decoded sizes are reported by
+         * {@linkplain ApiResult#getReceivedBytes()} and
+         * {@linkplain ApiResult#getDecodedBytes()}. Worthwhile for large
+         * result queries over slow links, the cost is the CPU time to
+         * compress and inflate. Default is false.
+         *
+         * @param enabled Request compressed responses
+         * @return this {@code Builder} object
+         */
+        public Builder responseCompression(boolean enabled)
+        {
+            m_ResponseCompression = enabled;
+            return this;
+        }
+
+        /**
+         * Gzip uncompressed data as it is streamed to the server by
+         * {@linkplain EngineApiClient#streamingUpload(String, java.io.InputStream, boolean)}
+         * and the other streaming and file uploads. Data that is already
+         * compressed is sent as is. The compression runs on a separate
+         * thread so it overlaps with sending the previous data.
+         * The sizes and compressor CPU time are reported by
+         * {@linkplain ApiResult#getUploadCompression()}. Worthwhile when
+         * the network rather than the client CPU limits the upload rate.
+         * Default is false.
+         *
+         * @param enabled Compress uploads
+         * @return this {@code Builder} object
+         */
+        public Builder uploadCompression(boolean enabled)
+        {
+            m_UploadCompression = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the gzip level of uploads compressed by the client,
+         * 1 is fastest and 9 smallest. Default is the zlib default, 6.
+         *
+         * @param level The compression level 1-9
+         * @return this {@code Builder} object
+         * @see #uploadCompression(boolean)
+         */
+        public Builder uploadCompressionLevel(int level)
+        {
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            {
+                throw new IllegalArgumentException(
+                        "uploadCompressionLevel must be between 1 and 9 not " + level);
+            }
+            m_UploadCompressionLevel = level;
+            return this;
+        }
+
+        /**
+         * Sets the policy for retrying GET requests to the jobs, results
+         * and logs endpoints that fail with a connection error, timeout or
+         * a 502, 503 or 504 response. Uploads and other requests that
+         * change state are never retried. Default is no retries.
+         * Only used by {@linkplain EngineApiClient}.
+         *
+         * @param policy The retry policy e.g.
+         * {@linkplain RetryPolicy#exponentialBackoff(int, long, long, TimeUnit)}
+         * @return this {@code Builder} object
+         */
+        public Builder retryPolicy(RetryPolicy policy)
+        {
+            m_RetryPolicy = Objects.requireNonNull(policy, "policy");
+            return this;
+        }
+
+        /**
+         * Enable a circuit breaker for the client's base URL. After
+         * <code>failureThreshold</code> consecutive failed requests
+         * all requests fail immediately with a
+         * {@linkplain CircuitBreakerOpenException} until
+         * <code>openDuration</code> has passed, then a single trial
+         * request decides whether to close the breaker or keep it open.
+         * Default is disabled. Only used by {@linkplain EngineApiClient}.
+         *
+         * @param failureThreshold The number of consecutive failures
+         * that opens the breaker
+         * @param openDuration How long the breaker stays open
+         * @param unit The unit of <code>openDuration</code>
+         * @return this {@code Builder} object
+         */
+        public Builder circuitBreaker(int failureThreshold, long openDuration, TimeUnit unit)
+        {
+            m_CircuitBreakerFailureThreshold = requirePositive(failureThreshold,
+                    "failureThreshold");
+            m_CircuitBreakerOpenMs = unit.toMillis(openDuration);
+            return this;
+        }
+
+        /**
+         * Sets the approximate size of each upload made by
+         * {@linkplain EngineApiClient#chunkedUpload(String, java.io.InputStream)}.
+         * Chunks end on a record boundary so may be a little smaller.
+         * Default is {@value EngineApiClientConfig#DEFAULT_UPLOAD_CHUNK_SIZE}.
+         *
+         * @param bytes The chunk size
+         * @return this {@code Builder} object
+         */
+        public Builder uploadChunkSize(int bytes)
+        {
+            m_UploadChunkSize = requirePositive(bytes, "uploadChunkSize");
+            return this;
+        }
+
+        /**
+         * Sets the number of chunks a chunked upload reads ahead while
+         * the previous chunk is uploaded. Each chunk takes a buffer of
+         * {@linkplain #uploadChunkSize(int)} bytes. Default is
+         * {@value EngineApiClientConfig#DEFAULT_UPLOAD_PIPELINE_DEPTH}.
+         *
+         * @param depth The number of chunks read ahead
+         * @return this {@code Builder} object
+         */
+        public Builder uploadPipelineDepth(int depth)
+        {
+            m_UploadPipelineDepth = requirePositive(depth, "uploadPipelineDepth");
+            return this;
+        }
+
+        /**
+         * Limit the bytes per second uploaded to all jobs together.
+         * The limit is shared by every upload the client makes and
+         * also caps the adapted rate of each job. Default is no limit.
+         *
+         * @param bytesPerSecond The limit
+         * @return this {@code Builder} object
+         * @see UploadGovernor
+         */
+        public Builder uploadRateLimit(long bytesPerSecond)
+        {
+            if (bytesPerSecond <= 0)
+            {
+                throw new IllegalArgumentException("uploadRateLimit must be > 0 not "
+                        + bytesPerSecond);
+            }
+            m_UploadRateLimit = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Adapt the upload rate of each job to how fast the Engine API
+         * is analysing its data. Each job starts at <code>initialBytesPerSecond</code>,
+         * the rate rises as uploads are accepted and halves, down to
+         * <code>minBytesPerSecond</code>, when the job is overloaded.
+         * Default is to not adapt the rate.
+         *
+         * @param initialBytesPerSecond The starting rate of each job
+         * @param minBytesPerSecond The lowest rate of a job
+         * @return this {@code Builder} object
+         * @see UploadGovernor
+         */
+        public Builder adaptiveUploadRate(long initialBytesPerSecond, long minBytesPerSecond)
+        {
+            if (minBytesPerSecond <= 0 || initialBytesPerSecond < minBytesPerSecond)
+            {
+                throw new IllegalArgumentException("adaptiveUploadRate requires "
+                        + "0 < minBytesPerSecond <= initialBytesPerSecond not "
+                        + minBytesPerSecond + ", " + initialBytesPerSecond);
+            }
+            m_InitialJobUploadRate = initialBytesPerSecond;
+            m_MinJobUploadRate = minBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the memory a {@linkplain RoutedUpload} buffers records in.
+         * When a job's buffer is full reading the input blocks until the
+         * job's upload catches up. Defaults are
+         * {@value EngineApiClientConfig#DEFAULT_ROUTED_UPLOAD_JOB_BUFFER} bytes
+         * per job and {@value EngineApiClientConfig#DEFAULT_ROUTED_UPLOAD_MEMORY_LIMIT}
+         * bytes in total.
+         *
+         * @param bytesPerJob The most bytes buffered for one job
+         * @param totalBytes The most bytes buffered for all jobs
+         * @return this {@code Builder} object
+         */
+        public Builder routedUploadBuffers(int bytesPerJob, int totalBytes)
+        {
+            requirePositive(bytesPerJob, "bytesPerJob");
+            if (totalBytes < bytesPerJob)
+            {
+                throw new IllegalArgumentException("totalBytes (" + totalBytes
+                        + ") cannot be less than bytesPerJob (" + bytesPerJob + ")");
+            }
+            m_RoutedUploadJobBuffer = bytesPerJob;
+            m_RoutedUploadMemoryLimit = totalBytes;
+            return this;
+        }
+
+        /**
+         * End a job's upload in a {@linkplain RoutedUpload} when no records
+         * have been routed to the job for <code>duration</code> so the Engine
+         * API analyses the buffered data. The next record for the job
+         * starts a new upload. Default is
+         * {@value EngineApiClientConfig#DEFAULT_ROUTED_UPLOAD_IDLE_FLUSH_MS}ms.
+         *
+         * @param duration The idle time
+         * @param unit The unit of <code>duration</code>
+         * @return this {@code Builder} object
+         */
+        public Builder routedUploadIdleFlush(long duration, TimeUnit unit)
+        {
+            long ms = unit.toMillis(duration);
+            if (ms <= 0)
+            {
+                throw new IllegalArgumentException("routedUploadIdleFlush must be > 0ms not "
+                        + ms);
+            }
+            m_RoutedUploadIdleFlushMs = ms;
+            return this;
+        }
+
+        public EngineApiClientConfig build()
+        {
+            if (m_MaxConnectionsPerRoute > m_MaxConnectionsTotal)
+            {
+                throw new IllegalArgumentException("maxConnectionsPerRoute ("
+                        + m_MaxConnectionsPerRoute + ") cannot be greater than maxConnectionsTotal ("
+                        + m_MaxConnectionsTotal + ")");
+            }
+            return new EngineApiClientConfig(this);
+        }
+
+        private static int requirePositive(int value, String name)
+        {
+            if (value <= 0)
+            {
+                throw new IllegalArgumentException(name + " must be > 0 not " + value);
+            }
+            return value;
+        }
+
+        private static int toIntMillis(long duration, TimeUnit unit)
+        {
+            long ms = unit.toMillis(duration);
+            return ms > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) ms;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.IOException;
+
+import com.prelert.rs.data.ApiError;
+
+/**
+ * Thrown (or used to complete a future exceptionally) when the Engine API
+ * responds with an unexpected status code. The {@linkplain ApiError}
+ * returned by the API is available through {@linkplain #getApiError()}.
+ */
+public class EngineApiException extends IOException
+{
+    private static final long serialVersionUID = 8418645813347651270L;
+
+    private final int m_StatusCode;
+    private final ApiError m_ApiError;
+
+    /**
+     * @param message The exception message
+     * @param statusCode The HTTP status code of the response
+     * @param apiError The error returned by the API. May be <code>null</code>
+     */
+    public EngineApiException(String message, int statusCode, ApiError apiError)
+    {
+        super(message);
+        m_StatusCode = statusCode;
+        m_ApiError = apiError;
+    }
+
+    /**
+     * The HTTP status code of the failed request
+     * @return The status code
+     */
+    public int getStatusCode()
+    {
+        return m_StatusCode;
+    }
+
+    /**
+     * The error document returned by the API
+     * @return The error or <code>null</code> if the response had no content
+     */
+    public ApiError getApiError()
+    {
+        return m_ApiError;
+    }
+}
@@ -0,0 +1,79 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter.
+ * See {@linkplain RetryPolicy#exponentialBackoff(int, long, long, java.util.concurrent.TimeUnit)}
+ */
+final class ExponentialBackoff implements RetryPolicy
+{
+    private final int m_MaxAttempts;
+    private final long m_InitialDelayMs;
+    private final long m_MaxDelayMs;
+
+    ExponentialBackoff(int maxAttempts, long initialDelayMs, long maxDelayMs)
+    {
+        if (maxAttempts <= 0)
+        {
+            throw new IllegalArgumentException("maxAttempts must be > 0 not " + maxAttempts);
+        }
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs)
+        {
+            throw new IllegalArgumentException("Delays must satisfy 0 < initialDelay ("
+                    + initialDelayMs + "ms) <= maxDelay (" + maxDelayMs + "ms)");
+        }
+
+        m_MaxAttempts = maxAttempts;
+        m_InitialDelayMs = initialDelayMs;
+        m_MaxDelayMs = maxDelayMs;
+    }
+
+    @Override
+    public long nextDelayMs(int attempt, long retryAfterMs)
+    {
+        if (attempt >= m_MaxAttempts)
+        {
+            return -1;
+        }
+
+        if (retryAfterMs >= 0)
+        {
+            return retryAfterMs <= m_MaxDelayMs ? retryAfterMs : -1;
+        }
+
+        long delay = m_InitialDelayMs;
+        for (int i = 1; i < attempt && delay < m_MaxDelayMs; i++)
+        {
+            delay *= 2;
+        }
+        delay = Math.min(delay, m_MaxDelayMs);
+
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ExponentialBackoff [maxAttempts=" + m_MaxAttempts + ", initialDelayMs="
+                + m_InitialDelayMs + ", maxDelayMs=" + m_MaxDelayMs + "]";
+    }
+}
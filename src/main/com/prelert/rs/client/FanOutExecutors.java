@@ -0,0 +1,89 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Creates the executor that runs the blocking client calls of a
+ * {@linkplain BulkOperations} fan-out.
+ * <br>
+ * On Java 21 or later every call runs on its own virtual thread so
+ * thousands of calls can wait on the network without a thread each.
+ * The client is compiled for Java 8 so the virtual thread executor is
+ * found by reflection. On earlier versions a fixed pool of daemon
+ * platform threads is used instead.
+ */
+final class FanOutExecutors
+{
+    private static final Logger LOGGER = Logger.getLogger(FanOutExecutors.class);
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    private FanOutExecutors()
+    {
+    }
+
+    private static Method findVirtualThreadExecutor()
+    {
+        try
+        {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return True if virtual threads are available
+     */
+    static boolean isVirtualThreadsAvailable()
+    {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * A virtual thread per task executor if available else a pool
+     * of <code>platformThreads</code> daemon threads
+     */
+    static ExecutorService create(int platformThreads)
+    {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null)
+        {
+            try
+            {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            }
+            catch (ReflectiveOperationException | RuntimeException e)
+            {
+                LOGGER.warn("Cannot create virtual thread executor, using platform threads", e);
+            }
+        }
+
+        return Executors.newFixedThreadPool(platformThreads, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("engine-api-fan-out-%d").build());
+    }
+}
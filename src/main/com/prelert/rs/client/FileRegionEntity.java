@@ -0,0 +1,168 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * A request entity for a byte range of a file. The content length is
+ * known so the request is not chunk encoded and the entity can be
+ * written more than once.
+ * <br>
+ * The file is read through memory mapped regions of at most
+ * {@value #MAP_REGION_SIZE} bytes so the data is copied once, from the
+ * page cache into a single reused buffer, before it is written to the
+ * connection. Reading a <code>FileInputStream</code> copies through an
+ * extra native buffer and makes a read call per buffer. The blocking
+ * connection only accepts an <code>OutputStream</code> so the
+ * <code>FileChannel.transferTo</code> path used by
+ * {@linkplain AsyncEngineApiClient#fileUpload(String, File, boolean)}
+ * is not available here.
+ * <br>
+ * The file channel is opened for each write and always closed when
+ * the write ends.
+ */
+final class FileRegionEntity extends AbstractHttpEntity
+{
+    private static final int MAP_REGION_SIZE = 32 * 1024 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final File m_File;
+    private final long m_Offset;
+    private final long m_Length;
+
+    /**
+     * @param file The file
+     * @param offset The position of the first byte to send
+     * @param length The number of bytes to send
+     * @throws FileNotFoundException If the file does not exist
+     * @throws IllegalArgumentException If the range is not within the file
+     */
+    FileRegionEntity(File file, long offset, long length) throws FileNotFoundException
+    {
+        checkRange(file, offset, length);
+
+        m_File = file;
+        m_Offset = offset;
+        m_Length = length;
+        setContentType("application/octet-stream");
+    }
+
+    private static void checkRange(File file, long offset, long length)
+    throws FileNotFoundException
+    {
+        if (file.isFile() == false)
+        {
+            throw new FileNotFoundException(file.toString());
+        }
+
+        long fileLength = file.length();
+        if (offset < 0 || length < 0 || offset > fileLength || length > fileLength - offset)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Range offset %d length %d is not within file %s of length %d",
+                    offset, length, file, fileLength));
+        }
+    }
+
+    /**
+     * Open a stream of the byte range, the caller must close it
+     */
+    static InputStream openStream(File file, long offset, long length) throws IOException
+    {
+        checkRange(file, offset, length);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            channel.position(offset);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        return ByteStreams.limit(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return m_Length;
+    }
+
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        return openStream(m_File, m_Offset, m_Length);
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(m_File.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() < m_Offset + m_Length)
+            {
+                throw new IOException("File " + m_File + " was truncated to "
+                        + channel.size() + " bytes");
+            }
+
+            byte [] buffer = new byte[(int) Math.min(OUTPUT_BUFFER_SIZE, Math.max(m_Length, 1))];
+            long position = m_Offset;
+            long end = m_Offset + m_Length;
+            while (position < end)
+            {
+                long regionSize = Math.min(MAP_REGION_SIZE, end - position);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, regionSize);
+                while (region.hasRemaining())
+                {
+                    int count = Math.min(buffer.length, region.remaining());
+                    region.get(buffer, 0, count);
+                    outstream.write(buffer, 0, count);
+                }
+                position += regionSize;
+            }
+            outstream.flush();
+        }
+    }
+}
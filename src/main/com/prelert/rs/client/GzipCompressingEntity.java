@@ -0,0 +1,376 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * A request entity that gzips an input stream as it is sent. The
+ * compression runs on its own thread so reading and compressing the
+ * input overlaps with writing to the connection. The two threads hand
+ * buffers over through a pair of queues holding
+ * {@value #BUFFER_COUNT} buffers so memory use is bounded: while the
+ * connection writes one buffer the compressor fills the other.
+ * <br>
+ * The entity can be written or its content read once only. The input
+ * stream is closed when it has been compressed or compression fails.
+ */
+final class GzipCompressingEntity extends AbstractHttpEntity
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFER_COUNT = 2;
+
+    /**
+     * A buffer of compressed data
+     */
+    private static final class Buffer
+    {
+        private final byte [] m_Data = new byte[BUFFER_SIZE];
+        private int m_Length;
+    }
+
+    /**
+     * Marks the end of the compressed data
+     */
+    private static final Buffer END = new Buffer();
+
+    private final InputStream m_Input;
+    private final int m_Level;
+
+    private final BlockingQueue<Buffer> m_Free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final BlockingQueue<Buffer> m_Filled = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    private volatile IOException m_CompressError;
+    private volatile UploadCompressionStats m_Stats;
+    private boolean m_Consumed;
+
+    /**
+     * @param input The uncompressed data
+     * @param level The compression level 0-9 or
+     * {@linkplain java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     */
+    GzipCompressingEntity(InputStream input, int level)
+    {
+        m_Input = input;
+        m_Level = level;
+        setContentType("application/octet-stream");
+        setContentEncoding("gzip");
+        setChunked(true);
+    }
+
+    /**
+     * @return The compression statistics or <code>null</code> if the
+     * entity has not been written
+     */
+    UploadCompressionStats getStats()
+    {
+        return m_Stats;
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return false;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return -1;
+    }
+
+    @Override
+    public boolean isStreaming()
+    {
+        return true;
+    }
+
+    /**
+     * @return The compressed content, compressed as it is read. Closing
+     * the stream before the end stops the compression.
+     */
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        return new CompressedInputStream(startCompressor());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        Thread compressor = startCompressor();
+        try
+        {
+            Buffer buffer;
+            while ((buffer = takeFilled()) != END)
+            {
+                outstream.write(buffer.m_Data, 0, buffer.m_Length);
+                m_Free.add(buffer);
+            }
+        }
+        finally
+        {
+            // stops the compressor if the connection failed
+            compressor.interrupt();
+        }
+    }
+
+    private synchronized Thread startCompressor() throws IOException
+    {
+        if (m_Consumed)
+        {
+            throw new IOException("The compressed upload has already been sent");
+        }
+        m_Consumed = true;
+
+        for (int i = 0; i < BUFFER_COUNT; i++)
+        {
+            m_Free.add(new Buffer());
+        }
+
+        Thread compressor = new Thread(this::compress, "engine-api-upload-compressor");
+        compressor.setDaemon(true);
+        compressor.start();
+        return compressor;
+    }
+
+    /**
+     * @return The next buffer of compressed data or {@linkplain #END}
+     * @throws IOException If compression failed
+     */
+    private Buffer takeFilled() throws IOException
+    {
+        Buffer buffer;
+        try
+        {
+            buffer = m_Filled.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted writing the compressed upload");
+        }
+
+        if (buffer == END && m_CompressError != null)
+        {
+            // a later read fails again rather than waiting
+            m_Filled.add(END);
+            throw m_CompressError;
+        }
+        return buffer;
+    }
+
+    private void compress()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+        long startCpu = cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+
+        CountingInputStream input = new CountingInputStream(m_Input);
+        HandoffOutputStream handoff = new HandoffOutputStream();
+        try
+        {
+            try (InputStream source = m_Input;
+                 GZIPOutputStream gzip = new LeveledGzipOutputStream(handoff, m_Level))
+            {
+                byte [] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) >= 0)
+                {
+                    gzip.write(buffer, 0, read);
+                }
+            }
+        }
+        catch (InterruptedIOException e)
+        {
+            // the connection failed
+            return;
+        }
+        catch (IOException e)
+        {
+            m_CompressError = e;
+        }
+        catch (RuntimeException e)
+        {
+            m_CompressError = new IOException("Failed to compress the upload", e);
+        }
+
+        m_Stats = new UploadCompressionStats(input.getCount(), handoff.m_Count,
+                cpuTime ? threads.getCurrentThreadCpuTime() - startCpu : -1);
+
+        // there is always room for the end marker
+        m_Filled.add(END);
+    }
+
+    /**
+     * Writes the compressed data into the free buffers and passes each
+     * full buffer to the writing thread
+     */
+    private final class HandoffOutputStream extends OutputStream
+    {
+        private Buffer m_Current;
+        private long m_Count;
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte [] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte [] data, int offset, int length) throws IOException
+        {
+            while (length > 0)
+            {
+                if (m_Current == null)
+                {
+                    m_Current = takeFree();
+                    m_Current.m_Length = 0;
+                }
+
+                int count = Math.min(length, BUFFER_SIZE - m_Current.m_Length);
+                System.arraycopy(data, offset, m_Current.m_Data, m_Current.m_Length, count);
+                m_Current.m_Length += count;
+                m_Count += count;
+                offset += count;
+                length -= count;
+
+                if (m_Current.m_Length == BUFFER_SIZE)
+                {
+                    handOver();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (m_Current != null)
+            {
+                handOver();
+            }
+        }
+
+        private void handOver() throws IOException
+        {
+            try
+            {
+                m_Filled.put(m_Current);
+                m_Current = null;
+            }
+            catch (InterruptedException e)
+            {
+                // keep the flag so closing the gzip stream does not block
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Upload compressor interrupted");
+            }
+        }
+
+        private Buffer takeFree() throws IOException
+        {
+            try
+            {
+                return m_Free.take();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Upload compressor interrupted");
+            }
+        }
+    }
+
+    /**
+     * Reads the compressed buffers as the connection would write them
+     */
+    private final class CompressedInputStream extends InputStream
+    {
+        private final Thread m_Compressor;
+        private Buffer m_Current;
+        private int m_Position;
+
+        CompressedInputStream(Thread compressor)
+        {
+            m_Compressor = compressor;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte [] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte [] b, int offset, int length) throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            while (m_Current == null || m_Position == m_Current.m_Length)
+            {
+                if (m_Current == END)
+                {
+                    return -1;
+                }
+                if (m_Current != null)
+                {
+                    m_Free.add(m_Current);
+                }
+                m_Current = takeFilled();
+                m_Position = 0;
+            }
+
+            int count = Math.min(length, m_Current.m_Length - m_Position);
+            System.arraycopy(m_Current.m_Data, m_Position, b, offset, count);
+            m_Position += count;
+            return count;
+        }
+
+        @Override
+        public void close()
+        {
+            m_Compressor.interrupt();
+        }
+    }
+
+    /**
+     * {@linkplain GZIPOutputStream} with a compression level
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream
+    {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException
+        {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
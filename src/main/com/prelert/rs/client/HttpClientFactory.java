@@ -0,0 +1,226 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLContexts;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Creates the pooled blocking and non-blocking Apache HTTP clients
+ * used by {@linkplain EngineApiClient} and {@linkplain AsyncEngineApiClient}
+ * from an {@linkplain EngineApiClientConfig}.
+ */
+final class HttpClientFactory
+{
+    /**
+     * Replaces the blocking client's response entity with one that
+     * counts the content bytes and inflates compressed content. The
+     * non-blocking client's entity is not available to interceptors,
+     * it is wrapped when the response completes.
+     */
+    private static final HttpResponseInterceptor COUNTING_DECOMPRESSING_INTERCEPTOR =
+            (response, context) ->
+            {
+                HttpEntity entity = response.getEntity();
+                if (entity != null)
+                {
+                    response.setEntity(new CountingDecompressingEntity(entity));
+                }
+            };
+
+    private HttpClientFactory()
+    {
+    }
+
+    static PoolingHttpClientConnectionManager createConnectionManager(
+            EngineApiClientConfig config)
+    {
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new PlainConnectionSocketFactory()
+                {
+                    @Override
+                    public Socket createSocket(HttpContext context) throws IOException
+                    {
+                        return setBufferSizes(super.createSocket(context), config);
+                    }
+                })
+                .register("https", new SSLConnectionSocketFactory(SSLContexts.createDefault(),
+                        SSLConnectionSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER)
+                {
+                    @Override
+                    public Socket createSocket(HttpContext context) throws IOException
+                    {
+                        return setBufferSizes(super.createSocket(context), config);
+                    }
+                })
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager(registry);
+        connectionManager.setMaxTotal(config.getMaxConnectionsTotal());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                .setTcpNoDelay(config.isTcpNoDelay())
+                .setSoTimeout(Math.max(0, config.getSocketTimeoutMs()))
+                .build());
+        connectionManager.setDefaultConnectionConfig(connectionConfig(config));
+        return connectionManager;
+    }
+
+    static CloseableHttpClient createHttpClient(EngineApiClientConfig config,
+            PoolingHttpClientConnectionManager connectionManager)
+    {
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy(config))
+                .setDefaultRequestConfig(requestConfig(config))
+                .disableContentCompression()
+                .addInterceptorFirst(COUNTING_DECOMPRESSING_INTERCEPTOR);
+        if (config.isResponseCompression())
+        {
+            builder.addInterceptorLast(new RequestAcceptEncoding());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @throws IllegalStateException If the I/O reactor cannot be created,
+     * as {@linkplain HttpAsyncClients#createDefault()} does
+     */
+    static PoolingNHttpClientConnectionManager createAsyncConnectionManager(
+            EngineApiClientConfig config)
+    {
+        IOReactorConfig.Builder reactorConfig = IOReactorConfig.custom()
+                .setTcpNoDelay(config.isTcpNoDelay())
+                .setConnectTimeout(Math.max(0, config.getConnectTimeoutMs()))
+                .setSoTimeout(Math.max(0, config.getSocketTimeoutMs()))
+                .setSndBufSize(config.getSendBufferSize())
+                .setRcvBufSize(config.getReceiveBufferSize());
+        if (config.getIoThreadCount() > 0)
+        {
+            reactorConfig.setIoThreadCount(config.getIoThreadCount());
+        }
+
+        PoolingNHttpClientConnectionManager connectionManager;
+        try
+        {
+            connectionManager = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(reactorConfig.build()));
+        }
+        catch (IOReactorException e)
+        {
+            throw new IllegalStateException(e);
+        }
+
+        connectionManager.setMaxTotal(config.getMaxConnectionsTotal());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        connectionManager.setDefaultConnectionConfig(connectionConfig(config));
+        return connectionManager;
+    }
+
+    static CloseableHttpAsyncClient createAsyncHttpClient(EngineApiClientConfig config,
+            PoolingNHttpClientConnectionManager connectionManager)
+    {
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy(config))
+                .setDefaultRequestConfig(requestConfig(config));
+        if (config.isResponseCompression())
+        {
+            builder.addInterceptorLast(new RequestAcceptEncoding());
+        }
+        return builder.build();
+    }
+
+    private static RequestConfig requestConfig(EngineApiClientConfig config)
+    {
+        return RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeoutMs())
+                .setSocketTimeout(config.getSocketTimeoutMs())
+                .setConnectionRequestTimeout(config.getConnectionRequestTimeoutMs())
+                .build();
+    }
+
+    private static ConnectionConfig connectionConfig(EngineApiClientConfig config)
+    {
+        return ConnectionConfig.custom()
+                .setBufferSize(config.getConnectionBufferSize())
+                .build();
+    }
+
+    /**
+     * Use the server's Keep-Alive timeout if it sent one but never keep
+     * a connection alive for longer than the configured limit.
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(EngineApiClientConfig config)
+    {
+        long limitMs = config.getKeepAliveMs();
+        return (response, context) ->
+        {
+            long serverMs = DefaultConnectionKeepAliveStrategy.INSTANCE
+                    .getKeepAliveDuration(response, context);
+            if (limitMs <= 0)
+            {
+                return serverMs;
+            }
+            return serverMs > 0 ? Math.min(serverMs, limitMs) : limitMs;
+        };
+    }
+
+    private static Socket setBufferSizes(Socket socket, EngineApiClientConfig config)
+    throws IOException
+    {
+        if (config.getSendBufferSize() > 0)
+        {
+            socket.setSendBufferSize(config.getSendBufferSize());
+        }
+        if (config.getReceiveBufferSize() > 0)
+        {
+            socket.setReceiveBufferSize(config.getReceiveBufferSize());
+        }
+        return socket;
+    }
+}
@@ -19,11 +19,10 @@
 package com.prelert.rs.client;
 
 import java.io.IOException;
-import java.util.Collections;
 
 import org.apache.log4j.Logger;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.prelert.rs.data.Pagination;
 import com.prelert.rs.data.SingleDocument;
 
@@ -38,35 +37,37 @@ class HttpGetRequester<T>
         m_Client = client;
     }
 
-    protected Pagination<T> getPage(String fullUrl, TypeReference<Pagination<T>> typeRef)
+    protected Pagination<T> getPage(String fullUrl, ObjectReader reader)
             throws IOException
     {
-        LOGGER.debug("GET " + fullUrl);
+        return m_Client.updateLastError(tryGetPage(fullUrl, reader));
+    }
 
-        Pagination<T> page = m_Client.get(fullUrl, typeRef);
+    protected SingleDocument<T> getSingleDocument(String fullUrl,
+            ObjectReader reader) throws IOException
+    {
+        return m_Client.updateLastError(tryGetSingleDocument(fullUrl, reader));
+    }
 
-        // else return empty page
-        if (page == null)
-        {
-            page = new Pagination<>();
-            page.setDocuments(Collections.emptyList());
-        }
+    /**
+     * If the page cannot be found the result's value is an empty page
+     */
+    protected ApiResult<Pagination<T>> tryGetPage(String fullUrl,
+            ObjectReader reader) throws IOException
+    {
+        LOGGER.debug("GET " + fullUrl);
 
-        return page;
+        return m_Client.<Pagination<T>>tryGet(fullUrl, reader).map(EngineApiClient::emptyIfNull);
     }
 
-    protected SingleDocument<T> getSingleDocument(String fullUrl,
-            TypeReference<SingleDocument<T>> typeRef) throws IOException
+    /**
+     * If the document does not exist the result's value is an empty document
+     */
+    protected ApiResult<SingleDocument<T>> tryGetSingleDocument(String fullUrl,
+            ObjectReader reader) throws IOException
     {
         LOGGER.debug("GET " + fullUrl);
 
-        SingleDocument<T> doc = m_Client.get(fullUrl, typeRef);
-
-        // else return empty doc
-        if (doc == null)
-        {
-            doc = new SingleDocument<>();
-        }
-        return doc;
+        return m_Client.<SingleDocument<T>>tryGet(fullUrl, reader).map(EngineApiClient::emptyIfNull);
     }
 }
@@ -0,0 +1,75 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Periodically closes expired connections and connections that have
+ * been idle in the pool for too long. A stale pooled connection is
+ * otherwise only discovered when a request fails on it.
+ */
+class IdleConnectionEvictor implements Closeable
+{
+    private static final Logger LOGGER = Logger.getLogger(IdleConnectionEvictor.class);
+
+    private static final long MIN_PERIOD_MS = 100;
+    private static final long MAX_PERIOD_MS = 30000;
+
+    private final ScheduledExecutorService m_Executor;
+
+    /**
+     * @param idleTimeMs Connections idle for longer than this are closed
+     * @param closeExpired Closes the connections past their keep-alive time
+     * @param closeIdle Closes connections idle for longer than the argument in ms
+     */
+    public IdleConnectionEvictor(long idleTimeMs, Runnable closeExpired, LongConsumer closeIdle)
+    {
+        m_Executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("engine-api-idle-evictor-%d").build());
+
+        long period = Math.max(MIN_PERIOD_MS, Math.min(MAX_PERIOD_MS, idleTimeMs / 2));
+        m_Executor.scheduleWithFixedDelay(() ->
+        {
+            try
+            {
+                closeExpired.run();
+                closeIdle.accept(idleTimeMs);
+            }
+            catch (RuntimeException e)
+            {
+                LOGGER.warn("Error evicting idle connections", e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close()
+    {
+        m_Executor.shutdownNow();
+    }
+}
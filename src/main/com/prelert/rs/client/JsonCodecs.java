@@ -0,0 +1,116 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.prelert.job.JobConfiguration;
+import com.prelert.job.JobDetails;
+import com.prelert.job.alert.Alert;
+import com.prelert.job.results.AnomalyRecord;
+import com.prelert.job.results.Bucket;
+import com.prelert.job.results.CategoryDefinition;
+import com.prelert.rs.data.ApiError;
+import com.prelert.rs.data.MultiDataPostResult;
+import com.prelert.rs.data.Pagination;
+import com.prelert.rs.data.SingleDocument;
+
+/**
+ * The Json object mapper shared by the clients and pre-built readers
+ * and writers for the types sent to and returned by the Engine API.
+ * <br>
+ * Reading through a new <code>TypeReference</code> resolves the generic
+ * type and looks up its deserializer on every call. An
+ * <code>ObjectReader</code> does both once when it is created and, like
+ * the mapper, is immutable and thread safe so one instance serves every
+ * request from every client.
+ */
+final class JsonCodecs
+{
+    static final ObjectMapper MAPPER = createMapper();
+
+    static final ObjectReader JOBS_PAGE =
+            MAPPER.reader(new TypeReference<Pagination<JobDetails>>() {});
+    static final ObjectReader JOB_DOCUMENT =
+            MAPPER.reader(new TypeReference<SingleDocument<JobDetails>>() {});
+    static final ObjectReader BUCKETS_PAGE =
+            MAPPER.reader(new TypeReference<Pagination<Bucket>>() {});
+    static final ObjectReader BUCKET_DOCUMENT =
+            MAPPER.reader(new TypeReference<SingleDocument<Bucket>>() {});
+    static final ObjectReader RECORDS_PAGE =
+            MAPPER.reader(new TypeReference<Pagination<AnomalyRecord>>() {});
+    static final ObjectReader CATEGORY_DEFINITIONS_PAGE =
+            MAPPER.reader(new TypeReference<Pagination<CategoryDefinition>>() {});
+    static final ObjectReader CATEGORY_DEFINITION_DOCUMENT =
+            MAPPER.reader(new TypeReference<SingleDocument<CategoryDefinition>>() {});
+    static final ObjectReader MULTI_DATA_POST_RESULT = MAPPER.reader(MultiDataPostResult.class);
+    static final ObjectReader ALERT = MAPPER.reader(Alert.class);
+    static final ObjectReader API_ERROR = MAPPER.reader(ApiError.class);
+    static final ObjectReader STRING_MAP =
+            MAPPER.reader(new TypeReference<Map<String, String>>() {});
+
+    static final ObjectReader UPLOAD_CHECKPOINT = MAPPER.reader(UploadCheckpoint.class);
+
+    static final ObjectWriter JOB_CONFIGURATION = MAPPER.writerFor(JobConfiguration.class);
+    static final ObjectWriter UPLOAD_CHECKPOINT_WRITER = MAPPER.writerFor(UploadCheckpoint.class);
+
+    /**
+     * Readers for the types passed to the generic get methods
+     * keyed by the referenced type
+     */
+    private static final ConcurrentMap<Type, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+    private JsonCodecs()
+    {
+    }
+
+    private static ObjectMapper createMapper()
+    {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        return mapper;
+    }
+
+    /**
+     * A reader for the type referenced by <code>typeRef</code>, created
+     * on first use and cached.
+     */
+    static ObjectReader reader(TypeReference<?> typeRef)
+    {
+        ObjectReader reader = READERS.get(typeRef.getType());
+        if (reader == null)
+        {
+            reader = MAPPER.reader(typeRef);
+            ObjectReader existing = READERS.putIfAbsent(typeRef.getType(), reader);
+            if (existing != null)
+            {
+                reader = existing;
+            }
+        }
+        return reader;
+    }
+}
@@ -0,0 +1,99 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpEntity;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.prelert.rs.data.ApiError;
+
+/**
+ * Parses Json response entities directly from the entity's content stream.
+ * <br>
+ * Reading the content into a <code>String</code> first creates a
+ * <code>char[]</code> buffer, a <code>String</code> copy of it and, as
+ * the response grows, every intermediate buffer in between. Parsing
+ * the stream lets Jackson decode the UTF-8 bytes in place using its own
+ * recycled input buffers so the only allocations are the result objects.
+ * Jackson also detects the encoding from the content rather than falling
+ * back to ISO-8859-1 when the response has no charset parameter.
+ * <br>
+ * Closing the content stream consumes any remaining bytes so the
+ * connection is returned to the pool.
+ */
+final class JsonEntityReader
+{
+    private JsonEntityReader()
+    {
+    }
+
+    /**
+     * Parse the entity content as the type referenced by <code>typeRef</code>
+     *
+     * @return The parsed object or <code>null</code> if the entity is
+     * <code>null</code> or has no content
+     */
+    static <T> T read(HttpEntity entity, TypeReference<T> typeRef)
+    throws IOException
+    {
+        return read(JsonCodecs.reader(typeRef), entity);
+    }
+
+    /**
+     * Parse the entity content with <code>reader</code>
+     *
+     * @return The parsed object or <code>null</code> if the entity is
+     * <code>null</code> or has no content
+     */
+    static <T> T read(ObjectReader reader, HttpEntity entity)
+    throws IOException
+    {
+        if (entity == null)
+        {
+            return null;
+        }
+
+        try (InputStream stream = entity.getContent();
+             JsonParser parser = reader.getFactory().createParser(stream))
+        {
+            if (parser.nextToken() == null)
+            {
+                // empty content
+                return null;
+            }
+            return reader.readValue(parser);
+        }
+    }
+
+    /**
+     * Parse an error response
+     *
+     * @return The error or <code>null</code> if the entity has no content
+     */
+    static ApiError readApiError(HttpEntity entity)
+    throws IOException
+    {
+        return read(JsonCodecs.API_ERROR, entity);
+    }
+}
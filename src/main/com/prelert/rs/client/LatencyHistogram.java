@@ -0,0 +1,102 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies in microseconds into log-linear buckets in the
+ * manner of HdrHistogram: values below {@value #SUB_BUCKET_COUNT} have
+ * their own bucket and larger values are grouped into
+ * {@value #SUB_BUCKET_COUNT} linear sub-buckets per power of 2 so every
+ * value is recorded to within about 3% whatever its magnitude.
+ * <br>
+ * Recording is lock-free, a few atomic increments, and allocates
+ * nothing. {@linkplain #snapshot()} copies the counts while recording
+ * continues so a snapshot may include part of a concurrent recording,
+ * e.g. its count but not its sum.
+ */
+final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Longer values, about 19 hours, are recorded as this
+     */
+    static final long HIGHEST_TRACKABLE_MICROS = (1L << 36) - 1;
+
+    private static final int BUCKET_COUNT = indexOf(HIGHEST_TRACKABLE_MICROS) + 1;
+
+    private final AtomicLongArray m_Counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder m_Sum = new LongAdder();
+    private final LongAccumulator m_Min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator m_Max = new LongAccumulator(Math::max, 0);
+
+    void recordNanos(long nanos)
+    {
+        long micros = Math.max(0, Math.min(HIGHEST_TRACKABLE_MICROS, nanos / 1000));
+        m_Counts.incrementAndGet(indexOf(micros));
+        m_Sum.add(micros);
+        m_Min.accumulate(micros);
+        m_Max.accumulate(micros);
+    }
+
+    LatencySnapshot snapshot()
+    {
+        long [] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts[i] = m_Counts.get(i);
+            total += counts[i];
+        }
+
+        long min = m_Min.get();
+        return new LatencySnapshot(counts, total, m_Sum.sum(),
+                min == Long.MAX_VALUE ? 0 : min, m_Max.get());
+    }
+
+    static int indexOf(long micros)
+    {
+        if (micros < SUB_BUCKET_COUNT)
+        {
+            return (int) micros;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((micros >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * @return The largest value recorded in the bucket at <code>index</code>
+     */
+    static long highestValueAt(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
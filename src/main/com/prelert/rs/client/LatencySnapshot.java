@@ -0,0 +1,108 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+/**
+ * An immutable copy of a latency histogram. All values are in
+ * microseconds. Percentiles are accurate to about 3%.
+ */
+public final class LatencySnapshot
+{
+    private final long [] m_Counts;
+    private final long m_Count;
+    private final long m_Sum;
+    private final long m_Min;
+    private final long m_Max;
+
+    LatencySnapshot(long [] counts, long count, long sum, long min, long max)
+    {
+        m_Counts = counts;
+        m_Count = count;
+        m_Sum = sum;
+        m_Min = min;
+        m_Max = max;
+    }
+
+    /**
+     * @return The number of recorded latencies
+     */
+    public long getCount()
+    {
+        return m_Count;
+    }
+
+    /**
+     * @return The smallest latency or 0 if none were recorded
+     */
+    public long getMinMicros()
+    {
+        return m_Min;
+    }
+
+    /**
+     * @return The largest latency or 0 if none were recorded
+     */
+    public long getMaxMicros()
+    {
+        return m_Max;
+    }
+
+    /**
+     * @return The mean latency or 0 if none were recorded
+     */
+    public double getMeanMicros()
+    {
+        return m_Count == 0 ? 0 : (double) m_Sum / m_Count;
+    }
+
+    /**
+     * The latency at or below which <code>percentile</code> percent
+     * of the recorded latencies fall
+     *
+     * @param percentile The percentile between 0 and 100 e.g. 99.9
+     * @return The latency or 0 if none were recorded
+     */
+    public long getPercentileMicros(double percentile)
+    {
+        if (m_Count == 0)
+        {
+            return 0;
+        }
+
+        double clamped = Math.max(0, Math.min(100, percentile));
+        long rank = Math.max(1, (long) Math.ceil(clamped / 100 * m_Count));
+        long seen = 0;
+        for (int i = 0; i < m_Counts.length; i++)
+        {
+            seen += m_Counts[i];
+            if (seen >= rank)
+            {
+                return Math.min(LatencyHistogram.highestValueAt(i), m_Max);
+            }
+        }
+        return m_Max;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d, min=%dus, mean=%.0fus, p50=%dus, p99=%dus, max=%dus",
+                m_Count, m_Min, getMeanMicros(), getPercentileMicros(50),
+                getPercentileMicros(99), m_Max);
+    }
+}
@@ -0,0 +1,194 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedOutputBuffer;
+import org.apache.log4j.Logger;
+
+/**
+ * A chunked request entity that lets the non-blocking client upload an
+ * <code>InputStream</code> without reading it on an I/O dispatch thread.
+ * <br>
+ * An <code>InputStreamEntity</code> is read by the dispatch thread that
+ * writes the request, so a slow source stalls every other request on
+ * that thread. Here a task on the upload executor reads the stream into
+ * a {@linkplain SharedOutputBuffer} of {@value #BUFFER_SIZE} bytes. The
+ * dispatch thread only writes what is already in the buffer and
+ * suspends output when it is empty, the reading task requests output
+ * again each time it has written more so a slow source is still sent
+ * as it is read. The task blocks while the buffer is full so no more
+ * than the buffer is held in memory.
+ * <br>
+ * The stream is closed when it has been read or the request ends.
+ * The entity can only be sent once.
+ */
+final class PipedUploadEntity extends AbstractHttpEntity implements HttpAsyncContentProducer
+{
+    private static final Logger LOGGER = Logger.getLogger(PipedUploadEntity.class);
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final InputStream m_Input;
+    private final Executor m_Executor;
+    private final SharedOutputBuffer m_Buffer;
+
+    private volatile IOControl m_IOControl;
+    private volatile IOException m_ReadError;
+    private volatile boolean m_Closed;
+    private boolean m_Started;
+
+    /**
+     * @param input The data to upload
+     * @param executor Runs the task that reads <code>input</code>,
+     * it holds a thread for as long as the upload
+     */
+    PipedUploadEntity(InputStream input, Executor executor)
+    {
+        m_Input = input;
+        m_Executor = executor;
+        m_Buffer = new SharedOutputBuffer(BUFFER_SIZE, HeapByteBufferAllocator.INSTANCE);
+        setContentType("application/octet-stream");
+        setChunked(true);
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException
+    {
+        m_IOControl = ioctrl;
+        if (m_Started == false)
+        {
+            m_Started = true;
+            try
+            {
+                m_Executor.execute(this::pump);
+            }
+            catch (RejectedExecutionException e)
+            {
+                throw new IOException("The upload executor rejected the upload", e);
+            }
+        }
+
+        if (m_ReadError != null)
+        {
+            throw m_ReadError;
+        }
+        m_Buffer.produceContent(encoder, ioctrl);
+    }
+
+    /**
+     * Copy the input into the buffer, runs on the upload executor
+     */
+    private void pump()
+    {
+        byte [] bytes = new byte[READ_SIZE];
+        try (InputStream input = m_Input)
+        {
+            int read;
+            while ((read = input.read(bytes)) >= 0)
+            {
+                m_Buffer.write(bytes, 0, read);
+                requestOutput();
+            }
+            m_Buffer.writeCompleted();
+        }
+        catch (IOException e)
+        {
+            if (m_Closed)
+            {
+                // the buffer throws once the request has ended
+                return;
+            }
+            LOGGER.debug("Reading the upload failed: " + e.getMessage());
+            m_ReadError = e;
+            // wake the dispatch thread to fail the request
+            requestOutput();
+        }
+    }
+
+    private void requestOutput()
+    {
+        if (m_Closed == false)
+        {
+            m_IOControl.requestOutput();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        m_Closed = true;
+        m_Buffer.shutdown();
+        if (m_Started == false)
+        {
+            m_Input.close();
+        }
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return false;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        return m_Input;
+    }
+
+    /**
+     * Write the stream to a blocking connection, the executor is not used
+     */
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException
+    {
+        try (InputStream input = m_Input)
+        {
+            byte [] bytes = new byte[READ_SIZE];
+            int read;
+            while ((read = input.read(bytes)) >= 0)
+            {
+                outstream.write(bytes, 0, read);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStreaming()
+    {
+        return true;
+    }
+}
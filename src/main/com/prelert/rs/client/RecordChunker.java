@@ -0,0 +1,360 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.google.common.io.ByteStreams;
+import com.prelert.job.DataDescription;
+import com.prelert.job.DataDescription.DataFormat;
+
+/**
+ * Splits an upload into chunks of about <code>chunkSize</code> bytes
+ * that end on a record boundary so no record is split between uploads.
+ * <ul>
+ * <li>{@linkplain DataFormat#DELIMITED} records end at a
+ * {@linkplain DataDescription#LINE_ENDING} that is not inside a quoted
+ * field. The first record is the header and is repeated at the start
+ * of every chunk.</li>
+ * <li>{@linkplain DataFormat#SINGLE_LINE} records end at every
+ * {@linkplain DataDescription#LINE_ENDING}.</li>
+ * <li>{@linkplain DataFormat#JSON} records end after the closing brace
+ * of each top level object.</li>
+ * </ul>
+ * A record longer than <code>chunkSize</code> is sent in a chunk of
+ * its own, the chunk's buffer grows to fit it.
+ * <br>
+ * Not thread safe, chunks must be filled one at a time.
+ */
+final class RecordChunker
+{
+    /**
+     * A reusable chunk buffer
+     */
+    static final class Chunk
+    {
+        private byte [] m_Data;
+        private int m_Length;
+        private long m_InputEnd;
+
+        Chunk(int capacity)
+        {
+            m_Data = new byte[capacity];
+        }
+
+        byte [] getData()
+        {
+            return m_Data;
+        }
+
+        int getLength()
+        {
+            return m_Length;
+        }
+
+        /**
+         * @return The position in the input after the last record
+         * in this chunk
+         */
+        long getInputEnd()
+        {
+            return m_InputEnd;
+        }
+    }
+
+    private static final byte LINE_ENDING = (byte) DataDescription.LINE_ENDING;
+    private static final int HEADER_READ_SIZE = 8192;
+
+    private final InputStream m_Input;
+    private final DataFormat m_Format;
+    private final byte m_Quote;
+    private final int m_ChunkSize;
+
+    /**
+     * Null until the header of delimited data has been read
+     */
+    private byte [] m_Header;
+    private byte [] m_Carry = new byte[0];
+    private int m_CarryLength;
+    private boolean m_Eof;
+
+    /**
+     * The number of bytes read from the input or skipped
+     */
+    private long m_Position;
+
+    RecordChunker(InputStream input, DataDescription dataDescription, int chunkSize)
+    {
+        m_Input = input;
+        m_Format = dataDescription.getFormat();
+        m_Quote = (byte) dataDescription.getQuoteCharacter();
+        m_ChunkSize = chunkSize;
+        m_Header = m_Format == DataFormat.DELIMITED ? null : new byte[0];
+    }
+
+    /**
+     * Skip the records before <code>offset</code>. The header of
+     * delimited data is still read so it starts every chunk. Must be
+     * called before the first chunk is filled.
+     *
+     * @param offset The position in the input of the first record
+     * to read. This must be a position returned by
+     * {@linkplain Chunk#getInputEnd()}
+     * @throws IOException If the input ends before <code>offset</code>
+     */
+    void resumeAt(long offset) throws IOException
+    {
+        Chunk scratch = new Chunk(HEADER_READ_SIZE);
+        int length = 0;
+        if (m_Header == null)
+        {
+            int target = HEADER_READ_SIZE;
+            int headerEnd;
+            while (true)
+            {
+                length = read(scratch, length, target);
+                headerEnd = findBoundary(scratch.m_Data, 0, length, true);
+                if (headerEnd >= 0 || m_Eof)
+                {
+                    break;
+                }
+                target *= 2;
+            }
+            m_Header = Arrays.copyOf(scratch.m_Data, headerEnd < 0 ? length : headerEnd);
+        }
+
+        if (offset < length)
+        {
+            if (offset < m_Header.length)
+            {
+                throw new IllegalArgumentException("Offset " + offset
+                        + " is inside the header");
+            }
+            m_CarryLength = length - (int) offset;
+            m_Carry = Arrays.copyOfRange(scratch.m_Data, (int) offset, length);
+            return;
+        }
+
+        long toSkip = offset - length;
+        ByteStreams.skipFully(m_Input, toSkip);
+        m_Position += toSkip;
+    }
+
+    /**
+     * Fill <code>chunk</code> with the header, if there is one,
+     * followed by the next complete records
+     *
+     * @return False if there are no more records
+     */
+    boolean fill(Chunk chunk) throws IOException
+    {
+        int length = 0;
+        if (m_Header != null)
+        {
+            length = append(chunk, length, m_Header, m_Header.length);
+        }
+        int recordsStart = length;
+
+        length = append(chunk, length, m_Carry, m_CarryLength);
+        m_CarryLength = 0;
+
+        int target = Math.max(m_ChunkSize, length);
+        while (true)
+        {
+            length = read(chunk, length, target);
+
+            if (m_Header == null)
+            {
+                int headerEnd = findBoundary(chunk.m_Data, 0, length, true);
+                if (headerEnd < 0 && m_Eof == false)
+                {
+                    target *= 2;
+                    continue;
+                }
+                m_Header = Arrays.copyOf(chunk.m_Data, headerEnd < 0 ? length : headerEnd);
+                recordsStart = m_Header.length;
+            }
+
+            int boundary = m_Eof ? length : findBoundary(chunk.m_Data, recordsStart, length, false);
+            if (boundary < 0)
+            {
+                // no complete record yet
+                target *= 2;
+                continue;
+            }
+
+            if (boundary <= recordsStart)
+            {
+                chunk.m_Length = 0;
+                return false;
+            }
+
+            m_CarryLength = length - boundary;
+            if (m_Carry.length < m_CarryLength)
+            {
+                m_Carry = new byte[Math.max(m_CarryLength, m_Carry.length * 2)];
+            }
+            System.arraycopy(chunk.m_Data, boundary, m_Carry, 0, m_CarryLength);
+            chunk.m_Length = boundary;
+            chunk.m_InputEnd = m_Position - m_CarryLength;
+            return true;
+        }
+    }
+
+    /**
+     * Read until the chunk holds <code>target</code> bytes or the end
+     * of the input
+     *
+     * @return The new length of the chunk
+     */
+    private int read(Chunk chunk, int length, int target) throws IOException
+    {
+        ensureCapacity(chunk, target);
+        while (m_Eof == false && length < target)
+        {
+            int read = m_Input.read(chunk.m_Data, length, target - length);
+            if (read < 0)
+            {
+                m_Eof = true;
+            }
+            else
+            {
+                length += read;
+                m_Position += read;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The position after the first or last record boundary between
+     * <code>from</code>, which must be on a boundary, and <code>to</code>
+     *
+     * @return The position or -1 if there is no boundary
+     */
+    private int findBoundary(byte [] data, int from, int to, boolean first)
+    {
+        switch (m_Format)
+        {
+            case JSON:
+                return findJsonBoundary(data, from, to, first);
+            case SINGLE_LINE:
+                return findLineBoundary(data, from, to, first, false);
+            default:
+                return findLineBoundary(data, from, to, first, true);
+        }
+    }
+
+    private int findLineBoundary(byte [] data, int from, int to, boolean first,
+            boolean quoted)
+    {
+        if (quoted == false && first == false)
+        {
+            for (int i = to - 1; i >= from; i--)
+            {
+                if (data[i] == LINE_ENDING)
+                {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        int boundary = -1;
+        boolean inQuotes = false;
+        for (int i = from; i < to; i++)
+        {
+            byte b = data[i];
+            if (quoted && b == m_Quote)
+            {
+                inQuotes = !inQuotes;
+            }
+            else if (b == LINE_ENDING && inQuotes == false)
+            {
+                boundary = i + 1;
+                if (first)
+                {
+                    break;
+                }
+            }
+        }
+        return boundary;
+    }
+
+    private static int findJsonBoundary(byte [] data, int from, int to, boolean first)
+    {
+        int boundary = -1;
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        for (int i = from; i < to; i++)
+        {
+            byte b = data[i];
+            if (inString)
+            {
+                if (escaped)
+                {
+                    escaped = false;
+                }
+                else if (b == '\\')
+                {
+                    escaped = true;
+                }
+                else if (b == '"')
+                {
+                    inString = false;
+                }
+            }
+            else if (b == '"')
+            {
+                inString = true;
+            }
+            else if (b == '{' || b == '[')
+            {
+                depth++;
+            }
+            else if ((b == '}' || b == ']') && --depth == 0)
+            {
+                boundary = i + 1;
+                if (first)
+                {
+                    break;
+                }
+            }
+        }
+        return boundary;
+    }
+
+    private static int append(Chunk chunk, int length, byte [] bytes, int count)
+    {
+        ensureCapacity(chunk, length + count);
+        System.arraycopy(bytes, 0, chunk.m_Data, length, count);
+        return length + count;
+    }
+
+    private static void ensureCapacity(Chunk chunk, int capacity)
+    {
+        if (chunk.m_Data.length < capacity)
+        {
+            chunk.m_Data = Arrays.copyOf(chunk.m_Data, capacity);
+        }
+    }
+}
@@ -23,8 +23,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.prelert.job.results.AnomalyRecord;
 import com.prelert.rs.data.Pagination;
 
@@ -68,6 +68,16 @@ public class RecordsRequestBuilder extends BaseJobRequestBuilder<AnomalyRecord>
         m_Params = new LinkedHashMap<>();
     }
 
+    /**
+     * @param client The asynchronous Engine API client
+     * @param jobId The Job's unique Id
+     */
+    public RecordsRequestBuilder(AsyncEngineApiClient client, String jobId)
+    {
+        super(client, jobId);
+        m_Params = new LinkedHashMap<>();
+    }
+
     /**
      * Sets whether interim results are included in result. Default is false.
      *
@@ -213,11 +223,38 @@ public class RecordsRequestBuilder extends BaseJobRequestBuilder<AnomalyRecord>
      * @throws IOException If HTTP GET fails
      */
     public Pagination<AnomalyRecord> get() throws IOException
+    {
+        return createHttpGetRequester().getPage(buildUrl(), JsonCodecs.RECORDS_PAGE);
+    }
+
+    /**
+     * Request the page of records returning the result of the call
+     * rather than recording errors for {@linkplain EngineApiClient#getLastError()}
+     *
+     * @return The result, the value is an empty page if the request fails
+     * @throws IOException If HTTP GET fails
+     */
+    public ApiResult<Pagination<AnomalyRecord>> tryGet() throws IOException
+    {
+        return createHttpGetRequester().tryGetPage(buildUrl(), JsonCodecs.RECORDS_PAGE);
+    }
+
+    /**
+     * Asynchronously request the page of records.
+     * The builder must have been created by an {@linkplain AsyncEngineApiClient}
+     *
+     * @return A future for the {@link Pagination} object containing the {@link AnomalyRecord} objects
+     */
+    public CompletableFuture<Pagination<AnomalyRecord>> getAsync()
+    {
+        return asyncClient().getPage(buildUrl(), JsonCodecs.RECORDS_PAGE);
+    }
+
+    private String buildUrl()
     {
         StringBuilder url = new StringBuilder();
         url.append(baseUrl()).append("/results/").append(jobId()).append("/records");
         appendParams(m_Params, url);
-        return createHttpGetRequester().getPage(url.toString(),
-                new TypeReference<Pagination<AnomalyRecord>>() {});
+        return url.toString();
     }
 }
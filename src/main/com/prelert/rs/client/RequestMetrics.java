@@ -0,0 +1,190 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, status code and payload size statistics for the requests
+ * made by an {@linkplain EngineApiClient}, kept per endpoint.
+ * <br>
+ * Endpoints are identified by the HTTP method and the path relative
+ * to the client's base URL with the Ids replaced by placeholders, e.g.
+ * <code>GET /results/{jobId}/buckets</code> or
+ * <code>POST /data/{jobId}/flush</code>, so the number of endpoints is
+ * bounded whatever the number of jobs.
+ * <br>
+ * Recording is lock-free and allocation free once an endpoint has been
+ * seen. {@linkplain #snapshot()} can be called at any time from any
+ * thread without pausing recording.
+ */
+public final class RequestMetrics
+{
+    /**
+     * Path segments after the job Id that are part of the endpoint
+     * rather than an Id
+     */
+    private static final Set<String> FIXED_SEGMENTS = new HashSet<>(Arrays.asList(
+            "buckets", "records", "categorydefinitions", "description", "flush", "close",
+            "tail"));
+
+    private final String m_BasePath;
+    private final ConcurrentMap<String, Endpoint> m_Endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @param baseUrl The client's base URL, endpoint paths are relative to it
+     */
+    RequestMetrics(String baseUrl)
+    {
+        String path = URI.create(baseUrl).getRawPath();
+        m_BasePath = path == null ? "" : stripTrailingSlash(path);
+    }
+
+    /**
+     * Record a completed call
+     *
+     * @param statusCode The response status or 0 if the call threw an exception
+     */
+    void record(String method, URI uri, int statusCode, long nanos, long requestBytes,
+            long responseBytes)
+    {
+        String key = endpoint(method, uri);
+        Endpoint endpoint = m_Endpoints.get(key);
+        if (endpoint == null)
+        {
+            endpoint = m_Endpoints.computeIfAbsent(key, k -> new Endpoint());
+        }
+        endpoint.record(statusCode, nanos, requestBytes, responseBytes);
+    }
+
+    /**
+     * A copy of the statistics of every endpoint called so far
+     *
+     * @return The statistics keyed and sorted by endpoint
+     */
+    public Map<String, EndpointStats> snapshot()
+    {
+        Map<String, EndpointStats> stats = new TreeMap<>();
+        m_Endpoints.forEach((key, endpoint) -> stats.put(key, endpoint.snapshot(key)));
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * The endpoint template of a request e.g. <code>GET /jobs/{jobId}</code>
+     */
+    String endpoint(String method, URI uri)
+    {
+        String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+        if (path.startsWith(m_BasePath))
+        {
+            path = path.substring(m_BasePath.length());
+        }
+
+        StringBuilder template = new StringBuilder(method).append(' ');
+        String [] segments = stripTrailingSlash(path).split("/");
+        String resource = null;
+        int index = 0;
+        for (String segment : segments)
+        {
+            if (segment.isEmpty())
+            {
+                continue;
+            }
+
+            template.append('/');
+            if (index == 0)
+            {
+                resource = segment;
+                template.append(segment);
+            }
+            else if (index == 1)
+            {
+                template.append("{jobId}");
+            }
+            else if (FIXED_SEGMENTS.contains(segment))
+            {
+                template.append(segment);
+            }
+            else
+            {
+                template.append("logs".equals(resource) ? "{file}" : "{id}");
+            }
+            index++;
+        }
+
+        if (index == 0)
+        {
+            template.append('/');
+        }
+        return template.toString();
+    }
+
+    private static String stripTrailingSlash(String path)
+    {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static final class Endpoint
+    {
+        private final LongAdder m_RequestCount = new LongAdder();
+        private final LongAdder m_ExceptionCount = new LongAdder();
+        private final ConcurrentMap<Integer, LongAdder> m_StatusCounts = new ConcurrentHashMap<>();
+        private final LongAdder m_RequestBytes = new LongAdder();
+        private final LongAdder m_ResponseBytes = new LongAdder();
+        private final LatencyHistogram m_Latency = new LatencyHistogram();
+
+        void record(int statusCode, long nanos, long requestBytes, long responseBytes)
+        {
+            m_RequestCount.increment();
+            if (statusCode == 0)
+            {
+                m_ExceptionCount.increment();
+            }
+            else
+            {
+                LongAdder count = m_StatusCounts.get(statusCode);
+                if (count == null)
+                {
+                    count = m_StatusCounts.computeIfAbsent(statusCode, code -> new LongAdder());
+                }
+                count.increment();
+            }
+            m_RequestBytes.add(requestBytes);
+            m_ResponseBytes.add(responseBytes);
+            m_Latency.recordNanos(nanos);
+        }
+
+        EndpointStats snapshot(String key)
+        {
+            Map<Integer, Long> statusCounts = new TreeMap<>();
+            m_StatusCounts.forEach((code, count) -> statusCounts.put(code, count.sum()));
+            return new EndpointStats(key, m_RequestCount.sum(), m_ExceptionCount.sum(),
+                    Collections.unmodifiableMap(statusCounts), m_RequestBytes.sum(),
+                    m_ResponseBytes.sum(), m_Latency.snapshot());
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Executes requests for {@linkplain EngineApiClient} applying the
+ * configured {@linkplain RetryPolicy} to GET requests and, if enabled,
+ * a {@linkplain CircuitBreaker} to all requests.
+ * <br>
+ * A request has failed if it throws an <code>IOException</code> or
+ * the response status is 502, 503 or 504. Other error responses are
+ * returned to the caller without retrying. Only GET requests are
+ * retried, uploads and other requests that change state fail on the
+ * first error so data is never sent twice. An exception thrown by the
+ * request entity itself, e.g. reading a bad upload file, is the caller's
+ * failure not the Engine API's so it is not counted by the circuit breaker.
+ */
+class ResilientRequestExecutor
+{
+    private static final Logger LOGGER = Logger.getLogger(ResilientRequestExecutor.class);
+
+    private final CloseableHttpClient m_HttpClient;
+    private final RetryPolicy m_RetryPolicy;
+    private final CircuitBreaker m_CircuitBreaker;
+
+    /**
+     * @param circuitBreaker May be <code>null</code> if not enabled
+     */
+    ResilientRequestExecutor(CloseableHttpClient httpClient, RetryPolicy retryPolicy,
+            CircuitBreaker circuitBreaker)
+    {
+        m_HttpClient = httpClient;
+        m_RetryPolicy = retryPolicy;
+        m_CircuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Execute the request, retrying if it is a GET and fails
+     *
+     * @return The response of the last attempt. The caller must close it
+     * @throws CircuitBreakerOpenException If the circuit breaker is open
+     * @throws IOException If the last attempt failed with an exception
+     */
+    CloseableHttpResponse execute(HttpUriRequest request) throws IOException
+    {
+        boolean retryable = HttpGet.METHOD_NAME.equals(request.getMethod());
+        if (request instanceof HttpEntityEnclosingRequest)
+        {
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+            if (enclosing.getEntity() != null)
+            {
+                enclosing.setEntity(new SourceTrackingEntity(enclosing.getEntity()));
+            }
+        }
+
+        for (int attempt = 1; ; attempt++)
+        {
+            if (m_CircuitBreaker != null)
+            {
+                m_CircuitBreaker.acquire();
+            }
+
+            CloseableHttpResponse response;
+            try
+            {
+                response = m_HttpClient.execute(request);
+            }
+            catch (IOException e)
+            {
+                EntitySourceException sourceFailure = findEntitySourceFailure(e);
+                if (sourceFailure != null)
+                {
+                    onNoOutcome();
+                    throw sourceFailure.getCause();
+                }
+
+                onFailure();
+                long delayMs = retryable ? m_RetryPolicy.nextDelayMs(attempt, -1) : -1;
+                if (delayMs < 0)
+                {
+                    throw e;
+                }
+
+                LOGGER.warn(String.format("%s %s failed with '%s', retrying in %dms",
+                        request.getMethod(), request.getURI(), e, delayMs));
+                sleep(delayMs);
+                continue;
+            }
+            catch (RuntimeException e)
+            {
+                onFailure();
+                throw e;
+            }
+
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (isUnavailable(statusCode) == false)
+            {
+                onSuccess();
+                return response;
+            }
+
+            onFailure();
+            long delayMs = retryable ?
+                    m_RetryPolicy.nextDelayMs(attempt, retryAfterMs(response)) : -1;
+            if (delayMs < 0)
+            {
+                return response;
+            }
+
+            LOGGER.warn(String.format("%s %s returned status code %d, retrying in %dms",
+                    request.getMethod(), request.getURI(), statusCode, delayMs));
+
+            // release the connection before waiting
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
+            sleep(delayMs);
+        }
+    }
+
+    /**
+     * HttpClient wraps the exception thrown writing a request entity that
+     * cannot be repeated in a <code>NonRepeatableRequestException</code>,
+     * whether the entity's source or the connection failed. Find the
+     * failure of the entity's source so the caller sees the original
+     * exception.
+     *
+     * @return <code>null</code> if the entity's source did not fail
+     */
+    private static EntitySourceException findEntitySourceFailure(IOException e)
+    {
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof EntitySourceException)
+            {
+                return (EntitySourceException) cause;
+            }
+        }
+        return null;
+    }
+
+    private void onSuccess()
+    {
+        if (m_CircuitBreaker != null)
+        {
+            m_CircuitBreaker.onSuccess();
+        }
+    }
+
+    private void onNoOutcome()
+    {
+        if (m_CircuitBreaker != null)
+        {
+            m_CircuitBreaker.onNoOutcome();
+        }
+    }
+
+    private void onFailure()
+    {
+        if (m_CircuitBreaker != null)
+        {
+            m_CircuitBreaker.onFailure();
+        }
+    }
+
+    private static boolean isUnavailable(int statusCode)
+    {
+        return statusCode == HttpStatus.SC_BAD_GATEWAY
+                || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * The delay requested by a 503 response's Retry-After header,
+     * either a number of seconds or a HTTP date.
+     *
+     * @return The delay in milliseconds or -1 if there is no valid header
+     */
+    static long retryAfterMs(HttpResponse response)
+    {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_SERVICE_UNAVAILABLE)
+        {
+            return -1;
+        }
+
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null)
+        {
+            return -1;
+        }
+
+        String value = header.getValue().trim();
+        try
+        {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        }
+        catch (NumberFormatException e)
+        {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    private static void sleep(long delayMs) throws InterruptedIOException
+    {
+        try
+        {
+            Thread.sleep(delayMs);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioe = new InterruptedIOException("Interrupted waiting to retry");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /**
+     * The entity's own failure, as opposed to the connection's
+     */
+    private static final class EntitySourceException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        EntitySourceException(IOException cause)
+        {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized IOException getCause()
+        {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Marks the exceptions the wrapped entity throws other than those
+     * thrown by the connection's output stream as
+     * {@linkplain EntitySourceException}s
+     */
+    private static final class SourceTrackingEntity extends HttpEntityWrapper
+    {
+        SourceTrackingEntity(HttpEntity entity)
+        {
+            super(entity);
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException
+        {
+            ConnectionOutputStream connection = new ConnectionOutputStream(outstream);
+            try
+            {
+                wrappedEntity.writeTo(connection);
+            }
+            catch (IOException e)
+            {
+                if (connection.m_Failed)
+                {
+                    throw e;
+                }
+                throw new EntitySourceException(e);
+            }
+        }
+    }
+
+    private static final class ConnectionOutputStream extends FilterOutputStream
+    {
+        private boolean m_Failed;
+
+        ConnectionOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            try
+            {
+                out.write(b);
+            }
+            catch (IOException e)
+            {
+                m_Failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException
+        {
+            try
+            {
+                out.write(b, off, len);
+            }
+            catch (IOException e)
+            {
+                m_Failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                m_Failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                m_Failed = true;
+                throw e;
+            }
+        }
+    }
+}
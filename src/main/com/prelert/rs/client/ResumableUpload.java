@@ -0,0 +1,255 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.log4j.Logger;
+
+import com.prelert.job.DataCounts;
+import com.prelert.job.DataDescription;
+import com.prelert.rs.client.RecordChunker.Chunk;
+import com.prelert.rs.data.DataPostResponse;
+import com.prelert.rs.data.MultiDataPostResult;
+
+/**
+ * An upload that can be resumed after a failure without sending the
+ * data the Engine API has already accepted again.
+ * <br>
+ * The source is uploaded in segments of about
+ * {@linkplain EngineApiClientConfig#getUploadChunkSize()} bytes that
+ * end on record boundaries, as in
+ * {@linkplain EngineApiClient#chunkedUpload(String, InputStream, DataDescription)}.
+ * After each segment is accepted an {@linkplain UploadCheckpoint} is
+ * written to the checkpoint file. The file is replaced atomically and
+ * forced to disk so it survives a crash of the client or the machine.
+ * <br>
+ * If an upload fails, call {@linkplain #upload(InputStream)} again
+ * with the same source from its start, in this or a new process with
+ * the same checkpoint file. The acknowledged bytes are skipped, the
+ * header of delimited data is still read and sent with each segment.
+ * A segment accepted by the Engine API whose response was lost is sent
+ * again and its records are then rejected as out of order.
+ * <br>
+ * Not thread safe.
+ */
+public class ResumableUpload
+{
+    private static final Logger LOGGER = Logger.getLogger(ResumableUpload.class);
+
+    private final EngineApiClient m_Client;
+    private final String m_JobId;
+    private final DataDescription m_DataDescription;
+    private final Path m_CheckpointFile;
+    private UploadCheckpoint m_Checkpoint;
+
+    /**
+     * Create the upload session reading the checkpoint if the
+     * checkpoint file exists
+     *
+     * @param client The client used for the uploads
+     * @param jobId The Job's unique Id
+     * @param dataDescription The format of the data, must match the job's
+     * @param checkpointFile Where the progress is saved
+     * @throws IOException If the checkpoint file cannot be read or
+     * is for a different job
+     */
+    public ResumableUpload(EngineApiClient client, String jobId,
+            DataDescription dataDescription, Path checkpointFile)
+    throws IOException
+    {
+        m_Client = client;
+        m_JobId = jobId;
+        m_DataDescription = dataDescription;
+        m_CheckpointFile = checkpointFile;
+        m_Checkpoint = readCheckpoint();
+    }
+
+    private UploadCheckpoint readCheckpoint() throws IOException
+    {
+        if (Files.exists(m_CheckpointFile) == false)
+        {
+            return new UploadCheckpoint(m_JobId);
+        }
+
+        UploadCheckpoint checkpoint = JsonCodecs.UPLOAD_CHECKPOINT.readValue(
+                Files.readAllBytes(m_CheckpointFile));
+        if (m_JobId.equals(checkpoint.getJobId()) == false)
+        {
+            throw new IOException("Checkpoint file " + m_CheckpointFile + " is for job "
+                    + checkpoint.getJobId() + " not " + m_JobId);
+        }
+        LOGGER.info("Read upload checkpoint " + checkpoint);
+        return checkpoint;
+    }
+
+    /**
+     * @return A copy of the last checkpoint
+     */
+    public UploadCheckpoint getCheckpoint()
+    {
+        return new UploadCheckpoint(m_Checkpoint);
+    }
+
+    /**
+     * Upload the source from the last checkpoint to the end. Stops at
+     * the first segment that fails leaving the checkpoint at the end
+     * of the last accepted segment.
+     *
+     * @param source The whole source from its start. The
+     * acknowledged bytes are skipped rather than sent.
+     * @return The result of the call. The value holds the total counts
+     * of the segments uploaded by this call, the error is the error of
+     * the failed segment. If the upload was already complete nothing is
+     * sent and the value is empty.
+     * @throws IOException If reading the source, writing the checkpoint
+     * or the HTTP POST fails
+     */
+    public ApiResult<MultiDataPostResult> upload(InputStream source) throws IOException
+    {
+        if (m_Checkpoint.isComplete())
+        {
+            LOGGER.info("Upload to job " + m_JobId + " is already complete");
+            return ApiResult.success(new MultiDataPostResult(), 0);
+        }
+
+        int chunkSize = m_Client.getUploadChunkSize();
+        RecordChunker chunker = new RecordChunker(source, m_DataDescription, chunkSize);
+        if (m_Checkpoint.getOffset() > 0)
+        {
+            LOGGER.info("Resuming upload to job " + m_JobId + " at byte "
+                    + m_Checkpoint.getOffset());
+            chunker.resumeAt(m_Checkpoint.getOffset());
+        }
+
+        String postUrl = m_Client.dataUrl(m_JobId, "", "");
+        UploadSummaries summaries = new UploadSummaries();
+        int statusCode = 0;
+
+        try (ChunkPipeline pipeline = new ChunkPipeline(chunker,
+                m_Client.getUploadPipelineDepth(), chunkSize))
+        {
+            Chunk chunk;
+            while ((chunk = pipeline.next()) != null)
+            {
+                int segment = m_Checkpoint.getSegmentCount() + 1;
+                long inputEnd = chunk.getInputEnd();
+
+                ApiResult<MultiDataPostResult> result;
+                try
+                {
+                    result = m_Client.uploadChunk(postUrl, chunk, "Upload of segment " + segment);
+                }
+                finally
+                {
+                    pipeline.release(chunk);
+                }
+
+                summaries.add(result.getValue());
+                if (result.isSuccess() == false)
+                {
+                    return ApiResult.failure(summaries.getResult(), result.getError(),
+                            result.getStatusCode());
+                }
+
+                statusCode = result.getStatusCode();
+                acknowledge(segment, inputEnd, result.getValue());
+            }
+        }
+
+        m_Checkpoint.setComplete(true);
+        writeCheckpoint();
+        return ApiResult.success(summaries.getResult(), statusCode);
+    }
+
+    /**
+     * Delete the checkpoint file so the next upload starts from the
+     * beginning of the source
+     *
+     * @throws IOException If the file cannot be deleted
+     */
+    public void reset() throws IOException
+    {
+        Files.deleteIfExists(m_CheckpointFile);
+        m_Checkpoint = new UploadCheckpoint(m_JobId);
+    }
+
+    private void acknowledge(int segment, long inputEnd, MultiDataPostResult result)
+    throws IOException
+    {
+        m_Checkpoint.setOffset(inputEnd);
+        m_Checkpoint.setSegmentCount(segment);
+        for (DataPostResponse response : result.getResponses())
+        {
+            DataCounts counts = response.getUploadSummary();
+            if (m_JobId.equals(response.getJobId()) && counts != null)
+            {
+                m_Checkpoint.setRecordCount(m_Checkpoint.getRecordCount()
+                        + counts.getInputRecordCount());
+                if (counts.getLatestRecordTimeStamp() != null)
+                {
+                    m_Checkpoint.setLatestRecordTimeStamp(counts.getLatestRecordTimeStamp());
+                }
+            }
+        }
+        writeCheckpoint();
+        LOGGER.debug("Upload checkpoint " + m_Checkpoint);
+    }
+
+    /**
+     * Write to a temporary file, force it to disk then rename it over
+     * the checkpoint file so a crash leaves either the old or the new
+     * checkpoint. Where the file system cannot rename atomically, as on
+     * some network mounts, the file is replaced by a plain rename and a
+     * crash during the rename may lose the checkpoint.
+     */
+    private void writeCheckpoint() throws IOException
+    {
+        Path temp = m_CheckpointFile.resolveSibling(m_CheckpointFile.getFileName() + ".tmp");
+        ByteBuffer bytes = ByteBuffer.wrap(
+                JsonCodecs.UPLOAD_CHECKPOINT_WRITER.writeValueAsBytes(m_Checkpoint));
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (bytes.hasRemaining())
+            {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        try
+        {
+            Files.move(temp, m_CheckpointFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            LOGGER.warn("Cannot atomically replace the checkpoint file " + m_CheckpointFile
+                    + ", replacing it non-atomically");
+            Files.move(temp, m_CheckpointFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether and when {@linkplain EngineApiClient} retries an
+ * idempotent GET request that failed because the Engine API host was
+ * unreachable, timed out or responded 502, 503 or 504. Requests that
+ * change state, such as data uploads, are never retried.
+ * <br>
+ * Implementations must be thread safe as one policy serves all the
+ * requests made by a client.
+ */
+@FunctionalInterface
+public interface RetryPolicy
+{
+    /**
+     * Never retry, the default
+     */
+    RetryPolicy NO_RETRIES = (attempt, retryAfterMs) -> -1;
+
+    /**
+     * The delay before the next attempt
+     *
+     * @param attempt The number of attempts made so far, starting at 1
+     * @param retryAfterMs The delay the server asked for in a
+     * <code>Retry-After</code> header or -1 if it did not send one
+     * @return The delay in milliseconds or a negative value to give up
+     */
+    long nextDelayMs(int attempt, long retryAfterMs);
+
+    /**
+     * Retry with exponentially increasing delays starting at
+     * <code>initialDelay</code>, doubling after each attempt and capped
+     * at <code>maxDelay</code>. Each delay is randomised to between half
+     * and all of its value so clients that failed together do not retry
+     * together. A server's <code>Retry-After</code> delay is used instead
+     * if it is no longer than <code>maxDelay</code>, if it is longer the
+     * request is not retried.
+     *
+     * @param maxAttempts The maximum number of attempts including the first
+     * @param initialDelay The delay before the first retry
+     * @param maxDelay The longest delay between attempts
+     * @param unit The unit of the delays
+     * @return A new policy
+     */
+    static RetryPolicy exponentialBackoff(int maxAttempts, long initialDelay, long maxDelay,
+            TimeUnit unit)
+    {
+        return new ExponentialBackoff(maxAttempts, unit.toMillis(initialDelay),
+                unit.toMillis(maxDelay));
+    }
+}
@@ -0,0 +1,719 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.prelert.job.DataDescription;
+import com.prelert.rs.client.upload.RecordRouter;
+import com.prelert.rs.data.MultiDataPostResult;
+
+/**
+ * Uploads a stream of records interleaved for many jobs, e.g. the
+ * records of hundreds of customers with a job per customer, sending
+ * each job only its own records. Each record is parsed once by a
+ * {@linkplain RecordRouter} to find the value of its routing field,
+ * the value is mapped to a job Id and the record is appended to the
+ * job's buffer.
+ * <br>
+ * Each job with buffered records has its own streaming upload on its
+ * own thread reading the job's buffer as records arrive. When no records
+ * have been routed to a job for
+ * {@linkplain EngineApiClientConfig#getRoutedUploadIdleFlushMs()} its upload
+ * is ended, so the Engine API analyses the data and the connection is
+ * returned to the pool, and the job's next record starts a new upload.
+ * Every upload of delimited data starts with the input's header.
+ * <br>
+ * Each upload holds a connection so no more uploads run at once than the
+ * client's {@linkplain EngineApiClientConfig#getMaxConnectionsPerRoute()}.
+ * The first record for a job beyond that waits until an idle job's upload
+ * has ended and completed, set the maximum to the number of jobs expected
+ * to be active at once so records are not held up. An upload never waits
+ * for a connection while its job's blocks hold memory unless other
+ * requests on the same client hold the connections, and the uploads block
+ * until those requests end.
+ * <br>
+ * Memory is bounded: each job buffers at most
+ * {@linkplain EngineApiClientConfig#getRoutedUploadJobBuffer()} bytes and all
+ * the jobs together at most {@linkplain EngineApiClientConfig#getRoutedUploadMemoryLimit()}
+ * bytes, plus a block of up to {@value #BLOCK_SIZE} bytes being filled and
+ * one being sent for each job. The partly filled block that ends an upload
+ * is queued without taking memory from the limit as it was already counted
+ * as the block being filled, so an idle upload can always end. When a job's
+ * buffer is full, or all the memory is held by uploads that have not yet
+ * sent it, reading the input blocks until the uploads catch up.
+ * <br>
+ * A job whose upload fails is sent no more records, the records routed
+ * to it afterwards are counted as dropped.
+ * <br>
+ * Not thread safe.
+ */
+public class RoutedUpload
+{
+    private static final Logger LOGGER = Logger.getLogger(RoutedUpload.class);
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final long OFFER_WAIT_MS = 100;
+    private static final byte [] NEWLINE = {'\n'};
+
+    /**
+     * Marks the end of a job's upload
+     */
+    private static final byte [] END = new byte[0];
+
+    private final EngineApiClient m_Client;
+    private final RecordRouter m_Router;
+    private final Function<String, String> m_JobIds;
+    private final int m_BlockSize;
+    private final int m_JobBufferBlocks;
+    private final long m_IdleFlushNanos;
+    private final Semaphore m_Memory;
+    private final int m_MaxUploads;
+
+    private final Map<String, Route> m_Routes = new ConcurrentHashMap<>();
+    private final List<Route> m_RouteOrder = new ArrayList<>();
+    private ExecutorService m_Uploaders;
+    private Semaphore m_UploadSlots;
+    private boolean m_WarnedUploadLimit;
+    private long m_UnroutedCount;
+    private long m_DroppedCount;
+
+    /**
+     * Route the records to the job with the Id in the routing field
+     *
+     * @param client The client used for the uploads
+     * @param dataDescription The format of the data, must match the jobs'
+     * @param routingField The name of the field holding the job Id
+     */
+    public RoutedUpload(EngineApiClient client, DataDescription dataDescription,
+            String routingField)
+    {
+        this(client, dataDescription, routingField, Function.identity());
+    }
+
+    /**
+     * @param client The client used for the uploads
+     * @param dataDescription The format of the data, must match the jobs'
+     * @param routingField The name of the field the records are routed by
+     * @param jobIds Maps the value of the routing field to the job Id.
+     * Records mapped to <code>null</code> are not uploaded.
+     */
+    public RoutedUpload(EngineApiClient client, DataDescription dataDescription,
+            String routingField, Function<String, String> jobIds)
+    {
+        m_Client = client;
+        m_Router = new RecordRouter(dataDescription, routingField);
+        m_JobIds = jobIds;
+        m_BlockSize = Math.min(BLOCK_SIZE, client.getRoutedUploadJobBuffer());
+        m_JobBufferBlocks = Math.max(1, client.getRoutedUploadJobBuffer() / m_BlockSize);
+        m_IdleFlushNanos = TimeUnit.MILLISECONDS.toNanos(client.getRoutedUploadIdleFlushMs());
+        m_Memory = new Semaphore(client.getRoutedUploadMemoryLimit());
+        m_MaxUploads = client.getMaxConnectionsPerRoute();
+    }
+
+    /**
+     * @return The number of records of the last upload with no value
+     * in the routing field or that were not mapped to a job
+     */
+    public long getUnroutedRecordCount()
+    {
+        return m_UnroutedCount;
+    }
+
+    /**
+     * @return The number of records of the last upload not sent because
+     * their job's upload had failed
+     */
+    public long getDroppedRecordCount()
+    {
+        return m_DroppedCount;
+    }
+
+    /**
+     * Route all the records of <code>input</code> to their jobs and wait
+     * for every job's upload to complete. <code>input</code> is closed.
+     *
+     * @param input The uncompressed records
+     * @return The result of the call. The value has a response for each
+     * job with the total counts of all its uploads, the error is the first
+     * error returned for any job.
+     * @throws IOException If reading the input fails, delimited data does
+     * not have the routing field or a HTTP POST fails
+     */
+    public ApiResult<MultiDataPostResult> upload(InputStream input) throws IOException
+    {
+        m_Routes.clear();
+        m_RouteOrder.clear();
+        m_UnroutedCount = 0;
+        m_DroppedCount = 0;
+
+        m_UploadSlots = new Semaphore(m_MaxUploads);
+        m_WarnedUploadLimit = false;
+        m_Uploaders = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("engine-api-routed-upload-%d").build());
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("engine-api-routed-upload-flusher").build());
+        long flushPeriodNanos = Math.max(1, m_IdleFlushNanos / 4);
+        flusher.scheduleWithFixedDelay(this::endIdleUploads, flushPeriodNanos, flushPeriodNanos,
+                TimeUnit.NANOSECONDS);
+
+        boolean complete = false;
+        try
+        {
+            long count = m_Router.route(input, this::accept);
+            flusher.shutdownNow();
+            for (Route route : m_RouteOrder)
+            {
+                route.end();
+            }
+            LOGGER.info("Routed " + count + " records to " + m_RouteOrder.size() + " jobs, "
+                    + m_UnroutedCount + " unrouted, " + m_DroppedCount + " dropped");
+
+            ApiResult<MultiDataPostResult> result = collectResults();
+            complete = true;
+            return result;
+        }
+        finally
+        {
+            flusher.shutdownNow();
+            if (complete)
+            {
+                m_Uploaders.shutdown();
+            }
+            else
+            {
+                // interrupts the uploads waiting for records
+                m_Uploaders.shutdownNow();
+            }
+            m_RouteOrder.forEach(Route::drain);
+        }
+    }
+
+    private void accept(String key, byte [] data, int offset, int length) throws IOException
+    {
+        String jobId = key == null || key.isEmpty() ? null : m_JobIds.apply(key);
+        if (jobId == null)
+        {
+            m_UnroutedCount++;
+            return;
+        }
+
+        Route route = m_Routes.get(jobId);
+        if (route == null)
+        {
+            route = new Route(jobId);
+            m_Routes.put(jobId, route);
+            m_RouteOrder.add(route);
+        }
+        route.append(data, offset, length);
+    }
+
+    private void endIdleUploads()
+    {
+        endIdleUploads(null);
+    }
+
+    /**
+     * @param routing The route the router is appending to, it is not
+     * ended as it may be part way through a record
+     */
+    private void endIdleUploads(Route routing)
+    {
+        long now = System.nanoTime();
+        for (Route route : m_Routes.values())
+        {
+            if (route != routing)
+            {
+                route.endIfIdle(now);
+            }
+        }
+    }
+
+    private ApiResult<MultiDataPostResult> collectResults() throws IOException
+    {
+        UploadSummaries summaries = new UploadSummaries();
+        ApiResult<MultiDataPostResult> firstFailure = null;
+        int statusCode = 0;
+        for (Route route : m_RouteOrder)
+        {
+            route.awaitUpload();
+            if (route.m_Error != null)
+            {
+                throw route.m_Error;
+            }
+            for (ApiResult<MultiDataPostResult> result : route.m_Results)
+            {
+                summaries.add(result.getValue());
+                statusCode = result.getStatusCode();
+                if (result.isSuccess() == false && firstFailure == null)
+                {
+                    firstFailure = result;
+                }
+            }
+        }
+
+        if (firstFailure != null)
+        {
+            return ApiResult.failure(summaries.getResult(), firstFailure.getError(),
+                    firstFailure.getStatusCode());
+        }
+        return ApiResult.success(summaries.getResult(), statusCode);
+    }
+
+    /**
+     * The buffer and upload of one job. The block being filled and the
+     * state of the current upload are guarded by the lock, the router
+     * holds it while appending a record and the idle flusher only tries
+     * for it so never waits for a blocked router.
+     */
+    private final class Route
+    {
+        private final String m_JobId;
+        private final ReentrantLock m_Lock = new ReentrantLock();
+        private final BlockingQueue<byte []> m_Blocks;
+        private final List<ApiResult<MultiDataPostResult>> m_Results = new CopyOnWriteArrayList<>();
+        private final Semaphore m_Slots = m_UploadSlots;
+        private volatile boolean m_Failed;
+        private volatile IOException m_Error;
+
+        /**
+         * The last block of the upload, queued without taking memory
+         */
+        private volatile byte [] m_Unreserved;
+
+        private byte [] m_Block;
+        private int m_Length;
+        private long m_LastRecordNanos;
+        private boolean m_Open;
+        private Future<?> m_Upload;
+
+        Route(String jobId)
+        {
+            m_JobId = jobId;
+            m_Blocks = new ArrayBlockingQueue<>(m_JobBufferBlocks + 1);
+        }
+
+        void append(byte [] data, int offset, int length) throws IOException
+        {
+            m_Lock.lock();
+            try
+            {
+                if (m_Open == false)
+                {
+                    // never run two uploads to the same job at once
+                    awaitUpload();
+                }
+                if (m_Failed)
+                {
+                    m_DroppedCount++;
+                    return;
+                }
+                if (m_Open == false)
+                {
+                    start();
+                }
+
+                write(data, offset, length);
+                if (data[offset + length - 1] != '\n')
+                {
+                    write(NEWLINE, 0, 1);
+                }
+                m_LastRecordNanos = System.nanoTime();
+            }
+            finally
+            {
+                m_Lock.unlock();
+            }
+        }
+
+        private void start() throws IOException
+        {
+            acquireSlot();
+            LOGGER.debug("Starting upload to job " + m_JobId);
+            try
+            {
+                m_Upload = m_Uploaders.submit(this::runUpload);
+            }
+            catch (RuntimeException e)
+            {
+                m_Slots.release();
+                throw e;
+            }
+            m_Open = true;
+
+            byte [] header = m_Router.getHeader();
+            if (header != null)
+            {
+                write(header, 0, header.length);
+            }
+        }
+
+        private void write(byte [] data, int offset, int length) throws IOException
+        {
+            while (length > 0)
+            {
+                if (m_Block == null)
+                {
+                    m_Block = new byte[m_BlockSize];
+                    m_Length = 0;
+                }
+
+                int copy = Math.min(length, m_Block.length - m_Length);
+                System.arraycopy(data, offset, m_Block, m_Length, copy);
+                m_Length += copy;
+                offset += copy;
+                length -= copy;
+
+                if (m_Length == m_Block.length)
+                {
+                    put(m_Block);
+                    m_Block = null;
+                }
+            }
+        }
+
+        /**
+         * Wait until fewer than the maximum uploads are running. The idle
+         * flusher ends the uploads of the jobs that get no records while
+         * the router waits here.
+         */
+        private void acquireSlot() throws IOException
+        {
+            try
+            {
+                while (m_Slots.tryAcquire(OFFER_WAIT_MS, TimeUnit.MILLISECONDS) == false)
+                {
+                    if (m_WarnedUploadLimit == false)
+                    {
+                        LOGGER.warn("More than " + m_MaxUploads + " jobs have records at once, "
+                                + "new uploads wait for idle jobs' uploads to end. "
+                                + "Increase maxConnectionsPerRoute to the number of active jobs.");
+                        m_WarnedUploadLimit = true;
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted starting the upload to job "
+                        + m_JobId);
+            }
+        }
+
+        /**
+         * Queue a block for the upload waiting for memory and space
+         * in the job's buffer. While waiting for memory the idle uploads
+         * are ended so their connections are returned.
+         */
+        private void put(byte [] block) throws IOException
+        {
+            try
+            {
+                while (m_Memory.tryAcquire(block.length, OFFER_WAIT_MS,
+                        TimeUnit.MILLISECONDS) == false)
+                {
+                    if (m_Failed)
+                    {
+                        return;
+                    }
+                    endIdleUploads(this);
+                }
+                while (m_Blocks.offer(block, OFFER_WAIT_MS, TimeUnit.MILLISECONDS) == false)
+                {
+                    if (m_Failed)
+                    {
+                        m_Memory.release(block.length);
+                        return;
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted routing records to job " + m_JobId);
+            }
+
+            if (m_Failed)
+            {
+                // the upload may have stopped reading before the block was added
+                drain();
+            }
+        }
+
+        /**
+         * Queue the partly filled block and the end of the upload
+         * waiting for space in the job's buffer
+         */
+        private void putEnd() throws IOException
+        {
+            try
+            {
+                if (m_Block != null)
+                {
+                    byte [] block = unreservedCopy();
+                    while (m_Blocks.offer(block, OFFER_WAIT_MS, TimeUnit.MILLISECONDS) == false)
+                    {
+                        if (m_Failed)
+                        {
+                            return;
+                        }
+                    }
+                }
+                while (m_Blocks.offer(END, OFFER_WAIT_MS, TimeUnit.MILLISECONDS) == false)
+                {
+                    if (m_Failed)
+                    {
+                        return;
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted ending the upload to job " + m_JobId);
+            }
+        }
+
+        /**
+         * Copy the partly filled block to end the upload with
+         */
+        private byte [] unreservedCopy()
+        {
+            byte [] block = Arrays.copyOf(m_Block, m_Length);
+            m_Block = null;
+            m_Unreserved = block;
+            return block;
+        }
+
+        /**
+         * End the upload sending the partly filled block
+         */
+        void end() throws IOException
+        {
+            m_Lock.lock();
+            try
+            {
+                if (m_Open == false)
+                {
+                    return;
+                }
+                putEnd();
+                m_Open = false;
+            }
+            finally
+            {
+                m_Lock.unlock();
+            }
+        }
+
+        /**
+         * End the upload if no records have been routed to the job for
+         * the idle time, unless the router holds the lock or the job's
+         * buffer is full
+         */
+        void endIfIdle(long now)
+        {
+            if (m_Lock.tryLock() == false)
+            {
+                return;
+            }
+            try
+            {
+                if (m_Open == false || now - m_LastRecordNanos < m_IdleFlushNanos)
+                {
+                    return;
+                }
+
+                // only the router and the flusher add blocks, both holding the lock
+                if (m_Blocks.remainingCapacity() < (m_Block == null ? 1 : 2))
+                {
+                    return;
+                }
+                if (m_Block != null)
+                {
+                    m_Blocks.offer(unreservedCopy());
+                }
+                m_Blocks.offer(END);
+                LOGGER.debug("Ending idle upload to job " + m_JobId);
+                m_Open = false;
+            }
+            finally
+            {
+                m_Lock.unlock();
+            }
+        }
+
+        void awaitUpload() throws IOException
+        {
+            if (m_Upload == null)
+            {
+                return;
+            }
+            try
+            {
+                m_Upload.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the upload to job "
+                        + m_JobId);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IOException("Upload to job " + m_JobId + " failed", e.getCause());
+            }
+            m_Upload = null;
+        }
+
+        private void runUpload()
+        {
+            BlockInputStream blocks = new BlockInputStream();
+            try
+            {
+                ApiResult<MultiDataPostResult> result = m_Client.tryStreamingUpload(m_JobId,
+                        blocks, false, "", "");
+                m_Results.add(result);
+                if (result.isSuccess() == false)
+                {
+                    m_Failed = true;
+                }
+                else if (blocks.m_Ended == false)
+                {
+                    throw new IOException("The upload to job " + m_JobId
+                            + " completed before all its records were sent");
+                }
+            }
+            catch (IOException e)
+            {
+                LOGGER.error("Upload to job " + m_JobId + " failed", e);
+                m_Error = e;
+                m_Failed = true;
+            }
+            finally
+            {
+                if (m_Failed)
+                {
+                    drain();
+                }
+                m_Slots.release();
+            }
+        }
+
+        private void release(byte [] block)
+        {
+            if (block != m_Unreserved)
+            {
+                m_Memory.release(block.length);
+            }
+        }
+
+        /**
+         * Discard the queued blocks releasing their memory
+         */
+        void drain()
+        {
+            byte [] block;
+            while ((block = m_Blocks.poll()) != null)
+            {
+                release(block);
+            }
+        }
+
+        /**
+         * The job's blocks in order up to the end of the upload,
+         * the memory of each block is released as it is taken
+         */
+        private final class BlockInputStream extends InputStream
+        {
+            private byte [] m_Current;
+            private int m_Position;
+            private boolean m_Ended;
+
+            @Override
+            public int read() throws IOException
+            {
+                byte [] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte [] b, int offset, int length) throws IOException
+            {
+                if (length == 0)
+                {
+                    return 0;
+                }
+
+                if (m_Current == null || m_Position == m_Current.length)
+                {
+                    if (m_Ended)
+                    {
+                        return -1;
+                    }
+                    try
+                    {
+                        m_Current = m_Blocks.take();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for records for job "
+                                + m_JobId);
+                    }
+                    m_Position = 0;
+                    release(m_Current);
+                    if (m_Current == END)
+                    {
+                        m_Ended = true;
+                        return -1;
+                    }
+                }
+
+                int copy = Math.min(length, m_Current.length - m_Position);
+                System.arraycopy(m_Current, m_Position, b, offset, copy);
+                m_Position += copy;
+                return copy;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A token bucket rate limiter where a token is one byte. Callers
+ * reserve the bytes they are about to send and sleep for the returned
+ * time: the bucket can go into debt so a large reservation is paid
+ * for by the callers that follow rather than being refused.
+ * <br>
+ * The rate can be changed at any time. Thread safe.
+ */
+final class TokenBucket
+{
+    private final ReentrantLock m_Lock = new ReentrantLock();
+    private double m_BytesPerSecond;
+    private double m_Capacity;
+    private double m_Tokens;
+    private long m_LastRefillNanos;
+
+    /**
+     * @param bytesPerSecond The refill rate
+     */
+    TokenBucket(long bytesPerSecond)
+    {
+        setRate(bytesPerSecond);
+        m_Tokens = m_Capacity;
+        m_LastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * The bucket holds at most one second of tokens so an idle
+     * sender can only burst for a second
+     */
+    void setRate(long bytesPerSecond)
+    {
+        m_Lock.lock();
+        try
+        {
+            refill();
+            m_BytesPerSecond = Math.max(1, bytesPerSecond);
+            m_Capacity = m_BytesPerSecond;
+            m_Tokens = Math.min(m_Tokens, m_Capacity);
+        }
+        finally
+        {
+            m_Lock.unlock();
+        }
+    }
+
+    long getRate()
+    {
+        m_Lock.lock();
+        try
+        {
+            return (long) m_BytesPerSecond;
+        }
+        finally
+        {
+            m_Lock.unlock();
+        }
+    }
+
+    /**
+     * Take <code>bytes</code> tokens
+     *
+     * @return The time in nanoseconds the caller must wait before sending
+     */
+    long reserve(long bytes)
+    {
+        m_Lock.lock();
+        try
+        {
+            refill();
+            m_Tokens -= bytes;
+            return m_Tokens >= 0 ? 0 :
+                    (long) (-m_Tokens / m_BytesPerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+        finally
+        {
+            m_Lock.unlock();
+        }
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        if (m_LastRefillNanos != 0)
+        {
+            double elapsedSeconds = (now - m_LastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            m_Tokens = Math.min(m_Capacity, m_Tokens + elapsedSeconds * m_BytesPerSecond);
+        }
+        m_LastRefillNanos = now;
+    }
+}
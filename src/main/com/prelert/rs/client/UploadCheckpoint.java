@@ -0,0 +1,151 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * The progress of a {@linkplain ResumableUpload} as saved in its
+ * checkpoint file: the position in the source up to which the
+ * Engine API has acknowledged the data, the number of records it
+ * read and the time of the latest record.
+ */
+@JsonInclude(Include.NON_NULL)
+public class UploadCheckpoint
+{
+    private String m_JobId;
+    private long m_Offset;
+    private long m_RecordCount;
+    private Date m_LatestRecordTimeStamp;
+    private int m_SegmentCount;
+    private boolean m_Complete;
+
+    /**
+     * For serialisation
+     */
+    public UploadCheckpoint()
+    {
+    }
+
+    public UploadCheckpoint(String jobId)
+    {
+        m_JobId = jobId;
+    }
+
+    UploadCheckpoint(UploadCheckpoint other)
+    {
+        m_JobId = other.m_JobId;
+        m_Offset = other.m_Offset;
+        m_RecordCount = other.m_RecordCount;
+        m_LatestRecordTimeStamp = other.m_LatestRecordTimeStamp;
+        m_SegmentCount = other.m_SegmentCount;
+        m_Complete = other.m_Complete;
+    }
+
+    public String getJobId()
+    {
+        return m_JobId;
+    }
+
+    public void setJobId(String jobId)
+    {
+        m_JobId = jobId;
+    }
+
+    /**
+     * The number of bytes of the source, from the start, that have
+     * been acknowledged. An upload resumes from here.
+     *
+     * @return The byte offset
+     */
+    public long getOffset()
+    {
+        return m_Offset;
+    }
+
+    public void setOffset(long offset)
+    {
+        m_Offset = offset;
+    }
+
+    /**
+     * @return The number of input records the Engine API has read
+     * from the acknowledged segments
+     */
+    public long getRecordCount()
+    {
+        return m_RecordCount;
+    }
+
+    public void setRecordCount(long recordCount)
+    {
+        m_RecordCount = recordCount;
+    }
+
+    /**
+     * @return The latest record time reported by the Engine API
+     * or <code>null</code> if no segment has been acknowledged
+     */
+    public Date getLatestRecordTimeStamp()
+    {
+        return m_LatestRecordTimeStamp;
+    }
+
+    public void setLatestRecordTimeStamp(Date latestRecordTimeStamp)
+    {
+        m_LatestRecordTimeStamp = latestRecordTimeStamp;
+    }
+
+    /**
+     * @return The number of acknowledged segments
+     */
+    public int getSegmentCount()
+    {
+        return m_SegmentCount;
+    }
+
+    public void setSegmentCount(int segmentCount)
+    {
+        m_SegmentCount = segmentCount;
+    }
+
+    /**
+     * @return True if the whole source has been uploaded
+     */
+    public boolean isComplete()
+    {
+        return m_Complete;
+    }
+
+    public void setComplete(boolean complete)
+    {
+        m_Complete = complete;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "UploadCheckpoint [jobId=" + m_JobId + ", offset=" + m_Offset
+                + ", recordCount=" + m_RecordCount + ", latestRecordTimeStamp="
+                + m_LatestRecordTimeStamp + ", segmentCount=" + m_SegmentCount
+                + ", complete=" + m_Complete + "]";
+    }
+}
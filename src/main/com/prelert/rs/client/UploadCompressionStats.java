@@ -0,0 +1,81 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+/**
+ * The result of compressing an upload on the client: the data size
+ * before and after compression and the CPU time the compressor used.
+ */
+public final class UploadCompressionStats
+{
+    private final long m_UncompressedBytes;
+    private final long m_CompressedBytes;
+    private final long m_CpuTimeNanos;
+
+    UploadCompressionStats(long uncompressedBytes, long compressedBytes, long cpuTimeNanos)
+    {
+        m_UncompressedBytes = uncompressedBytes;
+        m_CompressedBytes = compressedBytes;
+        m_CpuTimeNanos = cpuTimeNanos;
+    }
+
+    /**
+     * @return The number of bytes read from the upload's input stream
+     */
+    public long getUncompressedBytes()
+    {
+        return m_UncompressedBytes;
+    }
+
+    /**
+     * @return The number of gzip bytes written to the request
+     */
+    public long getCompressedBytes()
+    {
+        return m_CompressedBytes;
+    }
+
+    /**
+     * @return The uncompressed size divided by the compressed size
+     * or 0 if nothing was written
+     */
+    public double getRatio()
+    {
+        return m_CompressedBytes == 0 ? 0.0 : (double) m_UncompressedBytes / m_CompressedBytes;
+    }
+
+    /**
+     * The CPU time of the compressor thread, this includes reading
+     * the input stream
+     *
+     * @return The time in nanoseconds or -1 if the JVM does not
+     * support measuring thread CPU time
+     */
+    public long getCpuTimeNanos()
+    {
+        return m_CpuTimeNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d bytes compressed to %d (ratio %.1f) in %d ms CPU",
+                m_UncompressedBytes, m_CompressedBytes, getRatio(),
+                m_CpuTimeNanos < 0 ? -1 : m_CpuTimeNanos / 1000000);
+    }
+}
@@ -0,0 +1,380 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.log4j.Logger;
+
+import com.prelert.job.DataCounts;
+import com.prelert.job.ModelSizeStats;
+import com.prelert.job.errorcodes.ErrorCode;
+import com.prelert.rs.data.DataPostResponse;
+import com.prelert.rs.data.MultiDataPostResult;
+
+/**
+ * Paces the uploads of one client so the Engine API's analytic
+ * processes are not sent data faster than they can analyse it.
+ * <ul>
+ * <li>A global token bucket limits the bytes per second sent to all
+ * jobs together.</li>
+ * <li>Each job has its own rate adapted by additive increase,
+ * multiplicative decrease (AIMD): every upload the job accepts raises
+ * its rate by a fixed step, an upload that shows the job is overloaded
+ * halves it. Overload is a 429 or 503 status, a connection failure,
+ * the error codes {@linkplain ErrorCode#TOO_MANY_JOBS_RUNNING_CONCURRENTLY},
+ * {@linkplain ErrorCode#NATIVE_PROCESS_WRITE_ERROR} or
+ * {@linkplain ErrorCode#NATIVE_PROCESS_CONCURRENT_USE_ERROR}, or the
+ * job's {@linkplain ModelSizeStats} memory status leaving OK, which is
+ * checked at most every {@value #MEMORY_CHECK_INTERVAL_SECONDS} seconds.</li>
+ * </ul>
+ * The bytes are paced as they are written to the connection so the
+ * limits apply to the compressed size of compressed uploads.
+ * Chunked uploads adapt fastest as each chunk is a round of feedback.
+ * <br>
+ * The observed throughput of each job, the bytes the job read per
+ * second of upload, is smoothed over recent uploads.
+ * <br>
+ * Thread safe.
+ *
+ * @see EngineApiClientConfig.Builder#uploadRateLimit(long)
+ * @see EngineApiClientConfig.Builder#adaptiveUploadRate(long, long)
+ */
+public class UploadGovernor
+{
+    private static final Logger LOGGER = Logger.getLogger(UploadGovernor.class);
+
+    static final int MEMORY_CHECK_INTERVAL_SECONDS = 30;
+
+    private static final int PACING_SLICE = 16 * 1024;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double INCREASE_FRACTION = 0.25;
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    private static final Set<ErrorCode> OVERLOAD_ERRORS = EnumSet.of(
+            ErrorCode.TOO_MANY_JOBS_RUNNING_CONCURRENTLY,
+            ErrorCode.NATIVE_PROCESS_WRITE_ERROR,
+            ErrorCode.NATIVE_PROCESS_CONCURRENT_USE_ERROR);
+
+    /**
+     * The pacing and feedback state of a job
+     */
+    private final class JobState
+    {
+        private final TokenBucket m_Bucket;
+        private volatile double m_Throughput;
+        private volatile long m_NextMemoryCheckNanos;
+
+        JobState()
+        {
+            m_Bucket = m_InitialJobRate > 0 ? new TokenBucket(m_InitialJobRate) : null;
+            m_NextMemoryCheckNanos = System.nanoTime();
+        }
+    }
+
+    private final TokenBucket m_Global;
+    private final long m_InitialJobRate;
+    private final long m_MinJobRate;
+    private final long m_MaxJobRate;
+    private final long m_IncreaseStep;
+    private final ConcurrentMap<String, JobState> m_Jobs = new ConcurrentHashMap<>();
+
+    /**
+     * @param globalRate The global limit in bytes per second or 0 for no limit
+     * @param initialJobRate The starting rate of each job or 0 to not adapt
+     * @param minJobRate The lowest rate of a job
+     */
+    UploadGovernor(long globalRate, long initialJobRate, long minJobRate)
+    {
+        m_Global = globalRate > 0 ? new TokenBucket(globalRate) : null;
+        m_InitialJobRate = initialJobRate;
+        m_MinJobRate = minJobRate;
+        m_MaxJobRate = globalRate > 0 ? globalRate : Long.MAX_VALUE;
+        m_IncreaseStep = Math.max(1, (long) (initialJobRate * INCREASE_FRACTION));
+    }
+
+    /**
+     * The global limit shared by all the jobs
+     *
+     * @return Bytes per second or 0 if there is no global limit
+     */
+    public long getGlobalRateLimit()
+    {
+        return m_Global == null ? 0 : m_Global.getRate();
+    }
+
+    /**
+     * The rate the job's uploads are currently paced at
+     *
+     * @param jobId The job's Id
+     * @return Bytes per second or 0 if the job's rate is not adapted
+     */
+    public long getJobRate(String jobId)
+    {
+        JobState state = m_Jobs.get(jobId);
+        if (state == null)
+        {
+            return m_InitialJobRate;
+        }
+        return state.m_Bucket == null ? 0 : state.m_Bucket.getRate();
+    }
+
+    /**
+     * The smoothed number of input bytes the job read per second
+     * of upload time
+     *
+     * @param jobId The job's Id
+     * @return Bytes per second or 0 if nothing has been uploaded
+     */
+    public double getJobThroughput(String jobId)
+    {
+        JobState state = m_Jobs.get(jobId);
+        return state == null ? 0 : state.m_Throughput;
+    }
+
+    private JobState state(String jobId)
+    {
+        return m_Jobs.computeIfAbsent(jobId, id -> new JobState());
+    }
+
+    /**
+     * Wrap a request entity so it is written no faster than the
+     * global rate and the rates of <code>jobIds</code> allow
+     */
+    HttpEntity pace(HttpEntity entity, List<String> jobIds)
+    {
+        TokenBucket [] buckets = jobIds.stream()
+                .map(id -> state(id).m_Bucket)
+                .filter(bucket -> bucket != null)
+                .toArray(TokenBucket[]::new);
+        if (buckets.length == 0 && m_Global == null)
+        {
+            return entity;
+        }
+
+        return new HttpEntityWrapper(entity)
+        {
+            @Override
+            public void writeTo(OutputStream outstream) throws IOException
+            {
+                wrappedEntity.writeTo(new PacedOutputStream(outstream, buckets));
+            }
+        };
+    }
+
+    /**
+     * Adapt the rates of the jobs to the result of an upload
+     *
+     * @param jobIds The jobs the data was sent to
+     * @param result The upload result
+     * @param elapsedNanos The time the upload took
+     */
+    void onResult(List<String> jobIds, ApiResult<MultiDataPostResult> result, long elapsedNanos)
+    {
+        boolean statusOverload = result.getStatusCode() == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || result.getStatusCode() == 429;
+
+        for (String jobId : jobIds)
+        {
+            JobState state = state(jobId);
+            DataPostResponse response = find(result.getValue(), jobId);
+
+            boolean overload = statusOverload;
+            if (response != null && response.getError() != null)
+            {
+                overload |= OVERLOAD_ERRORS.contains(response.getError().getErrorCode());
+            }
+            if (response != null && response.getUploadSummary() != null && elapsedNanos > 0)
+            {
+                DataCounts counts = response.getUploadSummary();
+                double throughput = counts.getInputBytes()
+                        / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+                state.m_Throughput = state.m_Throughput == 0 ? throughput :
+                        state.m_Throughput + THROUGHPUT_SMOOTHING * (throughput - state.m_Throughput);
+            }
+
+            if (overload)
+            {
+                decrease(jobId, state);
+            }
+            else if (result.isSuccess())
+            {
+                increase(state);
+            }
+        }
+    }
+
+    /**
+     * The upload failed before a response was read
+     */
+    void onFailure(List<String> jobIds)
+    {
+        for (String jobId : jobIds)
+        {
+            decrease(jobId, state(jobId));
+        }
+    }
+
+    /**
+     * @return True if the job's memory status is due to be checked,
+     * the next check is scheduled
+     */
+    boolean isMemoryCheckDue(String jobId)
+    {
+        JobState state = state(jobId);
+        if (state.m_Bucket == null)
+        {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        long next = state.m_NextMemoryCheckNanos;
+        if (now - next < 0)
+        {
+            return false;
+        }
+        state.m_NextMemoryCheckNanos = now
+                + TimeUnit.SECONDS.toNanos(MEMORY_CHECK_INTERVAL_SECONDS);
+        return true;
+    }
+
+    /**
+     * Slow the job down if its models are near the memory limit
+     */
+    void onModelSizeStats(String jobId, ModelSizeStats stats)
+    {
+        if (stats != null
+                && ModelSizeStats.MemoryStatus.OK.name().equals(stats.getMemoryStatus()) == false)
+        {
+            LOGGER.info("Job " + jobId + " memory status is " + stats.getMemoryStatus());
+            decrease(jobId, state(jobId));
+        }
+    }
+
+    private void increase(JobState state)
+    {
+        if (state.m_Bucket != null)
+        {
+            long rate = state.m_Bucket.getRate();
+            state.m_Bucket.setRate(Math.min(m_MaxJobRate, rate + m_IncreaseStep));
+        }
+    }
+
+    private void decrease(String jobId, JobState state)
+    {
+        if (state.m_Bucket != null)
+        {
+            long rate = Math.max(m_MinJobRate,
+                    (long) (state.m_Bucket.getRate() * DECREASE_FACTOR));
+            state.m_Bucket.setRate(rate);
+            LOGGER.info("Job " + jobId + " is overloaded, upload rate reduced to "
+                    + rate + " bytes/s");
+        }
+    }
+
+    private static DataPostResponse find(MultiDataPostResult result, String jobId)
+    {
+        if (result == null || result.getResponses() == null)
+        {
+            return null;
+        }
+        for (DataPostResponse response : result.getResponses())
+        {
+            if (jobId.equals(response.getJobId()))
+            {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes in slices, waiting for each slice to be allowed by
+     * the job buckets and the global bucket
+     */
+    private final class PacedOutputStream extends OutputStream
+    {
+        private final OutputStream m_Out;
+        private final TokenBucket [] m_Buckets;
+
+        PacedOutputStream(OutputStream out, TokenBucket [] buckets)
+        {
+            m_Out = out;
+            m_Buckets = buckets;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte [] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte [] data, int offset, int length) throws IOException
+        {
+            while (length > 0)
+            {
+                int slice = Math.min(length, PACING_SLICE);
+                long waitNanos = m_Global == null ? 0 : m_Global.reserve(slice);
+                for (TokenBucket bucket : m_Buckets)
+                {
+                    waitNanos = Math.max(waitNanos, bucket.reserve(slice));
+                }
+                if (waitNanos > 0)
+                {
+                    try
+                    {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted pacing the upload");
+                    }
+                }
+
+                m_Out.write(data, offset, slice);
+                offset += slice;
+                length -= slice;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            m_Out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            m_Out.close();
+        }
+    }
+}
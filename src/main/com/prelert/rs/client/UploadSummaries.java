@@ -0,0 +1,87 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+
+package com.prelert.rs.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.prelert.job.DataCounts;
+import com.prelert.rs.data.DataPostResponse;
+import com.prelert.rs.data.MultiDataPostResult;
+
+/**
+ * Accumulates the {@linkplain MultiDataPostResult}s of the uploads
+ * that make up a chunked upload into a single result with one
+ * {@linkplain DataPostResponse} per job holding the total
+ * {@linkplain DataCounts} of all the chunks and the first error.
+ */
+final class UploadSummaries
+{
+    private final Map<String, DataPostResponse> m_Responses = new LinkedHashMap<>();
+
+    void add(MultiDataPostResult result)
+    {
+        for (DataPostResponse response : result.getResponses())
+        {
+            DataPostResponse total = m_Responses.computeIfAbsent(response.getJobId(),
+                    jobId -> new DataPostResponse(jobId, new DataCounts()));
+
+            if (response.getUploadSummary() != null)
+            {
+                add(total.getUploadSummary(), response.getUploadSummary());
+            }
+            if (response.getError() != null && total.getError() == null)
+            {
+                total.setError(response.getError());
+            }
+        }
+    }
+
+    MultiDataPostResult getResult()
+    {
+        MultiDataPostResult result = new MultiDataPostResult();
+        m_Responses.values().forEach(result::addResult);
+        return result;
+    }
+
+    private static void add(DataCounts total, DataCounts counts)
+    {
+        total.incrementProcessedRecordCount(counts.getProcessedRecordCount());
+        total.setProcessedFieldCount(total.getProcessedFieldCount()
+                + counts.getProcessedFieldCount());
+        total.incrementInputBytes(counts.getInputBytes());
+        total.incrementInputFieldCount(counts.getInputFieldCount());
+        total.incrementInvalidDateCount(counts.getInvalidDateCount());
+        total.incrementMissingFieldCount(counts.getMissingFieldCount());
+        total.incrementOutOfOrderTimeStampCount(counts.getOutOfOrderTimeStampCount());
+        total.incrementFailedTransformCount(counts.getFailedTransformCount());
+
+        // the bucket count is a job total so keep the latest
+        if (counts.getBucketCount() != null)
+        {
+            total.setBucketCount(counts.getBucketCount());
+        }
+        if (counts.getLatestRecordTimeStamp() != null
+                && (total.getLatestRecordTimeStamp() == null
+                    || counts.getLatestRecordTimeStamp().after(total.getLatestRecordTimeStamp())))
+        {
+            total.setLatestRecordTimeStamp(counts.getLatestRecordTimeStamp());
+        }
+    }
+}
@@ -0,0 +1,798 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.prelert.job.AnalysisConfig;
+import com.prelert.job.DataDescription;
+import com.prelert.job.Detector;
+import com.prelert.job.JobDetails;
+import com.prelert.job.transform.TransformConfig;
+import com.prelert.job.transform.condition.NumberParser;
+
+/**
+ * Summarises the records of an upload before they are sent so a job
+ * with a {@linkplain AnalysisConfig#getSummaryCountFieldName()} receives
+ * one record per window and key rather than every event.
+ * <br>
+ * The key of a record is the values of the by, over and partition fields
+ * of all the job's detectors. Records in the same window with the same key
+ * become one record with the window's start time, the key fields, the
+ * aggregate of each metric field and the number of records in the summary
+ * count field. The mean, min, max and sum functions are aggregated to the
+ * weighted mean, min, max and sum of the field, count functions only need
+ * the count. Other functions, e.g. distinct_count or rare, cannot be
+ * computed from a summary and the job is rejected. If the input already
+ * has the summary count field its values are summed.
+ * <br>
+ * The window is the job's bucket span or a whole number of seconds that
+ * divides it, so summaries never span a bucket boundary. A window is sent
+ * when the first record of a later window is read, or earlier if it holds
+ * <code>maxGroups</code> keys, which only splits the summaries in two as
+ * the Engine API adds them up. A record earlier than the current window
+ * is sent at once as a summary of one record; wrap the input in a
+ * {@linkplain ReorderingInputStream} if it is not in time order. Records
+ * with a missing or unparseable time are counted and dropped.
+ * <br>
+ * The output has the format and field names of the job's data description.
+ * Delimited records are summarised without creating any objects.
+ * <br>
+ * Not thread safe.
+ */
+public class AggregatingInputStream extends RecordStageInputStream
+{
+    private static final Logger LOGGER = Logger.getLogger(AggregatingInputStream.class);
+
+    public static final int DEFAULT_MAX_GROUPS = 100000;
+
+
+    private final RecordReader m_Reader;
+    private final TimestampParser m_TimestampParser;
+    private final DataDescription m_DataDescription;
+    private final SimpleDateFormat m_DateFormat;
+    private final long m_WindowMs;
+    private final int m_MaxGroups;
+
+    /**
+     * The time field, the key fields, the metric fields then the summary
+     * count field
+     */
+    private final String [] m_Fields;
+    private final int m_KeyCount;
+    private final int m_MetricCount;
+    private final int m_CountIndex;
+
+    private final AggregationTable m_Table;
+    private final AggregationTable m_LateTable;
+
+    /**
+     * Delimited data: the column of each field, -1 if not in the header
+     */
+    private int [] m_Columns;
+    private int [] m_Starts;
+    private int [] m_Ends;
+
+    /**
+     * JSON data: the index of each field
+     */
+    private final Map<String, Integer> m_JsonFields = new HashMap<>();
+    private String [] m_JsonValues;
+
+    /**
+     * The key of the current record, each key field's length as 4 bytes
+     * followed by its value
+     */
+    private byte [] m_Key = new byte[256];
+
+    private long m_WindowStart = Long.MIN_VALUE;
+    private byte [] m_WindowTime;
+    private long m_RecordCount;
+    private long m_SummaryCount;
+    private long m_InvalidTimeCount;
+    private long m_LateRecordCount;
+
+    private boolean m_Started;
+
+    /**
+     * Summarise in windows of the job's bucket span
+     *
+     * @param input The uncompressed data
+     * @param job The job the data is for
+     */
+    public AggregatingInputStream(InputStream input, JobDetails job)
+    {
+        this(input, job, bucketSpan(job), TimeUnit.SECONDS, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @param input The uncompressed data
+     * @param job The job the data is for. It must have a summary count
+     * field name and only functions that can be summarised.
+     * @param window The window length, a whole number of seconds that
+     * divides the job's bucket span
+     * @param unit The unit of <code>window</code>
+     * @param maxGroups The most keys held for one window
+     */
+    public AggregatingInputStream(InputStream input, JobDetails job, long window, TimeUnit unit,
+            int maxGroups)
+    {
+        long windowSeconds = unit.toSeconds(window);
+        long bucketSpan = bucketSpan(job);
+        if (windowSeconds <= 0 || unit.toMillis(window) != windowSeconds * 1000
+                || bucketSpan % windowSeconds != 0)
+        {
+            throw new IllegalArgumentException("The window must be a whole number of seconds "
+                    + "that divides the bucket span of " + bucketSpan + " seconds");
+        }
+        if (maxGroups <= 0)
+        {
+            throw new IllegalArgumentException("maxGroups must be > 0 not " + maxGroups);
+        }
+
+        AnalysisConfig analysisConfig = job.getAnalysisConfig();
+        if (analysisConfig == null || analysisConfig.getSummaryCountFieldName() == null
+                || analysisConfig.getSummaryCountFieldName().isEmpty())
+        {
+            throw new IllegalArgumentException("The job must have a "
+                    + AnalysisConfig.SUMMARY_COUNT_FIELD_NAME + " to upload summarised data");
+        }
+        if (analysisConfig.getCategorizationFieldName() != null)
+        {
+            throw new IllegalArgumentException("Categorization cannot use summarised data");
+        }
+
+        m_DataDescription = job.getDataDescription() == null ?
+                new DataDescription() : job.getDataDescription();
+        String timeField = m_DataDescription.getTimeField() == null ?
+                DataDescription.DEFAULT_TIME_FIELD : m_DataDescription.getTimeField();
+
+        Set<String> keys = new LinkedHashSet<>();
+        Map<String, Integer> metrics = new LinkedHashMap<>();
+        for (Detector detector : analysisConfig.getDetectors())
+        {
+            addKey(keys, detector.getByFieldName());
+            addKey(keys, detector.getOverFieldName());
+            addKey(keys, detector.getPartitionFieldName());
+            int aggregation = aggregation(detector);
+            if (aggregation >= 0)
+            {
+                Integer previous = metrics.put(detector.getFieldName(), aggregation);
+                if (previous != null && previous != aggregation)
+                {
+                    throw new IllegalArgumentException("The field '" + detector.getFieldName()
+                            + "' cannot be summarised for two different functions");
+                }
+            }
+        }
+
+        List<String> fields = new ArrayList<>();
+        fields.add(timeField);
+        fields.addAll(keys);
+        fields.addAll(metrics.keySet());
+        fields.add(analysisConfig.getSummaryCountFieldName());
+        checkNotTransformed(job, fields);
+
+        m_Fields = fields.toArray(new String[fields.size()]);
+        m_KeyCount = keys.size();
+        m_MetricCount = metrics.size();
+        m_CountIndex = m_Fields.length - 1;
+
+        int [] aggregations = new int[m_MetricCount];
+        int m = 0;
+        for (int aggregation : metrics.values())
+        {
+            aggregations[m++] = aggregation;
+        }
+        m_Table = new AggregationTable(aggregations);
+        m_LateTable = new AggregationTable(aggregations);
+
+        m_Reader = new RecordReader(input, m_DataDescription);
+        m_TimestampParser = new TimestampParser(m_DataDescription);
+        String format = m_DataDescription.getTimeFormat();
+        if (format == null || format.isEmpty() || DataDescription.EPOCH.equals(format)
+                || DataDescription.EPOCH_MS.equals(format))
+        {
+            m_DateFormat = null;
+        }
+        else
+        {
+            m_DateFormat = new SimpleDateFormat(format);
+            m_DateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+        m_WindowMs = windowSeconds * 1000;
+        m_MaxGroups = maxGroups;
+    }
+
+    private static long bucketSpan(JobDetails job)
+    {
+        AnalysisConfig analysisConfig = job.getAnalysisConfig();
+        return analysisConfig == null || analysisConfig.getBucketSpan() == null ?
+                JobDetails.DEFAULT_BUCKETSPAN : analysisConfig.getBucketSpan();
+    }
+
+    private static void addKey(Set<String> keys, String field)
+    {
+        if (field != null && field.isEmpty() == false)
+        {
+            keys.add(field);
+        }
+    }
+
+    /**
+     * @return The aggregation of the detector's field or -1 if it
+     * only counts
+     */
+    private static int aggregation(Detector detector)
+    {
+        String function = detector.getFunction();
+        if (function == null || function.isEmpty())
+        {
+            function = detector.getFieldName() == null ? Detector.COUNT : Detector.METRIC;
+        }
+
+        switch (function)
+        {
+            case Detector.COUNT:
+            case Detector.HIGH_COUNT:
+            case Detector.LOW_COUNT:
+            case Detector.NON_ZERO_COUNT:
+            case Detector.NZC:
+            case Detector.LOW_NON_ZERO_COUNT:
+            case Detector.LOW_NZC:
+            case Detector.HIGH_NON_ZERO_COUNT:
+            case Detector.HIGH_NZC:
+                return -1;
+            case Detector.MEAN:
+            case Detector.AVG:
+            case Detector.HIGH_MEAN:
+            case Detector.HIGH_AVG:
+            case Detector.LOW_MEAN:
+            case Detector.LOW_AVG:
+                return AggregationTable.MEAN;
+            case Detector.MIN:
+                return AggregationTable.MIN;
+            case Detector.MAX:
+                return AggregationTable.MAX;
+            case Detector.SUM:
+            case Detector.LOW_SUM:
+            case Detector.HIGH_SUM:
+            case Detector.NON_NULL_SUM:
+            case Detector.LOW_NON_NULL_SUM:
+            case Detector.HIGH_NON_NULL_SUM:
+                return AggregationTable.SUM;
+            default:
+                throw new IllegalArgumentException("The function '" + function
+                        + "' cannot be computed from summarised data");
+        }
+    }
+
+    private static void checkNotTransformed(JobDetails job, List<String> fields)
+    {
+        if (job.getTransforms() == null)
+        {
+            return;
+        }
+        Set<String> outputs = new HashSet<>();
+        for (TransformConfig transform : job.getTransforms())
+        {
+            outputs.addAll(transform.getOutputs());
+        }
+        for (String field : fields)
+        {
+            if (outputs.contains(field))
+            {
+                throw new IllegalArgumentException("The field '" + field
+                        + "' is made by a transform so cannot be summarised before upload");
+            }
+        }
+    }
+
+    /**
+     * @return The number of records read
+     */
+    public long getInputRecordCount()
+    {
+        return m_RecordCount;
+    }
+
+    /**
+     * @return The number of summary records written
+     */
+    public long getOutputRecordCount()
+    {
+        return m_SummaryCount;
+    }
+
+    /**
+     * @return The number of records dropped because their time is
+     * missing or cannot be parsed
+     */
+    public long getInvalidTimeCount()
+    {
+        return m_InvalidTimeCount;
+    }
+
+    /**
+     * @return The number of records earlier than the window being
+     * summarised, each was sent as its own summary
+     */
+    public long getLateRecordCount()
+    {
+        return m_LateRecordCount;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        m_Reader.close();
+    }
+
+    @Override
+    boolean fill() throws IOException
+    {
+        if (m_Started == false)
+        {
+            m_Started = true;
+            if (start() == false)
+            {
+                return false;
+            }
+        }
+
+        while (isOutputFull() == false)
+        {
+            if (m_Reader.next() == false)
+            {
+                writeSummaries(m_Table, m_WindowTime);
+                LOGGER.debug("Summarised " + m_RecordCount + " records as " + m_SummaryCount
+                        + ", " + m_InvalidTimeCount + " had invalid times");
+                return false;
+            }
+            aggregate();
+        }
+        return true;
+    }
+
+    /**
+     * Find the fields' columns and write the header of delimited data
+     *
+     * @return False if the input is empty
+     */
+    private boolean start() throws IOException
+    {
+        if (m_Reader.isJson())
+        {
+            for (int i = 0; i < m_Fields.length; i++)
+            {
+                m_JsonFields.put(m_Fields[i], i);
+            }
+            m_JsonValues = new String[m_Fields.length];
+            return true;
+        }
+
+        byte [] header = m_Reader.readHeader();
+        if (header == null)
+        {
+            return false;
+        }
+
+        m_Columns = new int[m_Fields.length];
+        int lastColumn = 0;
+        for (int i = 0; i < m_Fields.length; i++)
+        {
+            // Only the time field is needed, any other missing field is empty
+            m_Columns[i] = i == 0 ? m_Reader.fieldIndex(header, m_Fields[i])
+                    : columnIfPresent(header, m_Fields[i]);
+            lastColumn = Math.max(lastColumn, m_Columns[i]);
+        }
+        m_Starts = new int[lastColumn + 1];
+        m_Ends = new int[lastColumn + 1];
+
+        for (int i = 0; i < m_Fields.length; i++)
+        {
+            if (i > 0)
+            {
+                writeByte((byte) m_DataDescription.getFieldDelimiter());
+            }
+            byte [] name = m_Fields[i].getBytes(StandardCharsets.UTF_8);
+            writeDelimitedValue(name, 0, name.length);
+        }
+        writeByte((byte) '\n');
+        return true;
+    }
+
+    private int columnIfPresent(byte [] header, String field)
+    {
+        try
+        {
+            return m_Reader.fieldIndex(header, field);
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    private void aggregate()
+    {
+        m_RecordCount++;
+        boolean json = m_Reader.isJson();
+        int fieldCount = 0;
+        if (json)
+        {
+            if (m_Reader.findJsonFields(m_JsonFields, m_JsonValues) < 0)
+            {
+                m_InvalidTimeCount++;
+                return;
+            }
+        }
+        else
+        {
+            fieldCount = m_Reader.locateDelimitedFields(m_Starts, m_Ends);
+        }
+
+        long time = json ? jsonTime() : delimitedTime(fieldCount);
+        if (time == TimestampParser.INVALID)
+        {
+            m_InvalidTimeCount++;
+            return;
+        }
+
+        long windowStart = Math.floorDiv(time, m_WindowMs) * m_WindowMs;
+        AggregationTable table = m_Table;
+        if (m_WindowTime == null)
+        {
+            startWindow(windowStart);
+        }
+        else if (windowStart > m_WindowStart)
+        {
+            writeSummaries(m_Table, m_WindowTime);
+            startWindow(windowStart);
+        }
+        else if (windowStart < m_WindowStart)
+        {
+            m_LateRecordCount++;
+            table = m_LateTable;
+        }
+
+        int keyLength = json ? jsonKey() : delimitedKey(fieldCount);
+        int group = table.group(m_Key, 0, keyLength);
+
+        long count = 1;
+        double value = json ? jsonNumber(m_CountIndex) : delimitedNumber(m_CountIndex, fieldCount);
+        if (Double.isNaN(value) == false && value > 0)
+        {
+            count = (long) value;
+        }
+        table.addCount(group, count);
+
+        for (int m = 0; m < m_MetricCount; m++)
+        {
+            int field = 1 + m_KeyCount + m;
+            value = json ? jsonNumber(field) : delimitedNumber(field, fieldCount);
+            if (Double.isNaN(value) == false)
+            {
+                table.addValue(group, m, value, count);
+            }
+        }
+
+        if (table == m_LateTable)
+        {
+            writeSummaries(m_LateTable, formatTime(windowStart));
+        }
+        else if (m_Table.size() >= m_MaxGroups)
+        {
+            writeSummaries(m_Table, m_WindowTime);
+        }
+    }
+
+    private void startWindow(long windowStart)
+    {
+        m_WindowStart = windowStart;
+        m_WindowTime = formatTime(windowStart);
+    }
+
+    private long delimitedTime(int fieldCount)
+    {
+        int column = m_Columns[0];
+        if (column >= fieldCount)
+        {
+            return TimestampParser.INVALID;
+        }
+        return m_TimestampParser.parse(m_Reader.getBuffer(), m_Starts[column],
+                m_Ends[column] - m_Starts[column]);
+    }
+
+    private long jsonTime()
+    {
+        String value = m_JsonValues[0];
+        return value == null ? TimestampParser.INVALID : m_TimestampParser.parse(value);
+    }
+
+    private int delimitedKey(int fieldCount)
+    {
+        byte [] buffer = m_Reader.getBuffer();
+        int length = 0;
+        for (int i = 1; i <= m_KeyCount; i++)
+        {
+            int column = m_Columns[i];
+            if (column < 0 || column >= fieldCount)
+            {
+                length = appendKey(length, buffer, 0, 0);
+            }
+            else
+            {
+                length = appendKey(length, buffer, m_Starts[column], m_Ends[column] - m_Starts[column]);
+            }
+        }
+        return length;
+    }
+
+    private int jsonKey()
+    {
+        int length = 0;
+        for (int i = 1; i <= m_KeyCount; i++)
+        {
+            byte [] value = m_JsonValues[i] == null ?
+                    new byte[0] : m_JsonValues[i].getBytes(StandardCharsets.UTF_8);
+            length = appendKey(length, value, 0, value.length);
+        }
+        return length;
+    }
+
+    private int appendKey(int keyLength, byte [] value, int offset, int length)
+    {
+        if (keyLength + 4 + length > m_Key.length)
+        {
+            m_Key = Arrays.copyOf(m_Key, Math.max(m_Key.length * 2, keyLength + 4 + length));
+        }
+        m_Key[keyLength] = (byte) (length >>> 24);
+        m_Key[keyLength + 1] = (byte) (length >>> 16);
+        m_Key[keyLength + 2] = (byte) (length >>> 8);
+        m_Key[keyLength + 3] = (byte) length;
+        System.arraycopy(value, offset, m_Key, keyLength + 4, length);
+        return keyLength + 4 + length;
+    }
+
+    private double delimitedNumber(int field, int fieldCount)
+    {
+        int column = m_Columns[field];
+        if (column < 0 || column >= fieldCount)
+        {
+            return Double.NaN;
+        }
+        return NumberParser.parseDouble(m_Reader.getBuffer(), m_Starts[column], m_Ends[column]);
+    }
+
+    private double jsonNumber(int field)
+    {
+        String value = m_JsonValues[field];
+        return value == null ? Double.NaN : NumberParser.parseDouble(value);
+    }
+
+    private byte [] formatTime(long time)
+    {
+        String text;
+        String format = m_DataDescription.getTimeFormat();
+        if (m_DateFormat != null)
+        {
+            text = m_DateFormat.format(new Date(time));
+        }
+        else if (DataDescription.EPOCH_MS.equals(format))
+        {
+            text = Long.toString(time);
+        }
+        else
+        {
+            text = Long.toString(time / 1000);
+        }
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeSummaries(AggregationTable table, byte [] time)
+    {
+        boolean json = m_Reader.isJson();
+        byte [] keys = table.keys();
+        for (int group = 0; group < table.size(); group++)
+        {
+            int key = table.keyOffset(group);
+            if (json)
+            {
+                writeJsonSummary(table, group, time, keys, key);
+            }
+            else
+            {
+                writeDelimitedSummary(table, group, time, keys, key);
+            }
+        }
+        m_SummaryCount += table.size();
+        table.clear();
+    }
+
+    private void writeDelimitedSummary(AggregationTable table, int group, byte [] time,
+            byte [] keys, int key)
+    {
+        byte delimiter = (byte) m_DataDescription.getFieldDelimiter();
+        writeDelimitedValue(time, 0, time.length);
+        for (int i = 0; i < m_KeyCount; i++)
+        {
+            int length = keyValueLength(keys, key);
+            writeByte(delimiter);
+            writeDelimitedValue(keys, key + 4, length);
+            key += 4 + length;
+        }
+        for (int m = 0; m < m_MetricCount; m++)
+        {
+            writeByte(delimiter);
+            if (table.hasValue(group, m))
+            {
+                writeNumber(table.value(group, m));
+            }
+        }
+        writeByte(delimiter);
+        writeNumber(table.count(group));
+        writeByte((byte) '\n');
+    }
+
+    private void writeJsonSummary(AggregationTable table, int group, byte [] time,
+            byte [] keys, int key)
+    {
+        writeByte((byte) '{');
+        writeJsonName(0);
+        if (m_DateFormat == null)
+        {
+            write(time, 0, time.length);
+        }
+        else
+        {
+            writeJsonString(time, 0, time.length);
+        }
+        for (int i = 0; i < m_KeyCount; i++)
+        {
+            int length = keyValueLength(keys, key);
+            writeByte((byte) ',');
+            writeJsonName(1 + i);
+            writeJsonString(keys, key + 4, length);
+            key += 4 + length;
+        }
+        for (int m = 0; m < m_MetricCount; m++)
+        {
+            if (table.hasValue(group, m))
+            {
+                writeByte((byte) ',');
+                writeJsonName(1 + m_KeyCount + m);
+                writeNumber(table.value(group, m));
+            }
+        }
+        writeByte((byte) ',');
+        writeJsonName(m_CountIndex);
+        writeNumber(table.count(group));
+        writeByte((byte) '}');
+        writeByte((byte) '\n');
+    }
+
+    private static int keyValueLength(byte [] keys, int offset)
+    {
+        return (keys[offset] & 0xff) << 24 | (keys[offset + 1] & 0xff) << 16
+                | (keys[offset + 2] & 0xff) << 8 | (keys[offset + 3] & 0xff);
+    }
+
+    /**
+     * Write a value quoting it if it contains the delimiter, the quote
+     * character or a line ending. Quoted values were read without their
+     * outer quotes but with their escapes so are written as they were.
+     */
+    private void writeDelimitedValue(byte [] data, int offset, int length)
+    {
+        byte delimiter = (byte) m_DataDescription.getFieldDelimiter();
+        byte quote = (byte) m_DataDescription.getQuoteCharacter();
+        boolean quoted = false;
+        for (int i = offset; i < offset + length && quoted == false; i++)
+        {
+            byte b = data[i];
+            quoted = b == delimiter || b == quote || b == '\n' || b == '\r';
+        }
+        if (quoted)
+        {
+            writeByte(quote);
+        }
+        write(data, offset, length);
+        if (quoted)
+        {
+            writeByte(quote);
+        }
+    }
+
+    private void writeJsonName(int field)
+    {
+        byte [] name = m_Fields[field].getBytes(StandardCharsets.UTF_8);
+        writeJsonString(name, 0, name.length);
+        writeByte((byte) ':');
+    }
+
+    private void writeJsonString(byte [] data, int offset, int length)
+    {
+        writeByte((byte) '"');
+        for (int i = offset; i < offset + length; i++)
+        {
+            byte b = data[i];
+            if (b == '"' || b == '\\')
+            {
+                writeByte((byte) '\\');
+                writeByte(b);
+            }
+            else if (b >= 0 && b < ' ')
+            {
+                byte [] escape = String.format("\\u%04x", b).getBytes(StandardCharsets.US_ASCII);
+                write(escape, 0, escape.length);
+            }
+            else
+            {
+                writeByte(b);
+            }
+        }
+        writeByte((byte) '"');
+    }
+
+    private void writeNumber(double value)
+    {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            writeNumber((long) value);
+            return;
+        }
+        byte [] text = Double.toString(value).getBytes(StandardCharsets.US_ASCII);
+        write(text, 0, text.length);
+    }
+
+    private void writeNumber(long value)
+    {
+        if (value < 0)
+        {
+            writeByte((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10)
+        {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10)
+        {
+            writeByte((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.util.Arrays;
+
+/**
+ * The groups of one aggregation window: an open addressing hash table
+ * from a key, stored as bytes, to the group's record count and the
+ * aggregate of each metric. Everything is held in primitive arrays, the
+ * keys end to end in one array, so adding records to existing groups
+ * creates no objects and clearing the table for the next window keeps
+ * the arrays.
+ * <br>
+ * Not thread safe.
+ */
+final class AggregationTable
+{
+    static final int MEAN = 0;
+    static final int MIN = 1;
+    static final int MAX = 2;
+    static final int SUM = 3;
+
+    private static final int INITIAL_GROUPS = 256;
+    private static final int INITIAL_KEY_BYTES = 16 * 1024;
+
+    private final int [] m_Aggregations;
+    private final int m_MetricCount;
+
+    /**
+     * Slot <code>i</code> holds its group index plus one, zero if empty.
+     * There are at least twice as many slots as groups.
+     */
+    private int [] m_Slots = new int[INITIAL_GROUPS * 2];
+    private int [] m_Hashes = new int[INITIAL_GROUPS];
+    private int [] m_KeyOffsets = new int[INITIAL_GROUPS];
+    private int [] m_KeyLengths = new int[INITIAL_GROUPS];
+    private long [] m_Counts = new long[INITIAL_GROUPS];
+
+    /**
+     * The aggregate of metric <code>m</code> for group <code>g</code> is
+     * at <code>g * metricCount + m</code>, for the mean it is the sum
+     */
+    private double [] m_Values;
+    private long [] m_ValueCounts;
+
+    private byte [] m_Keys = new byte[INITIAL_KEY_BYTES];
+    private int m_KeysEnd;
+    private int m_Size;
+
+    /**
+     * @param aggregations The aggregation of each metric, one of
+     * {@linkplain #MEAN}, {@linkplain #MIN}, {@linkplain #MAX} or
+     * {@linkplain #SUM}
+     */
+    AggregationTable(int [] aggregations)
+    {
+        m_Aggregations = aggregations;
+        m_MetricCount = aggregations.length;
+        m_Values = new double[INITIAL_GROUPS * m_MetricCount];
+        m_ValueCounts = new long[INITIAL_GROUPS * m_MetricCount];
+    }
+
+    int size()
+    {
+        return m_Size;
+    }
+
+    /**
+     * Find the group of a key adding it if it is new
+     *
+     * @return The group's index
+     */
+    int group(byte [] key, int offset, int length)
+    {
+        int hash = hash(key, offset, length);
+        int mask = m_Slots.length - 1;
+        int slot = hash & mask;
+        while (true)
+        {
+            int group = m_Slots[slot] - 1;
+            if (group < 0)
+            {
+                break;
+            }
+            if (m_Hashes[group] == hash && keyEquals(group, key, offset, length))
+            {
+                return group;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (m_Size == m_Hashes.length)
+        {
+            grow();
+            return group(key, offset, length);
+        }
+        if (m_KeysEnd + length > m_Keys.length)
+        {
+            m_Keys = Arrays.copyOf(m_Keys, Math.max(m_Keys.length * 2, m_KeysEnd + length));
+        }
+
+        int group = m_Size++;
+        System.arraycopy(key, offset, m_Keys, m_KeysEnd, length);
+        m_Hashes[group] = hash;
+        m_KeyOffsets[group] = m_KeysEnd;
+        m_KeyLengths[group] = length;
+        m_KeysEnd += length;
+        m_Counts[group] = 0;
+        int values = group * m_MetricCount;
+        for (int m = 0; m < m_MetricCount; m++)
+        {
+            m_Values[values + m] = 0.0;
+            m_ValueCounts[values + m] = 0;
+        }
+        m_Slots[slot] = group + 1;
+        return group;
+    }
+
+    void addCount(int group, long count)
+    {
+        m_Counts[group] += count;
+    }
+
+    /**
+     * Add a metric value that stands for <code>weight</code> records
+     */
+    void addValue(int group, int metric, double value, long weight)
+    {
+        int i = group * m_MetricCount + metric;
+        boolean first = m_ValueCounts[i] == 0;
+        switch (m_Aggregations[metric])
+        {
+            case MEAN:
+                m_Values[i] += value * weight;
+                break;
+            case MIN:
+                m_Values[i] = first ? value : Math.min(m_Values[i], value);
+                break;
+            case MAX:
+                m_Values[i] = first ? value : Math.max(m_Values[i], value);
+                break;
+            default:
+                m_Values[i] += value;
+                break;
+        }
+        m_ValueCounts[i] += weight;
+    }
+
+    long count(int group)
+    {
+        return m_Counts[group];
+    }
+
+    boolean hasValue(int group, int metric)
+    {
+        return m_ValueCounts[group * m_MetricCount + metric] > 0;
+    }
+
+    double value(int group, int metric)
+    {
+        int i = group * m_MetricCount + metric;
+        return m_Aggregations[metric] == MEAN ? m_Values[i] / m_ValueCounts[i] : m_Values[i];
+    }
+
+    /**
+     * @return The array holding the keys
+     */
+    byte [] keys()
+    {
+        return m_Keys;
+    }
+
+    int keyOffset(int group)
+    {
+        return m_KeyOffsets[group];
+    }
+
+    int keyLength(int group)
+    {
+        return m_KeyLengths[group];
+    }
+
+    void clear()
+    {
+        Arrays.fill(m_Slots, 0);
+        m_Size = 0;
+        m_KeysEnd = 0;
+    }
+
+    private void grow()
+    {
+        int capacity = m_Hashes.length * 2;
+        m_Hashes = Arrays.copyOf(m_Hashes, capacity);
+        m_KeyOffsets = Arrays.copyOf(m_KeyOffsets, capacity);
+        m_KeyLengths = Arrays.copyOf(m_KeyLengths, capacity);
+        m_Counts = Arrays.copyOf(m_Counts, capacity);
+        m_Values = Arrays.copyOf(m_Values, capacity * m_MetricCount);
+        m_ValueCounts = Arrays.copyOf(m_ValueCounts, capacity * m_MetricCount);
+
+        m_Slots = new int[capacity * 2];
+        int mask = m_Slots.length - 1;
+        for (int group = 0; group < m_Size; group++)
+        {
+            int slot = m_Hashes[group] & mask;
+            while (m_Slots[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            m_Slots[slot] = group + 1;
+        }
+    }
+
+    private boolean keyEquals(int group, byte [] key, int offset, int length)
+    {
+        if (m_KeyLengths[group] != length)
+        {
+            return false;
+        }
+        int start = m_KeyOffsets[group];
+        for (int i = 0; i < length; i++)
+        {
+            if (m_Keys[start + i] != key[offset + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte [] key, int offset, int length)
+    {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++)
+        {
+            hash = (hash ^ key[i]) * 0x01000193;
+        }
+        // Spread the FNV-1a hash so the low bits used for the slot mix well
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        return hash ^ (hash >>> 13);
+    }
+}
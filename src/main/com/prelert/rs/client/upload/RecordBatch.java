@@ -0,0 +1,79 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.util.Arrays;
+
+/**
+ * A batch of consecutive records from one source stored end to end
+ * in a single array with the time of each record. Batches are reused
+ * once all their records have been merged.
+ */
+final class RecordBatch
+{
+    static final int MAX_RECORDS = 4096;
+    static final int MAX_BYTES = 256 * 1024;
+
+    byte [] m_Data = new byte[MAX_BYTES];
+    int m_Length;
+
+    /**
+     * Record <code>i</code> is <code>m_Data[m_Starts[i], m_Starts[i + 1])</code>
+     */
+    final int [] m_Starts = new int[MAX_RECORDS + 1];
+    final long [] m_Times = new long[MAX_RECORDS];
+    int m_Count;
+
+    /**
+     * Set if reading the source failed, the batch has no records
+     */
+    Exception m_Error;
+
+    void clear()
+    {
+        m_Length = 0;
+        m_Count = 0;
+    }
+
+    boolean isFull()
+    {
+        return m_Count == MAX_RECORDS || m_Length >= MAX_BYTES;
+    }
+
+    /**
+     * Append a record adding a line ending if it does not have one
+     */
+    void add(byte [] data, int offset, int length, boolean addLineEnding, long time)
+    {
+        int required = m_Length + length + 1;
+        if (m_Data.length < required)
+        {
+            m_Data = Arrays.copyOf(m_Data, Math.max(required, m_Data.length * 2));
+        }
+
+        m_Starts[m_Count] = m_Length;
+        System.arraycopy(data, offset, m_Data, m_Length, length);
+        m_Length += length;
+        if (addLineEnding)
+        {
+            m_Data[m_Length++] = '\n';
+        }
+        m_Times[m_Count++] = time;
+        m_Starts[m_Count] = m_Length;
+    }
+}
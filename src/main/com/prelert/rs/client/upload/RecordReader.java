@@ -0,0 +1,534 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.prelert.job.DataDescription;
+import com.prelert.job.DataDescription.DataFormat;
+
+/**
+ * Splits an input stream of delimited or JSON data into records
+ * without copying them: the current record is
+ * <code>getBuffer()[getRecordStart(), getRecordEnd())</code> and is only
+ * valid until the next call to {@linkplain #next()}.
+ * <br>
+ * A delimited record ends at a newline outside quotes and a JSON record
+ * at the end of a top level object. Only the one field a caller asks
+ * for is located in a record, the rest is not parsed.
+ * <br>
+ * Not thread safe.
+ */
+final class RecordReader implements Closeable
+{
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final InputStream m_Input;
+    private final DataFormat m_Format;
+    private final byte m_Delimiter;
+    private final byte m_Quote;
+
+    private byte [] m_Buffer = new byte[READ_BUFFER_SIZE];
+    private int m_Start;
+    private int m_Scan;
+    private int m_End;
+    private boolean m_Eof;
+    private boolean m_InQuotes;
+    private int m_Depth;
+    private boolean m_InString;
+    private boolean m_Escaped;
+
+    private int m_RecordStart;
+    private int m_RecordEnd;
+    private int m_FieldStart;
+    private int m_FieldEnd;
+
+    RecordReader(InputStream input, DataDescription dataDescription)
+    {
+        m_Input = input;
+        m_Format = dataDescription.getFormat();
+        m_Delimiter = (byte) dataDescription.getFieldDelimiter();
+        m_Quote = (byte) dataDescription.getQuoteCharacter();
+    }
+
+    boolean isJson()
+    {
+        return m_Format == DataFormat.JSON;
+    }
+
+    /**
+     * Read the first non blank line of delimited data
+     *
+     * @return The header ending in a newline or <code>null</code>
+     * if the input is empty
+     */
+    byte [] readHeader() throws IOException
+    {
+        if (next() == false)
+        {
+            return null;
+        }
+
+        byte [] header = Arrays.copyOfRange(m_Buffer, m_RecordStart, m_RecordEnd);
+        if (header[header.length - 1] != '\n')
+        {
+            header = Arrays.copyOf(header, header.length + 1);
+            header[header.length - 1] = '\n';
+        }
+        return header;
+    }
+
+    /**
+     * @return The index of the field <code>name</code> in a delimited header
+     * @throws IOException If the header does not have the field
+     */
+    int fieldIndex(byte [] header, String name) throws IOException
+    {
+        int field = 0;
+        int fieldStart = 0;
+        for (int i = 0; i <= header.length; i++)
+        {
+            if (i == header.length || header[i] == m_Delimiter || header[i] == '\n')
+            {
+                if (unquote(header, fieldStart, i).equals(name))
+                {
+                    return field;
+                }
+                field++;
+                fieldStart = i + 1;
+            }
+        }
+        throw new IOException("The field '" + name + "' is not in the header "
+                + new String(header, StandardCharsets.UTF_8).trim());
+    }
+
+    private String unquote(byte [] data, int start, int end)
+    {
+        String value = new String(data, start, end - start, StandardCharsets.UTF_8).trim();
+        String quote = String.valueOf((char) m_Quote);
+        if (value.length() >= 2 && value.startsWith(quote) && value.endsWith(quote))
+        {
+            value = value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Move to the next non blank record
+     *
+     * @return False at the end of the input
+     */
+    boolean next() throws IOException
+    {
+        while (true)
+        {
+            int end = nextRecord();
+            if (end < 0)
+            {
+                return false;
+            }
+
+            m_RecordStart = m_Start;
+            m_RecordEnd = end;
+            m_Start = end;
+            if (isBlank(m_RecordStart, m_RecordEnd) == false)
+            {
+                return true;
+            }
+        }
+    }
+
+    byte [] getBuffer()
+    {
+        return m_Buffer;
+    }
+
+    int getRecordStart()
+    {
+        return m_RecordStart;
+    }
+
+    int getRecordEnd()
+    {
+        return m_RecordEnd;
+    }
+
+    /**
+     * @return True if the current record does not end in a newline
+     */
+    boolean needsLineEnding()
+    {
+        return m_Buffer[m_RecordEnd - 1] != '\n';
+    }
+
+    /**
+     * Locate field <code>index</code> of the current delimited record,
+     * without its quotes, at <code>[getFieldStart(), getFieldEnd())</code>
+     *
+     * @return False if the record has fewer fields
+     */
+    boolean findDelimitedField(int index)
+    {
+        int field = 0;
+        int fieldStart = m_RecordStart;
+        boolean inQuotes = false;
+        for (int i = m_RecordStart; i <= m_RecordEnd; i++)
+        {
+            boolean fieldEnd = i == m_RecordEnd;
+            if (fieldEnd == false)
+            {
+                byte b = m_Buffer[i];
+                if (b == m_Quote)
+                {
+                    inQuotes = !inQuotes;
+                }
+                fieldEnd = inQuotes == false && (b == m_Delimiter || b == '\n' || b == '\r');
+            }
+
+            if (fieldEnd)
+            {
+                if (field == index)
+                {
+                    int s = fieldStart;
+                    int e = i;
+                    if (e - s >= 2 && m_Buffer[s] == m_Quote && m_Buffer[e - 1] == m_Quote)
+                    {
+                        s++;
+                        e--;
+                    }
+                    m_FieldStart = s;
+                    m_FieldEnd = e;
+                    return true;
+                }
+                field++;
+                fieldStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Locate the first <code>starts.length</code> fields of the current
+     * delimited record in one pass, field <code>i</code> without its
+     * quotes is at <code>[starts[i], ends[i])</code>
+     *
+     * @return The number of fields in the record
+     */
+    int locateDelimitedFields(int [] starts, int [] ends)
+    {
+        int field = 0;
+        int fieldStart = m_RecordStart;
+        boolean inQuotes = false;
+        int end = m_RecordEnd;
+        while (end > m_RecordStart && (m_Buffer[end - 1] == '\n' || m_Buffer[end - 1] == '\r'))
+        {
+            end--;
+        }
+
+        for (int i = m_RecordStart; i <= end; i++)
+        {
+            if (i < end)
+            {
+                byte b = m_Buffer[i];
+                if (b == m_Quote)
+                {
+                    inQuotes = !inQuotes;
+                    continue;
+                }
+                if (inQuotes || b != m_Delimiter)
+                {
+                    continue;
+                }
+            }
+
+            if (field < starts.length)
+            {
+                int s = fieldStart;
+                int e = i;
+                if (e - s >= 2 && m_Buffer[s] == m_Quote && m_Buffer[e - 1] == m_Quote)
+                {
+                    s++;
+                    e--;
+                }
+                starts[field] = s;
+                ends[field] = e;
+            }
+            field++;
+            fieldStart = i + 1;
+        }
+        return field;
+    }
+
+    /**
+     * Find the wanted fields of the current JSON record in one pass.
+     * Nested objects are flattened to dotted names, e.g. <code>a.b</code>,
+     * as the Engine API does.
+     *
+     * @param fields The index of each wanted field by name
+     * @param values Set to the text of each wanted field found, the
+     * text of an array is empty
+     * @return The number of wanted fields found or -1 if the record
+     * is not valid JSON
+     */
+    int findJsonFields(Map<String, Integer> fields, String [] values)
+    {
+        Arrays.fill(values, null);
+        try (JsonParser parser = JSON_FACTORY.createParser(m_Buffer, m_RecordStart,
+                m_RecordEnd - m_RecordStart))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                return -1;
+            }
+            return findJsonFields(parser, null, fields, values);
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    private static int findJsonFields(JsonParser parser, String prefix,
+            Map<String, Integer> fields, String [] values)
+    throws IOException
+    {
+        int found = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME)
+        {
+            String name = prefix == null ? parser.getCurrentName()
+                    : prefix + parser.getCurrentName();
+            token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT)
+            {
+                found += findJsonFields(parser, name + ".", fields, values);
+                continue;
+            }
+
+            Integer index = fields.get(name);
+            if (index != null && values[index] == null)
+            {
+                found++;
+                values[index] = token.isScalarValue() ? parser.getText() : "";
+            }
+            parser.skipChildren();
+        }
+        if (token != JsonToken.END_OBJECT)
+        {
+            throw new JsonParseException("Expected the end of an object", parser.getCurrentLocation());
+        }
+        return found;
+    }
+
+    int getFieldStart()
+    {
+        return m_FieldStart;
+    }
+
+    int getFieldEnd()
+    {
+        return m_FieldEnd;
+    }
+
+    /**
+     * The value of the top level field <code>name</code> of the
+     * current JSON record
+     *
+     * @return The text of the value or <code>null</code> if the
+     * record does not have the field, the value is not a scalar or
+     * the record is not valid JSON
+     */
+    String jsonField(String name)
+    {
+        try (JsonParser parser = JSON_FACTORY.createParser(m_Buffer, m_RecordStart,
+                m_RecordEnd - m_RecordStart))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (name.equals(fieldName))
+                {
+                    return value.isScalarValue() ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+        }
+        catch (JsonProcessingException e)
+        {
+            // the Engine API reports the bad record
+        }
+        catch (IOException e)
+        {
+            // not possible reading from an array
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        m_Input.close();
+    }
+
+    private boolean isBlank(int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (m_Buffer[i] > ' ')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the end of the record starting at <code>m_Start</code>
+     * reading more of the input as needed
+     *
+     * @return The end of the record in <code>m_Buffer</code> or -1
+     * at the end of the input
+     */
+    private int nextRecord() throws IOException
+    {
+        while (true)
+        {
+            int end = m_Format == DataFormat.JSON ? scanJson() : scanLine();
+            if (end >= 0)
+            {
+                m_InQuotes = false;
+                return end;
+            }
+
+            if (m_Eof)
+            {
+                // the last record may not have a line ending
+                m_Scan = m_End;
+                return m_End > m_Start ? m_End : -1;
+            }
+            read();
+        }
+    }
+
+    private int scanLine()
+    {
+        boolean quoted = m_Format == DataFormat.DELIMITED;
+        for (; m_Scan < m_End; m_Scan++)
+        {
+            byte b = m_Buffer[m_Scan];
+            if (quoted && b == m_Quote)
+            {
+                m_InQuotes = !m_InQuotes;
+            }
+            else if (b == '\n' && m_InQuotes == false)
+            {
+                return ++m_Scan;
+            }
+        }
+        return -1;
+    }
+
+    private int scanJson()
+    {
+        for (; m_Scan < m_End; m_Scan++)
+        {
+            byte b = m_Buffer[m_Scan];
+            if (m_InString)
+            {
+                if (m_Escaped)
+                {
+                    m_Escaped = false;
+                }
+                else if (b == '\\')
+                {
+                    m_Escaped = true;
+                }
+                else if (b == '"')
+                {
+                    m_InString = false;
+                }
+            }
+            else if (b == '"')
+            {
+                m_InString = true;
+            }
+            else if (b == '{' || b == '[')
+            {
+                m_Depth++;
+            }
+            else if (b == '}' || b == ']')
+            {
+                if (m_Depth > 0 && --m_Depth == 0)
+                {
+                    return ++m_Scan;
+                }
+            }
+            else if (m_Depth == 0 && m_Start == m_Scan)
+            {
+                // skip the separators between objects
+                m_Start++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read more of the input moving the partial record to the start
+     * of the buffer, or growing the buffer if the record fills it
+     */
+    private void read() throws IOException
+    {
+        if (m_Start > 0)
+        {
+            System.arraycopy(m_Buffer, m_Start, m_Buffer, 0, m_End - m_Start);
+            m_Scan -= m_Start;
+            m_End -= m_Start;
+            m_Start = 0;
+        }
+        if (m_End == m_Buffer.length)
+        {
+            m_Buffer = Arrays.copyOf(m_Buffer, m_Buffer.length * 2);
+        }
+
+        int read = m_Input.read(m_Buffer, m_End, m_Buffer.length - m_End);
+        if (read < 0)
+        {
+            m_Eof = true;
+        }
+        else
+        {
+            m_End += read;
+        }
+    }
+}
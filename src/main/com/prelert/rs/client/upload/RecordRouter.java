@@ -0,0 +1,135 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.prelert.job.DataDescription;
+
+/**
+ * Parses a stream of delimited or JSON records once and passes each
+ * record to a {@linkplain Destination} with the value of its routing
+ * field, e.g. the customer Id of records for many customers interleaved
+ * in one stream. Only the routing field is located in each record.
+ * <br>
+ * The records are not copied, the bytes passed to the destination are
+ * only valid for the duration of the call. A record may not end in a
+ * newline, JSON objects and the last line of the input, so the
+ * destination must separate records. Records without the routing field
+ * are routed with a <code>null</code> key.
+ * <br>
+ * Not thread safe.
+ */
+public class RecordRouter
+{
+    /**
+     * Receives the routed records
+     */
+    @FunctionalInterface
+    public interface Destination
+    {
+        /**
+         * @param key The value of the routing field or <code>null</code>
+         * @param data The buffer holding the record
+         * @param offset The start of the record
+         * @param length The length of the record
+         * @throws IOException If the record cannot be sent on
+         */
+        void accept(String key, byte [] data, int offset, int length) throws IOException;
+    }
+
+    private final DataDescription m_DataDescription;
+    private final String m_RoutingField;
+    private volatile byte [] m_Header;
+
+    /**
+     * @param dataDescription The format of the data
+     * @param routingField The name of the field the records are routed by
+     */
+    public RecordRouter(DataDescription dataDescription, String routingField)
+    {
+        m_DataDescription = dataDescription;
+        m_RoutingField = routingField;
+    }
+
+    /**
+     * The header line of delimited data, set before the first record
+     * is routed. Each destination's data must start with the header.
+     *
+     * @return The header ending in a newline or <code>null</code>
+     * for JSON data
+     */
+    public byte [] getHeader()
+    {
+        return m_Header;
+    }
+
+    /**
+     * Route all the records of <code>input</code> and close it
+     *
+     * @param input The records
+     * @param destination Receives the records in input order
+     * @return The number of records routed
+     * @throws IOException If reading the input fails, delimited data
+     * does not have the routing field or the destination fails
+     */
+    public long route(InputStream input, Destination destination) throws IOException
+    {
+        long count = 0;
+        try (RecordReader reader = new RecordReader(input, m_DataDescription))
+        {
+            int fieldIndex = -1;
+            if (reader.isJson() == false)
+            {
+                byte [] header = reader.readHeader();
+                if (header == null)
+                {
+                    return 0;
+                }
+                fieldIndex = reader.fieldIndex(header, m_RoutingField);
+                m_Header = header;
+            }
+
+            while (reader.next())
+            {
+                String key;
+                if (reader.isJson())
+                {
+                    key = reader.jsonField(m_RoutingField);
+                }
+                else if (reader.findDelimitedField(fieldIndex))
+                {
+                    int start = reader.getFieldStart();
+                    key = new String(reader.getBuffer(), start, reader.getFieldEnd() - start,
+                            StandardCharsets.UTF_8);
+                }
+                else
+                {
+                    key = null;
+                }
+
+                int start = reader.getRecordStart();
+                destination.accept(key, reader.getBuffer(), start, reader.getRecordEnd() - start);
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,209 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.prelert.job.DataDescription;
+
+/**
+ * Reads one source into {@linkplain RecordBatch}es parsing only the
+ * time of each record.
+ * <br>
+ * The batches are parsed by tasks on a shared executor. A source has
+ * at most {@value #READ_AHEAD} parsed batches waiting to be merged and
+ * at most one task running: the consumer grants a credit for each batch
+ * it takes and a task is only started when the credits go from zero to
+ * one. Tasks never block so any number of sources can share a pool of
+ * a few threads.
+ * <br>
+ * A record whose time cannot be parsed is given the time of the
+ * previous record from the same source so it keeps its place and the
+ * Engine API can report it.
+ */
+final class RecordSource
+{
+    private static final int READ_AHEAD = 2;
+
+    /**
+     * Marks the end of the source
+     */
+    static final RecordBatch END = new RecordBatch();
+
+    private final RecordReader m_Reader;
+    private final Executor m_Executor;
+    private final String m_TimeField;
+    private final TimestampParser m_TimestampParser;
+
+    private final BlockingQueue<RecordBatch> m_Batches = new ArrayBlockingQueue<>(READ_AHEAD + 1);
+    private final Queue<RecordBatch> m_Free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger m_Credits = new AtomicInteger(READ_AHEAD);
+
+    // The state below is only used by the one running task
+    private boolean m_Done;
+    private int m_TimeFieldIndex = -1;
+    private long m_LastTime = TimestampParser.INVALID;
+
+    /**
+     * Written by the first task, read by the consumer after it
+     * has taken the first batch
+     */
+    private volatile byte [] m_Header;
+
+    RecordSource(InputStream input, DataDescription dataDescription, Executor executor)
+    {
+        m_Reader = new RecordReader(input, dataDescription);
+        m_Executor = executor;
+        m_TimeField = dataDescription.getTimeField() == null ?
+                DataDescription.DEFAULT_TIME_FIELD : dataDescription.getTimeField();
+        m_TimestampParser = new TimestampParser(dataDescription);
+    }
+
+    void start()
+    {
+        m_Executor.execute(this::parse);
+    }
+
+    /**
+     * The next batch blocking until it has been parsed
+     *
+     * @return The batch, {@linkplain #END} or a batch with an error
+     */
+    RecordBatch take() throws InterruptedException
+    {
+        RecordBatch batch = m_Batches.take();
+        if (batch != END && batch.m_Error == null && m_Credits.getAndIncrement() == 0)
+        {
+            m_Executor.execute(this::parse);
+        }
+        return batch;
+    }
+
+    /**
+     * Return a batch once its records have been merged
+     */
+    void recycle(RecordBatch batch)
+    {
+        m_Free.add(batch);
+    }
+
+    /**
+     * @return The header line of delimited data or <code>null</code>
+     */
+    byte [] getHeader()
+    {
+        return m_Header;
+    }
+
+    void close() throws IOException
+    {
+        m_Reader.close();
+    }
+
+    private void parse()
+    {
+        do
+        {
+            if (m_Done)
+            {
+                return;
+            }
+
+            RecordBatch batch = m_Free.poll();
+            if (batch == null)
+            {
+                batch = new RecordBatch();
+            }
+            batch.clear();
+
+            try
+            {
+                fill(batch);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                m_Done = true;
+                batch.m_Error = e;
+                m_Batches.add(batch);
+                return;
+            }
+
+            if (batch.m_Count == 0)
+            {
+                m_Done = true;
+                m_Batches.add(END);
+                return;
+            }
+            m_Batches.add(batch);
+        }
+        while (m_Credits.decrementAndGet() > 0);
+    }
+
+    private void fill(RecordBatch batch) throws IOException
+    {
+        if (m_Reader.isJson() == false && m_TimeFieldIndex < 0)
+        {
+            byte [] header = m_Reader.readHeader();
+            if (header == null)
+            {
+                m_TimeFieldIndex = Integer.MAX_VALUE;
+                return;
+            }
+            m_TimeFieldIndex = m_Reader.fieldIndex(header, m_TimeField);
+            m_Header = header;
+        }
+
+        while (batch.isFull() == false && m_Reader.next())
+        {
+            long time = m_Reader.isJson() ? jsonTime() : delimitedTime();
+            if (time == TimestampParser.INVALID)
+            {
+                time = m_LastTime;
+            }
+            m_LastTime = time;
+
+            int start = m_Reader.getRecordStart();
+            batch.add(m_Reader.getBuffer(), start, m_Reader.getRecordEnd() - start,
+                    m_Reader.needsLineEnding(), time);
+        }
+    }
+
+    private long delimitedTime()
+    {
+        if (m_Reader.findDelimitedField(m_TimeFieldIndex) == false)
+        {
+            return TimestampParser.INVALID;
+        }
+        int start = m_Reader.getFieldStart();
+        return m_TimestampParser.parse(m_Reader.getBuffer(), start,
+                m_Reader.getFieldEnd() - start);
+    }
+
+    private long jsonTime()
+    {
+        String value = m_Reader.jsonField(m_TimeField);
+        return value == null ? TimestampParser.INVALID : m_TimestampParser.parse(value);
+    }
+}
@@ -0,0 +1,111 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The output side of a stream that reads upload records and writes
+ * them, or what it makes of them, to an output buffer that is then
+ * read. Subclasses {@linkplain #fill()} the buffer a block of records
+ * at a time.
+ * <br>
+ * Not thread safe.
+ */
+abstract class RecordStageInputStream extends InputStream
+{
+    /**
+     * The number of bytes {@linkplain #fill()} writes before it returns
+     */
+    static final int OUTPUT_SIZE = 64 * 1024;
+
+    private byte [] m_Output = new byte[OUTPUT_SIZE];
+    private int m_OutputStart;
+    private int m_OutputEnd;
+    private boolean m_Eof;
+
+    @Override
+    public int read() throws IOException
+    {
+        byte [] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte [] b, int offset, int length) throws IOException
+    {
+        if (length == 0)
+        {
+            return 0;
+        }
+        while (m_OutputStart == m_OutputEnd)
+        {
+            if (m_Eof)
+            {
+                return -1;
+            }
+            m_OutputStart = 0;
+            m_OutputEnd = 0;
+            m_Eof = fill() == false;
+        }
+
+        int copy = Math.min(length, m_OutputEnd - m_OutputStart);
+        System.arraycopy(m_Output, m_OutputStart, b, offset, copy);
+        m_OutputStart += copy;
+        return copy;
+    }
+
+    /**
+     * Write to the empty output until {@linkplain #isOutputFull()}
+     * or the end of the input
+     *
+     * @return False at the end of the input, what was written is
+     * still read
+     */
+    abstract boolean fill() throws IOException;
+
+    /**
+     * @return True once at least {@linkplain #OUTPUT_SIZE} bytes have
+     * been written, the buffer grows to hold a record that does not fit
+     */
+    final boolean isOutputFull()
+    {
+        return m_OutputEnd >= OUTPUT_SIZE;
+    }
+
+    final void writeByte(byte b)
+    {
+        if (m_OutputEnd == m_Output.length)
+        {
+            m_Output = Arrays.copyOf(m_Output, m_Output.length * 2);
+        }
+        m_Output[m_OutputEnd++] = b;
+    }
+
+    final void write(byte [] data, int offset, int length)
+    {
+        if (m_OutputEnd + length > m_Output.length)
+        {
+            m_Output = Arrays.copyOf(m_Output, Math.max(m_Output.length * 2, m_OutputEnd + length));
+        }
+        System.arraycopy(data, offset, m_Output, m_OutputEnd, length);
+        m_OutputEnd += length;
+    }
+}
@@ -0,0 +1,303 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.prelert.job.AnalysisConfig;
+import com.prelert.job.DataDescription;
+import com.prelert.job.JobDetails;
+
+/**
+ * Puts records that arrive a little out of time order, e.g. from several
+ * sources feeding one stream, back into time order before they are
+ * uploaded so the Engine API does not drop them as out of order.
+ * <br>
+ * Records are held in a {@linkplain TimeOrderedRecordBuffer} until the
+ * latest time read is more than the window past their time and are then
+ * released in time order, records with the same time in the order they
+ * arrived. At the end of the input all the held records are released.
+ * The window defaults to the job's {@linkplain AnalysisConfig#getLatency()}
+ * so the job's latency is spent on the delays of the feed rather than
+ * holding back results.
+ * <br>
+ * A record that arrives after a later record has been released, i.e.
+ * after its window, cannot be put in order so it is not sent, it is
+ * counted and written to the late stream if there is one. Memory is
+ * bounded: when more than <code>maxRecords</code> records or
+ * <code>maxBytes</code> bytes are held the earliest are released before
+ * their window has passed, which may make later records late.
+ * <br>
+ * Records whose time cannot be parsed are passed straight through for
+ * the Engine API to report. The header of delimited data is passed first.
+ * <br>
+ * Not thread safe.
+ */
+public class ReorderingInputStream extends RecordStageInputStream
+{
+    private static final Logger LOGGER = Logger.getLogger(ReorderingInputStream.class);
+
+    public static final int DEFAULT_MAX_RECORDS = 1000000;
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private static final byte [] NEWLINE = {'\n'};
+
+    private final RecordReader m_Reader;
+    private final TimestampParser m_TimestampParser;
+    private final String m_TimeField;
+    private final long m_WindowMs;
+    private final int m_MaxRecords;
+    private final long m_MaxBytes;
+    private final OutputStream m_Late;
+
+    private final TimeOrderedRecordBuffer m_Buffer = new TimeOrderedRecordBuffer();
+    private long m_LatestTime = Long.MIN_VALUE;
+    private long m_ReleasedTime = Long.MIN_VALUE;
+    private long m_LateCount;
+    private long m_EarlyReleaseCount;
+    private int m_TimeFieldIndex = -1;
+    private byte [] m_Header;
+    private boolean m_LateStarted;
+
+    private boolean m_Started;
+    private boolean m_InputEnded;
+
+    /**
+     * Reorder within the job's latency, discarding late records
+     *
+     * @param input The uncompressed data
+     * @param job The job the data is for
+     */
+    public ReorderingInputStream(InputStream input, JobDetails job)
+    {
+        this(input, job.getDataDescription() == null ?
+                        new DataDescription() : job.getDataDescription(),
+                latency(job.getAnalysisConfig()), TimeUnit.SECONDS,
+                DEFAULT_MAX_RECORDS, DEFAULT_MAX_BYTES, null);
+    }
+
+    /**
+     * @param input The uncompressed data
+     * @param dataDescription The format of the data
+     * @param window How long past a record's time to hold it
+     * @param unit The unit of <code>window</code>
+     * @param maxRecords The most records held
+     * @param maxBytes The most bytes of records held
+     * @param late If not <code>null</code> the late records are written
+     * here, starting with the header for delimited data. It is not closed.
+     */
+    public ReorderingInputStream(InputStream input, DataDescription dataDescription,
+            long window, TimeUnit unit, int maxRecords, long maxBytes, OutputStream late)
+    {
+        if (window < 0 || maxRecords <= 0 || maxBytes <= 0)
+        {
+            throw new IllegalArgumentException("window must be >= 0, maxRecords and "
+                    + "maxBytes > 0 not " + window + ", " + maxRecords + ", " + maxBytes);
+        }
+        m_Reader = new RecordReader(input, dataDescription);
+        m_TimestampParser = new TimestampParser(dataDescription);
+        m_TimeField = dataDescription.getTimeField() == null ?
+                DataDescription.DEFAULT_TIME_FIELD : dataDescription.getTimeField();
+        m_WindowMs = unit.toMillis(window);
+        m_MaxRecords = maxRecords;
+        m_MaxBytes = maxBytes;
+        m_Late = late;
+    }
+
+    private static long latency(AnalysisConfig analysisConfig)
+    {
+        return analysisConfig == null || analysisConfig.getLatency() == null ?
+                0 : analysisConfig.getLatency();
+    }
+
+    /**
+     * @return The number of records that arrived after their window
+     * and were not sent
+     */
+    public long getLateRecordCount()
+    {
+        return m_LateCount;
+    }
+
+    /**
+     * @return The number of records released before their window had
+     * passed because the buffer was full
+     */
+    public long getEarlyReleaseCount()
+    {
+        return m_EarlyReleaseCount;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        m_Reader.close();
+        if (m_Late != null)
+        {
+            m_Late.flush();
+        }
+    }
+
+    @Override
+    boolean fill() throws IOException
+    {
+        if (m_Started == false)
+        {
+            m_Started = true;
+            if (m_Reader.isJson() == false)
+            {
+                m_Header = m_Reader.readHeader();
+                if (m_Header == null)
+                {
+                    return false;
+                }
+                m_TimeFieldIndex = m_Reader.fieldIndex(m_Header, m_TimeField);
+                write(m_Header, 0, m_Header.length);
+            }
+        }
+
+        while (true)
+        {
+            releaseDue();
+            if (isOutputFull())
+            {
+                return true;
+            }
+            if (m_InputEnded)
+            {
+                if (m_LateCount > 0 || m_EarlyReleaseCount > 0)
+                {
+                    LOGGER.info(m_LateCount + " records arrived after the reorder window, "
+                            + m_EarlyReleaseCount + " were released early");
+                }
+                return false;
+            }
+
+            if (m_Reader.next())
+            {
+                reorder();
+            }
+            else
+            {
+                m_InputEnded = true;
+            }
+        }
+    }
+
+    /**
+     * Release the records whose window has passed, then the earliest
+     * while the limits are exceeded, or all at the end of the input.
+     * Stops when the output is full, the rest are released by the
+     * next {@linkplain #fill()} before another record is read.
+     */
+    private void releaseDue()
+    {
+        while (m_Buffer.size() > 0 && isOutputFull() == false)
+        {
+            if (m_InputEnded || m_Buffer.firstTime() <= m_LatestTime - m_WindowMs)
+            {
+                release();
+            }
+            else if (m_Buffer.size() > m_MaxRecords || m_Buffer.bytes() > m_MaxBytes)
+            {
+                m_EarlyReleaseCount++;
+                release();
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    private void reorder() throws IOException
+    {
+        byte [] buffer = m_Reader.getBuffer();
+        int start = m_Reader.getRecordStart();
+        int length = m_Reader.getRecordEnd() - start;
+        boolean addLineEnding = m_Reader.needsLineEnding();
+
+        long time = recordTime();
+        if (time == TimestampParser.INVALID)
+        {
+            write(buffer, start, length);
+            if (addLineEnding)
+            {
+                write(NEWLINE, 0, 1);
+            }
+            return;
+        }
+
+        if (time < m_ReleasedTime)
+        {
+            m_LateCount++;
+            writeLate(buffer, start, length, addLineEnding);
+            return;
+        }
+
+        m_Buffer.add(time, buffer, start, length, addLineEnding);
+        m_LatestTime = Math.max(m_LatestTime, time);
+    }
+
+    private long recordTime()
+    {
+        if (m_Reader.isJson())
+        {
+            String value = m_Reader.jsonField(m_TimeField);
+            return value == null ? TimestampParser.INVALID : m_TimestampParser.parse(value);
+        }
+        if (m_Reader.findDelimitedField(m_TimeFieldIndex) == false)
+        {
+            return TimestampParser.INVALID;
+        }
+        int start = m_Reader.getFieldStart();
+        return m_TimestampParser.parse(m_Reader.getBuffer(), start,
+                m_Reader.getFieldEnd() - start);
+    }
+
+    private void release()
+    {
+        m_ReleasedTime = m_Buffer.firstTime();
+        write(m_Buffer.firstData(), m_Buffer.firstOffset(), m_Buffer.firstLength());
+        m_Buffer.removeFirst();
+    }
+
+    private void writeLate(byte [] buffer, int start, int length, boolean addLineEnding)
+    throws IOException
+    {
+        if (m_Late == null)
+        {
+            return;
+        }
+        if (m_LateStarted == false && m_Header != null)
+        {
+            m_Late.write(m_Header);
+        }
+        m_LateStarted = true;
+        m_Late.write(buffer, start, length);
+        if (addLineEnding)
+        {
+            m_Late.write('\n');
+        }
+    }
+}
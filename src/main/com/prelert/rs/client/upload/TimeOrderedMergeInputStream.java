@@ -0,0 +1,374 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.prelert.job.DataDescription;
+import com.prelert.job.DataDescription.DataFormat;
+
+/**
+ * Merges several sources of delimited or JSON records, each in time
+ * order, into a single stream in time order that can be passed to
+ * {@linkplain com.prelert.rs.client.EngineApiClient#streamingUpload(String, InputStream, boolean)}.
+ * Typically the sources are the log files of different hosts covering
+ * the same period.
+ * <br>
+ * The sources are read and parsed in parallel by a pool of
+ * <code>parserThreads</code> threads, only the
+ * {@linkplain DataDescription#getTimeField() time field} of each record
+ * is parsed. The parsed batches are merged with a heap holding the next
+ * record of each source, records with the same time keep the order of
+ * the sources. Memory use is constant, a few batches of
+ * {@value RecordBatch#MAX_BYTES} bytes per source, however large the
+ * sources are.
+ * <br>
+ * Delimited sources must all have the same header, it is written once
+ * at the start of the merged stream. JSON records are written one per
+ * line. {@linkplain DataFormat#SINGLE_LINE} data has no time field and
+ * cannot be merged.
+ * <br>
+ * Closing the stream closes the sources and stops the parser threads.
+ */
+public class TimeOrderedMergeInputStream extends InputStream
+{
+    /**
+     * The next record of a source
+     */
+    private static final class Cursor
+    {
+        private final RecordSource m_Source;
+        private final int m_SourceIndex;
+        private RecordBatch m_Batch;
+        private int m_Record;
+
+        Cursor(RecordSource source, int sourceIndex)
+        {
+            m_Source = source;
+            m_SourceIndex = sourceIndex;
+        }
+
+        long time()
+        {
+            return m_Batch.m_Times[m_Record];
+        }
+    }
+
+    private static final Comparator<Cursor> EARLIEST_FIRST = (a, b) ->
+    {
+        int cmp = Long.compare(a.time(), b.time());
+        return cmp != 0 ? cmp : Integer.compare(a.m_SourceIndex, b.m_SourceIndex);
+    };
+
+    private final List<RecordSource> m_Sources;
+    private final ExecutorService m_Parsers;
+    private final PriorityQueue<Cursor> m_Heap;
+    private final boolean m_Delimited;
+    private boolean m_Started;
+    private boolean m_Closed;
+
+    /**
+     * The cursor of the record being read or <code>null</code>
+     */
+    private Cursor m_Current;
+    private byte [] m_Pending = new byte[0];
+    private int m_PendingOffset;
+    private int m_PendingEnd;
+
+    /**
+     * Merge <code>sources</code> using a parser thread per core
+     *
+     * @param sources The record sources, each must be in time order
+     * @param dataDescription The format of the sources
+     */
+    public TimeOrderedMergeInputStream(List<? extends InputStream> sources,
+            DataDescription dataDescription)
+    {
+        this(sources, dataDescription, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param sources The record sources, each must be in time order
+     * @param dataDescription The format of the sources
+     * @param parserThreads The maximum number of threads reading and
+     * parsing the sources
+     */
+    public TimeOrderedMergeInputStream(List<? extends InputStream> sources,
+            DataDescription dataDescription, int parserThreads)
+    {
+        if (dataDescription.getFormat() == DataFormat.SINGLE_LINE)
+        {
+            throw new IllegalArgumentException("Single line data has no time field to merge on");
+        }
+        if (parserThreads <= 0)
+        {
+            throw new IllegalArgumentException("parserThreads must be > 0 not " + parserThreads);
+        }
+
+        m_Delimited = dataDescription.getFormat() == DataFormat.DELIMITED;
+        m_Parsers = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parserThreads, sources.size())),
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("engine-api-merge-parser-%d").build());
+        m_Sources = new ArrayList<>(sources.size());
+        for (InputStream source : sources)
+        {
+            m_Sources.add(new RecordSource(source, dataDescription, m_Parsers));
+        }
+        m_Heap = new PriorityQueue<>(Math.max(1, sources.size()), EARLIEST_FIRST);
+
+        m_Sources.forEach(RecordSource::start);
+    }
+
+    /**
+     * Merge the records of <code>files</code>
+     *
+     * @param files The files, each must be in time order
+     * @param dataDescription The format of the files
+     * @return The merged stream
+     * @throws IOException If a file cannot be opened
+     */
+    public static TimeOrderedMergeInputStream open(List<File> files,
+            DataDescription dataDescription)
+    throws IOException
+    {
+        List<InputStream> streams = new ArrayList<>(files.size());
+        try
+        {
+            for (File file : files)
+            {
+                streams.add(new FileInputStream(file));
+            }
+        }
+        catch (IOException e)
+        {
+            for (InputStream stream : streams)
+            {
+                stream.close();
+            }
+            throw e;
+        }
+        return new TimeOrderedMergeInputStream(streams, dataDescription);
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte [] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte [] b, int off, int len) throws IOException
+    {
+        if (m_Closed)
+        {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0)
+        {
+            return 0;
+        }
+
+        int read = 0;
+        while (read < len)
+        {
+            if (m_PendingOffset == m_PendingEnd && nextRecord() == false)
+            {
+                break;
+            }
+
+            int count = Math.min(len - read, m_PendingEnd - m_PendingOffset);
+            System.arraycopy(m_Pending, m_PendingOffset, b, off + read, count);
+            m_PendingOffset += count;
+            read += count;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Make the next record, or the header, pending
+     *
+     * @return False at the end of all the sources
+     */
+    private boolean nextRecord() throws IOException
+    {
+        if (m_Started == false)
+        {
+            m_Started = true;
+            start();
+            if (m_Delimited)
+            {
+                byte [] header = header();
+                if (header != null)
+                {
+                    setPending(header, 0, header.length);
+                    return true;
+                }
+            }
+        }
+
+        if (m_Current != null)
+        {
+            m_Current.m_Record++;
+            if (m_Current.m_Record == m_Current.m_Batch.m_Count)
+            {
+                m_Current.m_Source.recycle(m_Current.m_Batch);
+                advance(m_Current);
+            }
+            else
+            {
+                m_Heap.add(m_Current);
+            }
+        }
+
+        m_Current = m_Heap.poll();
+        if (m_Current == null)
+        {
+            return false;
+        }
+
+        RecordBatch batch = m_Current.m_Batch;
+        int start = batch.m_Starts[m_Current.m_Record];
+        setPending(batch.m_Data, start, batch.m_Starts[m_Current.m_Record + 1]);
+        return true;
+    }
+
+    private void start() throws IOException
+    {
+        for (int i = 0; i < m_Sources.size(); i++)
+        {
+            advance(new Cursor(m_Sources.get(i), i));
+        }
+    }
+
+    /**
+     * The header of the first source that has one, all headers
+     * must be the same
+     */
+    private byte [] header() throws IOException
+    {
+        byte [] header = null;
+        for (RecordSource source : m_Sources)
+        {
+            byte [] sourceHeader = source.getHeader();
+            if (sourceHeader == null)
+            {
+                continue;
+            }
+            if (header == null)
+            {
+                header = sourceHeader;
+            }
+            else if (Arrays.equals(trim(header), trim(sourceHeader)) == false)
+            {
+                throw new IOException("Cannot merge sources with different headers");
+            }
+        }
+        return header;
+    }
+
+    private static byte [] trim(byte [] line)
+    {
+        int end = line.length;
+        while (end > 0 && (line[end - 1] == '\n' || line[end - 1] == '\r'))
+        {
+            end--;
+        }
+        return Arrays.copyOf(line, end);
+    }
+
+    /**
+     * Move the cursor to the source's next batch and add it
+     * to the heap unless the source has ended
+     */
+    private void advance(Cursor cursor) throws IOException
+    {
+        RecordBatch batch;
+        try
+        {
+            batch = cursor.m_Source.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for records");
+        }
+
+        if (batch.m_Error != null)
+        {
+            throw new IOException("Failed to read source " + cursor.m_SourceIndex,
+                    batch.m_Error);
+        }
+        if (batch == RecordSource.END)
+        {
+            return;
+        }
+
+        cursor.m_Batch = batch;
+        cursor.m_Record = 0;
+        m_Heap.add(cursor);
+    }
+
+    private void setPending(byte [] data, int offset, int end)
+    {
+        m_Pending = data;
+        m_PendingOffset = offset;
+        m_PendingEnd = end;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (m_Closed)
+        {
+            return;
+        }
+        m_Closed = true;
+        m_Parsers.shutdownNow();
+
+        IOException error = null;
+        for (RecordSource source : m_Sources)
+        {
+            try
+            {
+                source.close();
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.util.Arrays;
+
+/**
+ * Records ordered by time in a binary min-heap of primitive arrays,
+ * the time, arrival sequence, offset and length of each record, with
+ * the record bytes end to end in one array. Records with the same time
+ * keep their arrival order.
+ * <br>
+ * Removing records leaves holes in the array. When a record does not
+ * fit the live records are copied, in heap order, to a second array
+ * that is at least twice their size, so the copying is amortised and
+ * the arrays are at most about four times the bytes of the records held.
+ * <br>
+ * Not thread safe.
+ */
+final class TimeOrderedRecordBuffer
+{
+    private static final int INITIAL_RECORDS = 1024;
+    private static final int INITIAL_BYTES = 64 * 1024;
+
+    private long [] m_Times = new long[INITIAL_RECORDS];
+    private long [] m_Sequences = new long[INITIAL_RECORDS];
+    private int [] m_Offsets = new int[INITIAL_RECORDS];
+    private int [] m_Lengths = new int[INITIAL_RECORDS];
+    private int m_Size;
+    private long m_NextSequence;
+
+    private byte [] m_Data = new byte[INITIAL_BYTES];
+    private byte [] m_Spare;
+    private int m_DataEnd;
+    private long m_Bytes;
+
+    int size()
+    {
+        return m_Size;
+    }
+
+    /**
+     * @return The bytes of the records held
+     */
+    long bytes()
+    {
+        return m_Bytes;
+    }
+
+    /**
+     * Add a record adding a line ending if it does not have one
+     */
+    void add(long time, byte [] data, int offset, int length, boolean addLineEnding)
+    {
+        int recordLength = addLineEnding ? length + 1 : length;
+        if (m_DataEnd + recordLength > m_Data.length)
+        {
+            compact(recordLength);
+        }
+        if (m_Size == m_Times.length)
+        {
+            int capacity = m_Size * 2;
+            m_Times = Arrays.copyOf(m_Times, capacity);
+            m_Sequences = Arrays.copyOf(m_Sequences, capacity);
+            m_Offsets = Arrays.copyOf(m_Offsets, capacity);
+            m_Lengths = Arrays.copyOf(m_Lengths, capacity);
+        }
+
+        System.arraycopy(data, offset, m_Data, m_DataEnd, length);
+        if (addLineEnding)
+        {
+            m_Data[m_DataEnd + length] = '\n';
+        }
+
+        int i = m_Size++;
+        m_Times[i] = time;
+        m_Sequences[i] = m_NextSequence++;
+        m_Offsets[i] = m_DataEnd;
+        m_Lengths[i] = recordLength;
+        m_DataEnd += recordLength;
+        m_Bytes += recordLength;
+        siftUp(i);
+    }
+
+    /**
+     * @return The time of the earliest record, the buffer must not be empty
+     */
+    long firstTime()
+    {
+        return m_Times[0];
+    }
+
+    /**
+     * @return The array holding the earliest record
+     */
+    byte [] firstData()
+    {
+        return m_Data;
+    }
+
+    int firstOffset()
+    {
+        return m_Offsets[0];
+    }
+
+    int firstLength()
+    {
+        return m_Lengths[0];
+    }
+
+    void removeFirst()
+    {
+        m_Bytes -= m_Lengths[0];
+        int last = --m_Size;
+        if (last > 0)
+        {
+            move(last, 0);
+            siftDown(0);
+        }
+        if (m_Size == 0)
+        {
+            m_DataEnd = 0;
+        }
+    }
+
+    private void compact(int required)
+    {
+        long needed = m_Bytes + required;
+        int capacity = m_Data.length;
+        if (needed * 2 > capacity)
+        {
+            capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity * 2L, needed * 2));
+        }
+
+        byte [] target = m_Spare != null && m_Spare.length == capacity ?
+                m_Spare : new byte[capacity];
+        int end = 0;
+        for (int i = 0; i < m_Size; i++)
+        {
+            System.arraycopy(m_Data, m_Offsets[i], target, end, m_Lengths[i]);
+            m_Offsets[i] = end;
+            end += m_Lengths[i];
+        }
+
+        m_Spare = m_Data.length == capacity ? m_Data : null;
+        m_Data = target;
+        m_DataEnd = end;
+    }
+
+    private boolean before(int a, int b)
+    {
+        return m_Times[a] < m_Times[b]
+                || (m_Times[a] == m_Times[b] && m_Sequences[a] < m_Sequences[b]);
+    }
+
+    private void siftUp(int i)
+    {
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (before(i, parent) == false)
+            {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i)
+    {
+        while (true)
+        {
+            int left = 2 * i + 1;
+            if (left >= m_Size)
+            {
+                return;
+            }
+            int child = left + 1 < m_Size && before(left + 1, left) ? left + 1 : left;
+            if (before(child, i) == false)
+            {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b)
+    {
+        long time = m_Times[a];
+        m_Times[a] = m_Times[b];
+        m_Times[b] = time;
+
+        long sequence = m_Sequences[a];
+        m_Sequences[a] = m_Sequences[b];
+        m_Sequences[b] = sequence;
+
+        int offset = m_Offsets[a];
+        m_Offsets[a] = m_Offsets[b];
+        m_Offsets[b] = offset;
+
+        int length = m_Lengths[a];
+        m_Lengths[a] = m_Lengths[b];
+        m_Lengths[b] = length;
+    }
+
+    private void move(int from, int to)
+    {
+        m_Times[to] = m_Times[from];
+        m_Sequences[to] = m_Sequences[from];
+        m_Offsets[to] = m_Offsets[from];
+        m_Lengths[to] = m_Lengths[from];
+    }
+}
@@ -0,0 +1,188 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import com.prelert.job.DataDescription;
+
+/**
+ * Parses record times in the format of {@linkplain DataDescription#getTimeFormat()}
+ * to milliseconds since the epoch. Times in seconds or milliseconds from
+ * the epoch are parsed directly from the bytes without creating a string.
+ * Consecutive records often have the same time so the text and value of
+ * the last date formatted time are kept and reused when the next time
+ * has the same bytes.
+ * <br>
+ * Not thread safe, each record source has its own parser.
+ */
+final class TimestampParser
+{
+    /**
+     * Returned when the time cannot be parsed
+     */
+    static final long INVALID = Long.MIN_VALUE;
+
+    private final boolean m_Epoch;
+    private final boolean m_EpochMs;
+    private final SimpleDateFormat m_DateFormat;
+    private byte [] m_LastText = new byte[0];
+    private long m_LastTime = INVALID;
+
+    TimestampParser(DataDescription dataDescription)
+    {
+        String format = dataDescription.getTimeFormat();
+        m_EpochMs = DataDescription.EPOCH_MS.equals(format);
+        m_Epoch = m_EpochMs == false && (format == null || format.isEmpty()
+                || DataDescription.EPOCH.equals(format));
+        if (m_Epoch || m_EpochMs)
+        {
+            m_DateFormat = null;
+        }
+        else
+        {
+            m_DateFormat = new SimpleDateFormat(format);
+            m_DateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            m_DateFormat.setLenient(false);
+        }
+    }
+
+    /**
+     * @return The time in milliseconds or {@value #INVALID}
+     */
+    long parse(byte [] data, int offset, int length)
+    {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && data[start] <= ' ')
+        {
+            start++;
+        }
+        while (end > start && data[end - 1] <= ' ')
+        {
+            end--;
+        }
+        if (start == end)
+        {
+            return INVALID;
+        }
+
+        if (m_DateFormat != null)
+        {
+            return parseFormatted(data, start, end);
+        }
+        return parseEpoch(data, start, end);
+    }
+
+    private long parseFormatted(byte [] data, int start, int end)
+    {
+        int length = end - start;
+        if (length == m_LastText.length && isLastText(data, start))
+        {
+            return m_LastTime;
+        }
+
+        long time;
+        try
+        {
+            time = m_DateFormat.parse(
+                    new String(data, start, length, StandardCharsets.UTF_8)).getTime();
+        }
+        catch (ParseException e)
+        {
+            time = INVALID;
+        }
+        m_LastText = Arrays.copyOfRange(data, start, end);
+        m_LastTime = time;
+        return time;
+    }
+
+    private boolean isLastText(byte [] data, int start)
+    {
+        for (int i = 0; i < m_LastText.length; i++)
+        {
+            if (data[start + i] != m_LastText[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The time in milliseconds or {@value #INVALID}
+     */
+    long parse(String text)
+    {
+        byte [] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Seconds, with an optional fraction, or milliseconds from the epoch
+     */
+    private long parseEpoch(byte [] data, int start, int end)
+    {
+        int i = start;
+        boolean negative = data[i] == '-';
+        if (negative)
+        {
+            i++;
+        }
+
+        long value = 0;
+        int digits = 0;
+        for (; i < end && data[i] != '.'; i++, digits++)
+        {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9 || digits > 15)
+            {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        if (digits == 0)
+        {
+            return INVALID;
+        }
+
+        long millis = 0;
+        if (i < end)
+        {
+            // the fraction
+            int scale = 100;
+            for (i++; i < end; i++)
+            {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9)
+                {
+                    return INVALID;
+                }
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+
+        long time = m_EpochMs ? value : value * 1000 + millis;
+        return negative ? -time : time;
+    }
+}
@@ -0,0 +1,442 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.rs.client.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.prelert.job.DataDescription;
+import com.prelert.job.transform.TransformConfig;
+import com.prelert.transforms.CharSequenceSlice;
+import com.prelert.transforms.Transform.TransformResult;
+import com.prelert.transforms.TransformPipeline;
+
+/**
+ * Runs transforms on the records of an upload and sends only the time
+ * field and the chosen fields, so raw fields that are only transform
+ * inputs do not cross the network and the transform work is done by the
+ * client. The job the data is sent to should have the output fields in
+ * its data and analysis configuration and not the transforms.
+ * <br>
+ * Records the transforms exclude are not sent. When a transform fails,
+ * e.g. its regex does not match, its outputs are sent empty as the
+ * Engine API does. The output has the format of the data description,
+ * delimited output has a header of the field names.
+ * <br>
+ * The characters of an ASCII delimited record are copied once to a
+ * reused line buffer and its fields are given to the transforms as
+ * {@linkplain CharSequenceSlice}s of it, so transforms that output
+ * slices, like regex extract and split, create no strings. The outputs
+ * are encoded straight into the output buffer.
+ * <br>
+ * Not thread safe.
+ */
+public class TransformingInputStream extends RecordStageInputStream
+{
+    private static final Logger LOGGER = Logger.getLogger(TransformingInputStream.class);
+
+
+    private final RecordReader m_Reader;
+    private final DataDescription m_DataDescription;
+    private final List<String> m_InputFields;
+    private final List<String> m_OutputFields;
+    private final TransformPipeline m_Pipeline;
+
+    /**
+     * Delimited data: the column of each input field
+     */
+    private int [] m_Columns;
+    private int [] m_Starts;
+    private int [] m_Ends;
+    private CharSequenceSlice [] m_Slices;
+    private char [] m_Line = new char[1024];
+    private CharBuffer m_LineSequence = CharBuffer.wrap(m_Line);
+
+    /**
+     * JSON data: the index of each input field
+     */
+    private final Map<String, Integer> m_JsonFields = new HashMap<>();
+    private String [] m_JsonValues;
+
+    private long m_RecordCount;
+    private long m_ExcludedCount;
+
+    private boolean m_Started;
+
+    /**
+     * @param input The uncompressed data
+     * @param dataDescription The format of the data
+     * @param transforms The transforms to run
+     * @param fields The fields to send after the time field, inputs
+     * or transform outputs
+     * @throws IllegalArgumentException If the transforms are not valid
+     */
+    public TransformingInputStream(InputStream input, DataDescription dataDescription,
+            List<TransformConfig> transforms, List<String> fields)
+    {
+        String timeField = dataDescription.getTimeField() == null ?
+                DataDescription.DEFAULT_TIME_FIELD : dataDescription.getTimeField();
+        Set<String> outputs = new LinkedHashSet<>();
+        outputs.add(timeField);
+        outputs.addAll(fields);
+
+        Set<String> written = new HashSet<>();
+        Set<String> inputs = new LinkedHashSet<>();
+        for (TransformConfig transform : transforms)
+        {
+            written.addAll(transform.getOutputs());
+            inputs.addAll(transform.getInputs());
+        }
+        inputs.addAll(outputs);
+        inputs.removeAll(written);
+
+        m_Reader = new RecordReader(input, dataDescription);
+        m_DataDescription = dataDescription;
+        m_InputFields = new ArrayList<>(inputs);
+        m_OutputFields = new ArrayList<>(outputs);
+        m_Pipeline = new TransformPipeline(transforms, m_InputFields, m_OutputFields);
+    }
+
+    /**
+     * @return The number of records read
+     */
+    public long getInputRecordCount()
+    {
+        return m_RecordCount;
+    }
+
+    /**
+     * @return The number of records excluded by the transforms
+     */
+    public long getExcludedRecordCount()
+    {
+        return m_ExcludedCount;
+    }
+
+    /**
+     * @return The number of times a transform failed
+     */
+    public long getFailedTransformCount()
+    {
+        return m_Pipeline.getFailedTransformCount();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        m_Reader.close();
+    }
+
+    @Override
+    boolean fill() throws IOException
+    {
+        if (m_Started == false)
+        {
+            m_Started = true;
+            if (start() == false)
+            {
+                return false;
+            }
+        }
+
+        while (isOutputFull() == false)
+        {
+            if (m_Reader.next() == false)
+            {
+                LOGGER.debug("Transformed " + m_RecordCount + " records, " + m_ExcludedCount
+                        + " excluded and " + getFailedTransformCount() + " failed transforms");
+                return false;
+            }
+            transformRecord();
+        }
+        return true;
+    }
+
+    /**
+     * Find the input fields' columns and write the output header
+     * of delimited data
+     *
+     * @return False if the input is empty
+     */
+    private boolean start() throws IOException
+    {
+        if (m_Reader.isJson())
+        {
+            for (int i = 0; i < m_InputFields.size(); i++)
+            {
+                m_JsonFields.put(m_InputFields.get(i), i);
+            }
+            m_JsonValues = new String[m_InputFields.size()];
+            return true;
+        }
+
+        byte [] header = m_Reader.readHeader();
+        if (header == null)
+        {
+            return false;
+        }
+
+        m_Columns = new int[m_InputFields.size()];
+        int lastColumn = 0;
+        for (int i = 0; i < m_Columns.length; i++)
+        {
+            m_Columns[i] = m_Reader.fieldIndex(header, m_InputFields.get(i));
+            lastColumn = Math.max(lastColumn, m_Columns[i]);
+        }
+        m_Starts = new int[lastColumn + 1];
+        m_Ends = new int[lastColumn + 1];
+        m_Slices = new CharSequenceSlice[m_Columns.length];
+        for (int i = 0; i < m_Slices.length; i++)
+        {
+            m_Slices[i] = new CharSequenceSlice();
+        }
+
+        for (int i = 0; i < m_OutputFields.size(); i++)
+        {
+            if (i > 0)
+            {
+                writeByte((byte) m_DataDescription.getFieldDelimiter());
+            }
+            writeDelimitedValue(m_OutputFields.get(i));
+        }
+        writeByte((byte) '\n');
+        return true;
+    }
+
+    private void transformRecord()
+    {
+        m_RecordCount++;
+        CharSequence [] inputs = m_Pipeline.getInputs();
+        if (m_Reader.isJson())
+        {
+            if (m_Reader.findJsonFields(m_JsonFields, m_JsonValues) < 0)
+            {
+                Arrays.fill(m_JsonValues, null);
+            }
+            System.arraycopy(m_JsonValues, 0, inputs, 0, inputs.length);
+        }
+        else
+        {
+            byte [] buffer = m_Reader.getBuffer();
+            int recordStart = m_Reader.getRecordStart();
+            int fieldCount = m_Reader.locateDelimitedFields(m_Starts, m_Ends);
+            boolean ascii = copyAscii(buffer, recordStart, m_Reader.getRecordEnd());
+            for (int i = 0; i < inputs.length; i++)
+            {
+                int column = m_Columns[i];
+                if (column >= fieldCount)
+                {
+                    inputs[i] = null;
+                }
+                else if (ascii)
+                {
+                    inputs[i] = m_Slices[i].set(m_LineSequence, m_Starts[column] - recordStart,
+                            m_Ends[column] - recordStart);
+                }
+                else
+                {
+                    inputs[i] = new String(buffer, m_Starts[column],
+                            m_Ends[column] - m_Starts[column], StandardCharsets.UTF_8);
+                }
+            }
+        }
+
+        if (m_Pipeline.process() == TransformResult.EXCLUDE)
+        {
+            m_ExcludedCount++;
+            return;
+        }
+
+        if (m_Reader.isJson())
+        {
+            writeJsonRecord();
+        }
+        else
+        {
+            writeDelimitedRecord();
+        }
+    }
+
+    /**
+     * Copy the record to the line buffer if it is all ASCII
+     *
+     * @return False if it is not
+     */
+    private boolean copyAscii(byte [] buffer, int start, int end)
+    {
+        if (end - start > m_Line.length)
+        {
+            m_Line = new char[Math.max(m_Line.length * 2, end - start)];
+            m_LineSequence = CharBuffer.wrap(m_Line);
+        }
+        for (int i = start; i < end; i++)
+        {
+            byte b = buffer[i];
+            if (b < 0)
+            {
+                return false;
+            }
+            m_Line[i - start] = (char) b;
+        }
+        return true;
+    }
+
+    private void writeDelimitedRecord()
+    {
+        for (int i = 0; i < m_Pipeline.getOutputCount(); i++)
+        {
+            if (i > 0)
+            {
+                writeByte((byte) m_DataDescription.getFieldDelimiter());
+            }
+            CharSequence value = m_Pipeline.getOutput(i);
+            if (value != null)
+            {
+                writeDelimitedValue(value);
+            }
+        }
+        writeByte((byte) '\n');
+    }
+
+    private void writeJsonRecord()
+    {
+        writeByte((byte) '{');
+        for (int i = 0; i < m_Pipeline.getOutputCount(); i++)
+        {
+            if (i > 0)
+            {
+                writeByte((byte) ',');
+            }
+            writeJsonString(m_OutputFields.get(i));
+            writeByte((byte) ':');
+            // the outputs of a failed transform are sent empty as in delimited output
+            CharSequence value = m_Pipeline.getOutput(i);
+            writeJsonString(value == null ? "" : value);
+        }
+        writeByte((byte) '}');
+        writeByte((byte) '\n');
+    }
+
+    /**
+     * Write a value quoting it if it contains the delimiter, the quote
+     * character or a line ending. Values read from quoted fields keep
+     * their escapes so are written as they were.
+     */
+    private void writeDelimitedValue(CharSequence value)
+    {
+        char delimiter = m_DataDescription.getFieldDelimiter();
+        char quote = m_DataDescription.getQuoteCharacter();
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && quoted == false; i++)
+        {
+            char c = value.charAt(i);
+            quoted = c == delimiter || c == quote || c == '\n' || c == '\r';
+        }
+        if (quoted)
+        {
+            writeByte((byte) quote);
+        }
+        for (int i = 0; i < value.length(); i++)
+        {
+            i = writeChar(value, i);
+        }
+        if (quoted)
+        {
+            writeByte((byte) quote);
+        }
+    }
+
+    private void writeJsonString(CharSequence value)
+    {
+        writeByte((byte) '"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                writeByte((byte) '\\');
+                writeByte((byte) c);
+            }
+            else if (c < ' ')
+            {
+                byte [] escape = String.format("\\u%04x", (int) c).getBytes(StandardCharsets.US_ASCII);
+                write(escape, 0, escape.length);
+            }
+            else
+            {
+                i = writeChar(value, i);
+            }
+        }
+        writeByte((byte) '"');
+    }
+
+    /**
+     * Write the UTF-8 encoding of the character at <code>i</code>
+     *
+     * @return The index of the last character written, <code>i + 1</code>
+     * for a surrogate pair
+     */
+    private int writeChar(CharSequence value, int i)
+    {
+        char c = value.charAt(i);
+        if (c < 0x80)
+        {
+            writeByte((byte) c);
+        }
+        else if (c < 0x800)
+        {
+            writeByte((byte) (0xc0 | c >> 6));
+            writeByte((byte) (0x80 | c & 0x3f));
+        }
+        else if (Character.isSurrogate(c))
+        {
+            if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte((byte) (0xf0 | codePoint >> 18));
+                writeByte((byte) (0x80 | codePoint >> 12 & 0x3f));
+                writeByte((byte) (0x80 | codePoint >> 6 & 0x3f));
+                writeByte((byte) (0x80 | codePoint & 0x3f));
+            }
+            else
+            {
+                writeByte((byte) '?');
+            }
+        }
+        else
+        {
+            writeByte((byte) (0xe0 | c >> 12));
+            writeByte((byte) (0x80 | c >> 6 & 0x3f));
+            writeByte((byte) (0x80 | c & 0x3f));
+        }
+        return i;
+    }
+}
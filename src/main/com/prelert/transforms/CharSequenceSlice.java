@@ -0,0 +1,91 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+/**
+ * A reusable view of the characters <code>[start, end)</code> of another
+ * {@linkplain CharSequence}, so transforms can output part of a field,
+ * or the record's line buffer, without copying it. The characters are
+ * only copied by {@linkplain #toString()}, e.g. when the value is sent.
+ * <br>
+ * A slice is only valid while its source is unchanged, for a
+ * transform's output until the next record.
+ */
+public final class CharSequenceSlice implements CharSequence
+{
+    private CharSequence m_Source;
+    private int m_Start;
+    private int m_End;
+
+    public CharSequenceSlice()
+    {
+        m_Source = "";
+    }
+
+    /**
+     * View <code>[start, end)</code> of <code>source</code>
+     *
+     * @return this
+     */
+    public CharSequenceSlice set(CharSequence source, int start, int end)
+    {
+        if (start < 0 || end < start || end > source.length())
+        {
+            throw new IndexOutOfBoundsException("Slice [" + start + ", " + end
+                    + ") of a sequence of length " + source.length());
+        }
+        m_Source = source;
+        m_Start = start;
+        m_End = end;
+        return this;
+    }
+
+    @Override
+    public int length()
+    {
+        return m_End - m_Start;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        if (index < 0 || index >= m_End - m_Start)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " of a slice of length "
+                    + length());
+        }
+        return m_Source.charAt(m_Start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end < start || end > length())
+        {
+            throw new IndexOutOfBoundsException("Sub sequence [" + start + ", " + end
+                    + ") of a slice of length " + length());
+        }
+        return new CharSequenceSlice().set(m_Source, m_Start + start, m_Start + end);
+    }
+
+    @Override
+    public String toString()
+    {
+        return m_Source.subSequence(m_Start, m_End).toString();
+    }
+}
@@ -0,0 +1,64 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.List;
+
+/**
+ * Concatenates the inputs, separated by the optional delimiter,
+ * into one output
+ */
+public final class Concat extends Transform
+{
+    private final String m_Delimiter;
+    private final StringBuilder m_Builder = new StringBuilder();
+
+    public Concat(List<TransformIndex> readIndexes, List<TransformIndex> writeIndexes)
+    {
+        this("", readIndexes, writeIndexes);
+    }
+
+    public Concat(String delimiter, List<TransformIndex> readIndexes,
+            List<TransformIndex> writeIndexes)
+    {
+        super(readIndexes, writeIndexes);
+        m_Delimiter = delimiter;
+    }
+
+    @Override
+    public TransformResult transform(CharSequence [][] readWriteArea)
+    {
+        m_Builder.setLength(0);
+        for (int i = 0; i < inputCount(); i++)
+        {
+            CharSequence input = read(readWriteArea, i);
+            if (input == null)
+            {
+                return TransformResult.FAIL;
+            }
+            if (i > 0)
+            {
+                m_Builder.append(m_Delimiter);
+            }
+            m_Builder.append(input);
+        }
+
+        write(readWriteArea, 0, m_Builder);
+        return TransformResult.OK;
+    }
+}
@@ -0,0 +1,94 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.List;
+
+/**
+ * Splits a domain name into the sub domain and the highest registered
+ * domain, the public suffix and the label before it, e.g.
+ * <code>www.bbc.co.uk</code> into <code>www</code> and
+ * <code>bbc.co.uk</code>. The suffixes are looked up in the shared
+ * {@linkplain PublicSuffixTrie}. A name that is a suffix, or an IP
+ * address, is all highest registered domain. Surrounding white space
+ * and trailing dots are ignored.
+ * <br>
+ * The first output is the sub domain and the second, if there is one,
+ * the highest registered domain.
+ */
+public final class DomainSplit extends Transform
+{
+    private final PublicSuffixTrie m_Trie;
+
+    public DomainSplit(List<TransformIndex> readIndexes, List<TransformIndex> writeIndexes)
+    {
+        this(PublicSuffixTrie.getDefault(), readIndexes, writeIndexes);
+    }
+
+    public DomainSplit(PublicSuffixTrie trie, List<TransformIndex> readIndexes,
+            List<TransformIndex> writeIndexes)
+    {
+        super(readIndexes, writeIndexes);
+        m_Trie = trie;
+    }
+
+    @Override
+    public TransformResult transform(CharSequence [][] readWriteArea)
+    {
+        CharSequence input = read(readWriteArea, 0);
+        if (input == null)
+        {
+            return TransformResult.FAIL;
+        }
+
+        int start = 0;
+        int end = input.length();
+        while (start < end && input.charAt(start) <= ' ')
+        {
+            start++;
+        }
+        while (end > start && (input.charAt(end - 1) <= ' ' || input.charAt(end - 1) == '.'))
+        {
+            end--;
+        }
+
+        int hrdStart = isIpAddress(input, start, end) ? start
+                : m_Trie.highestRegisteredDomainStart(input, start, end);
+        write(readWriteArea, 0, hrdStart == start ? "" : input.subSequence(start, hrdStart - 1));
+        if (outputCount() > 1)
+        {
+            write(readWriteArea, 1, input.subSequence(hrdStart, end));
+        }
+        return TransformResult.OK;
+    }
+
+    private static boolean isIpAddress(CharSequence host, int start, int end)
+    {
+        boolean digits = end > start;
+        for (int i = start; i < end; i++)
+        {
+            char c = host.charAt(i);
+            if (c == ':')
+            {
+                return true;
+            }
+            digits &= c == '.' || (c >= '0' && c <= '9');
+        }
+        return digits;
+    }
+}
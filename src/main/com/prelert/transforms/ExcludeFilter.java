@@ -0,0 +1,60 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.prelert.job.transform.condition.CompiledCondition;
+import com.prelert.job.transform.condition.Condition;
+
+/**
+ * Excludes the record if the condition holds for any input: the input
+ * is a number for which the condition's numeric comparison is true or,
+ * for {@linkplain com.prelert.job.transform.condition.Operator#MATCH},
+ * the input matches the condition's regex. The condition is compiled
+ * once.
+ */
+public final class ExcludeFilter extends Transform
+{
+    private final CompiledCondition m_Condition;
+
+    /**
+     * @throws IllegalArgumentException If the condition's value is not a
+     * number or, for a match, not a valid regex
+     */
+    public ExcludeFilter(Condition condition, List<TransformIndex> readIndexes)
+    {
+        super(readIndexes, Collections.<TransformIndex>emptyList());
+        m_Condition = new CompiledCondition(condition);
+    }
+
+    @Override
+    public TransformResult transform(CharSequence [][] readWriteArea)
+    {
+        for (int i = 0; i < inputCount(); i++)
+        {
+            CharSequence input = read(readWriteArea, i);
+            if (input != null && m_Condition.test(input))
+            {
+                return TransformResult.EXCLUDE;
+            }
+        }
+        return TransformResult.OK;
+    }
+}
@@ -0,0 +1,356 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.thirdparty.publicsuffix.PublicSuffixPatterns;
+
+/**
+ * The public suffix list as an immutable trie of reversed domain labels,
+ * <code>uk</code> then <code>co</code> for <code>co.uk</code>, in a
+ * direct {@linkplain ByteBuffer} built once. Lookups walk the labels of
+ * a name from the right comparing its characters with the label bytes,
+ * case insensitively, so create no objects. The buffer is only
+ * read with absolute gets so one trie is shared by all threads without
+ * locking.
+ * <br>
+ * A node is a flags byte and a child count int followed by a child entry
+ * for each child sorted by label: the offset of the label's UTF-8 bytes,
+ * their length as a byte and the offset of the child node. The labels
+ * follow the nodes.
+ */
+public final class PublicSuffixTrie
+{
+    private static final int EXACT = 1;
+    private static final int WILDCARD = 2;
+    private static final int EXCLUDED = 4;
+
+    private static final int NODE_HEADER = 5;
+    private static final int ENTRY_SIZE = 9;
+
+    private static final class Holder
+    {
+        private static final PublicSuffixTrie DEFAULT = new PublicSuffixTrie(
+                PublicSuffixPatterns.EXACT.keySet(), PublicSuffixPatterns.UNDER.keySet(),
+                PublicSuffixPatterns.EXCLUDED.keySet());
+    }
+
+    private final ByteBuffer m_Trie;
+
+    /**
+     * @param exact The suffixes, e.g. <code>co.uk</code>
+     * @param wildcard The domains every child of which is a suffix,
+     * <code>kobe.jp</code> for the rule <code>*.kobe.jp</code>
+     * @param excluded The exceptions to the wildcards, e.g.
+     * <code>city.kobe.jp</code>
+     */
+    PublicSuffixTrie(Collection<String> exact, Collection<String> wildcard,
+            Collection<String> excluded)
+    {
+        Node root = new Node();
+        add(root, exact, EXACT);
+        add(root, wildcard, WILDCARD);
+        add(root, excluded, EXCLUDED);
+
+        List<Node> nodes = new ArrayList<>();
+        int nodesSize = root.layout(0, nodes);
+        int labelsSize = 0;
+        for (Node node : nodes)
+        {
+            for (byte [] label : node.m_Children.keySet())
+            {
+                labelsSize += label.length;
+            }
+        }
+
+        ByteBuffer trie = ByteBuffer.allocateDirect(nodesSize + labelsSize);
+        int labelOffset = nodesSize;
+        for (Node node : nodes)
+        {
+            int position = node.m_Offset;
+            trie.put(position, (byte) node.m_Flags);
+            trie.putInt(position + 1, node.m_Children.size());
+            position += NODE_HEADER;
+            for (Map.Entry<byte [], Node> child : node.m_Children.entrySet())
+            {
+                byte [] label = child.getKey();
+                for (int i = 0; i < label.length; i++)
+                {
+                    trie.put(labelOffset + i, label[i]);
+                }
+                trie.putInt(position, labelOffset);
+                trie.put(position + 4, (byte) label.length);
+                trie.putInt(position + 5, child.getValue().m_Offset);
+                labelOffset += label.length;
+                position += ENTRY_SIZE;
+            }
+        }
+        m_Trie = trie.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The trie of the public suffix list bundled with guava
+     */
+    public static PublicSuffixTrie getDefault()
+    {
+        return Holder.DEFAULT;
+    }
+
+    /**
+     * @return The size of the trie in bytes
+     */
+    public int size()
+    {
+        return m_Trie.capacity();
+    }
+
+    private static void add(Node root, Collection<String> domains, int flag)
+    {
+        for (String domain : domains)
+        {
+            String [] labels = domain.toLowerCase(Locale.ROOT).split("\\.");
+            Node node = root;
+            for (int i = labels.length - 1; i >= 0; i--)
+            {
+                byte [] label = labels[i].getBytes(StandardCharsets.UTF_8);
+                if (label.length > 255)
+                {
+                    throw new IllegalArgumentException("The label '" + labels[i]
+                            + "' is too long");
+                }
+                node = node.m_Children.computeIfAbsent(label, key -> new Node());
+            }
+            node.m_Flags |= flag;
+        }
+    }
+
+    /**
+     * Find the public suffix of the name in <code>[start, end)</code>
+     * of <code>name</code>, which must not have a trailing dot. The
+     * longest matching rule wins, an exception rule makes the suffix
+     * the rule without its first label, and a top level domain not in
+     * the list is a suffix.
+     *
+     * @return The index in <code>name</code> of the first character of
+     * the public suffix, which is <code>start</code> if the whole name
+     * is a suffix
+     */
+    public int publicSuffixStart(CharSequence name, int start, int end)
+    {
+        int labelEnd = end;
+        int labelStart = lastDot(name, start, labelEnd) + 1;
+        int suffixStart = labelStart;
+        int node = 0;
+        while (true)
+        {
+            int flags = m_Trie.get(node);
+            int child = findChild(node, name, labelStart, labelEnd);
+            if (child >= 0)
+            {
+                int childFlags = m_Trie.get(child);
+                if ((childFlags & EXCLUDED) != 0)
+                {
+                    return labelEnd + 1;
+                }
+                if ((childFlags & EXACT) != 0)
+                {
+                    suffixStart = labelStart;
+                }
+            }
+            if ((flags & WILDCARD) != 0)
+            {
+                suffixStart = labelStart;
+            }
+
+            if (child < 0 || labelStart == start)
+            {
+                return suffixStart;
+            }
+            node = child;
+            labelEnd = labelStart - 1;
+            labelStart = lastDot(name, start, labelEnd) + 1;
+        }
+    }
+
+    /**
+     * Find the highest registered domain, the public suffix and the label
+     * before it, of the name in <code>[start, end)</code>
+     *
+     * @return The index of its first character, <code>start</code> if
+     * the whole name is a suffix or a registered domain
+     */
+    public int highestRegisteredDomainStart(CharSequence name, int start, int end)
+    {
+        int suffixStart = publicSuffixStart(name, start, end);
+        if (suffixStart <= start + 1)
+        {
+            return start;
+        }
+        return lastDot(name, start, suffixStart - 1) + 1;
+    }
+
+    private static int lastDot(CharSequence name, int start, int end)
+    {
+        for (int i = end - 1; i >= start; i--)
+        {
+            if (name.charAt(i) == '.')
+            {
+                return i;
+            }
+        }
+        return start - 1;
+    }
+
+    /**
+     * Binary search the children of <code>node</code> for a label
+     *
+     * @return The child's offset or -1
+     */
+    private int findChild(int node, CharSequence name, int start, int end)
+    {
+        int low = 0;
+        int high = m_Trie.getInt(node + 1) - 1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int entry = node + NODE_HEADER + middle * ENTRY_SIZE;
+            int compare = compare(name, start, end, m_Trie.getInt(entry),
+                    m_Trie.get(entry + 4) & 0xff);
+            if (compare == 0)
+            {
+                return m_Trie.getInt(entry + 5);
+            }
+            if (compare < 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the UTF-8 encoding of the characters, lower cased, to
+     * the label's bytes as unsigned values
+     */
+    private int compare(CharSequence name, int start, int end, int label, int labelLength)
+    {
+        int position = label;
+        int labelEnd = label + labelLength;
+        for (int i = start; i < end; i++)
+        {
+            int c = name.charAt(i);
+            if (c >= 0x80)
+            {
+                c = Character.toLowerCase((char) c);
+            }
+            int encoded;
+            int count;
+            if (c < 0x80)
+            {
+                encoded = c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+                count = 1;
+            }
+            else if (c < 0x800)
+            {
+                encoded = (0xc0 | c >> 6) << 8 | (0x80 | c & 0x3f);
+                count = 2;
+            }
+            else if (Character.isHighSurrogate((char) c) && i + 1 < end
+                    && Character.isLowSurrogate(name.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint((char) c, name.charAt(++i));
+                encoded = (0xf0 | codePoint >> 18) << 24 | (0x80 | codePoint >> 12 & 0x3f) << 16
+                        | (0x80 | codePoint >> 6 & 0x3f) << 8 | (0x80 | codePoint & 0x3f);
+                count = 4;
+            }
+            else
+            {
+                encoded = (0xe0 | c >> 12) << 16 | (0x80 | c >> 6 & 0x3f) << 8 | (0x80 | c & 0x3f);
+                count = 3;
+            }
+
+            for (int shift = (count - 1) * 8; shift >= 0; shift -= 8)
+            {
+                if (position == labelEnd)
+                {
+                    return 1;
+                }
+                int difference = (encoded >>> shift & 0xff) - (m_Trie.get(position++) & 0xff);
+                if (difference != 0)
+                {
+                    return difference;
+                }
+            }
+        }
+        return position == labelEnd ? 0 : -1;
+    }
+
+    /**
+     * A trie node while it is built, children sorted by their
+     * labels' unsigned bytes
+     */
+    private static final class Node
+    {
+        private final TreeMap<byte [], Node> m_Children = new TreeMap<>(Node::compareBytes);
+        private int m_Flags;
+        private int m_Offset;
+
+        /**
+         * Assign this node and its descendants their offsets depth first
+         *
+         * @return The offset after the last node
+         */
+        int layout(int offset, List<Node> nodes)
+        {
+            m_Offset = offset;
+            nodes.add(this);
+            offset += NODE_HEADER + m_Children.size() * ENTRY_SIZE;
+            for (Node child : m_Children.values())
+            {
+                offset = child.layout(offset, nodes);
+            }
+            return offset;
+        }
+
+        private static int compareBytes(byte [] a, byte [] b)
+        {
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; i++)
+            {
+                int difference = (a[i] & 0xff) - (b[i] & 0xff);
+                if (difference != 0)
+                {
+                    return difference;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+}
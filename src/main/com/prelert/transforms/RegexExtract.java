@@ -0,0 +1,89 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the capture groups of the first match of a regex in the input
+ * to the outputs, group 1 to the first output and so on. The transform
+ * fails if the regex does not match.
+ * <br>
+ * No objects are created per record: the transform's matcher is reset to
+ * the input, the group boundaries are copied to a reused offsets array
+ * and the outputs are reused {@linkplain CharSequenceSlice}s of the input.
+ * <br>
+ * Not thread safe.
+ */
+public final class RegexExtract extends Transform
+{
+    private final Matcher m_Matcher;
+    private final int [] m_Offsets;
+    private final CharSequenceSlice [] m_Slices;
+
+    public RegexExtract(String regex, List<TransformIndex> readIndexes,
+            List<TransformIndex> writeIndexes)
+    {
+        super(readIndexes, writeIndexes);
+        Pattern pattern = Pattern.compile(regex);
+        m_Matcher = pattern.matcher("");
+        int groups = Math.min(m_Matcher.groupCount(), writeIndexes.size());
+        m_Offsets = new int[groups * 2];
+        m_Slices = new CharSequenceSlice[groups];
+        for (int i = 0; i < groups; i++)
+        {
+            m_Slices[i] = new CharSequenceSlice();
+        }
+    }
+
+    @Override
+    public TransformResult transform(CharSequence [][] readWriteArea)
+    {
+        CharSequence input = read(readWriteArea, 0);
+        if (input == null)
+        {
+            return TransformResult.FAIL;
+        }
+
+        Matcher matcher = m_Matcher.reset(input);
+        boolean found = matcher.find();
+        if (found)
+        {
+            for (int i = 0; i < m_Slices.length; i++)
+            {
+                m_Offsets[2 * i] = matcher.start(i + 1);
+                m_Offsets[2 * i + 1] = matcher.end(i + 1);
+            }
+        }
+        matcher.reset("");
+        if (found == false)
+        {
+            return TransformResult.FAIL;
+        }
+
+        for (int i = 0; i < m_Slices.length; i++)
+        {
+            int start = m_Offsets[2 * i];
+            write(readWriteArea, i, start < 0 ? null
+                    : m_Slices[i].set(input, start, m_Offsets[2 * i + 1]));
+        }
+        return TransformResult.OK;
+    }
+}
@@ -0,0 +1,131 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the input around the matches of a regex, as
+ * {@linkplain Pattern#split(CharSequence)} does, writing the parts to
+ * the outputs in order. Parts beyond the last output are dropped and
+ * outputs beyond the last part are not written.
+ * <br>
+ * No objects are created per record: the transform's matcher is reset to
+ * the input, the part boundaries are copied to a reused offsets array
+ * and the outputs are reused {@linkplain CharSequenceSlice}s of the input.
+ * <br>
+ * Not thread safe.
+ */
+public final class RegexSplit extends Transform
+{
+    private final Matcher m_Matcher;
+    private final CharSequenceSlice [] m_Slices;
+    private int [] m_Offsets = new int[16];
+
+    public RegexSplit(String regex, List<TransformIndex> readIndexes,
+            List<TransformIndex> writeIndexes)
+    {
+        super(readIndexes, writeIndexes);
+        Pattern pattern = Pattern.compile(regex);
+        m_Matcher = pattern.matcher("");
+        m_Slices = new CharSequenceSlice[writeIndexes.size()];
+        for (int i = 0; i < m_Slices.length; i++)
+        {
+            m_Slices[i] = new CharSequenceSlice();
+        }
+    }
+
+    @Override
+    public TransformResult transform(CharSequence [][] readWriteArea)
+    {
+        CharSequence input = read(readWriteArea, 0);
+        if (input == null)
+        {
+            return TransformResult.FAIL;
+        }
+
+        int parts = split(input);
+        int count = Math.min(parts, outputCount());
+        for (int i = 0; i < count; i++)
+        {
+            write(readWriteArea, i, m_Slices[i].set(input, m_Offsets[2 * i],
+                    m_Offsets[2 * i + 1]));
+        }
+        return TransformResult.OK;
+    }
+
+    /**
+     * Find the parts' boundaries keeping only as many as there are
+     * outputs, the rest are dropped
+     *
+     * @return The number of parts written to the offsets
+     */
+    private int split(CharSequence input)
+    {
+        Matcher matcher = m_Matcher.reset(input);
+        int parts = 0;
+        int lastNonEmpty = -1;
+        int index = 0;
+        boolean matched = false;
+        while (matcher.find())
+        {
+            if (index == 0 && matcher.start() == 0 && matcher.end() == 0)
+            {
+                // A zero width match at the start does not make an empty first part
+                continue;
+            }
+            matched = true;
+            lastNonEmpty = addPart(parts, index, matcher.start()) ? parts : lastNonEmpty;
+            parts++;
+            index = matcher.end();
+        }
+        matcher.reset("");
+
+        if (matched == false)
+        {
+            addPart(0, 0, input.length());
+            return 1;
+        }
+        lastNonEmpty = addPart(parts, index, input.length()) ? parts : lastNonEmpty;
+
+        // Trailing empty parts are removed as they are by Pattern.split
+        return Math.min(lastNonEmpty + 1, outputCount());
+    }
+
+    /**
+     * Record the part's boundaries if it has an output
+     *
+     * @return True if the part is not empty
+     */
+    private boolean addPart(int part, int start, int end)
+    {
+        if (part < outputCount())
+        {
+            if (2 * part + 2 > m_Offsets.length)
+            {
+                m_Offsets = Arrays.copyOf(m_Offsets, m_Offsets.length * 2);
+            }
+            m_Offsets[2 * part] = start;
+            m_Offsets[2 * part + 1] = end;
+        }
+        return end > start;
+    }
+}
@@ -0,0 +1,95 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The lowercase, uppercase and trim transforms of one input to one output
+ */
+public abstract class StringTransform extends Transform
+{
+    protected StringTransform(List<TransformIndex> readIndexes, List<TransformIndex> writeIndexes)
+    {
+        super(readIndexes, writeIndexes);
+    }
+
+    public static StringTransform lowercase(List<TransformIndex> readIndexes,
+            List<TransformIndex> writeIndexes)
+    {
+        return new StringTransform(readIndexes, writeIndexes)
+        {
+            @Override
+            protected CharSequence apply(CharSequence input)
+            {
+                return input.toString().toLowerCase(Locale.ROOT);
+            }
+        };
+    }
+
+    public static StringTransform uppercase(List<TransformIndex> readIndexes,
+            List<TransformIndex> writeIndexes)
+    {
+        return new StringTransform(readIndexes, writeIndexes)
+        {
+            @Override
+            protected CharSequence apply(CharSequence input)
+            {
+                return input.toString().toUpperCase(Locale.ROOT);
+            }
+        };
+    }
+
+    public static StringTransform trim(List<TransformIndex> readIndexes,
+            List<TransformIndex> writeIndexes)
+    {
+        return new StringTransform(readIndexes, writeIndexes)
+        {
+            @Override
+            protected CharSequence apply(CharSequence input)
+            {
+                int start = 0;
+                int end = input.length();
+                while (start < end && input.charAt(start) <= ' ')
+                {
+                    start++;
+                }
+                while (end > start && input.charAt(end - 1) <= ' ')
+                {
+                    end--;
+                }
+                return start == 0 && end == input.length() ? input : input.subSequence(start, end);
+            }
+        };
+    }
+
+    protected abstract CharSequence apply(CharSequence input);
+
+    @Override
+    public TransformResult transform(CharSequence [][] readWriteArea)
+    {
+        CharSequence input = read(readWriteArea, 0);
+        if (input == null)
+        {
+            return TransformResult.FAIL;
+        }
+        write(readWriteArea, 0, apply(input));
+        return TransformResult.OK;
+    }
+}
@@ -0,0 +1,95 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.List;
+
+/**
+ * A transform reads its inputs from, and writes its outputs to, a
+ * read/write area of field arrays that is reused for every record.
+ * Values written are only valid until the next record is transformed
+ * so may be buffers the transform reuses.
+ * <br>
+ * Transforms are not thread safe, each pipeline has its own.
+ */
+public abstract class Transform
+{
+    public enum TransformResult
+    {
+        /**
+         * The outputs were written
+         */
+        OK,
+
+        /**
+         * The transform could not be applied, e.g. an input is
+         * missing, and its outputs are not written
+         */
+        FAIL,
+
+        /**
+         * The record should not be sent
+         */
+        EXCLUDE
+    }
+
+    private final TransformIndex [] m_ReadIndexes;
+    private final TransformIndex [] m_WriteIndexes;
+
+    /**
+     * @param readIndexes The location of each input
+     * @param writeIndexes The location of each output
+     */
+    protected Transform(List<TransformIndex> readIndexes, List<TransformIndex> writeIndexes)
+    {
+        m_ReadIndexes = readIndexes.toArray(new TransformIndex[readIndexes.size()]);
+        m_WriteIndexes = writeIndexes.toArray(new TransformIndex[writeIndexes.size()]);
+    }
+
+    /**
+     * Transform the current record
+     *
+     * @param readWriteArea The field arrays
+     */
+    public abstract TransformResult transform(CharSequence [][] readWriteArea);
+
+    protected int inputCount()
+    {
+        return m_ReadIndexes.length;
+    }
+
+    protected int outputCount()
+    {
+        return m_WriteIndexes.length;
+    }
+
+    /**
+     * @return Input <code>i</code>, <code>null</code> if it is missing
+     */
+    protected CharSequence read(CharSequence [][] readWriteArea, int i)
+    {
+        TransformIndex index = m_ReadIndexes[i];
+        return readWriteArea[index.getArray()][index.getIndex()];
+    }
+
+    protected void write(CharSequence [][] readWriteArea, int i, CharSequence value)
+    {
+        TransformIndex index = m_WriteIndexes[i];
+        readWriteArea[index.getArray()][index.getIndex()] = value;
+    }
+}
@@ -0,0 +1,96 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.prelert.job.transform.TransformConfig;
+import com.prelert.job.transform.TransformType;
+import com.prelert.job.transform.condition.Condition;
+import com.prelert.job.transform.condition.Operator;
+
+/**
+ * Creates the {@linkplain Transform} for a {@linkplain TransformConfig}
+ */
+public final class TransformFactory
+{
+    private TransformFactory()
+    {
+    }
+
+    /**
+     * @param config The transform's configuration
+     * @param readIndexes The location of each of the config's inputs
+     * @param writeIndexes The location of each of the config's outputs
+     * @throws IllegalArgumentException If the configuration is not valid
+     */
+    public static Transform create(TransformConfig config, List<TransformIndex> readIndexes,
+            List<TransformIndex> writeIndexes)
+    {
+        TransformType type = config.type();
+        List<String> arguments = config.getArguments() == null ?
+                Collections.<String>emptyList() : config.getArguments();
+        checkCount(type, "inputs", type.arityRange().contains(readIndexes.size()));
+        checkCount(type, "arguments", type.argumentsRange().contains(arguments.size()));
+        checkCount(type, "outputs", type.outputsRange().contains(writeIndexes.size()));
+
+        switch (type)
+        {
+            case DOMAIN_SPLIT:
+                return new DomainSplit(readIndexes, writeIndexes);
+            case CONCAT:
+                return arguments.isEmpty() ? new Concat(readIndexes, writeIndexes)
+                        : new Concat(arguments.get(0), readIndexes, writeIndexes);
+            case REGEX_EXTRACT:
+                return new RegexExtract(arguments.get(0), readIndexes, writeIndexes);
+            case REGEX_SPLIT:
+                return new RegexSplit(arguments.get(0), readIndexes, writeIndexes);
+            case EXCLUDE:
+                return createExclude(config.getCondition(), readIndexes);
+            case LOWERCASE:
+                return StringTransform.lowercase(readIndexes, writeIndexes);
+            case UPPERCASE:
+                return StringTransform.uppercase(readIndexes, writeIndexes);
+            case TRIM:
+                return StringTransform.trim(readIndexes, writeIndexes);
+            default:
+                throw new IllegalArgumentException("Unknown transform type " + type);
+        }
+    }
+
+    private static Transform createExclude(Condition condition, List<TransformIndex> readIndexes)
+    {
+        if (condition == null || condition.getOperator() == null
+                || condition.getOperator() == Operator.NONE)
+        {
+            throw new IllegalArgumentException("The " + TransformType.EXCLUDE
+                    + " transform requires a condition");
+        }
+        return new ExcludeFilter(condition, readIndexes);
+    }
+
+    private static void checkCount(TransformType type, String what, boolean valid)
+    {
+        if (valid == false)
+        {
+            throw new IllegalArgumentException("The " + type + " transform has the wrong "
+                    + "number of " + what);
+        }
+    }
+}
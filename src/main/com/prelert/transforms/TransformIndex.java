@@ -0,0 +1,50 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+/**
+ * The location of a field in the read/write area of a
+ * {@linkplain TransformPipeline}: the array and the index in it.
+ */
+public final class TransformIndex
+{
+    private final int m_Array;
+    private final int m_Index;
+
+    public TransformIndex(int array, int index)
+    {
+        m_Array = array;
+        m_Index = index;
+    }
+
+    public int getArray()
+    {
+        return m_Array;
+    }
+
+    public int getIndex()
+    {
+        return m_Index;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + m_Array + "][" + m_Index + "]";
+    }
+}
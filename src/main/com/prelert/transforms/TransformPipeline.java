@@ -0,0 +1,201 @@
+/****************************************************************************
+ *                                                                          *
+ * Copyright 2015 Prelert Ltd                                               *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ *                                                                          *
+ ***************************************************************************/
+package com.prelert.transforms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.prelert.job.transform.TransformConfig;
+import com.prelert.job.transform.TransformPlan;
+import com.prelert.transforms.Transform.TransformResult;
+
+/**
+ * A list of {@linkplain TransformConfig}s compiled to run on each record
+ * of an upload before it is sent, so only the outputs need be sent.
+ * <br>
+ * The record's fields are set in the array from {@linkplain #getInputs()}
+ * in the order of the input field names, then {@linkplain #process()}
+ * runs the transforms, producers before consumers, and
+ * {@linkplain #getOutput(int)} gives each output field. The read/write
+ * area of field arrays is allocated once: array 0 holds the inputs and
+ * array 1 the value of each transform output. A field written by a
+ * transform is read from array 1 even if the record also has it.
+ * <br>
+ * Not thread safe, use a pipeline per thread.
+ */
+public final class TransformPipeline
+{
+    static final int INPUT_ARRAY = 0;
+    static final int TRANSFORMED_ARRAY = 1;
+
+    private final Transform [] m_Transforms;
+    private final CharSequence [][] m_ReadWriteArea;
+    private final TransformIndex [] m_OutputIndexes;
+    private long m_FailedTransformCount;
+
+    /**
+     * @param transforms The transforms in any order
+     * @param inputFields The names of the fields of a record
+     * @param outputFields The names of the fields to output, inputs
+     * or transform outputs
+     * @throws IllegalArgumentException If a transform is not valid, the
+     * transforms depend on each other in a circle or a field is neither
+     * an input nor written by a transform
+     */
+    public TransformPipeline(List<TransformConfig> transforms, List<String> inputFields,
+            List<String> outputFields)
+    {
+        Map<String, TransformIndex> fields = new HashMap<>();
+        for (int i = 0; i < inputFields.size(); i++)
+        {
+            fields.put(inputFields.get(i), new TransformIndex(INPUT_ARRAY, i));
+        }
+
+        List<TransformConfig> ordered = order(transforms);
+        Map<String, TransformIndex> written = new HashMap<>();
+        for (TransformConfig config : ordered)
+        {
+            for (String output : config.getOutputs())
+            {
+                if (written.put(output, new TransformIndex(TRANSFORMED_ARRAY, written.size())) != null)
+                {
+                    throw new IllegalArgumentException("The field '" + output
+                            + "' is written by more than one transform");
+                }
+            }
+        }
+        fields.putAll(written);
+
+        m_Transforms = new Transform[ordered.size()];
+        for (int i = 0; i < ordered.size(); i++)
+        {
+            TransformConfig config = ordered.get(i);
+            List<TransformIndex> readIndexes = new ArrayList<>();
+            for (String input : config.getInputs())
+            {
+                readIndexes.add(find(fields, input));
+            }
+            List<TransformIndex> writeIndexes = new ArrayList<>();
+            for (String output : config.getOutputs())
+            {
+                writeIndexes.add(written.get(output));
+            }
+            m_Transforms[i] = TransformFactory.create(config, readIndexes, writeIndexes);
+        }
+
+        m_OutputIndexes = new TransformIndex[outputFields.size()];
+        for (int i = 0; i < outputFields.size(); i++)
+        {
+            m_OutputIndexes[i] = find(fields, outputFields.get(i));
+        }
+
+        m_ReadWriteArea = new CharSequence[][] {
+                new CharSequence[inputFields.size()], new CharSequence[written.size()] };
+    }
+
+    private static TransformIndex find(Map<String, TransformIndex> fields, String field)
+    {
+        TransformIndex index = fields.get(field);
+        if (index == null)
+        {
+            throw new IllegalArgumentException("The field '" + field
+                    + "' is not an input field or the output of a transform");
+        }
+        return index;
+    }
+
+    /**
+     * Order the transforms so each comes after the transforms
+     * that write its inputs
+     */
+    private static List<TransformConfig> order(List<TransformConfig> transforms)
+    {
+        TransformPlan plan = TransformPlan.plan(transforms);
+        if (plan.hasCycle())
+        {
+            throw new IllegalArgumentException("The transforms have a circular dependency: "
+                    + plan.describeCycle());
+        }
+        return plan.orderedTransforms();
+    }
+
+    /**
+     * @return The array to set the fields of the next record in, a
+     * missing field is <code>null</code>
+     */
+    public CharSequence [] getInputs()
+    {
+        return m_ReadWriteArea[INPUT_ARRAY];
+    }
+
+    /**
+     * Run the transforms on the record in {@linkplain #getInputs()}.
+     * A transform that fails leaves its outputs <code>null</code>
+     * and the rest still run.
+     *
+     * @return {@linkplain TransformResult#EXCLUDE} if the record should
+     * not be sent, {@linkplain TransformResult#FAIL} if any transform
+     * failed else {@linkplain TransformResult#OK}
+     */
+    public TransformResult process()
+    {
+        Arrays.fill(m_ReadWriteArea[TRANSFORMED_ARRAY], null);
+        TransformResult result = TransformResult.OK;
+        for (Transform transform : m_Transforms)
+        {
+            TransformResult transformResult = transform.transform(m_ReadWriteArea);
+            if (transformResult == TransformResult.EXCLUDE)
+            {
+                return TransformResult.EXCLUDE;
+            }
+            if (transformResult == TransformResult.FAIL)
+            {
+                m_FailedTransformCount++;
+                result = TransformResult.FAIL;
+            }
+        }
+        return result;
+    }
+
+    public int getOutputCount()
+    {
+        return m_OutputIndexes.length;
+    }
+
+    /**
+     * @return The value of output field <code>i</code> for the last
+     * record processed, <code>null</code> if it is missing. It is only
+     * valid until the next record is processed.
+     */
+    public CharSequence getOutput(int i)
+    {
+        TransformIndex index = m_OutputIndexes[i];
+        return m_ReadWriteArea[index.getArray()][index.getIndex()];
+    }
+
+    /**
+     * @return The number of times a transform has failed
+     */
+    public long getFailedTransformCount()
+    {
+        return m_FailedTransformCount;
+    }
+}